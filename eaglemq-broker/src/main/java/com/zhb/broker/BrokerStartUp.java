@@ -3,17 +3,30 @@ package com.zhb.broker;
 import com.zhb.broker.cache.CommonCache;
 import com.zhb.broker.config.ConsumeQueueOffsetLoader;
 import com.zhb.broker.config.EagleMqTopicLoader;
+import com.zhb.broker.config.GlobalProperties;
 import com.zhb.broker.config.GlobalPropertiesLoader;
+import com.zhb.broker.core.AllocateMappedFileService;
 import com.zhb.broker.core.CommitLogAppendHandler;
 import com.zhb.broker.core.ConsumeQueueAppendHandler;
+import com.zhb.broker.core.ConsumePushService;
 import com.zhb.broker.core.ConsumeQueueConsumeHandler;
+import com.zhb.broker.core.PullRequestHoldService;
+import com.zhb.broker.core.StoreRecoverHandler;
+import com.zhb.broker.core.TransientStorePool;
+import com.zhb.broker.event.spi.listener.ConsumeMsgListener;
 import com.zhb.broker.model.EagleMqTopicModel;
 import com.zhb.broker.netty.broker.BrokerServer;
 import com.zhb.broker.slave.SlaveSyncService;
+import com.zhb.broker.timewheel.DelayMessageStore;
 import com.zhb.broker.timewheel.RecoverManager;
+import com.zhb.common.constants.BrokerConstants;
 import com.zhb.common.enums.BrokerClusterModeEnum;
+import com.zhb.common.enums.BrokerEventCode;
+import com.zhb.common.enums.FlushDiskTypeEnum;
 import com.zhb.common.event.EventBus;
+import lombok.extern.slf4j.Slf4j;
 
+import java.io.File;
 import java.io.IOException;
 
 /**
@@ -31,6 +44,7 @@ import java.io.IOException;
  * 6. 启动消息重平衡任务
  * 7. 启动Broker服务器，接收客户端请求
  */
+@Slf4j
 public class BrokerStartUp {
 
 	/**
@@ -63,6 +77,11 @@ public class BrokerStartUp {
 	 */
 	private static ConsumeQueueConsumeHandler consumeQueueConsumeHandler;
 
+	/**
+	 * 存储恢复处理器，负责启动时修正commitLog和consumeQueue的写入位点
+	 */
+	private static StoreRecoverHandler storeRecoverHandler;
+
 	/**
 	 * 从节点同步服务，用于主从模式下的数据同步
 	 */
@@ -89,6 +108,7 @@ public class BrokerStartUp {
 		consumeQueueConsumeHandler = new ConsumeQueueConsumeHandler();
 		commitLogAppendHandler = new CommitLogAppendHandler();
 		consumeQueueAppendHandler = new ConsumeQueueAppendHandler();
+		storeRecoverHandler = new StoreRecoverHandler();
 
 		// 加载各种配置信息
 		globalPropertiesLoader.loadProperties();
@@ -97,6 +117,34 @@ public class BrokerStartUp {
 		consumeQueueOffsetLoader.loadProperties();
 		consumeQueueOffsetLoader.startRefreshConsumeQueueOffsetTask();
 
+		// 根据磁盘上的真实数据修正各个主题的写入位点，防止异常退出后覆盖已有数据
+		long recoverBegin = System.currentTimeMillis();
+		for (EagleMqTopicModel eagleMqTopicModel : CommonCache.getEagleMqTopicModelMap().values()) {
+			storeRecoverHandler.recover(eagleMqTopicModel.getTopic());
+		}
+		log.info("recover store finish, cost:{}ms", System.currentTimeMillis() - recoverBegin);
+
+		// 启动commitLog文件预分配服务，需要在文件映射之前启动
+		AllocateMappedFileService allocateMappedFileService = new AllocateMappedFileService(CommonCache.getGlobalProperties().getWarmMappedFileEnable());
+		allocateMappedFileService.start();
+		CommonCache.setAllocateMappedFileService(allocateMappedFileService);
+		// 开启写缓冲池时预先分配堆外内存
+		if (CommonCache.getGlobalProperties().getTransientStorePoolEnable()) {
+			TransientStorePool transientStorePool = new TransientStorePool(CommonCache.getGlobalProperties().getTransientStorePoolSize(),
+				CommonCache.getGlobalProperties().getTransientStorePoolMemoryMb() * 1024L * 1024L, CommonCache.getGlobalProperties().getCommitLogFileSize());
+			transientStorePool.init();
+			CommonCache.setTransientStorePool(transientStorePool);
+		}
+
+		// 启动拉取请求挂起服务，需要在分发线程启动之前准备好
+		PullRequestHoldService pullRequestHoldService = new PullRequestHoldService(new ConsumeMsgListener());
+		pullRequestHoldService.start();
+		CommonCache.setPullRequestHoldService(pullRequestHoldService);
+		// 启动推送模式的消费服务，同样需要在分发线程启动之前准备好
+		ConsumePushService consumePushService = new ConsumePushService();
+		consumePushService.start();
+		CommonCache.setConsumePushService(consumePushService);
+
 		// 为每个主题准备存储资源
 		for (EagleMqTopicModel eagleMqTopicModel : CommonCache.getEagleMqTopicModelMap().values()) {
 			String topicName = eagleMqTopicModel.getTopic();
@@ -105,7 +153,9 @@ public class BrokerStartUp {
 		}
 
 		// 初始化时间轮组件
-		CommonCache.getTimeWheelModelManager().init(new EventBus("time-wheel-event-bus"));
+		GlobalProperties globalProperties = CommonCache.getGlobalProperties();
+		CommonCache.getTimeWheelModelManager().init(new EventBus("time-wheel-event-bus"),
+			globalProperties.getTimeWheelTickMills(), globalProperties.getTimeWheelDaySlotCount());
 		CommonCache.getTimeWheelModelManager().doScanTask();
 
 		// 在缓存中设置各种处理器，便于全局访问
@@ -117,9 +167,30 @@ public class BrokerStartUp {
 
 	/**
 	 * 恢复时间轮里的延迟消息数据
-	 * 在Broker重启时，确保之前未处理的延迟消息能够被正确恢复
+	 * 启动延迟消息存储，只把即将到期的桶加载到时间轮，然后迁移旧版本delay_queue中还没有恢复的消息
+	 * 主从模式下从节点的存储只接收主节点的同步，不投递消息；主节点把存储的修改同步给从节点
 	 */
 	private static void recoverTimeWheelData() {
+		GlobalProperties globalProperties = CommonCache.getGlobalProperties();
+		boolean isClusterMode = BrokerClusterModeEnum.MASTER_SLAVE.getCode().equals(globalProperties.getBrokerClusterMode());
+		boolean isMasterNode = "master".equals(globalProperties.getBrokerClusterRole());
+		DelayMessageStore delayMessageStore = new DelayMessageStore(
+			new File(globalProperties.getEagleMqHome() + BrokerConstants.BASE_DELAY_STORE_PATH),
+			BrokerConstants.DELAY_STORE_BUCKET_MILLS, BrokerConstants.DELAY_STORE_PRELOAD_MILLS,
+			FlushDiskTypeEnum.SYNC_FLUSH.getCode().equals(globalProperties.getFlushDiskType()),
+			isClusterMode && !isMasterNode,
+			CommonCache.getTimeWheelModelManager());
+		if (isClusterMode && isMasterNode) {
+			delayMessageStore.setSyncHandler((delayStoreSyncDTO, waitAck) -> CommonCache.getCommitLogAppendHandler()
+				.syncToSlaves(BrokerEventCode.DELAY_STORE_SYNC.getCode(), delayStoreSyncDTO, waitAck));
+		}
+		// 先放入缓存，加载时已经过期的消息会立即投递并记录墓碑
+		CommonCache.setDelayMessageStore(delayMessageStore);
+		delayMessageStore.start();
+		if (isClusterMode && !isMasterNode) {
+			// 旧版本的延迟消息由主节点迁移之后同步过来
+			return;
+		}
 		recoverManager = new RecoverManager();
 		recoverManager.doDelayMessageRecovery();
 	}
@@ -2,7 +2,6 @@ package com.zhb.broker.cache;
 
 import com.zhb.broker.config.GlobalProperties;
 import com.zhb.broker.core.*;
-import com.zhb.broker.model.ConsumeQueueOffsetModel;
 import com.zhb.broker.model.EagleMqTopicModel;
 import com.zhb.broker.model.TxMessageAckModel;
 import com.zhb.broker.netty.nameserver.HeartBeatTaskManager;
@@ -10,6 +9,7 @@ import com.zhb.broker.netty.nameserver.NameServerClient;
 import com.zhb.broker.rebalance.ConsumerInstance;
 import com.zhb.broker.rebalance.ConsumerInstancePool;
 import com.zhb.broker.slave.SlaveSyncService;
+import com.zhb.broker.timewheel.DelayMessageStore;
 import com.zhb.broker.timewheel.TimeWheelModelManager;
 import io.netty.channel.ChannelHandlerContext;
 import lombok.Getter;
@@ -33,7 +33,7 @@ public class CommonCache {
 	@Getter
 	private static List<EagleMqTopicModel> eagleMqTopicModelList = new ArrayList<>();
 	@Getter
-	private static ConsumeQueueOffsetModel consumeQueueOffsetModel = new ConsumeQueueOffsetModel();
+	private static ConsumeOffsetManager consumeOffsetManager = new ConsumeOffsetManager();
 	@Getter
 	private static ConsumeQueueMMapFileModelManager consumeQueueMMapFileModelManager = new ConsumeQueueMMapFileModelManager();
 	@Getter
@@ -58,6 +58,36 @@ public class CommonCache {
 	private static TimeWheelModelManager timeWheelModelManager = new TimeWheelModelManager();
 	@Getter
 	private static Map<String, TxMessageAckModel> txMessageAckModelMap = new ConcurrentHashMap<>();
+	@Getter
+	private static AllocateMappedFileService allocateMappedFileService;
+	@Getter
+	private static TransientStorePool transientStorePool;
+	@Getter
+	private static PullRequestHoldService pullRequestHoldService;
+	@Getter
+	private static ConsumePushService consumePushService;
+	@Getter
+	private static DelayMessageStore delayMessageStore;
+
+	public static void setDelayMessageStore(DelayMessageStore delayMessageStore) {
+		CommonCache.delayMessageStore = delayMessageStore;
+	}
+
+	public static void setConsumePushService(ConsumePushService consumePushService) {
+		CommonCache.consumePushService = consumePushService;
+	}
+
+	public static void setPullRequestHoldService(PullRequestHoldService pullRequestHoldService) {
+		CommonCache.pullRequestHoldService = pullRequestHoldService;
+	}
+
+	public static void setTransientStorePool(TransientStorePool transientStorePool) {
+		CommonCache.transientStorePool = transientStorePool;
+	}
+
+	public static void setAllocateMappedFileService(AllocateMappedFileService allocateMappedFileService) {
+		CommonCache.allocateMappedFileService = allocateMappedFileService;
+	}
 
 	public static void setTxMessageAckModelMap(Map<String, TxMessageAckModel> txMessageAckModelMap) {
 		CommonCache.txMessageAckModelMap = txMessageAckModelMap;
@@ -123,7 +153,7 @@ public class CommonCache {
 		CommonCache.eagleMqTopicModelList = eagleMqTopicModelList;
 	}
 
-	public static void setConsumeQueueOffsetModel(ConsumeQueueOffsetModel consumeQueueOffsetModel) {
-		CommonCache.consumeQueueOffsetModel = consumeQueueOffsetModel;
+	public static void setConsumeOffsetManager(ConsumeOffsetManager consumeOffsetManager) {
+		CommonCache.consumeOffsetManager = consumeOffsetManager;
 	}
 }
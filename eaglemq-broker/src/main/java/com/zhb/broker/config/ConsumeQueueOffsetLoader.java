@@ -1,21 +1,36 @@
 package com.zhb.broker.config;
 
 import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.serializer.SerializerFeature;
 import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.core.ConsumeOffsetManager;
 import com.zhb.broker.model.ConsumeQueueOffsetModel;
 import com.zhb.broker.utils.FileContentUtil;
 import com.zhb.common.constants.BrokerConstants;
 import io.netty.util.internal.StringUtil;
+import lombok.extern.slf4j.Slf4j;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
  * 管理消费者偏移量的持久化
+ * 偏移量保存在带校验和的二进制快照中，先写临时文件并刷盘，再原子重命名覆盖旧文件，进程在写入过程中退出也不会留下损坏的文件
+ * 没有二进制快照时从旧版本的json文件迁移
  */
+@Slf4j
 public class ConsumeQueueOffsetLoader {
 
-	private String filePath;
+	private Path snapshotPath;
+	private Path tmpSnapshotPath;
 
 	/**
 	 * 从磁盘加载消费者偏移量
@@ -26,34 +41,84 @@ public class ConsumeQueueOffsetLoader {
 		if (StringUtil.isNullOrEmpty(basePath)) {
 			throw new IllegalArgumentException("EAGLE_MQ_HOME is invalid!");
 		}
-		filePath = basePath + "/config/consumequeue-offset.json";
-		String fileContent = FileContentUtil.readFromFile(filePath);
-		ConsumeQueueOffsetModel consumeQueueOffsetModels = JSON.parseObject(fileContent, ConsumeQueueOffsetModel.class);
-		CommonCache.setConsumeQueueOffsetModel(consumeQueueOffsetModels);
+		snapshotPath = Paths.get(basePath, "config", "consumequeue-offset.bin");
+		tmpSnapshotPath = Paths.get(basePath, "config", "consumequeue-offset.bin.tmp");
+		ConsumeOffsetManager consumeOffsetManager = new ConsumeOffsetManager();
+		try {
+			if (Files.exists(snapshotPath)) {
+				consumeOffsetManager.load(Files.readAllBytes(snapshotPath));
+			} else {
+				this.migrateFromJson(consumeOffsetManager, basePath + "/config/consumequeue-offset.json");
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		CommonCache.setConsumeOffsetManager(consumeOffsetManager);
 	}
 
+	/**
+	 * 从旧版本的json文件中读取偏移量，格式为topic -> 消费组 -> 队列id -> "文件名#偏移量"
+	 */
+	private void migrateFromJson(ConsumeOffsetManager consumeOffsetManager, String jsonFilePath) {
+		if (!new File(jsonFilePath).exists()) {
+			return;
+		}
+		ConsumeQueueOffsetModel consumeQueueOffsetModel = JSON.parseObject(FileContentUtil.readFromFile(jsonFilePath), ConsumeQueueOffsetModel.class);
+		if (consumeQueueOffsetModel == null || consumeQueueOffsetModel.getOffsetTable() == null) {
+			return;
+		}
+		for (Map.Entry<String, ConsumeQueueOffsetModel.ConsumerGroupDetail> topicEntry : consumeQueueOffsetModel.getOffsetTable().getTopicConsumerGroupDetail().entrySet()) {
+			for (Map.Entry<String, Map<String, String>> groupEntry : topicEntry.getValue().getConsumerGroupDetailMap().entrySet()) {
+				for (Map.Entry<String, String> queueEntry : groupEntry.getValue().entrySet()) {
+					String offsetStrInfo = queueEntry.getValue();
+					long offset = Long.parseLong(offsetStrInfo.substring(offsetStrInfo.indexOf('#') + 1));
+					consumeOffsetManager.commitOffset(topicEntry.getKey(), groupEntry.getKey(), Integer.parseInt(queueEntry.getKey()), offset);
+				}
+			}
+		}
+		log.info("migrate consume offset from {}", jsonFilePath);
+	}
 
 	/**
-	 * 开启一个刷新内存到磁盘的任务
+	 * 开启一个刷新内存到磁盘的任务，偏移量没有变化时不写文件
 	 */
 	public void startRefreshConsumeQueueOffsetTask() {
-		//异步线程
-		//每3秒将内存中的配置刷新到磁盘里面
 		CommonThreadPoolConfig.refreshConsumeQueueOffsetExecutor.execute(new Runnable() {
 			@Override
 			public void run() {
 				do {
 					try {
 						TimeUnit.SECONDS.sleep(BrokerConstants.DEFAULT_REFRESH_CONSUME_QUEUE_OFFSET_TIME_STEP);
-						ConsumeQueueOffsetModel consumeQueueOffsetModel = CommonCache.getConsumeQueueOffsetModel();
-						FileContentUtil.overWriteToFile(filePath, JSON.toJSONString(consumeQueueOffsetModel, SerializerFeature.PrettyFormat));
+						persist();
 					} catch (InterruptedException e) {
 						throw new RuntimeException(e);
+					} catch (Exception e) {
+						log.error("persist consume offset error:", e);
 					}
 				} while (true);
 			}
 		});
+	}
 
+	/**
+	 * 写入一次快照
+	 */
+	public void persist() throws IOException {
+		ConsumeOffsetManager consumeOffsetManager = CommonCache.getConsumeOffsetManager();
+		ConsumeOffsetManager.Snapshot snapshot = consumeOffsetManager.snapshotIfChanged();
+		if (snapshot == null) {
+			return;
+		}
+		try (FileChannel fileChannel = FileChannel.open(tmpSnapshotPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer byteBuffer = ByteBuffer.wrap(snapshot.getContent());
+			while (byteBuffer.hasRemaining()) {
+				fileChannel.write(byteBuffer);
+			}
+			fileChannel.force(true);
+		}
+		Files.move(tmpSnapshotPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		consumeOffsetManager.markPersisted(snapshot);
 	}
 
 }
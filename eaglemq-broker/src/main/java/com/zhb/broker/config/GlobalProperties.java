@@ -14,6 +14,11 @@ public class GlobalProperties {
 	private String nameserverUser;
 	private String nameserverPassword;
 	private Integer brokerPort;
+	//单个消息的最大长度，单位MB
+	private Integer maxFrameSizeMb;
+	//broker事件总线的执行通道数量和单个通道的积压上限
+	private Integer eventLaneCount;
+	private Integer eventLaneCapacity;
 	//重平衡策略
 	private String reBalanceStrategy;
 
@@ -22,6 +27,26 @@ public class GlobalProperties {
 	private String brokerClusterRole;
 	private String brokerClusterGroup;
 
+	//commitLog单个文件的大小
+	private Integer commitLogFileSize;
+	//是否预热提前分配的commitLog文件
+	private Boolean warmMappedFileEnable;
+
+	//刷盘相关属性
+	private String flushDiskType;
+	private Integer flushIntervalMills;
+	private Integer syncFlushTimeoutMills;
+
+	//时间轮最底层每个槽的毫秒数和天级时间轮的槽数量
+	private Integer timeWheelTickMills;
+	private Integer timeWheelDaySlotCount;
+
+	//写缓冲池相关属性
+	private Boolean transientStorePoolEnable;
+	private Integer transientStorePoolSize;
+	private Integer transientStorePoolMemoryMb;
+	private Integer commitIntervalMills;
+
 	/**
 	 * 读取环境变量中配置的mq存储绝对路径地址
 	 */
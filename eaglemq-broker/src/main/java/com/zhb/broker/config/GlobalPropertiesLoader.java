@@ -2,6 +2,8 @@ package com.zhb.broker.config;
 
 import com.zhb.broker.cache.CommonCache;
 import com.zhb.common.constants.BrokerConstants;
+import com.zhb.common.constants.TcpConstants;
+import com.zhb.common.enums.FlushDiskTypeEnum;
 import io.netty.util.internal.StringUtil;
 
 import java.io.File;
@@ -39,12 +41,45 @@ public class GlobalPropertiesLoader {
 			globalProperties.setNameserverPassword(properties.getProperty("nameserver.password"));
 			// 读取Broker相关配置
 			globalProperties.setBrokerPort(Integer.valueOf(properties.getProperty("broker.port")));
+			globalProperties.setMaxFrameSizeMb(Integer.valueOf(properties.getProperty("broker.max.frame.size.mb",
+				String.valueOf(TcpConstants.DEFAULT_MAX_FRAME_SIZE_MB))));
+			// 读取事件总线执行通道配置，默认按照cpu核数分配
+			globalProperties.setEventLaneCount(Integer.valueOf(properties.getProperty("broker.event.lane.count",
+				String.valueOf(Runtime.getRuntime().availableProcessors() * 2))));
+			globalProperties.setEventLaneCapacity(Integer.valueOf(properties.getProperty("broker.event.lane.capacity",
+				String.valueOf(BrokerConstants.DEFAULT_EVENT_LANE_CAPACITY))));
 			// 读取负载均衡策略
 			globalProperties.setReBalanceStrategy(properties.getProperty("rebalance.strategy"));
 			// 读取集群相关配置
 			globalProperties.setBrokerClusterGroup(properties.getProperty("broker.cluster.group"));
 			globalProperties.setBrokerClusterMode(properties.getProperty("broker.cluster.mode"));
 			globalProperties.setBrokerClusterRole(properties.getProperty("broker.cluster.role"));
+			// 读取commitLog单个文件的大小
+			globalProperties.setCommitLogFileSize(Integer.valueOf(properties.getProperty("commitlog.file.size",
+				String.valueOf(BrokerConstants.COMMIT_LOG_DEFAULT_MMAP_SIZE))));
+			globalProperties.setWarmMappedFileEnable(Boolean.valueOf(properties.getProperty("commitlog.warm.mapped.file", "true")));
+			// 读取刷盘相关配置，未配置时默认同步组提交刷盘
+			globalProperties.setFlushDiskType(properties.getProperty("flush.disk.type", FlushDiskTypeEnum.SYNC_FLUSH.getCode()));
+			globalProperties.setFlushIntervalMills(Integer.valueOf(properties.getProperty("flush.interval.mills",
+				String.valueOf(BrokerConstants.DEFAULT_FLUSH_INTERVAL_MILLS))));
+			globalProperties.setSyncFlushTimeoutMills(Integer.valueOf(properties.getProperty("flush.sync.timeout.mills",
+				String.valueOf(BrokerConstants.DEFAULT_SYNC_FLUSH_TIMEOUT_MILLS))));
+			// 读取时间轮相关配置
+			globalProperties.setTimeWheelTickMills(Integer.valueOf(properties.getProperty("timewheel.tick.mills",
+				String.valueOf(BrokerConstants.DEFAULT_TIME_WHEEL_TICK_MILLS))));
+			globalProperties.setTimeWheelDaySlotCount(Integer.valueOf(properties.getProperty("timewheel.day.slot.count",
+				String.valueOf(BrokerConstants.DEFAULT_TIME_WHEEL_DAY_SLOT_COUNT))));
+			// 读取写缓冲池相关配置，默认关闭
+			globalProperties.setTransientStorePoolEnable(Boolean.valueOf(properties.getProperty("transient.store.pool.enable", "false")));
+			globalProperties.setTransientStorePoolSize(Integer.valueOf(properties.getProperty("transient.store.pool.size",
+				String.valueOf(BrokerConstants.DEFAULT_TRANSIENT_STORE_POOL_SIZE))));
+			globalProperties.setTransientStorePoolMemoryMb(Integer.valueOf(properties.getProperty("transient.store.pool.memory.mb",
+				String.valueOf(BrokerConstants.DEFAULT_TRANSIENT_STORE_POOL_MEMORY_MB))));
+			globalProperties.setCommitIntervalMills(Integer.valueOf(properties.getProperty("commit.interval.mills",
+				String.valueOf(BrokerConstants.DEFAULT_COMMIT_INTERVAL_MILLS))));
+			if (FlushDiskTypeEnum.of(globalProperties.getFlushDiskType()) == null) {
+				throw new IllegalArgumentException("flush.disk.type is inValid! value is " + globalProperties.getFlushDiskType());
+			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -0,0 +1,155 @@
+package com.zhb.broker.core;
+
+import com.zhb.common.constants.BrokerConstants;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * commitLog文件预分配服务
+ * 写入线程切换文件时，同时提交下一个和下下一个文件的创建请求，由后台线程提前完成文件创建、内存映射和预热，
+ * 这样切换文件时只需要拿到已经准备好的文件，不会把创建文件和首次访问的缺页开销带到生产者的写入耗时中
+ */
+@Slf4j
+public class AllocateMappedFileService {
+
+	/**
+	 * 文件路径和分配请求的映射，避免同一个文件被重复分配
+	 */
+	private final ConcurrentHashMap<String, AllocateRequest> requestTable = new ConcurrentHashMap<>();
+	/**
+	 * 待处理的分配请求
+	 */
+	private final LinkedBlockingQueue<AllocateRequest> requestQueue = new LinkedBlockingQueue<>();
+	/**
+	 * 是否需要预热文件
+	 */
+	private final boolean warmMappedFileEnable;
+
+	public AllocateMappedFileService(boolean warmMappedFileEnable) {
+		this.warmMappedFileEnable = warmMappedFileEnable;
+	}
+
+	/**
+	 * 启动文件分配线程
+	 */
+	public void start() {
+		Thread allocateTask = new Thread(() -> {
+			while (true) {
+				try {
+					AllocateRequest allocateRequest = requestQueue.take();
+					this.doAllocate(allocateRequest);
+				} catch (InterruptedException e) {
+					log.error("allocate mapped file task interrupted");
+					return;
+				}
+			}
+		});
+		allocateTask.setName("allocate-mapped-file-task");
+		allocateTask.start();
+	}
+
+	/**
+	 * 提交预分配请求，不等待结果
+	 *
+	 * @param filePath 文件路径
+	 * @param fileSize 文件大小
+	 */
+	public void submitRequest(String filePath, int fileSize) {
+		AllocateRequest allocateRequest = new AllocateRequest(filePath, fileSize);
+		if (requestTable.putIfAbsent(filePath, allocateRequest) == null) {
+			requestQueue.offer(allocateRequest);
+		}
+	}
+
+	/**
+	 * 获取已经分配好的文件，同时提交下下一个文件的预分配请求
+	 *
+	 * @param nextFilePath     需要使用的文件路径
+	 * @param nextNextFilePath 下一次切换时会用到的文件路径
+	 * @param fileSize         文件大小
+	 * @return 已经完成映射的文件
+	 * @throws IOException 分配失败或者等待超时
+	 */
+	public MappedFile putRequestAndReturnMappedFile(String nextFilePath, String nextNextFilePath, int fileSize) throws IOException {
+		this.submitRequest(nextFilePath, fileSize);
+		this.submitRequest(nextNextFilePath, fileSize);
+		AllocateRequest allocateRequest = requestTable.get(nextFilePath);
+		try {
+			return allocateRequest.getMappedFileFuture().get(BrokerConstants.ALLOCATE_MAPPED_FILE_TIMEOUT_MILLS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("wait allocate mapped file interrupted, filePath is " + nextFilePath, e);
+		} catch (ExecutionException e) {
+			requestTable.remove(nextFilePath);
+			throw new IOException("allocate mapped file fail, filePath is " + nextFilePath, e.getCause());
+		} catch (TimeoutException e) {
+			throw new IOException("allocate mapped file timeout, filePath is " + nextFilePath);
+		} finally {
+			if (allocateRequest.getMappedFileFuture().isDone()) {
+				requestTable.remove(nextFilePath);
+			}
+		}
+	}
+
+	/**
+	 * 创建文件、做内存映射并预热
+	 */
+	private void doAllocate(AllocateRequest allocateRequest) {
+		long begin = System.currentTimeMillis();
+		try {
+			File file = new File(allocateRequest.getFilePath());
+			if (!file.exists() && !file.createNewFile()) {
+				throw new IOException("create commitLog file fail, filePath is " + allocateRequest.getFilePath());
+			}
+			MappedFile mappedFile = new MappedFile(allocateRequest.getFilePath(), allocateRequest.getFileSize());
+			if (warmMappedFileEnable) {
+				this.warmMappedFile(mappedFile);
+			}
+			allocateRequest.getMappedFileFuture().complete(mappedFile);
+			log.info("allocate mapped file:{} finish, warm:{}, cost:{}ms", allocateRequest.getFilePath(), warmMappedFileEnable,
+				System.currentTimeMillis() - begin);
+		} catch (Exception e) {
+			log.error("allocate mapped file error:", e);
+			allocateRequest.getMappedFileFuture().completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * 每个内存页写入一个字节，提前触发缺页中断，让文件对应的物理内存在写入前就准备好
+	 */
+	private void warmMappedFile(MappedFile mappedFile) {
+		MappedByteBuffer mappedByteBuffer = mappedFile.getMappedByteBuffer();
+		for (int i = 0; i < mappedFile.getFileSize(); i += BrokerConstants.OS_PAGE_SIZE) {
+			mappedByteBuffer.put(i, (byte) 0);
+		}
+		mappedByteBuffer.load();
+	}
+
+	/**
+	 * 文件分配请求
+	 */
+	@Getter
+	static class AllocateRequest {
+
+		private final String filePath;
+
+		private final int fileSize;
+
+		private final CompletableFuture<MappedFile> mappedFileFuture = new CompletableFuture<>();
+
+		AllocateRequest(String filePath, int fileSize) {
+			this.filePath = filePath;
+			this.fileSize = fileSize;
+		}
+	}
+}
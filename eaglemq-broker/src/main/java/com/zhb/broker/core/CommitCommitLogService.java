@@ -0,0 +1,51 @@
+package com.zhb.broker.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CommitLog写缓冲区提交服务
+ * 开启写缓冲池后，消息先写入堆外内存，提交线程按固定间隔把这段时间内写入的数据一次性写入文件通道，
+ * 之后由刷盘线程执行force，写入线程不再直接接触page cache
+ */
+@Slf4j
+public class CommitCommitLogService {
+
+	/**
+	 * 所属的commitLog映射模型
+	 */
+	private final CommitLogMMapFileModel commitLogMMapFileModel;
+	/**
+	 * 提交间隔时间
+	 */
+	private final int commitIntervalMills;
+
+	public CommitCommitLogService(CommitLogMMapFileModel commitLogMMapFileModel, int commitIntervalMills) {
+		this.commitLogMMapFileModel = commitLogMMapFileModel;
+		this.commitIntervalMills = commitIntervalMills;
+	}
+
+	/**
+	 * 启动提交线程
+	 *
+	 * @param topic 主题名称
+	 */
+	public void start(String topic) {
+		Thread commitTask = new Thread(() -> {
+			while (true) {
+				try {
+					TimeUnit.MILLISECONDS.sleep(commitIntervalMills);
+					commitLogMMapFileModel.commit();
+				} catch (InterruptedException e) {
+					log.error("commit commitLog task interrupted, topic is {}", topic);
+					return;
+				} catch (Exception e) {
+					log.error("commit commitLog error:", e);
+				}
+			}
+		});
+		commitTask.setName("commit-commitlog-" + topic + "-task");
+		commitTask.start();
+	}
+}
@@ -2,22 +2,31 @@ package com.zhb.broker.core;
 
 import com.alibaba.fastjson.JSON;
 import com.zhb.broker.cache.CommonCache;
-import com.zhb.common.cache.BrokerServerSyncFutureManager;
+import com.zhb.common.coder.SerializerManager;
 import com.zhb.common.coder.TcpMsg;
 import com.zhb.common.constants.BrokerConstants;
+import com.zhb.common.constants.TcpConstants;
+import com.zhb.common.dto.BatchMessageDTO;
+import com.zhb.common.dto.BatchSendMessageToBrokerResponseDTO;
 import com.zhb.common.dto.MessageDTO;
 import com.zhb.common.dto.SendMessageToBrokerResponseDTO;
 import com.zhb.common.dto.SlaveSyncRespDTO;
 import com.zhb.common.enums.*;
 import com.zhb.common.event.model.Event;
-import com.zhb.common.remote.SyncFuture;
+import com.zhb.common.remote.InFlightRequestTable;
 import io.netty.channel.ChannelHandlerContext;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * CommitLog追加处理器
@@ -25,6 +34,12 @@ import java.util.concurrent.TimeoutException;
  */
 @Slf4j
 public class CommitLogAppendHandler {
+
+	/**
+	 * 等待从节点确认的最长时间，每个请求自身有超时时间，这里额外留出时间轮检查超时的延迟
+	 */
+	private static final long SLAVE_ACK_WAIT_MILLIS = TcpConstants.DEFAULT_SYNC_TIMEOUT_MILLIS + 1000;
+
 	/**
 	 * 准备内存映射文件加载
 	 * 为指定主题创建并加载内存映射文件，用于消息持久化
@@ -34,21 +49,24 @@ public class CommitLogAppendHandler {
 	 */
 	public void prepareMMapLoading(String topicName) throws IOException {
 		CommitLogMMapFileModel mapFileModel = new CommitLogMMapFileModel();
-		mapFileModel.loadFileInMMap(topicName, 0, BrokerConstants.COMMIT_LOG_DEFAULT_MMAP_SIZE);
+		mapFileModel.loadFileInMMap(topicName);
 		CommonCache.getCommitLogMMapFileModelManager().put(topicName, mapFileModel);
 	}
 
 	/**
 	 * 追加消息并处理主从同步
 	 * 负责将消息写入CommitLog并根据集群配置处理主从节点同步
+	 * 写入完成之后当前线程立即返回，刷盘和从节点确认并行进行，两者都完成之后再响应客户端，同步刷盘时不会阻塞处理请求的线程
 	 *
 	 * @param messageDTO 消息数据传输对象
 	 * @param event      事件对象，包含上下文信息
+	 * @return 本地刷盘结果，不需要响应的调用方可以据此确认消息已经落盘
 	 * @throws IOException 如果消息写入失败
 	 */
-	public void appendMsg(MessageDTO messageDTO, Event event) throws IOException {
-		// 将消息追加到CommitLog
-		CommonCache.getCommitLogAppendHandler().appendMsg(messageDTO);
+	public CompletableFuture<Boolean> appendMsg(MessageDTO messageDTO, Event event) throws IOException {
+		// 将消息追加到CommitLog，不等待刷盘
+		CompletableFuture<Boolean> flushFuture = this.appendMsgAsync(messageDTO);
+		CompletableFuture<String> flushFailFuture = this.toFlushFailDesc(flushFuture);
 		int sendWay = messageDTO.getSendWay();
 		boolean isAsyncSend = MessageSendWay.ASYNC.getCode() == sendWay;
 		// 判断集群模式和节点角色
@@ -57,83 +75,196 @@ public class CommitLogAppendHandler {
 		boolean isDelayMsg = messageDTO.getDelay() > 0;
 		if (isClusterMode) {
 			if (isMasterNode) {
-				//主节点 发送同步请求给从节点,异步发送是没有消息id的
-				for (ChannelHandlerContext slaveChannel : CommonCache.getSlaveChannelMap().values()) {
-					slaveChannel.writeAndFlush(new TcpMsg(BrokerEventCode.PUSH_MSG.getCode(), JSON.toJSONBytes(messageDTO)));
-				}
 				// 对于异步发送或延迟消息，无需等待从节点响应
 				if (isAsyncSend || isDelayMsg) {
-					return;
+					this.syncToSlaves(BrokerEventCode.PUSH_MSG.getCode(), messageDTO, false);
+					return flushFuture;
 				}
 				//主从一开始是正常的，但是后边从节点断开了
 				if (CommonCache.getSlaveChannelMap().isEmpty()) {
 					//可能此时从节点全部中断了，所以没法同步,可以直接返回成功给到客户端，保证整体可用
-					SendMessageToBrokerResponseDTO sendMsgResp = new SendMessageToBrokerResponseDTO();
-					sendMsgResp.setMsgId(messageDTO.getMsgId());
-					sendMsgResp.setStatus(SendMessageToBrokerResponseStatus.SUCCESS.getCode());
-					sendMsgResp.setDesc("send msg success,but current time has no slave node!");
-					TcpMsg responseMsg = new TcpMsg(BrokerResponseCode.SEND_MSG_RESP.getCode(), JSON.toJSONBytes(sendMsgResp));
-					event.getChannelHandlerContext().writeAndFlush(responseMsg);
-					return;
-				}
-				// 创建同步Future，等待从节点确认
-				SyncFuture syncFuture = new SyncFuture();
-				syncFuture.setMsgId(messageDTO.getMsgId());
-				BrokerServerSyncFutureManager.put(messageDTO.getMsgId(), syncFuture);
-				SyncFuture slaveSyncAckRespFuture = BrokerServerSyncFutureManager.get(messageDTO.getMsgId());
-				if (slaveSyncAckRespFuture != null) {
-					SlaveSyncRespDTO slaveSyncRespDTO = null;
-					SendMessageToBrokerResponseDTO sendMsgResp = new SendMessageToBrokerResponseDTO();
-					sendMsgResp.setMsgId(messageDTO.getMsgId());
-					sendMsgResp.setStatus(SendMessageToBrokerResponseStatus.FAIL.getCode());
-					try {
-						//主从网络延迟非常严重  等待3秒从节点同步响应，超时则认为同步失败
-						slaveSyncRespDTO = (SlaveSyncRespDTO) slaveSyncAckRespFuture.get(3, TimeUnit.SECONDS);
-						if (slaveSyncRespDTO.isSyncSuccess()) {
-							sendMsgResp.setStatus(SendMessageToBrokerResponseStatus.SUCCESS.getCode());
-						}
-						//超时等同步一系列问题全部注入到响应体中返回给到客户端
-					} catch (InterruptedException e) {
-						sendMsgResp.setDesc("Slave node sync fail! Sync task had InterruptedException!");
-						log.error("slave sync error is:", e);
-					} catch (ExecutionException e) {
-						sendMsgResp.setDesc("Slave node sync fail! Sync task had ExecutionException");
-						log.error("slave sync error is:", e);
-					} catch (TimeoutException e) {
-						sendMsgResp.setDesc("Slave node sync fail! Sync task had TimeoutException");
-						log.error("slave sync error is:", e);
-					} catch (Exception e) {
-						sendMsgResp.setDesc("Slave node sync unKnow error! Sync task had Exception");
-						log.error("slave sync unKnow error is:", e);
-					}
-					//响应返回给到客户端，完成主从复制链路效果
-					TcpMsg responseMsg = new TcpMsg(BrokerResponseCode.SEND_MSG_RESP.getCode(), JSON.toJSONBytes(sendMsgResp));
-					event.getChannelHandlerContext().writeAndFlush(responseMsg);
+					flushFailFuture.thenAccept(flushFailDesc -> this.replySendMsgResp(event, messageDTO.getMsgId(), flushFailDesc,
+						"send msg success,but current time has no slave node!"));
+					return flushFuture;
 				}
+				// 发送同步请求给从节点，和本地刷盘并行，超时等同步一系列问题全部注入到响应体中返回给到客户端
+				CompletableFuture<String> slaveSyncFuture = this.syncToSlavesAsync(BrokerEventCode.PUSH_MSG.getCode(), messageDTO);
+				//响应返回给到客户端，完成主从复制链路效果
+				flushFailFuture.thenCombine(slaveSyncFuture, (flushFailDesc, slaveSyncFailDesc) -> flushFailDesc != null ? flushFailDesc : slaveSyncFailDesc)
+					.thenAccept(failDesc -> this.replySendMsgResp(event, messageDTO.getMsgId(), failDesc, null));
 			} else {
 				// 从节点处理逻辑
 				if (isAsyncSend || isDelayMsg) {
-					return;
+					return flushFuture;
 				}
-				//从节点 返回响应code给主节点
-				SlaveSyncRespDTO slaveSyncAckRespDTO = new SlaveSyncRespDTO();
-				slaveSyncAckRespDTO.setSyncSuccess(true);
-				slaveSyncAckRespDTO.setMsgId(messageDTO.getMsgId());
-				event.getChannelHandlerContext().writeAndFlush(new TcpMsg(BrokerResponseCode.SLAVE_SYNC_RESP.getCode(),
-					JSON.toJSONBytes(slaveSyncAckRespDTO)));
+				//从节点 落盘之后返回响应code给主节点
+				flushFailFuture.thenAccept(flushFailDesc -> this.replySlaveSyncResp(event, messageDTO.getMsgId(), flushFailDesc == null));
 			}
 		} else {
 			//单机版本处理逻辑
 			if (isAsyncSend || isDelayMsg) {
+				return flushFuture;
+			}
+			// 构建并发送消息发送结果响应
+			flushFailFuture.thenAccept(flushFailDesc -> this.replySendMsgResp(event, messageDTO.getMsgId(), flushFailDesc, null));
+		}
+		return flushFuture;
+	}
+
+	/**
+	 * 批量追加消息并处理主从同步
+	 * 整批消息只做一次写入和一次刷盘，主从模式下整批转发给从节点并只等待一次确认，最后一次性返回每条消息的结果
+	 * 和单条消息一样，刷盘和从节点确认都不在当前线程等待
+	 *
+	 * @param batchMessageDTO 批量消息
+	 * @param event           事件对象，包含上下文信息
+	 * @throws IOException 如果消息写入失败
+	 */
+	public void appendBatchMsg(BatchMessageDTO batchMessageDTO, Event event) throws IOException {
+		CommitLogMMapFileModel mapFileModel = this.getMapFileModel(batchMessageDTO.getTopic());
+		List<MessageDTO> messageDTOList = batchMessageDTO.getMessageDTOList() == null ? new ArrayList<>() : batchMessageDTO.getMessageDTOList();
+		List<MessageDTO> appendMessageList = new ArrayList<>(messageDTOList.size());
+		List<SendMessageToBrokerResponseDTO> responseDTOList = new ArrayList<>(messageDTOList.size());
+		for (MessageDTO messageDTO : messageDTOList) {
+			SendMessageToBrokerResponseDTO sendMsgResp = new SendMessageToBrokerResponseDTO();
+			sendMsgResp.setMsgId(messageDTO.getMsgId());
+			sendMsgResp.setStatus(SendMessageToBrokerResponseStatus.FAIL.getCode());
+			if (!batchMessageDTO.getTopic().equals(messageDTO.getTopic())) {
+				sendMsgResp.setDesc("msg topic is not same as batch topic");
+			} else if (messageDTO.getDelay() > 0 || messageDTO.getTxFlag() >= 0) {
+				sendMsgResp.setDesc("batch send only support normal msg");
+			} else {
+				sendMsgResp.setStatus(SendMessageToBrokerResponseStatus.SUCCESS.getCode());
+				appendMessageList.add(messageDTO);
+			}
+			responseDTOList.add(sendMsgResp);
+		}
+		CompletableFuture<String> flushFailFuture = appendMessageList.isEmpty() ? CompletableFuture.completedFuture(null)
+			: this.toFlushFailDesc(mapFileModel.writeBatchContentAsync(appendMessageList));
+		boolean isAsyncSend = MessageSendWay.ASYNC.getCode() == batchMessageDTO.getSendWay();
+		boolean isClusterMode = BrokerClusterModeEnum.MASTER_SLAVE.getCode().equals(CommonCache.getGlobalProperties().getBrokerClusterMode());
+		boolean isMasterNode = "master".equals(CommonCache.getGlobalProperties().getBrokerClusterRole());
+		if (isClusterMode && !isMasterNode) {
+			if (isAsyncSend) {
 				return;
 			}
-			// 构建并发送消息发送成功响应
-			SendMessageToBrokerResponseDTO sendMessageToBrokerResponseDTO = new SendMessageToBrokerResponseDTO();
-			sendMessageToBrokerResponseDTO.setStatus(SendMessageToBrokerResponseStatus.SUCCESS.getCode());
-			sendMessageToBrokerResponseDTO.setMsgId(messageDTO.getMsgId());
-			TcpMsg responseMsg = new TcpMsg(BrokerResponseCode.SEND_MSG_RESP.getCode(), JSON.toJSONBytes(sendMessageToBrokerResponseDTO));
-			event.getChannelHandlerContext().writeAndFlush(responseMsg);
+			//从节点 落盘之后返回响应code给主节点
+			flushFailFuture.thenAccept(flushFailDesc -> this.replySlaveSyncResp(event, batchMessageDTO.getMsgId(), flushFailDesc == null));
+			return;
+		}
+		CompletableFuture<String> slaveSyncFuture = CompletableFuture.completedFuture(null);
+		if (isClusterMode && !appendMessageList.isEmpty()) {
+			//主节点 只把写入成功的消息整批同步给从节点
+			BatchMessageDTO slaveBatchMessageDTO = new BatchMessageDTO();
+			slaveBatchMessageDTO.setMsgId(batchMessageDTO.getMsgId());
+			slaveBatchMessageDTO.setTopic(batchMessageDTO.getTopic());
+			slaveBatchMessageDTO.setSendWay(batchMessageDTO.getSendWay());
+			slaveBatchMessageDTO.setMessageDTOList(appendMessageList);
+			//从节点全部中断时直接返回成功给到客户端，保证整体可用
+			if (isAsyncSend || CommonCache.getSlaveChannelMap().isEmpty()) {
+				this.syncToSlaves(BrokerEventCode.PUSH_BATCH_MSG.getCode(), slaveBatchMessageDTO, false);
+			} else {
+				slaveSyncFuture = this.syncToSlavesAsync(BrokerEventCode.PUSH_BATCH_MSG.getCode(), slaveBatchMessageDTO);
+			}
+		}
+		if (isAsyncSend) {
+			return;
+		}
+		flushFailFuture.thenCombine(slaveSyncFuture, (flushFailDesc, slaveSyncFailDesc) -> flushFailDesc != null ? flushFailDesc : slaveSyncFailDesc)
+			.thenAccept(failDesc -> {
+				if (failDesc != null) {
+					for (SendMessageToBrokerResponseDTO sendMsgResp : responseDTOList) {
+						if (sendMsgResp.getStatus() == SendMessageToBrokerResponseStatus.SUCCESS.getCode()) {
+							sendMsgResp.setStatus(SendMessageToBrokerResponseStatus.FAIL.getCode());
+							sendMsgResp.setDesc(failDesc);
+						}
+					}
+				}
+				BatchSendMessageToBrokerResponseDTO batchResponseDTO = new BatchSendMessageToBrokerResponseDTO();
+				batchResponseDTO.setMsgId(batchMessageDTO.getMsgId());
+				batchResponseDTO.setResponseDTOList(responseDTOList);
+				TcpMsg responseMsg = SerializerManager.encode(BrokerResponseCode.SEND_BATCH_MSG_RESP.getCode(), batchResponseDTO);
+				event.reply(responseMsg);
+			});
+	}
+
+	/**
+	 * 把消息同步给所有从节点，延迟消息存储的修改也通过这里同步
+	 * 需要等待确认时在当前线程等待，最多等待请求的超时时间再加上时间轮的检查延迟
+	 *
+	 * @param code    同步请求的code
+	 * @param body    同步的消息内容
+	 * @param waitAck 是否需要等待从节点确认
+	 * @return 同步成功或者不需要等待确认时返回null，失败时返回失败原因
+	 */
+	public String syncToSlaves(int code, Object body, boolean waitAck) {
+		if (!waitAck) {
+			for (ChannelHandlerContext slaveChannel : CommonCache.getSlaveChannelMap().values()) {
+				slaveChannel.writeAndFlush(SerializerManager.encode(code, body));
+			}
+			return null;
+		}
+		try {
+			return this.syncToSlavesAsync(code, body).get(SLAVE_ACK_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			log.error("slave sync error is:", e);
+			return "Slave node sync fail! Sync task had TimeoutException";
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.error("slave sync error is:", e);
+			return "Slave node sync fail! Sync task had InterruptedException!";
+		} catch (ExecutionException e) {
+			log.error("slave sync error is:", e.getCause());
+			return "Slave node sync fail!";
+		}
+	}
+
+	/**
+	 * 把消息同步给所有从节点并等待确认，不阻塞当前线程
+	 * 每个从节点单独发送一个请求，请求id由该从节点连接上的请求表分配，任意一个从节点确认成功即认为同步成功
+	 * 每个请求都有超时时间，返回的future一定会完成，并且不会以异常完成
+	 * 注意future在IO线程或者超时检查线程中完成，依赖它的回调不能有阻塞操作
+	 *
+	 * @param code 同步请求的code
+	 * @param body 同步的消息内容
+	 * @return 同步成功或者没有从节点时返回null，失败时返回失败原因
+	 */
+	public CompletableFuture<String> syncToSlavesAsync(int code, Object body) {
+		Collection<ChannelHandlerContext> slaveChannels = CommonCache.getSlaveChannelMap().values();
+		List<CompletableFuture<TcpMsg>> ackFutureList = new ArrayList<>(slaveChannels.size());
+		for (ChannelHandlerContext slaveChannel : slaveChannels) {
+			InFlightRequestTable inFlightRequestTable = InFlightRequestTable.getOrCreate(slaveChannel.channel(), TcpConstants.DEFAULT_MAX_IN_FLIGHT_REQUESTS);
+			//请求id会写入消息头，每个从节点都要使用单独的TcpMsg对象
+			ackFutureList.add(inFlightRequestTable.send(slaveChannel.channel(), SerializerManager.encode(code, body), TcpConstants.DEFAULT_SYNC_TIMEOUT_MILLIS));
+		}
+		if (ackFutureList.isEmpty()) {
+			return CompletableFuture.completedFuture(null);
 		}
+		CompletableFuture<String> slaveAckFuture = new CompletableFuture<>();
+		AtomicInteger remainAckCount = new AtomicInteger(ackFutureList.size());
+		for (CompletableFuture<TcpMsg> ackFuture : ackFutureList) {
+			ackFuture.whenComplete((ackMsg, throwable) -> {
+				Throwable failCause = throwable;
+				if (failCause == null) {
+					try {
+						if (SerializerManager.decode(ackMsg, SlaveSyncRespDTO.class).isSyncSuccess()) {
+							slaveAckFuture.complete(null);
+							return;
+						}
+						failCause = new IllegalStateException("Slave node sync fail!");
+					} catch (RuntimeException e) {
+						//响应无法解析时按照这个从节点确认失败处理，不能漏掉计数
+						failCause = e;
+					}
+				}
+				if (remainAckCount.decrementAndGet() == 0) {
+					log.error("slave sync error is:", failCause);
+					slaveAckFuture.complete(failCause instanceof TimeoutException
+						? "Slave node sync fail! Sync task had TimeoutException" : "Slave node sync fail!");
+				}
+			});
+		}
+		return slaveAckFuture;
 	}
 
 	/**
@@ -144,13 +275,62 @@ public class CommitLogAppendHandler {
 	 * @throws IOException 如果写入操作失败
 	 */
 	public void appendMsg(MessageDTO messageDTO) throws IOException {
+		// 将消息内容写入内存映射文件，并按照配置的刷盘策略完成刷盘
+		this.getMapFileModel(messageDTO.getTopic()).writeContent(messageDTO, true);
+	}
+
+	/**
+	 * 将消息追加到CommitLog，不等待刷盘
+	 *
+	 * @param messageDTO 消息数据传输对象
+	 * @return 按照配置的刷盘策略完成的刷盘结果
+	 * @throws IOException 如果写入操作失败
+	 */
+	public CompletableFuture<Boolean> appendMsgAsync(MessageDTO messageDTO) throws IOException {
+		return this.getMapFileModel(messageDTO.getTopic()).writeBatchContentAsync(Collections.singletonList(messageDTO));
+	}
+
+	private CommitLogMMapFileModel getMapFileModel(String topic) {
 		// 获取对应主题的内存映射文件模型
-		CommitLogMMapFileModel mapFileModel = CommonCache.getCommitLogMMapFileModelManager().get(messageDTO.getTopic());
+		CommitLogMMapFileModel mapFileModel = CommonCache.getCommitLogMMapFileModelManager().get(topic);
 		if (mapFileModel == null) {
 			throw new RuntimeException("topic is invalid!");
 		}
-		// 将消息内容写入内存映射文件
-		mapFileModel.writeContent(messageDTO, true);
+		return mapFileModel;
+	}
+
+	/**
+	 * 把刷盘结果转换为失败原因，刷盘成功时为null，返回的future不会以异常完成
+	 */
+	private CompletableFuture<String> toFlushFailDesc(CompletableFuture<Boolean> flushFuture) {
+		return flushFuture.handle((result, throwable) -> {
+			if (throwable == null) {
+				return null;
+			}
+			log.error("flush commitLog error is:", throwable);
+			return throwable instanceof TimeoutException ? "flush commitLog timeout!" : "flush commitLog fail!";
+		});
+	}
+
+	private void replySendMsgResp(Event event, String msgId, String failDesc, String successDesc) {
+		SendMessageToBrokerResponseDTO sendMsgResp = new SendMessageToBrokerResponseDTO();
+		sendMsgResp.setMsgId(msgId);
+		if (failDesc == null) {
+			sendMsgResp.setStatus(SendMessageToBrokerResponseStatus.SUCCESS.getCode());
+			sendMsgResp.setDesc(successDesc);
+		} else {
+			sendMsgResp.setStatus(SendMessageToBrokerResponseStatus.FAIL.getCode());
+			sendMsgResp.setDesc(failDesc);
+		}
+		TcpMsg responseMsg = SerializerManager.encode(BrokerResponseCode.SEND_MSG_RESP.getCode(), sendMsgResp);
+		event.reply(responseMsg);
+	}
+
+	private void replySlaveSyncResp(Event event, String msgId, boolean syncSuccess) {
+		SlaveSyncRespDTO slaveSyncAckRespDTO = new SlaveSyncRespDTO();
+		slaveSyncAckRespDTO.setSyncSuccess(syncSuccess);
+		slaveSyncAckRespDTO.setMsgId(msgId);
+		event.reply(new TcpMsg(BrokerResponseCode.SLAVE_SYNC_RESP.getCode(), JSON.toJSONBytes(slaveSyncAckRespDTO)));
 	}
 
 }
@@ -1,131 +1,187 @@
 package com.zhb.broker.core;
 
-import com.alibaba.fastjson.JSON;
 import com.zhb.broker.cache.CommonCache;
-import com.zhb.broker.model.*;
+import com.zhb.broker.config.GlobalProperties;
+import com.zhb.broker.model.CommitLogMessageModel;
+import com.zhb.broker.model.CommitLogModel;
+import com.zhb.broker.model.EagleMqTopicModel;
+import com.zhb.broker.model.QueueModel;
 import com.zhb.broker.utils.LogFileNameUtil;
 import com.zhb.broker.utils.PutMessageLock;
 import com.zhb.broker.utils.UnfailReentrantLock;
 import com.zhb.common.constants.BrokerConstants;
 import com.zhb.common.dto.ConsumeMsgCommitLogDTO;
 import com.zhb.common.dto.MessageDTO;
+import com.zhb.common.enums.FlushDiskTypeEnum;
 import lombok.Getter;
-import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 
 /**
  * CommitLog内存映射文件模型
  * 负责管理消息在CommitLog文件中的持久化存储，通过内存映射实现高性能读写
+ * 一个topic的commitLog由多个固定大小的文件段组成，消息的位置使用全局的64位物理偏移量表示
  */
 @Slf4j
 public class CommitLogMMapFileModel {
 	/**
-	 * CommitLog文件对象
+	 * 等待提交位点时自旋的次数，超过之后每次park的时间
 	 */
-	private File file;
+	private static final int COMMIT_WAIT_SPIN_TIMES = 256;
+	private static final long COMMIT_WAIT_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
 	/**
-	 * 内存映射缓冲区，用于写入操作
+	 * 当前文件对应的主题名称
 	 */
-	private MappedByteBuffer mappedByteBuffer;
+	private String topic;
 	/**
-	 * 读取操作使用的字节缓冲区
+	 * commitLog文件段队列
 	 */
-	private ByteBuffer readByteBuffer;
+	@Getter
+	private MappedFileQueue mappedFileQueue;
 	/**
-	 * CommitLog文件通道
+	 * 文件切换时使用的锁，普通的消息写入通过CAS预留写入区间，不再需要加锁
 	 */
-	private FileChannel fileChannel;
+	private PutMessageLock putMessageLock;
 	/**
-	 * 当前文件对应的主题名称
+	 * 当前正在写入的文件段，文件切换时整体替换
 	 */
-	private String topic;
+	private volatile MappedFile currentMappedFile;
 	/**
-	 * 写入消息时使用的锁，保证线程安全
+	 * 刷盘服务
 	 */
-	private PutMessageLock putMessageLock;
+	private FlushCommitLogService flushCommitLogService;
+	/**
+	 * 写缓冲区提交服务，只有开启写缓冲池时才会启动
+	 */
+	private CommitCommitLogService commitCommitLogService;
+	/**
+	 * consumeQueue分发服务
+	 */
+	private ReputMessageService reputMessageService;
+	/**
+	 * 每个队列下一条消息的逻辑位点，只在提交窗口中访问
+	 */
+	private long[] queueOffsetTable;
 
 
 	/**
-	 * 指定offset做文件的内存映射
-	 * 将CommitLog文件映射到内存中，便于快速读写操作
+	 * 加载topic下所有的commitLog文件并做内存映射
+	 * 最后一个文件从commitLogModel中记录的全局偏移量继续追加写入
 	 *
-	 * @param topicName   消息主题名称
-	 * @param startOffset 开始映射的偏移量位置
-	 * @param mappedSize  映射的大小 (字节)
+	 * @param topicName 消息主题名称
 	 * @throws IOException 如果映射操作失败
 	 */
-	public void loadFileInMMap(String topicName, int startOffset, int mappedSize) throws IOException {
+	public void loadFileInMMap(String topicName) throws IOException {
 		this.topic = topicName;
-		String filePath = getLatestCommitLogFile(topicName);
-		this.doMMap(filePath, startOffset, mappedSize);
+		EagleMqTopicModel eagleMqTopicModel = CommonCache.getEagleMqTopicModelMap().get(topicName);
+		if (eagleMqTopicModel == null) {
+			throw new IllegalArgumentException("topic is inValid! topicName is " + topicName);
+		}
+		CommitLogModel commitLogModel = eagleMqTopicModel.getCommitLogModel();
+		GlobalProperties globalProperties = CommonCache.getGlobalProperties();
+		this.mappedFileQueue = new MappedFileQueue(LogFileNameUtil.buildCommitLogBasePath(topicName), globalProperties.getCommitLogFileSize());
+		this.mappedFileQueue.load();
+		long writeOffset = commitLogModel.getOffset().get();
+		MappedFile lastMappedFile = mappedFileQueue.getLastMappedFile();
+		if (lastMappedFile == null || writeOffset == lastMappedFile.getFileFromOffset() + lastMappedFile.getFileSize()) {
+			//没有文件，或者最后一个文件已经写满但是还没来得及切换
+			lastMappedFile = mappedFileQueue.createMappedFile(writeOffset - writeOffset % mappedFileQueue.getMappedFileSize());
+		}
+		if (writeOffset < lastMappedFile.getFileFromOffset() || writeOffset >= lastMappedFile.getFileFromOffset() + lastMappedFile.getFileSize()) {
+			throw new IllegalStateException("commitLog offset is inValid, topic is " + topicName + ", offset is " + writeOffset
+				+ ", last file is " + lastMappedFile.getFileName());
+		}
+		lastMappedFile.setPosition((int) (writeOffset - lastMappedFile.getFileFromOffset()));
+		this.initWriteBuffer(lastMappedFile);
+		commitLogModel.setFileName(lastMappedFile.getFileName());
+		commitLogModel.setOffsetLimit((long) mappedFileQueue.getMappedFileSize());
+		this.currentMappedFile = lastMappedFile;
+		mappedFileQueue.preAllocateNextMappedFile();
 		//默认非公平
 		putMessageLock = new UnfailReentrantLock();
+		this.initQueueOffsetTable(writeOffset);
+		flushCommitLogService = new FlushCommitLogService(this, FlushDiskTypeEnum.of(globalProperties.getFlushDiskType()),
+			globalProperties.getFlushIntervalMills(), globalProperties.getSyncFlushTimeoutMills());
+		flushCommitLogService.start(topicName);
+		if (CommonCache.getTransientStorePool() != null) {
+			commitCommitLogService = new CommitCommitLogService(this, globalProperties.getCommitIntervalMills());
+			commitCommitLogService.start(topicName);
+		}
+		reputMessageService = new ReputMessageService(topicName, this);
+		reputMessageService.start();
 	}
 
 	/**
-	 * 执行内存映射操作
-	 * 将指定的CommitLog文件映射到内存中
-	 *
-	 * @param filePath    CommitLog文件路径
-	 * @param startOffset 开始映射的偏移量
-	 * @param mappedSize  映射的大小
-	 * @throws IOException 如果文件操作失败
+	 * 开启写缓冲池时，给即将开始写入的文件分配写缓冲区
 	 */
-	private void doMMap(String filePath, int startOffset, int mappedSize) throws IOException {
-		file = new File(filePath);
-		if (!file.exists()) {
-			throw new FileNotFoundException("filePath is " + filePath + " inValid");
+	private void initWriteBuffer(MappedFile mappedFile) {
+		TransientStorePool transientStorePool = CommonCache.getTransientStorePool();
+		if (transientStorePool != null) {
+			mappedFile.initWriteBuffer(transientStorePool);
 		}
-		EagleMqTopicModel eagleMqTopicModel = CommonCache.getEagleMqTopicModelMap().get(topic);
-		this.fileChannel = new RandomAccessFile(file, "rw").getChannel();
-		this.mappedByteBuffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, startOffset, mappedSize);
-		//从指定位置开始追加写入
-		this.readByteBuffer = mappedByteBuffer.slice();
-		this.mappedByteBuffer.position(eagleMqTopicModel.getCommitLogModel().getOffset().get());
 	}
 
 	/**
-	 * 获取最新的CommitLog文件路径
-	 * 根据主题配置获取当前可用的CommitLog文件路径，如果需要则创建新文件
+	 * 根据consumeQueue的写入位点初始化每个队列的逻辑位点
+	 * 已经写入commitLog但还没有分发的消息不在consumeQueue中，从分发位点开始扫描这些消息的消息头，
+	 * 每个队列取最后一条消息的队列位点加一，否则重启之后的新消息会和这些消息使用相同的队列位点
 	 *
-	 * @param topicName 主题名称
-	 * @return CommitLog文件的完整路径
+	 * @param writeOffset commitLog的写入位点
 	 */
-	private String getLatestCommitLogFile(String topicName) {
-		EagleMqTopicModel eagleMqTopicModel = CommonCache.getEagleMqTopicModelMap().get(topicName);
-		if (eagleMqTopicModel == null) {
-			throw new IllegalArgumentException("topic is inValid! topicName is " + topicName);
+	private void initQueueOffsetTable(long writeOffset) {
+		EagleMqTopicModel eagleMqTopicModel = CommonCache.getEagleMqTopicModelMap().get(topic);
+		List<QueueModel> queueList = eagleMqTopicModel.getQueueList();
+		if (queueList == null) {
+			queueOffsetTable = new long[0];
+			return;
 		}
-		CommitLogModel commitLogModel = eagleMqTopicModel.getCommitLogModel();
-		long diff = commitLogModel.countDiff();
-		String filePath = null;
-		if (diff == 0) {
-			//已经写满了 需要创建新文件
-			CommitLogFilePath commitLogFilePath = this.createNewCommitLogFile(topicName, commitLogModel);
-			filePath = commitLogFilePath.getFilePath();
-		} else if (diff > 0) {
-			//还有空间可写入
-			filePath = LogFileNameUtil.buildCommitLogFilePath(topicName, commitLogModel.getFileName());
+		queueOffsetTable = new long[queueList.size()];
+		for (QueueModel queueModel : queueList) {
+			queueOffsetTable[queueModel.getId()] = queueModel.getLatestOffset().get() / BrokerConstants.CONSUME_QUEUE_EACH_MSG_SIZE;
+		}
+		Long dispatchOffset = eagleMqTopicModel.getCommitLogModel().getDispatchOffset();
+		long offset = dispatchOffset != null ? dispatchOffset : mappedFileQueue.getMappedFiles().get(0).getFileFromOffset();
+		while (offset < writeOffset) {
+			MappedFile mappedFile = mappedFileQueue.findMappedFileByOffset(offset);
+			if (mappedFile == null) {
+				break;
+			}
+			int pos = (int) (offset - mappedFile.getFileFromOffset());
+			ByteBuffer byteBuffer = mappedFile.selectMappedBuffer(0);
+			int magic = mappedFile.getFileSize() - pos >= CommitLogMessageModel.BLANK_SIZE ? byteBuffer.getInt(pos + 4) : CommitLogMessageModel.BLANK_MAGIC_CODE;
+			if (magic == CommitLogMessageModel.BLANK_MAGIC_CODE) {
+				offset = mappedFile.getFileFromOffset() + mappedFile.getFileSize();
+				continue;
+			}
+			int totalSize = byteBuffer.getInt(pos);
+			if (magic != CommitLogMessageModel.MESSAGE_MAGIC_CODE || totalSize < CommitLogMessageModel.HEADER_SIZE) {
+				log.error("commitLog msg is inValid when init queue offset, topic is {}, offset is {}", topic, offset);
+				break;
+			}
+			int queueId = byteBuffer.getInt(pos + CommitLogMessageModel.QUEUE_ID_POSITION);
+			if (queueId >= 0 && queueId < queueOffsetTable.length) {
+				long queueOffset = byteBuffer.getLong(pos + CommitLogMessageModel.QUEUE_OFFSET_POSITION);
+				queueOffsetTable[queueId] = Math.max(queueOffsetTable[queueId], queueOffset + 1);
+			}
+			offset += totalSize;
 		}
-		return filePath;
 	}
 
-
 	/**
 	 * 高性能写入API
 	 * 默认不强制刷盘的消息写入方法
@@ -142,125 +198,306 @@ public class CommitLogMMapFileModel {
 	 * 将消息内容写入CommitLog文件，并处理文件容量检查、写满后的文件切换等逻辑
 	 *
 	 * @param messageDTO 待写入的消息数据传输对象
-	 * @param force      是否强制刷盘，true表示立即刷盘，false表示由操作系统决定
-	 * @throws IOException 如果写入操作失败
+	 * @param force      是否按照配置的刷盘策略处理，true时同步刷盘会等待组提交落盘，异步刷盘由刷盘线程定时处理；false表示由操作系统决定
+	 * @throws IOException 如果写入操作失败或同步刷盘超时
 	 */
 	public void writeContent(MessageDTO messageDTO, boolean force) throws IOException {
-		//定位到最新的commitLog文件中，记录下当前文件是否已经写满，如果写满，则创建新的文件，并且做新的mmap映射
-		//如果当前文件没有写满，对content内容做一层封装
-		//再判断写入是否会导致commitLog写满，如果不会，则选择当前commitLog，如果会则创建新文件，并且做mmap映射
-		//定位到最新的commitLog文件之后，写入
+		this.writeBatchContent(Collections.singletonList(messageDTO), force);
+	}
 
-		//定义一个对象专门管理各个topic的最新写入offset值，并且定时刷新到磁盘中
-		//写入数据，offset变更，如果是高并发场景，offset是不是会被多个线程访问？
+	/**
+	 * 批量写入数据到CommitLog文件
+	 * 同一个文件段内放得下的消息只做一次区间预留和一次提交，整批消息写完之后只触发一次刷盘
+	 *
+	 * @param messageDTOList 待写入的消息列表，必须属于当前topic
+	 * @param force          是否按照配置的刷盘策略处理
+	 * @throws IOException 如果写入操作失败或同步刷盘超时
+	 */
+	public void writeBatchContent(List<MessageDTO> messageDTOList, boolean force) throws IOException {
+		this.appendBatchContent(messageDTOList);
+		//刷盘放到锁外面处理，同步刷盘时多个写入线程的请求会被刷盘线程合并成一次force
+		if (force) {
+			flushCommitLogService.handleDiskFlush();
+		}
+	}
+
+	/**
+	 * 批量写入数据到CommitLog文件，写入完成之后立即返回，不等待刷盘
+	 * 处理客户端请求的线程通过返回的future在刷盘完成之后再响应，同步刷盘时不会被force阻塞
+	 *
+	 * @param messageDTOList 待写入的消息列表，必须属于当前topic
+	 * @return 按照配置的刷盘策略完成的刷盘结果
+	 * @throws IOException 如果写入操作失败
+	 */
+	public CompletableFuture<Boolean> writeBatchContentAsync(List<MessageDTO> messageDTOList) throws IOException {
+		this.appendBatchContent(messageDTOList);
+		return flushCommitLogService.submitFlushRequest();
+	}
 
-		//offset会用一个原子类AtomicLong去管理
-		//线程安全问题：线程1：111，线程2：122
-		//加锁机制(锁的选择非常重要）
+	private void appendBatchContent(List<MessageDTO> messageDTOList) throws IOException {
+		//写入流程：
+		//1.通过CAS在当前文件段上预留一段[start, start + length)的写入区间，预留失败说明有其他线程抢先，重试即可
+		//2.剩余空间不足时，加锁切换到新的commitLog文件，然后重新预留，批量写入时放不下的剩余消息在新文件中继续预留
+		//3.各个线程并行地把数据拷贝到自己预留的区间中
+		//4.按照预留的顺序推进提交位点，只有比自己小的区间全部写完之后，才能回填queueId、队列位点和存储时间并推进提交位点
 		EagleMqTopicModel eagleMqTopicModel = CommonCache.getEagleMqTopicModelMap().get(topic);
 		if (eagleMqTopicModel == null) {
 			throw new IllegalArgumentException("eagleMqTopicModel is null");
 		}
-		CommitLogModel commitLogModel = eagleMqTopicModel.getCommitLogModel();
-		if (commitLogModel == null) {
-			throw new IllegalArgumentException("commitLogModel is null");
+		List<byte[]> writeContentList = new ArrayList<>(messageDTOList.size());
+		for (MessageDTO messageDTO : messageDTOList) {
+			byte[] writeContent = this.buildCommitLogMessageModel(messageDTO).convertToBytes();
+			if (writeContent.length + CommitLogMessageModel.BLANK_SIZE > mappedFileQueue.getMappedFileSize()) {
+				throw new IllegalArgumentException("msg size is over commitLog file size, msg size is " + writeContent.length);
+			}
+			writeContentList.add(writeContent);
 		}
-		//默认刷到page cache中，
-		//如果需要强制刷盘，这里要兼容
-		putMessageLock.lock();
+		int index = 0;
+		while (index < writeContentList.size()) {
+			MappedFile mappedFile;
+			int startPos;
+			int count;
+			int length;
+			while (true) {
+				mappedFile = this.currentMappedFile;
+				startPos = mappedFile.getWritePosition().get();
+				//需要给文件末尾的空白记录预留空间
+				int available = mappedFile.getFileSize() - CommitLogMessageModel.BLANK_SIZE - startPos;
+				count = 0;
+				length = 0;
+				while (index + count < writeContentList.size() && length + writeContentList.get(index + count).length <= available) {
+					length += writeContentList.get(index + count).length;
+					count++;
+				}
+				if (count == 0) {
+					//空间不足，需要创建新的commitLog文件并且做映射
+					this.rollToNewCommitLogFile(mappedFile);
+					continue;
+				}
+				if (mappedFile.getWritePosition().compareAndSet(startPos, startPos + length)) {
+					break;
+				}
+			}
+			//预留成功之后无论成功失败都必须推进提交位点，否则后面所有的写入线程都会一直等待
+			AtomicInteger commitPosition = mappedFile.getCommitPosition();
+			int endPos = startPos + length;
+			boolean copied = false;
+			try {
+				//每个线程持有独立的position，写入自己预留的区间
+				ByteBuffer writeBuffer = mappedFile.getAppendBuffer().duplicate();
+				writeBuffer.position(startPos);
+				for (int i = 0; i < count; i++) {
+					writeBuffer.put(writeContentList.get(index + i));
+				}
+				copied = true;
+				//等待前面的区间提交完成
+				this.awaitCommitPosition(commitPosition, startPos);
+				//提交窗口内是串行执行的，队列的选择和队列位点的分配都在这里完成，保证和commitLog的顺序一致
+				int msgPos = startPos;
+				long storeTimestamp = System.currentTimeMillis();
+				for (int i = 0; i < count; i++) {
+					int queueId = this.selectQueueId(messageDTOList.get(index + i), eagleMqTopicModel);
+					long queueOffset = queueId >= 0 && queueId < queueOffsetTable.length ? queueOffsetTable[queueId]++ : 0L;
+					writeBuffer.putInt(msgPos + CommitLogMessageModel.QUEUE_ID_POSITION, queueId);
+					writeBuffer.putLong(msgPos + CommitLogMessageModel.QUEUE_OFFSET_POSITION, queueOffset);
+					writeBuffer.putLong(msgPos + CommitLogMessageModel.STORE_TIMESTAMP_POSITION, storeTimestamp);
+					msgPos += writeContentList.get(index + i).length;
+				}
+			} finally {
+				if (!copied) {
+					this.writePadding(mappedFile, startPos, length);
+				}
+				//拷贝失败时还没有等待前面的区间，已经等待过时这里直接返回
+				this.awaitCommitPosition(commitPosition, startPos);
+				eagleMqTopicModel.getCommitLogModel().getOffset().set(mappedFile.getFileFromOffset() + endPos);
+				commitPosition.set(endPos);
+			}
+			index += count;
+		}
+	}
+
+	/**
+	 * 等待提交位点推进到指定位置
+	 * 前面的写入线程通常只需要完成一次内存拷贝，先短暂自旋，仍然没有轮到自己时说明前面的线程被挂起，改为park避免持续占用CPU
+	 *
+	 * @param commitPosition 文件段的提交位点
+	 * @param expected       等待的位置
+	 */
+	private void awaitCommitPosition(AtomicInteger commitPosition, int expected) {
+		for (int i = 0; commitPosition.get() != expected; i++) {
+			if (i >= COMMIT_WAIT_SPIN_TIMES) {
+				LockSupport.parkNanos(COMMIT_WAIT_PARK_NANOS);
+			}
+		}
+	}
+
+	/**
+	 * 拷贝消息失败时用一条合法的空消息填满预留的区间，queueId为-1不会被分发，顺序扫描和恢复可以直接跳过
+	 */
+	private void writePadding(MappedFile mappedFile, int startPos, int length) {
+		try {
+			CommitLogMessageModel paddingModel = new CommitLogMessageModel();
+			paddingModel.setQueueId(-1);
+			paddingModel.setContent(new byte[length - CommitLogMessageModel.HEADER_SIZE]);
+			ByteBuffer writeBuffer = mappedFile.getAppendBuffer().duplicate();
+			writeBuffer.position(startPos);
+			writeBuffer.put(paddingModel.convertToBytes());
+		} catch (RuntimeException e) {
+			log.error("write commitLog padding error, topic is {}, fileName is {}, pos is {}", topic, mappedFile.getFileName(), startPos, e);
+		}
+	}
+
+	/**
+	 * 将消息转换成commitLog的存储模型，queueId、队列位点和存储时间会在提交窗口中回填
+	 *
+	 * @param messageDTO 消息数据传输对象
+	 * @return commitLog存储模型
+	 */
+	private CommitLogMessageModel buildCommitLogMessageModel(MessageDTO messageDTO) {
 		CommitLogMessageModel commitLogMessageModel = new CommitLogMessageModel();
 		commitLogMessageModel.setContent(messageDTO.getBody());
-		this.checkCommitLogHasEnableSpace(commitLogMessageModel);
-		byte[] writeContent = commitLogMessageModel.convertToBytes();
-		mappedByteBuffer.put(writeContent);
-		AtomicInteger currentLatestMsgOffset = commitLogModel.getOffset();
-		this.dispatcher(messageDTO, currentLatestMsgOffset.get());
-		currentLatestMsgOffset.addAndGet(writeContent.length);
-		if (force) {
-			//强制刷盘 确保数据写入物理磁盘
-			mappedByteBuffer.force();
+		commitLogMessageModel.setQueueId(-1);
+		commitLogMessageModel.setBornTimestamp(System.currentTimeMillis());
+		commitLogMessageModel.setRetryTimes(messageDTO.getCurrentRetryTimes());
+		int flags = 0;
+		if (messageDTO.isRetry()) {
+			flags |= CommitLogMessageModel.FLAG_RETRY;
+		}
+		if (messageDTO.getDelay() > 0) {
+			flags |= CommitLogMessageModel.FLAG_DELAY;
 		}
-		putMessageLock.unlock();
+		if (messageDTO.getTxFlag() >= 0) {
+			flags |= CommitLogMessageModel.FLAG_TX;
+		}
+		commitLogMessageModel.setFlags(flags);
+		commitLogMessageModel.getProperties().put(CommitLogMessageModel.PROPERTY_MSG_ID, messageDTO.getMsgId());
+		commitLogMessageModel.getProperties().put(CommitLogMessageModel.PROPERTY_PRODUCER_ID, messageDTO.getProducerId());
+		return commitLogMessageModel;
+	}
+
+	/**
+	 * 切换到新的commitLog文件
+	 * 先冻结旧文件段的预留位点，等待所有已预留的区间提交完成后，写入文件结束标记并刷盘，
+	 * 新文件已经由预分配服务提前映射和预热，这里只需要替换当前文件的引用
+	 *
+	 * @param fullMappedFile 空间不足的文件段
+	 * @throws IOException 如果文件操作失败
+	 */
+	private void rollToNewCommitLogFile(MappedFile fullMappedFile) throws IOException {
+		putMessageLock.lock();
+		try {
+			if (this.currentMappedFile != fullMappedFile) {
+				//其他线程已经完成了切换
+				return;
+			}
+			//冻结预留位点，后续的线程读取到文件大小后都会进入切换流程
+			int fileSize = fullMappedFile.getFileSize();
+			int reservedEnd = fullMappedFile.getWritePosition().getAndSet(fileSize);
+			//已经预留的区间在finally中一定会提交，这里的等待是有限的
+			this.awaitCommitPosition(fullMappedFile.getCommitPosition(), reservedEnd);
+			//写入空白记录，顺序扫描时读到它就可以直接跳到下一个文件
+			ByteBuffer fullBuffer = fullMappedFile.getAppendBuffer();
+			fullBuffer.putInt(reservedEnd, fileSize - reservedEnd);
+			fullBuffer.putInt(reservedEnd + 4, CommitLogMessageModel.BLANK_MAGIC_CODE);
+			fullMappedFile.getCommitPosition().set(fileSize);
+			//旧文件在切换前先刷盘，避免刷盘线程只能看到新文件导致旧文件末尾数据丢失
+			fullMappedFile.flush();
+			//文件名就是新文件的起始全局偏移量，同时会提交下一个文件的预分配请求
+			MappedFile newMappedFile = mappedFileQueue.createMappedFile(fullMappedFile.getFileFromOffset() + fileSize);
+			this.initWriteBuffer(newMappedFile);
+			CommitLogModel commitLogModel = CommonCache.getEagleMqTopicModelMap().get(this.topic).getCommitLogModel();
+			commitLogModel.setFileName(newMappedFile.getFileName());
+			commitLogModel.getOffset().set(newMappedFile.getFileFromOffset());
+			this.currentMappedFile = newMappedFile;
+		} finally {
+			putMessageLock.unlock();
+		}
+	}
+
+	/**
+	 * 将当前映射的commitLog内容强制刷到磁盘
+	 *
+	 * @throws IOException 如果刷盘失败
+	 */
+	public void flush() throws IOException {
+		currentMappedFile.flush();
+	}
+
+	/**
+	 * 将当前文件写缓冲区中的数据写入文件通道
+	 *
+	 * @throws IOException 如果写入失败
+	 */
+	public void commit() throws IOException {
+		currentMappedFile.commit();
 	}
 
 	/**
 	 * 从指定位置读取消息内容
-	 * 从CommitLog文件的指定偏移量位置读取指定长度的消息内容
+	 * 根据全局物理偏移量找到所在的文件段，解析一条完整的消息，返回其中的消息体
 	 *
-	 * @param pos    起始读取位置
-	 * @param length 要读取的字节长度
+	 * @param phyOffset 消息起始的全局物理偏移量
+	 * @param length    消息在commitLog中的总长度
 	 * @return 包含读取内容及元数据的数据传输对象
 	 */
-	public ConsumeMsgCommitLogDTO readContent(int pos, int length) {
-		ByteBuffer readBuf = readByteBuffer.slice();
-		readBuf.position(pos);
-		byte[] readBytes = new byte[length];
-		readBuf.get(readBytes);
+	public ConsumeMsgCommitLogDTO readContent(long phyOffset, int length) {
+		MappedFile mappedFile = mappedFileQueue.findMappedFileByOffset(phyOffset);
+		if (mappedFile == null) {
+			throw new IllegalStateException("commitLog file not found, topic is " + topic + ", offset is " + phyOffset);
+		}
+		int pos = (int) (phyOffset - mappedFile.getFileFromOffset());
+		CommitLogMessageModel commitLogMessageModel = mappedFile.readMessage(pos);
+		if (commitLogMessageModel.getMagic() != CommitLogMessageModel.MESSAGE_MAGIC_CODE || commitLogMessageModel.getTotalSize() != length) {
+			throw new IllegalStateException("commitLog msg is inValid, topic is " + topic + ", offset is " + phyOffset);
+		}
 		ConsumeMsgCommitLogDTO consumeMsgCommitLogDTO = new ConsumeMsgCommitLogDTO();
-		consumeMsgCommitLogDTO.setBody(readBytes);
-		consumeMsgCommitLogDTO.setFileName(file.getName());
-		consumeMsgCommitLogDTO.setCommitLogOffset(pos);
+		consumeMsgCommitLogDTO.setBody(commitLogMessageModel.getContent());
+		consumeMsgCommitLogDTO.setFileName(mappedFile.getFileName());
+		consumeMsgCommitLogDTO.setCommitLogOffset(phyOffset);
 		consumeMsgCommitLogDTO.setCommitLogSize(length);
 		return consumeMsgCommitLogDTO;
 	}
 
 	/**
-	 * 消息分发处理
-	 * 将消息的索引信息写入对应的ConsumeQueue，便于消费者快速定位消息
+	 * 获取指定消息的消息体，优先直接引用映射内存，用于零拷贝发送
+	 * 开启写缓冲池并且消息还没有写入文件时，退化为拷贝一份消息体
 	 *
-	 * @param messageDTO 消息数据传输对象
-	 * @param msgIndex   CommitLog中的消息索引位置
+	 * @param phyOffset 消息起始的全局物理偏移量
+	 * @param length    消息在commitLog中的总长度
+	 * @return 消息体
 	 */
-	private void dispatcher(MessageDTO messageDTO, int msgIndex) {
-		EagleMqTopicModel eagleMqTopicModel = CommonCache.getEagleMqTopicModelMap().get(topic);
-		if (eagleMqTopicModel == null) {
-			throw new RuntimeException("topic is undefined");
+	public ByteBuffer readBodySlice(long phyOffset, int length) {
+		MappedFile mappedFile = mappedFileQueue.findMappedFileByOffset(phyOffset);
+		if (mappedFile == null) {
+			throw new IllegalStateException("commitLog file not found, topic is " + topic + ", offset is " + phyOffset);
 		}
-		int queueId;
-		if (messageDTO.getQueueId() >= 0) {
-			queueId = messageDTO.getQueueId();
-		} else {
-			//todo 后续大家可以在这里自由扩展不同的消息分派策略
-			int queueSize = eagleMqTopicModel.getQueueList().size();
-			queueId = new Random().nextInt(queueSize);
+		ByteBuffer msgBuffer = mappedFile.selectMappedBuffer((int) (phyOffset - mappedFile.getFileFromOffset()), length);
+		if (msgBuffer == null) {
+			return ByteBuffer.wrap(this.readContent(phyOffset, length).getBody());
+		}
+		if (msgBuffer.getInt(4) != CommitLogMessageModel.MESSAGE_MAGIC_CODE || msgBuffer.getInt(0) != length) {
+			throw new IllegalStateException("commitLog msg is inValid, topic is " + topic + ", offset is " + phyOffset);
 		}
-		ConsumeQueueDetailModel consumeQueueDetailModel = new ConsumeQueueDetailModel();
-		consumeQueueDetailModel.setCommitLogFilename(Integer.parseInt(eagleMqTopicModel.getCommitLogModel().getFileName()));
-		consumeQueueDetailModel.setMsgIndex(msgIndex);
-		consumeQueueDetailModel.setRetryTimes(messageDTO.getCurrentRetryTimes());
-		consumeQueueDetailModel.setMsgLength(messageDTO.getBody().length);
-		byte[] content = consumeQueueDetailModel.convertToBytes();
-		log.info("写入队列数据：{}", JSON.toJSONString(consumeQueueDetailModel));
-		List<ConsumeQueueMMapFileModel> queueModelList = CommonCache.getConsumeQueueMMapFileModelManager().get(topic);
-		ConsumeQueueMMapFileModel consumeQueueMMapFileModel = queueModelList.stream().filter(queueModel -> queueModel.getQueueId().equals(queueId)).findFirst().orElse(null);
-		consumeQueueMMapFileModel.writeContent(content);
-		//刷新队列的偏移量
-		QueueModel queueModel = eagleMqTopicModel.getQueueList().get(queueId);
-		queueModel.getLatestOffset().addAndGet(content.length);
+		int propertiesLength = msgBuffer.getShort(CommitLogMessageModel.PROPERTIES_LENGTH_POSITION) & 0xFFFF;
+		msgBuffer.position(CommitLogMessageModel.HEADER_SIZE + propertiesLength);
+		return msgBuffer.slice();
 	}
 
 	/**
-	 * 检查CommitLog文件是否有足够空间
-	 * 如果剩余空间不足以存储新消息，则创建新的CommitLog文件
+	 * 选择消息写入的队列
 	 *
-	 * @param commitLogMessageModel 待写入的消息模型
-	 * @throws IOException 如果文件操作失败
+	 * @param messageDTO        消息数据传输对象
+	 * @param eagleMqTopicModel 主题配置
+	 * @return 队列id
 	 */
-	private void checkCommitLogHasEnableSpace(CommitLogMessageModel commitLogMessageModel) throws IOException {
-		EagleMqTopicModel eagleMqTopicModel = CommonCache.getEagleMqTopicModelMap().get(this.topic);
-		CommitLogModel commitLogModel = eagleMqTopicModel.getCommitLogModel();
-		long writeAbleOffsetNum = commitLogModel.countDiff();
-		//空间不足，需要创建新的commitLog文件并且做映射
-		if (!(writeAbleOffsetNum >= commitLogMessageModel.convertToBytes().length)) {
-			//00000000文件 -》00000001文件
-			//commitLog剩余150byte大小的空间，最新的消息体积是151byte
-			CommitLogFilePath commitLogFilePath = this.createNewCommitLogFile(topic, commitLogModel);
-			commitLogModel.setOffsetLimit(Long.valueOf(BrokerConstants.COMMIT_LOG_DEFAULT_MMAP_SIZE));
-			commitLogModel.setOffset(new AtomicInteger(0));
-			commitLogModel.setFileName(commitLogFilePath.getFileName());
-			//新文件路径映射进来
-			this.doMMap(commitLogFilePath.getFilePath(), 0, BrokerConstants.COMMIT_LOG_DEFAULT_MMAP_SIZE);
+	private int selectQueueId(MessageDTO messageDTO, EagleMqTopicModel eagleMqTopicModel) {
+		int queueId = messageDTO.getQueueId();
+		if (queueId < 0 && eagleMqTopicModel.getQueueList() != null) {
+			//todo 后续大家可以在这里自由扩展不同的消息分派策略
+			int queueSize = eagleMqTopicModel.getQueueList().size();
+			queueId = ThreadLocalRandom.current().nextInt(queueSize);
 		}
+		return queueId;
 	}
 
 	/**
@@ -268,10 +505,14 @@ public class CommitLogMMapFileModel {
 	 * 清理MappedByteBuffer占用的直接内存，防止内存泄漏
 	 */
 	public void clean() {
-		if (mappedByteBuffer == null || !mappedByteBuffer.isDirect() || mappedByteBuffer.capacity() == 0) {
-			return;
+		for (MappedFile mappedFile : mappedFileQueue.getMappedFiles()) {
+			MappedByteBuffer mappedByteBuffer = mappedFile.getMappedByteBuffer();
+			if (mappedByteBuffer == null || !mappedByteBuffer.isDirect() || mappedByteBuffer.capacity() == 0) {
+				continue;
+			}
+			invoke(invoke(viewed(mappedByteBuffer), "cleaner"), "clean");
+			mappedFile.close();
 		}
-		invoke(invoke(viewed(mappedByteBuffer), "cleaner"), "clean");
 	}
 
 	/**
@@ -339,49 +580,4 @@ public class CommitLogMMapFileModel {
 			return viewed(viewedBuffer);
 		}
 	}
-
-	/**
-	 * CommitLog文件路径信息类
-	 * 用于封装CommitLog文件的名称和路径信息
-	 */
-	@Setter
-	@Getter
-	class CommitLogFilePath {
-		/**
-		 * 文件名
-		 */
-		private String fileName;
-		/**
-		 * 完整文件路径
-		 */
-		private String filePath;
-
-		public CommitLogFilePath(String fileName, String filePath) {
-			this.fileName = fileName;
-			this.filePath = filePath;
-		}
-
-	}
-
-	/**
-	 * 创建新的CommitLog文件
-	 * 当当前CommitLog文件写满时，创建新的文件��续写入
-	 *
-	 * @param topicName      主题名称
-	 * @param commitLogModel CommitLog模型
-	 * @return 新创建的CommitLog文件路径信息
-	 */
-	private CommitLogFilePath createNewCommitLogFile(String topicName, CommitLogModel commitLogModel) {
-		String newFileName = LogFileNameUtil.incrCommitLogFileName(commitLogModel.getFileName());
-		String newFilePath = LogFileNameUtil.buildCommitLogFilePath(topicName, newFileName);
-		File newCommitLogFile = new File(newFilePath);
-		try {
-			//新的commitLog文件创建
-			newCommitLogFile.createNewFile();
-			log.info("创建了新的commitLog文件");
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
-		return new CommitLogFilePath(newFileName, newFilePath);
-	}
 }
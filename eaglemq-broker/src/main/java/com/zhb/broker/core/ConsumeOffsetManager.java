@@ -0,0 +1,302 @@
+package com.zhb.broker.core;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * 消费位点管理
+ * 每个(topic, 消费组)对应一个位点表，位点表分配一个递增的int id，各个队列的位点保存在AtomicLongArray中，下标就是队列id
+ * 读取位点不加锁也不产生对象；更新位点按照位点表id分段加锁，不同消费组之间的更新互不影响
+ * 持久化使用二进制快照，只有位点发生变化时才生成，没有变化的位点表直接复用上一次编码的结果
+ * 快照格式：magic(4) + version(4) + 位点表数量(4) + 位点表... + crc32(8)，
+ * 位点表格式：topic长度(4) + topic + 消费组长度(4) + 消费组 + 队列数量(4) + 每个队列的位点(8)
+ */
+public class ConsumeOffsetManager {
+
+	private static final int SNAPSHOT_MAGIC = 0x4551_4F46;
+	private static final int SNAPSHOT_VERSION = 1;
+	private static final int SNAPSHOT_HEADER_SIZE = 12;
+	private static final int SNAPSHOT_CHECKSUM_SIZE = 8;
+	private static final int LOCK_STRIPE_COUNT = 16;
+
+	/**
+	 * topic -> 消费组 -> 位点表，按照两级key查找，不需要拼接字符串
+	 */
+	private final ConcurrentHashMap<String, ConcurrentHashMap<String, OffsetTable>> offsetTableMap = new ConcurrentHashMap<>();
+	private final AtomicInteger offsetTableIdGenerator = new AtomicInteger(0);
+	private final ReentrantLock[] stripeLocks = new ReentrantLock[LOCK_STRIPE_COUNT];
+	/**
+	 * 每次位点变化加一，和上一次持久化时的值相同说明不需要生成快照
+	 */
+	private final AtomicLong changeVersion = new AtomicLong(0);
+	private volatile long persistedVersion = 0;
+
+	public ConsumeOffsetManager() {
+		for (int i = 0; i < LOCK_STRIPE_COUNT; i++) {
+			stripeLocks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * 获取消费位点
+	 *
+	 * @param topic        主题
+	 * @param consumeGroup 消费组
+	 * @param queueId      队列id
+	 * @return consumeQueue中的位置，消费组第一次消费时为0
+	 */
+	public long getOffset(String topic, String consumeGroup, int queueId) {
+		OffsetTable offsetTable = this.getOffsetTable(topic, consumeGroup);
+		if (offsetTable == null) {
+			return 0;
+		}
+		AtomicLongArray offsets = offsetTable.offsets;
+		return queueId < offsets.length() ? offsets.get(queueId) : 0;
+	}
+
+	/**
+	 * 提交消费位点，位点只会向前推进
+	 *
+	 * @param topic        主题
+	 * @param consumeGroup 消费组
+	 * @param queueId      队列id
+	 * @param offset       新的位点
+	 * @return 位点是否发生了变化
+	 */
+	public boolean commitOffset(String topic, String consumeGroup, int queueId, long offset) {
+		OffsetTable offsetTable = this.getOrCreateOffsetTable(topic, consumeGroup);
+		ReentrantLock lock = this.stripeLock(offsetTable);
+		lock.lock();
+		try {
+			AtomicLongArray offsets = this.ensureCapacity(offsetTable, queueId);
+			if (offset <= offsets.get(queueId)) {
+				return false;
+			}
+			offsets.set(queueId, offset);
+			this.markChanged(offsetTable);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 消费位点增加delta，不会超过maxOffset，位点只会向前推进
+	 *
+	 * @param topic        主题
+	 * @param consumeGroup 消费组
+	 * @param queueId      队列id
+	 * @param delta        增加的字节数
+	 * @param maxOffset    位点的上限，一般是队列已经分发的位置
+	 * @return 增加之后的位点
+	 */
+	public long addOffset(String topic, String consumeGroup, int queueId, long delta, long maxOffset) {
+		OffsetTable offsetTable = this.getOrCreateOffsetTable(topic, consumeGroup);
+		ReentrantLock lock = this.stripeLock(offsetTable);
+		lock.lock();
+		try {
+			AtomicLongArray offsets = this.ensureCapacity(offsetTable, queueId);
+			long currentOffset = offsets.get(queueId);
+			long newOffset = Math.min(currentOffset + delta, maxOffset);
+			if (newOffset <= currentOffset) {
+				return currentOffset;
+			}
+			offsets.set(queueId, newOffset);
+			this.markChanged(offsetTable);
+			return newOffset;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 位点发生变化之后生成快照，没有变化时返回null
+	 * 返回的版本号需要在快照写入磁盘之后通过markPersisted确认，写入失败时下一次会重新生成
+	 *
+	 * @return 快照，没有变化时返回null
+	 */
+	public Snapshot snapshotIfChanged() {
+		long version = changeVersion.get();
+		if (version == persistedVersion) {
+			return null;
+		}
+		List<byte[]> segments = new ArrayList<>();
+		int totalSize = SNAPSHOT_HEADER_SIZE + SNAPSHOT_CHECKSUM_SIZE;
+		for (ConcurrentHashMap<String, OffsetTable> groupOffsetTableMap : offsetTableMap.values()) {
+			for (OffsetTable offsetTable : groupOffsetTableMap.values()) {
+				byte[] segment = this.encode(offsetTable);
+				segments.add(segment);
+				totalSize += segment.length;
+			}
+		}
+		ByteBuffer byteBuffer = ByteBuffer.allocate(totalSize);
+		byteBuffer.putInt(SNAPSHOT_MAGIC);
+		byteBuffer.putInt(SNAPSHOT_VERSION);
+		byteBuffer.putInt(segments.size());
+		for (byte[] segment : segments) {
+			byteBuffer.put(segment);
+		}
+		CRC32 crc32 = new CRC32();
+		crc32.update(byteBuffer.array(), 0, byteBuffer.position());
+		byteBuffer.putLong(crc32.getValue());
+		return new Snapshot(byteBuffer.array(), version);
+	}
+
+	/**
+	 * 快照已经写入磁盘
+	 */
+	public void markPersisted(Snapshot snapshot) {
+		persistedVersion = snapshot.version;
+	}
+
+	/**
+	 * 从快照恢复位点，只在启动时调用
+	 *
+	 * @param content 快照内容
+	 * @throws IllegalStateException 快照格式错误或者校验失败
+	 */
+	public void load(byte[] content) {
+		if (content.length < SNAPSHOT_HEADER_SIZE + SNAPSHOT_CHECKSUM_SIZE) {
+			throw new IllegalStateException("consume offset snapshot is truncated, size is " + content.length);
+		}
+		ByteBuffer byteBuffer = ByteBuffer.wrap(content);
+		int checksumIndex = content.length - SNAPSHOT_CHECKSUM_SIZE;
+		CRC32 crc32 = new CRC32();
+		crc32.update(content, 0, checksumIndex);
+		if (crc32.getValue() != byteBuffer.getLong(checksumIndex)) {
+			throw new IllegalStateException("consume offset snapshot checksum mismatch");
+		}
+		if (byteBuffer.getInt() != SNAPSHOT_MAGIC || byteBuffer.getInt() != SNAPSHOT_VERSION) {
+			throw new IllegalStateException("consume offset snapshot format is not supported");
+		}
+		int tableCount = byteBuffer.getInt();
+		for (int i = 0; i < tableCount; i++) {
+			String topic = this.readString(byteBuffer);
+			String consumeGroup = this.readString(byteBuffer);
+			int queueCount = byteBuffer.getInt();
+			for (int queueId = 0; queueId < queueCount; queueId++) {
+				this.commitOffset(topic, consumeGroup, queueId, byteBuffer.getLong());
+			}
+		}
+		//和磁盘上的快照一致，不需要重新写入
+		persistedVersion = changeVersion.get();
+	}
+
+	private OffsetTable getOffsetTable(String topic, String consumeGroup) {
+		ConcurrentHashMap<String, OffsetTable> groupOffsetTableMap = offsetTableMap.get(topic);
+		return groupOffsetTableMap == null ? null : groupOffsetTableMap.get(consumeGroup);
+	}
+
+	private OffsetTable getOrCreateOffsetTable(String topic, String consumeGroup) {
+		OffsetTable offsetTable = this.getOffsetTable(topic, consumeGroup);
+		if (offsetTable != null) {
+			return offsetTable;
+		}
+		return offsetTableMap.computeIfAbsent(topic, key -> new ConcurrentHashMap<>())
+			.computeIfAbsent(consumeGroup, key -> new OffsetTable(offsetTableIdGenerator.getAndIncrement(), topic, consumeGroup));
+	}
+
+	private ReentrantLock stripeLock(OffsetTable offsetTable) {
+		return stripeLocks[offsetTable.id & (LOCK_STRIPE_COUNT - 1)];
+	}
+
+	/**
+	 * 队列数量超过位点数组长度时扩容，调用方需要持有分段锁，旧数组上的并发读取最多读到扩容前的值
+	 */
+	private AtomicLongArray ensureCapacity(OffsetTable offsetTable, int queueId) {
+		AtomicLongArray offsets = offsetTable.offsets;
+		if (queueId < offsets.length()) {
+			return offsets;
+		}
+		AtomicLongArray newOffsets = new AtomicLongArray(queueId + 1);
+		for (int i = 0; i < offsets.length(); i++) {
+			newOffsets.set(i, offsets.get(i));
+		}
+		offsetTable.offsets = newOffsets;
+		return newOffsets;
+	}
+
+	private void markChanged(OffsetTable offsetTable) {
+		offsetTable.encodedSegment = null;
+		changeVersion.incrementAndGet();
+	}
+
+	/**
+	 * 编码一个位点表，没有变化时复用上一次的编码结果
+	 */
+	private byte[] encode(OffsetTable offsetTable) {
+		ReentrantLock lock = this.stripeLock(offsetTable);
+		lock.lock();
+		try {
+			if (offsetTable.encodedSegment != null) {
+				return offsetTable.encodedSegment;
+			}
+			byte[] topicBytes = offsetTable.topic.getBytes(StandardCharsets.UTF_8);
+			byte[] consumeGroupBytes = offsetTable.consumeGroup.getBytes(StandardCharsets.UTF_8);
+			AtomicLongArray offsets = offsetTable.offsets;
+			ByteBuffer byteBuffer = ByteBuffer.allocate(4 + topicBytes.length + 4 + consumeGroupBytes.length + 4 + offsets.length() * 8);
+			byteBuffer.putInt(topicBytes.length);
+			byteBuffer.put(topicBytes);
+			byteBuffer.putInt(consumeGroupBytes.length);
+			byteBuffer.put(consumeGroupBytes);
+			byteBuffer.putInt(offsets.length());
+			for (int i = 0; i < offsets.length(); i++) {
+				byteBuffer.putLong(offsets.get(i));
+			}
+			offsetTable.encodedSegment = byteBuffer.array();
+			return offsetTable.encodedSegment;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private String readString(ByteBuffer byteBuffer) {
+		byte[] bytes = new byte[byteBuffer.getInt()];
+		byteBuffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * 单个(topic, 消费组)的位点表
+	 */
+	private static class OffsetTable {
+
+		private final int id;
+		private final String topic;
+		private final String consumeGroup;
+		private volatile AtomicLongArray offsets = new AtomicLongArray(0);
+		//上一次编码的结果，位点变化之后置为null，由分段锁保护
+		private byte[] encodedSegment;
+
+		private OffsetTable(int id, String topic, String consumeGroup) {
+			this.id = id;
+			this.topic = topic;
+			this.consumeGroup = consumeGroup;
+		}
+	}
+
+	/**
+	 * 位点快照
+	 */
+	@Getter
+	public static class Snapshot {
+
+		private final byte[] content;
+		private final long version;
+
+		private Snapshot(byte[] content, long version) {
+			this.content = content;
+			this.version = version;
+		}
+	}
+}
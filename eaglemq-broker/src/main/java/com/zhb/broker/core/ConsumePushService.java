@@ -0,0 +1,371 @@
+package com.zhb.broker.core;
+
+import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.model.CommitLogBodySliceModel;
+import com.zhb.broker.rebalance.ConsumerInstance;
+import com.zhb.broker.utils.ConsumeMsgRespUtil;
+import com.zhb.common.coder.TcpMsg;
+import com.zhb.common.constants.BrokerConstants;
+import com.zhb.common.dto.ConsumeCreditReqDTO;
+import com.zhb.common.dto.ConsumeSubscribeReqDTO;
+import com.zhb.common.enums.BrokerResponseCode;
+import com.zhb.common.enums.SerializeTypeEnum;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.CollectionUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 推送模式的消费服务
+ * 消费者订阅一次之后，broker在同一个连接上持续推送分配给该消费者的队列中的消息，不需要每批消息一次拉取请求
+ * 流控使用额度：消费者授予可以推送的消息条数和字节数，每次推送扣减额度，消费者确认消费后归还额度，额度用完之后暂停推送；
+ * 同时连接不可写（发送缓冲区超过高水位）时也暂停推送，恢复可写之后继续
+ * 已经推送但是还没有确认的消息不会重复推送，推送位置和消费组的确认位点分开维护，连接断开或者队列重新分配之后从确认位点重新推送
+ */
+@Slf4j
+public class ConsumePushService {
+
+	/**
+	 * 连接上的订阅，订阅id和订阅的映射
+	 */
+	private static final AttributeKey<Map<String, PushSubscription>> PUSH_SUBSCRIPTION_KEY = AttributeKey.valueOf("push-subscription");
+
+	/**
+	 * topic和订阅了该topic的所有订阅的映射
+	 */
+	private final Map<String, Set<PushSubscription>> topicSubscriptionMap = new ConcurrentHashMap<>();
+	/**
+	 * 等待推送的订阅，同一个订阅在队列中最多出现一次
+	 */
+	private final LinkedBlockingQueue<PushSubscription> pushQueue = new LinkedBlockingQueue<>();
+
+	/**
+	 * 启动推送线程
+	 * 订阅有新消息、额度归还、连接恢复可写时会被放入推送队列；同时按照固定间隔检查所有订阅，感知重平衡后的队列变化，
+	 * 推送队列一直不空时也不会错过检查
+	 */
+	public void start() {
+		Thread pushTask = new Thread(() -> {
+			long nextCheckTime = System.currentTimeMillis() + BrokerConstants.CONSUME_PUSH_CHECK_INTERVAL_MILLS;
+			while (true) {
+				try {
+					long waitMills = nextCheckTime - System.currentTimeMillis();
+					if (waitMills <= 0) {
+						this.scheduleAll();
+						nextCheckTime = System.currentTimeMillis() + BrokerConstants.CONSUME_PUSH_CHECK_INTERVAL_MILLS;
+						continue;
+					}
+					PushSubscription pushSubscription = pushQueue.poll(waitMills, TimeUnit.MILLISECONDS);
+					if (pushSubscription == null) {
+						continue;
+					}
+					pushSubscription.scheduled.set(false);
+					this.push(pushSubscription);
+				} catch (InterruptedException e) {
+					log.error("consume push task interrupted");
+					return;
+				} catch (Exception e) {
+					log.error("push consume msg error:", e);
+				}
+			}
+		});
+		pushTask.setName("consume-push-task");
+		pushTask.setDaemon(true);
+		pushTask.start();
+	}
+
+	/**
+	 * 建立订阅，同一个连接上重复订阅时替换掉原来的订阅，推送位置和额度都重新开始
+	 *
+	 * @param channel                消费者连接
+	 * @param consumeSubscribeReqDTO 订阅请求
+	 * @param consumerReqId          消费者id，用于在重平衡结果中查找分配给它的队列
+	 */
+	public void subscribe(Channel channel, ConsumeSubscribeReqDTO consumeSubscribeReqDTO, String consumerReqId) {
+		PushSubscription pushSubscription = new PushSubscription(channel, consumeSubscribeReqDTO, consumerReqId);
+		Map<String, PushSubscription> channelSubscriptionMap = channel.attr(PUSH_SUBSCRIPTION_KEY).get();
+		if (channelSubscriptionMap == null) {
+			Map<String, PushSubscription> newSubscriptionMap = new ConcurrentHashMap<>();
+			channelSubscriptionMap = channel.attr(PUSH_SUBSCRIPTION_KEY).setIfAbsent(newSubscriptionMap);
+			if (channelSubscriptionMap == null) {
+				channelSubscriptionMap = newSubscriptionMap;
+			}
+		}
+		PushSubscription oldSubscription = channelSubscriptionMap.put(pushSubscription.subscriptionId, pushSubscription);
+		if (oldSubscription != null) {
+			this.close(oldSubscription);
+		}
+		topicSubscriptionMap.computeIfAbsent(pushSubscription.topic, key -> ConcurrentHashMap.newKeySet()).add(pushSubscription);
+		log.info("new push subscription, topic is {}, consumeGroup is {}, consumerReqId is {}", pushSubscription.topic,
+			pushSubscription.consumeGroup, consumerReqId);
+		this.schedule(pushSubscription);
+	}
+
+	/**
+	 * 提交消费位点并归还额度
+	 * 只提交当前分配给该消费者的队列的位点，队列已经重新分配给其他消费者之后到达的确认直接丢弃，由新的消费者继续推进，
+	 * 额度和队列无关，依然归还
+	 *
+	 * @param channel             消费者连接
+	 * @param consumeCreditReqDTO 确认消费和额度归还请求
+	 */
+	public void ackAndGrantCredit(Channel channel, ConsumeCreditReqDTO consumeCreditReqDTO) {
+		Map<String, PushSubscription> channelSubscriptionMap = channel.attr(PUSH_SUBSCRIPTION_KEY).get();
+		PushSubscription pushSubscription = channelSubscriptionMap == null ? null : channelSubscriptionMap.get(consumeCreditReqDTO.getMsgId());
+		if (pushSubscription == null) {
+			log.warn("push subscription not exist, subscriptionId is {}", consumeCreditReqDTO.getMsgId());
+			return;
+		}
+		Map<Integer, Integer> queueCommitOffsetMap = consumeCreditReqDTO.getQueueCommitOffsetMap();
+		if (queueCommitOffsetMap != null && !queueCommitOffsetMap.isEmpty()) {
+			List<Integer> queueIdList = this.getAssignedQueueIdList(pushSubscription);
+			for (Map.Entry<Integer, Integer> queueCommitOffsetEntry : queueCommitOffsetMap.entrySet()) {
+				if (!queueIdList.contains(queueCommitOffsetEntry.getKey())) {
+					log.warn("drop ack of unassigned queue, topic is {}, consumeGroup is {}, queueId is {}, consumerReqId is {}",
+						pushSubscription.topic, pushSubscription.consumeGroup, queueCommitOffsetEntry.getKey(), pushSubscription.consumerReqId);
+					continue;
+				}
+				CommonCache.getConsumeQueueConsumeHandler().commitOffset(pushSubscription.topic, pushSubscription.consumeGroup,
+					queueCommitOffsetEntry.getKey(), queueCommitOffsetEntry.getValue());
+			}
+		}
+		if (consumeCreditReqDTO.getCreditMsgCount() != null) {
+			pushSubscription.msgCredit.addAndGet(consumeCreditReqDTO.getCreditMsgCount());
+		}
+		if (consumeCreditReqDTO.getCreditBytes() != null) {
+			pushSubscription.byteCredit.addAndGet(consumeCreditReqDTO.getCreditBytes());
+		}
+		this.schedule(pushSubscription);
+	}
+
+	/**
+	 * 新的consumeQueue索引分发完成后，通知订阅了该topic的消费者
+	 *
+	 * @param topic   主题
+	 * @param queueId 队列id
+	 */
+	public void notifyMessageArriving(String topic, int queueId) {
+		Set<PushSubscription> pushSubscriptions = topicSubscriptionMap.get(topic);
+		if (pushSubscriptions == null) {
+			return;
+		}
+		for (PushSubscription pushSubscription : pushSubscriptions) {
+			this.schedule(pushSubscription);
+		}
+	}
+
+	/**
+	 * 连接的可写状态发生变化，恢复可写之后继续推送
+	 *
+	 * @param channel 消费者连接
+	 */
+	public void notifyWritabilityChanged(Channel channel) {
+		if (!channel.isWritable()) {
+			return;
+		}
+		Map<String, PushSubscription> channelSubscriptionMap = channel.attr(PUSH_SUBSCRIPTION_KEY).get();
+		if (channelSubscriptionMap == null) {
+			return;
+		}
+		for (PushSubscription pushSubscription : channelSubscriptionMap.values()) {
+			this.schedule(pushSubscription);
+		}
+	}
+
+	/**
+	 * 连接断开时移除连接上的所有订阅
+	 *
+	 * @param channel 消费者连接
+	 */
+	public void removeSubscriptions(Channel channel) {
+		Map<String, PushSubscription> channelSubscriptionMap = channel.attr(PUSH_SUBSCRIPTION_KEY).getAndSet(null);
+		if (channelSubscriptionMap == null) {
+			return;
+		}
+		for (PushSubscription pushSubscription : channelSubscriptionMap.values()) {
+			this.close(pushSubscription);
+		}
+	}
+
+	/**
+	 * 当前的订阅数量
+	 */
+	public int getSubscriptionCount() {
+		int subscriptionCount = 0;
+		for (Set<PushSubscription> pushSubscriptions : topicSubscriptionMap.values()) {
+			subscriptionCount += pushSubscriptions.size();
+		}
+		return subscriptionCount;
+	}
+
+	/**
+	 * 向订阅推送一批消息
+	 * 按照分配给消费者的队列依次读取，每个队列最多读取batchSize条，整批消息不超过剩余的条数额度和字节额度，
+	 * 字节额度只剩一部分时至少推送一条，避免单条消息超过额度时永远推送不出去
+	 */
+	private void push(PushSubscription pushSubscription) {
+		if (pushSubscription.closed) {
+			return;
+		}
+		Channel channel = pushSubscription.channel;
+		if (!channel.isActive()) {
+			this.close(pushSubscription);
+			return;
+		}
+		//不可写时等待可写状态变化的通知
+		if (!channel.isWritable()) {
+			return;
+		}
+		int msgCredit = pushSubscription.msgCredit.get();
+		long byteCredit = pushSubscription.byteCredit.get();
+		if (msgCredit <= 0 || byteCredit <= 0) {
+			return;
+		}
+		List<Integer> queueIdList = this.getAssignedQueueIdList(pushSubscription);
+		//不再分配给该消费者的队列丢弃推送位置，重新分配回来时从确认位点开始推送
+		pushSubscription.pushOffsetMap.keySet().retainAll(queueIdList);
+		ConsumeQueueConsumeHandler consumeQueueConsumeHandler = CommonCache.getConsumeQueueConsumeHandler();
+		Map<Integer, List<CommitLogBodySliceModel>> queueMsgMap = new LinkedHashMap<>();
+		int pushMsgCount = 0;
+		long pushBytes = 0;
+		boolean hasMore = false;
+		for (Integer queueId : queueIdList) {
+			if (msgCredit <= 0 || byteCredit <= 0) {
+				hasMore = true;
+				break;
+			}
+			int consumeOffset = consumeQueueConsumeHandler.getConsumeOffset(pushSubscription.topic, pushSubscription.consumeGroup, queueId);
+			Integer pushOffset = pushSubscription.pushOffsetMap.get(queueId);
+			//确认位点可能被其他途径推进，例如重试请求，推送位置不能落后于确认位点
+			if (pushOffset == null || pushOffset < consumeOffset) {
+				pushOffset = consumeOffset;
+			}
+			pushSubscription.pushOffsetMap.put(queueId, pushOffset);
+			int maxCount = Math.min(pushSubscription.batchSize, msgCredit);
+			List<CommitLogBodySliceModel> commitLogBodySliceModels = consumeQueueConsumeHandler.consumeBodySlices(pushSubscription.topic, queueId, pushOffset, maxCount);
+			if (CollectionUtils.isEmpty(commitLogBodySliceModels)) {
+				continue;
+			}
+			int count = 0;
+			for (CommitLogBodySliceModel commitLogBodySliceModel : commitLogBodySliceModels) {
+				int bodySize = commitLogBodySliceModel.getBody().remaining();
+				if (count > 0 && bodySize > byteCredit) {
+					break;
+				}
+				byteCredit -= bodySize;
+				pushBytes += bodySize;
+				count++;
+			}
+			boolean truncated = count < commitLogBodySliceModels.size();
+			if (truncated) {
+				commitLogBodySliceModels = new ArrayList<>(commitLogBodySliceModels.subList(0, count));
+			}
+			//被字节额度截断或者读满了一批，说明队列中可能还有消息
+			hasMore = hasMore || truncated || count == maxCount;
+			msgCredit -= count;
+			pushMsgCount += count;
+			pushSubscription.pushOffsetMap.put(queueId, pushOffset + count * BrokerConstants.CONSUME_QUEUE_EACH_MSG_SIZE);
+			queueMsgMap.put(queueId, commitLogBodySliceModels);
+		}
+		if (queueMsgMap.isEmpty()) {
+			return;
+		}
+		pushSubscription.msgCredit.addAndGet(-pushMsgCount);
+		pushSubscription.byteCredit.addAndGet(-pushBytes);
+		CompositeByteBuf body = ConsumeMsgRespUtil.buildRespBody(channel.alloc(), pushSubscription.subscriptionId, queueMsgMap);
+		channel.writeAndFlush(new TcpMsg(BrokerResponseCode.PUSH_CONSUME_MSG.getCode(), SerializeTypeEnum.BINARY.getCode(), body))
+			.addListener(channelFuture -> {
+				if (!channelFuture.isSuccess()) {
+					log.error("push consume msg fail, topic is {}, consumerReqId is {}", pushSubscription.topic,
+						pushSubscription.consumerReqId, channelFuture.cause());
+				}
+			});
+		if (hasMore) {
+			this.schedule(pushSubscription);
+		}
+	}
+
+	/**
+	 * 从重平衡结果中查找分配给订阅所属消费者的队列
+	 */
+	private List<Integer> getAssignedQueueIdList(PushSubscription pushSubscription) {
+		Map<String, List<ConsumerInstance>> consumeGroupMap = CommonCache.getConsumeHoldMap().get(pushSubscription.topic);
+		if (consumeGroupMap == null) {
+			return new ArrayList<>();
+		}
+		List<ConsumerInstance> consumerInstances = consumeGroupMap.get(pushSubscription.consumeGroup);
+		if (CollectionUtils.isEmpty(consumerInstances)) {
+			return new ArrayList<>();
+		}
+		for (ConsumerInstance consumerInstance : consumerInstances) {
+			if (pushSubscription.consumerReqId.equals(consumerInstance.getConsumerReqId())) {
+				return new ArrayList<>(consumerInstance.getQueueIdSet());
+			}
+		}
+		return new ArrayList<>();
+	}
+
+	private void schedule(PushSubscription pushSubscription) {
+		if (!pushSubscription.closed && pushSubscription.scheduled.compareAndSet(false, true)) {
+			pushQueue.offer(pushSubscription);
+		}
+	}
+
+	private void scheduleAll() {
+		for (Set<PushSubscription> pushSubscriptions : topicSubscriptionMap.values()) {
+			for (PushSubscription pushSubscription : pushSubscriptions) {
+				this.schedule(pushSubscription);
+			}
+		}
+	}
+
+	private void close(PushSubscription pushSubscription) {
+		pushSubscription.closed = true;
+		Set<PushSubscription> pushSubscriptions = topicSubscriptionMap.get(pushSubscription.topic);
+		if (pushSubscriptions != null) {
+			pushSubscriptions.remove(pushSubscription);
+		}
+	}
+
+	private static class PushSubscription {
+
+		private final Channel channel;
+		private final String subscriptionId;
+		private final String topic;
+		private final String consumeGroup;
+		private final String consumerReqId;
+		private final int batchSize;
+		private final AtomicInteger msgCredit;
+		private final AtomicLong byteCredit;
+		/**
+		 * 队列id和下一条待推送消息在consumeQueue中的位置，只在推送线程中修改
+		 */
+		private final Map<Integer, Integer> pushOffsetMap = new ConcurrentHashMap<>();
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+		private volatile boolean closed;
+
+		private PushSubscription(Channel channel, ConsumeSubscribeReqDTO consumeSubscribeReqDTO, String consumerReqId) {
+			this.channel = channel;
+			this.subscriptionId = consumeSubscribeReqDTO.getMsgId();
+			this.topic = consumeSubscribeReqDTO.getTopic();
+			this.consumeGroup = consumeSubscribeReqDTO.getConsumeGroup();
+			this.consumerReqId = consumerReqId;
+			this.batchSize = consumeSubscribeReqDTO.getBatchSize();
+			this.msgCredit = new AtomicInteger(consumeSubscribeReqDTO.getCreditMsgCount());
+			this.byteCredit = new AtomicLong(consumeSubscribeReqDTO.getCreditBytes());
+		}
+	}
+}
@@ -2,14 +2,11 @@ package com.zhb.broker.core;
 
 import com.zhb.broker.cache.CommonCache;
 import com.zhb.broker.model.*;
-import com.zhb.broker.utils.AckMessageLock;
-import com.zhb.broker.utils.UnfailReentrantLock;
+import com.zhb.common.constants.BrokerConstants;
 import com.zhb.common.dto.ConsumeMsgCommitLogDTO;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * 消费队列消费处理器
@@ -17,11 +14,6 @@ import java.util.Map;
  * 提供批量消费和消费确认（ACK）功能
  */
 public class ConsumeQueueConsumeHandler {
-	/**
-	 * 消息确认锁
-	 * 用于保证消息确认（ACK）操作的线程安全
-	 */
-	public AckMessageLock ackMessageLock = new UnfailReentrantLock();
 
 	/**
 	 * 消费指定数量的消息
@@ -31,7 +23,91 @@ public class ConsumeQueueConsumeHandler {
 	 * @return 消费消息列表，包含从CommitLog中读取的原始消息内容
 	 */
 	public List<ConsumeMsgCommitLogDTO> consume(ConsumeQueueConsumeReqModel consumeQueueConsumeReqModel) {
+		List<ConsumeQueueDetailModel> consumeQueueDetailModels = this.readConsumeQueueDetails(consumeQueueConsumeReqModel);
+		if (consumeQueueDetailModels == null) {
+			return null;
+		}
+		CommitLogMMapFileModel commitLogMMapFileModel = CommonCache.getCommitLogMMapFileModelManager().get(consumeQueueConsumeReqModel.getTopic());
+		List<ConsumeMsgCommitLogDTO> commitLogBodyContentList = new ArrayList<>();
+		// 根据消费队列中的索引信息，从CommitLog中读取实际消息内容
+		for (ConsumeQueueDetailModel consumeQueueDetailModel : consumeQueueDetailModels) {
+			ConsumeMsgCommitLogDTO commitLogContent = commitLogMMapFileModel.readContent(consumeQueueDetailModel.getCommitLogOffset(), consumeQueueDetailModel.getMsgLength());
+			commitLogContent.setRetryTimes(consumeQueueDetailModel.getRetryTimes());
+			commitLogBodyContentList.add(commitLogContent);
+		}
+		return commitLogBodyContentList;
+	}
+
+	/**
+	 * 消费指定数量的消息，消息体直接引用commitLog的映射内存，用于零拷贝发送给消费者
+	 *
+	 * @param consumeQueueConsumeReqModel 消费请求模型，包含主题、消费组、队列ID和批次大小等信息
+	 * @return 消息体切片列表，没有可消费的消息时返回null
+	 */
+	public List<CommitLogBodySliceModel> consumeBodySlices(ConsumeQueueConsumeReqModel consumeQueueConsumeReqModel) {
+		String topic = consumeQueueConsumeReqModel.getTopic();
+		Integer queueId = consumeQueueConsumeReqModel.getQueueId();
+		int consumeQueueOffset = this.getConsumeOffset(topic, consumeQueueConsumeReqModel.getConsumeGroup(), queueId);
+		return this.consumeBodySlices(topic, queueId, consumeQueueOffset, consumeQueueConsumeReqModel.getBatchSize());
+	}
+
+	/**
+	 * 从指定的consumeQueue位置开始读取消息，消息体直接引用commitLog的映射内存
+	 * 用于推送模式和消费端指定了拉取位置的拉取请求，已经发给消费者但是还没有确认的消息不能重复发送，所以读取位置由调用方维护，不使用消费组的消费位点
+	 *
+	 * @param topic              主题
+	 * @param queueId            队列id
+	 * @param consumeQueueOffset consumeQueue中的读取位置
+	 * @param maxCount           最多读取的消息条数
+	 * @return 消息体切片列表，没有可消费的消息时返回null
+	 */
+	public List<CommitLogBodySliceModel> consumeBodySlices(String topic, int queueId, int consumeQueueOffset, int maxCount) {
+		List<ConsumeQueueDetailModel> consumeQueueDetailModels = this.readConsumeQueueDetails(topic, queueId, consumeQueueOffset, maxCount);
+		if (consumeQueueDetailModels == null) {
+			return null;
+		}
+		return this.readBodySlices(topic, consumeQueueOffset, consumeQueueDetailModels);
+	}
+
+	/**
+	 * 获取消费组在指定队列上已经确认的消费位点，消费组第一次消费时为0
+	 *
+	 * @param topic        主题
+	 * @param consumeGroup 消费组
+	 * @param queueId      队列id
+	 * @return consumeQueue中的位置
+	 */
+	public int getConsumeOffset(String topic, String consumeGroup, int queueId) {
+		EagleMqTopicModel eagleMqTopicModel = CommonCache.getEagleMqTopicModelMap().get(topic);
+		if (eagleMqTopicModel == null) {
+			throw new RuntimeException("topic " + topic + " not exist!");
+		}
+		return (int) CommonCache.getConsumeOffsetManager().getOffset(topic, consumeGroup, queueId);
+	}
+
+	/**
+	 * 从消费组当前的消费位点开始读取一批consumeQueue索引
+	 *
+	 * @param consumeQueueConsumeReqModel 消费请求模型
+	 * @return consumeQueue索引列表，已经消费到队列尽头时返回null
+	 */
+	private List<ConsumeQueueDetailModel> readConsumeQueueDetails(ConsumeQueueConsumeReqModel consumeQueueConsumeReqModel) {
 		String topic = consumeQueueConsumeReqModel.getTopic();
+		Integer queueId = consumeQueueConsumeReqModel.getQueueId();
+		int consumeQueueOffset = this.getConsumeOffset(topic, consumeQueueConsumeReqModel.getConsumeGroup(), queueId);
+		return this.readConsumeQueueDetails(topic, queueId, consumeQueueOffset, consumeQueueConsumeReqModel.getBatchSize());
+	}
+
+	/**
+	 * 从指定位置开始读取一批consumeQueue索引
+	 *
+	 * @param topic              主题
+	 * @param queueId            队列id
+	 * @param consumeQueueOffset consumeQueue中的读取位置
+	 * @param batchSize          最多读取的条数
+	 * @return consumeQueue索引列表，已经读取到队列尽头时返回null
+	 */
+	private List<ConsumeQueueDetailModel> readConsumeQueueDetails(String topic, int queueId, int consumeQueueOffset, int batchSize) {
 		//1.检查参数合法性
 		//2.获取当前匹配的队列的最新的consumeQueue的offset是多少
 		//3.获取当前匹配的队列存储文件的mmap对象，然后读取offset地址的数据
@@ -39,35 +115,7 @@ public class ConsumeQueueConsumeHandler {
 		if (eagleMqTopicModel == null) {
 			throw new RuntimeException("topic " + topic + " not exist!");
 		}
-		String consumeGroup = consumeQueueConsumeReqModel.getConsumeGroup();
-		Integer queueId = consumeQueueConsumeReqModel.getQueueId();
-		Integer batchSize = consumeQueueConsumeReqModel.getBatchSize();
-		// 获取消费队列偏移量管理模型
-		ConsumeQueueOffsetModel.OffsetTable offsetTable = CommonCache.getConsumeQueueOffsetModel().getOffsetTable();
-		Map<String, ConsumeQueueOffsetModel.ConsumerGroupDetail> consumerGroupDetailMap = offsetTable.getTopicConsumerGroupDetail();
-		ConsumeQueueOffsetModel.ConsumerGroupDetail consumerGroupDetail = consumerGroupDetailMap.get(topic);
-		// 如果是首次消费，初始化消费者组详情
-		if (consumerGroupDetail == null) {
-			consumerGroupDetail = new ConsumeQueueOffsetModel.ConsumerGroupDetail();
-			consumerGroupDetailMap.put(topic, consumerGroupDetail);
-		}
-		// 获取消费组的偏移量详情
-		Map<String, Map<String, String>> consumeGroupOffsetMap = consumerGroupDetail.getConsumerGroupDetailMap();
-		Map<String, String> queueOffsetDetailMap = consumeGroupOffsetMap.get(consumeGroup);
-		List<QueueModel> queueList = eagleMqTopicModel.getQueueList();
-		// 如果是该消费组首次消费，初始化所有队列的偏移量为起始位置
-		if (queueOffsetDetailMap == null) {
-			queueOffsetDetailMap = new HashMap<>();
-			for (QueueModel queueModel : queueList) {
-				queueOffsetDetailMap.put(String.valueOf(queueModel.getId()), "00000000#0");
-			}
-			consumeGroupOffsetMap.put(consumeGroup, queueOffsetDetailMap);
-		}
-		// 获取当前队列的消费偏移量信息
-		String offsetStrInfo = queueOffsetDetailMap.get(String.valueOf(queueId));
-		String[] offsetStrArr = offsetStrInfo.split("#");
-		int consumeQueueOffset = Integer.parseInt(offsetStrArr[1]);
-		QueueModel queueModel = queueList.get(queueId);
+		QueueModel queueModel = eagleMqTopicModel.getQueueList().get(queueId);
 		// 如果已消费到队列尽头，返回null
 		if (queueModel.getLatestOffset().get() <= consumeQueueOffset) {
 			return null;
@@ -75,21 +123,43 @@ public class ConsumeQueueConsumeHandler {
 		// 获取消费队列内存映射模型并读取指定偏移量的消息内容
 		List<ConsumeQueueMMapFileModel> consumeQueueOffsetModels = CommonCache.getConsumeQueueMMapFileModelManager().get(topic);
 		ConsumeQueueMMapFileModel consumeQueueMMapFileModel = consumeQueueOffsetModels.get(queueId);
-		//一次读取多条consumeQueue的数据内容
-		List<byte[]> consumeQueueContentList = consumeQueueMMapFileModel.readContent(consumeQueueOffset, batchSize);
-		List<ConsumeMsgCommitLogDTO> commitLogBodyContentList = new ArrayList<>();
-		// 根据消费队列中的索引信息，从CommitLog中读取实际消息内容
+		//一次读取多条consumeQueue的数据内容，最多只能读取到已经分发完成的位置
+		int readableCount = (queueModel.getLatestOffset().get() - consumeQueueOffset) / BrokerConstants.CONSUME_QUEUE_EACH_MSG_SIZE;
+		List<byte[]> consumeQueueContentList = consumeQueueMMapFileModel.readContent(consumeQueueOffset, Math.min(batchSize, readableCount));
+		List<ConsumeQueueDetailModel> consumeQueueDetailModels = new ArrayList<>(consumeQueueContentList.size());
 		for (byte[] content : consumeQueueContentList) {
 			// 根据consumeQueue的内容确定commitLog的读取位置
 			ConsumeQueueDetailModel consumeQueueDetailModel = new ConsumeQueueDetailModel();
 			consumeQueueDetailModel.buildFromBytes(content);
-			CommitLogMMapFileModel commitLogMMapFileModel = CommonCache.getCommitLogMMapFileModelManager().get(topic);
-			ConsumeMsgCommitLogDTO commitLogContent = commitLogMMapFileModel.readContent(consumeQueueDetailModel.getMsgIndex(), consumeQueueDetailModel.getMsgLength());
-			commitLogContent.setRetryTimes(consumeQueueDetailModel.getRetryTimes());
-			commitLogBodyContentList.add(commitLogContent);
+			consumeQueueDetailModels.add(consumeQueueDetailModel);
 		}
+		return consumeQueueDetailModels;
+	}
 
-		return commitLogBodyContentList;
+	/**
+	 * 按照consumeQueue索引读取commitLog中的消息体切片
+	 *
+	 * @param topic                    主题
+	 * @param startConsumeQueueOffset  第一条索引在consumeQueue中的位置
+	 * @param consumeQueueDetailModels 连续的consumeQueue索引
+	 * @return 消息体切片列表
+	 */
+	private List<CommitLogBodySliceModel> readBodySlices(String topic, int startConsumeQueueOffset, List<ConsumeQueueDetailModel> consumeQueueDetailModels) {
+		CommitLogMMapFileModel commitLogMMapFileModel = CommonCache.getCommitLogMMapFileModelManager().get(topic);
+		List<CommitLogBodySliceModel> commitLogBodySliceModels = new ArrayList<>(consumeQueueDetailModels.size());
+		int consumeQueueOffset = startConsumeQueueOffset;
+		for (ConsumeQueueDetailModel consumeQueueDetailModel : consumeQueueDetailModels) {
+			CommitLogBodySliceModel commitLogBodySliceModel = new CommitLogBodySliceModel();
+			commitLogBodySliceModel.setConsumeQueueOffset(consumeQueueOffset);
+			consumeQueueOffset += BrokerConstants.CONSUME_QUEUE_EACH_MSG_SIZE;
+			commitLogBodySliceModel.setCommitLogOffset(consumeQueueDetailModel.getCommitLogOffset());
+			commitLogBodySliceModel.setCommitLogSize(consumeQueueDetailModel.getMsgLength());
+			commitLogBodySliceModel.setRetryTimes(consumeQueueDetailModel.getRetryTimes());
+			commitLogBodySliceModel.setBody(commitLogMMapFileModel.readBodySlice(consumeQueueDetailModel.getCommitLogOffset(),
+				consumeQueueDetailModel.getMsgLength()));
+			commitLogBodySliceModels.add(commitLogBodySliceModel);
+		}
+		return commitLogBodySliceModels;
 	}
 
 	/**
@@ -102,27 +172,46 @@ public class ConsumeQueueConsumeHandler {
 	 * @return 确认结果，true表示确认成功，false表示确认失败
 	 */
 	public boolean ack(String topic, String consumeGroup, Integer queueId) {
-		try {
-			// 获取偏移量表并更新指定队列的消费偏移量
-			ConsumeQueueOffsetModel.OffsetTable offsetTable = CommonCache.getConsumeQueueOffsetModel().getOffsetTable();
-			Map<String, ConsumeQueueOffsetModel.ConsumerGroupDetail> consumerGroupDetailMap = offsetTable.getTopicConsumerGroupDetail();
-			ConsumeQueueOffsetModel.ConsumerGroupDetail consumerGroupDetail = consumerGroupDetailMap.get(topic);
-			Map<String, String> consumeQueueOffsetDetailMap = consumerGroupDetail.getConsumerGroupDetailMap().get(consumeGroup);
-			// 解析当前偏移量信息并增加一个消费队列条目的大小（16字节）
-			String offsetStrInfo = consumeQueueOffsetDetailMap.get(String.valueOf(queueId));
-			String[] offsetStrArr = offsetStrInfo.split("#");
-			String fileName = offsetStrArr[0];
-			Integer currentOffset = Integer.valueOf(offsetStrArr[1]);
-			// 每个消费队列条目固定16字节
-			currentOffset += 16;
-			// 更新消费偏移量
-			consumeQueueOffsetDetailMap.put(String.valueOf(queueId), fileName + "#" + currentOffset);
-		} catch (Exception e) {
-			System.err.println("ack操作异常");
-			e.printStackTrace();
-		} finally {
-			// 空的finally块，预留给未来可能的资源释放或锁操作
+		return this.ack(topic, consumeGroup, queueId, 1);
+	}
+
+	/**
+	 * 确认多条消息已消费，消费偏移量一次性增加ackCount个consumeQueue条目
+	 * 和commitOffset一样不会超过队列已分发的位置，重复的确认不会让位点越过还没有写入的索引
+	 *
+	 * @param topic        主题名称
+	 * @param consumeGroup 消费组名称
+	 * @param queueId      队列ID
+	 * @param ackCount     确认的消息数量
+	 * @return 确认结果，true表示确认成功，false表示确认失败
+	 */
+	public boolean ack(String topic, String consumeGroup, Integer queueId, int ackCount) {
+		EagleMqTopicModel eagleMqTopicModel = CommonCache.getEagleMqTopicModelMap().get(topic);
+		if (eagleMqTopicModel == null || queueId == null || queueId < 0 || queueId >= eagleMqTopicModel.getQueueList().size() || ackCount <= 0) {
+			return false;
 		}
+		int latestOffset = eagleMqTopicModel.getQueueList().get(queueId).getLatestOffset().get();
+		CommonCache.getConsumeOffsetManager().addOffset(topic, consumeGroup, queueId,
+			(long) ackCount * BrokerConstants.CONSUME_QUEUE_EACH_MSG_SIZE, latestOffset);
 		return true;
 	}
+
+	/**
+	 * 提交消费位点，位点是消费者已经处理完成的consumeQueue绝对位置
+	 * 只会向前推进，重复或者乱序到达的旧位点直接忽略，超过队列已分发位置的位点按照已分发位置处理
+	 *
+	 * @param topic        主题名称
+	 * @param consumeGroup 消费组名称
+	 * @param queueId      队列ID
+	 * @param commitOffset 消费完成的位置
+	 * @return 消费进度是否发生了变化
+	 */
+	public boolean commitOffset(String topic, String consumeGroup, int queueId, int commitOffset) {
+		EagleMqTopicModel eagleMqTopicModel = CommonCache.getEagleMqTopicModelMap().get(topic);
+		if (eagleMqTopicModel == null || queueId < 0 || queueId >= eagleMqTopicModel.getQueueList().size()) {
+			return false;
+		}
+		int newOffset = Math.min(commitOffset, eagleMqTopicModel.getQueueList().get(queueId).getLatestOffset().get());
+		return CommonCache.getConsumeOffsetManager().commitOffset(topic, consumeGroup, queueId, newOffset);
+	}
 }
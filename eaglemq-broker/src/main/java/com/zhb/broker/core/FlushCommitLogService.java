@@ -0,0 +1,191 @@
+package com.zhb.broker.core;
+
+import com.zhb.common.constants.BrokerConstants;
+import com.zhb.common.enums.FlushDiskTypeEnum;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * CommitLog刷盘服务
+ * 每个topic对应一个刷盘线程，支持同步组提交刷盘和异步定时刷盘两种策略
+ * 同步刷盘：写入线程将请求放入待刷盘队列，刷盘线程一次性取出一批请求，只执行一次force，然后唤醒这一批写入线程
+ * 异步刷盘：写入线程只标记有脏数据，刷盘线程按固定间隔执行force
+ */
+@Slf4j
+public class FlushCommitLogService {
+
+	/**
+	 * 所有topic的同步刷盘请求共享一个时间轮检查超时，tick为10ms
+	 */
+	private static final HashedWheelTimer FLUSH_TIMEOUT_TIMER = new HashedWheelTimer(runnable -> {
+		Thread thread = new Thread(runnable, "flush-timeout-check-task");
+		thread.setDaemon(true);
+		return thread;
+	}, 10, TimeUnit.MILLISECONDS);
+
+	/**
+	 * 所属的commitLog映射模型
+	 */
+	private final CommitLogMMapFileModel commitLogMMapFileModel;
+	/**
+	 * 刷盘策略
+	 */
+	private final FlushDiskTypeEnum flushDiskType;
+	/**
+	 * 异步刷盘的间隔时间，同时也是同步刷盘线程空闲时的等待时间
+	 */
+	private final int flushIntervalMills;
+	/**
+	 * 同步刷盘时写入线程等待落盘的超时时间
+	 */
+	private final int syncFlushTimeoutMills;
+	/**
+	 * 待刷盘的组提交请求队列（环形数组实现，队列满时写入线程会阻塞，起到背压作用）
+	 */
+	private final ArrayBlockingQueue<GroupCommitRequest> groupCommitRequestQueue =
+		new ArrayBlockingQueue<>(BrokerConstants.GROUP_COMMIT_REQUEST_QUEUE_SIZE);
+	/**
+	 * 异步刷盘模式下，是否存在未刷盘的数据
+	 */
+	private volatile boolean hasDirtyData = false;
+
+	public FlushCommitLogService(CommitLogMMapFileModel commitLogMMapFileModel, FlushDiskTypeEnum flushDiskType,
+								 int flushIntervalMills, int syncFlushTimeoutMills) {
+		this.commitLogMMapFileModel = commitLogMMapFileModel;
+		this.flushDiskType = flushDiskType;
+		this.flushIntervalMills = flushIntervalMills;
+		this.syncFlushTimeoutMills = syncFlushTimeoutMills;
+	}
+
+	/**
+	 * 启动刷盘线程
+	 *
+	 * @param topic 主题名称
+	 */
+	public void start(String topic) {
+		Thread flushTask = new Thread(() -> {
+			while (true) {
+				try {
+					if (FlushDiskTypeEnum.SYNC_FLUSH.equals(flushDiskType)) {
+						this.doGroupCommit();
+					} else {
+						this.doPeriodFlush();
+					}
+				} catch (InterruptedException e) {
+					log.error("flush commitLog task interrupted, topic is {}", topic);
+					return;
+				} catch (Exception e) {
+					log.error("flush commitLog error:", e);
+				}
+			}
+		});
+		flushTask.setName("flush-commitlog-" + topic + "-task");
+		flushTask.start();
+	}
+
+	/**
+	 * 写入线程将数据写入mmap后调用，根据刷盘策略决定是否需要等待数据落盘
+	 *
+	 * @throws IOException 同步刷盘超时或者失败
+	 */
+	public void handleDiskFlush() throws IOException {
+		try {
+			this.submitFlushRequest().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("wait flush commitLog interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof TimeoutException) {
+				throw new IOException("flush commitLog timeout, timeout mills is " + syncFlushTimeoutMills);
+			}
+			throw new IOException("flush commitLog fail", e.getCause());
+		}
+	}
+
+	/**
+	 * 提交刷盘请求但不等待，写入线程可以在返回的future完成之后再响应客户端，不需要占用自己等待force
+	 * 异步刷盘时直接返回已完成的future；同步刷盘时future在组提交force之后完成，超时之后以TimeoutException失败
+	 * 注意future在刷盘线程或者超时检查线程中完成，依赖它的回调不能有阻塞操作
+	 *
+	 * @return 刷盘结果
+	 */
+	public CompletableFuture<Boolean> submitFlushRequest() {
+		if (FlushDiskTypeEnum.ASYNC_FLUSH.equals(flushDiskType)) {
+			hasDirtyData = true;
+			return CompletableFuture.completedFuture(true);
+		}
+		GroupCommitRequest groupCommitRequest = new GroupCommitRequest();
+		CompletableFuture<Boolean> flushFuture = groupCommitRequest.getFlushFuture();
+		try {
+			//队列满时阻塞，起到背压作用
+			groupCommitRequestQueue.put(groupCommitRequest);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			flushFuture.completeExceptionally(new IOException("wait flush commitLog interrupted", e));
+			return flushFuture;
+		}
+		Timeout timeout = FLUSH_TIMEOUT_TIMER.newTimeout(task -> flushFuture.completeExceptionally(
+			new TimeoutException("flush commitLog timeout, timeout mills is " + syncFlushTimeoutMills)), syncFlushTimeoutMills, TimeUnit.MILLISECONDS);
+		flushFuture.whenComplete((result, throwable) -> timeout.cancel());
+		return flushFuture;
+	}
+
+	/**
+	 * 同步组提交：取出当前队列中所有的请求，执行一次force，然后统一唤醒
+	 * 由于写入线程是先写mmap再提交请求，所以force时这一批请求对应的数据都已经在page cache中了
+	 */
+	private void doGroupCommit() throws InterruptedException {
+		GroupCommitRequest firstRequest = groupCommitRequestQueue.poll(flushIntervalMills, TimeUnit.MILLISECONDS);
+		if (firstRequest == null) {
+			return;
+		}
+		List<GroupCommitRequest> batchRequests = new ArrayList<>();
+		batchRequests.add(firstRequest);
+		groupCommitRequestQueue.drainTo(batchRequests);
+		try {
+			commitLogMMapFileModel.flush();
+			for (GroupCommitRequest groupCommitRequest : batchRequests) {
+				groupCommitRequest.getFlushFuture().complete(true);
+			}
+		} catch (Exception e) {
+			for (GroupCommitRequest groupCommitRequest : batchRequests) {
+				groupCommitRequest.getFlushFuture().completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * 异步刷盘：按固定间隔检查是否存在脏数据，存在则force
+	 */
+	private void doPeriodFlush() throws InterruptedException, IOException {
+		TimeUnit.MILLISECONDS.sleep(flushIntervalMills);
+		if (!hasDirtyData) {
+			return;
+		}
+		//先清标记再刷盘，刷盘期间新写入的数据会在下一轮被刷入
+		hasDirtyData = false;
+		commitLogMMapFileModel.flush();
+	}
+
+	/**
+	 * 组提交请求，写入线程通过flushFuture等待数据落盘
+	 */
+	static class GroupCommitRequest {
+
+		private final CompletableFuture<Boolean> flushFuture = new CompletableFuture<>();
+
+		public CompletableFuture<Boolean> getFlushFuture() {
+			return flushFuture;
+		}
+	}
+}
@@ -0,0 +1,244 @@
+package com.zhb.broker.core;
+
+import com.zhb.broker.model.CommitLogMessageModel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * commitLog的单个文件段
+ * 文件名是该文件第一个字节在整个commitLog中的全局物理偏移量，固定20位，不足补0
+ */
+@Slf4j
+@Getter
+public class MappedFile {
+
+	/**
+	 * 文件名
+	 */
+	private final String fileName;
+	/**
+	 * 文件第一个字节对应的全局物理偏移量
+	 */
+	private final long fileFromOffset;
+	/**
+	 * 文件大小
+	 */
+	private final int fileSize;
+	/**
+	 * 文件对象
+	 */
+	private final File file;
+	/**
+	 * 文件通道
+	 */
+	private final FileChannel fileChannel;
+	/**
+	 * 整个文件的内存映射
+	 */
+	private final MappedByteBuffer mappedByteBuffer;
+	/**
+	 * 已经被写入线程预留的位点（文件内的相对位置）
+	 */
+	private final AtomicInteger writePosition = new AtomicInteger(0);
+	/**
+	 * 已经写入完成的位点（文件内的相对位置），读取和分发最多只能读到这里
+	 */
+	private final AtomicInteger commitPosition = new AtomicInteger(0);
+	/**
+	 * 开启写缓冲池时，已经从写缓冲区写入文件通道的位点（文件内的相对位置）
+	 */
+	private final AtomicInteger channelPosition = new AtomicInteger(0);
+	/**
+	 * 写缓冲池中借出的堆外内存，为null时直接写mmap
+	 */
+	private volatile ByteBuffer writeBuffer;
+	/**
+	 * 写缓冲区所属的池
+	 */
+	private TransientStorePool transientStorePool;
+
+	public MappedFile(String filePath, int fileSize) throws IOException {
+		this.file = new File(filePath);
+		this.fileName = file.getName();
+		this.fileFromOffset = Long.parseLong(fileName);
+		this.fileSize = fileSize;
+		this.fileChannel = new RandomAccessFile(file, "rw").getChannel();
+		this.mappedByteBuffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+	}
+
+	/**
+	 * 设置写入位点，只在加载文件和恢复数据时调用
+	 *
+	 * @param position 文件内的相对位置
+	 */
+	public void setPosition(int position) {
+		this.writePosition.set(position);
+		this.commitPosition.set(position);
+		this.channelPosition.set(position);
+	}
+
+	/**
+	 * 从写缓冲池借出一块堆外内存作为写缓冲区，需要在文件开始写入之前调用
+	 *
+	 * @param transientStorePool 写缓冲池
+	 */
+	public void initWriteBuffer(TransientStorePool transientStorePool) {
+		ByteBuffer byteBuffer = transientStorePool.borrowBuffer();
+		if (byteBuffer == null) {
+			return;
+		}
+		this.transientStorePool = transientStorePool;
+		this.writeBuffer = byteBuffer;
+	}
+
+	/**
+	 * 写入线程使用的缓冲区，开启写缓冲池时是堆外内存，否则是mmap
+	 */
+	public ByteBuffer getAppendBuffer() {
+		ByteBuffer byteBuffer = this.writeBuffer;
+		return byteBuffer != null ? byteBuffer : mappedByteBuffer;
+	}
+
+	/**
+	 * 读取指定位置的一条消息
+	 * 已经写入文件通道的数据从mmap读取，还在写缓冲区中的数据从写缓冲区读取。
+	 * 读取写缓冲区期间缓冲区可能已经归还给池并被其他文件复用，读完之后需要再确认一次，已经归还说明数据已经全部写入文件，改为读取mmap
+	 *
+	 * @param pos 文件内的相对位置
+	 * @return 消息存储模型
+	 */
+	public CommitLogMessageModel readMessage(int pos) {
+		return this.readMessage(pos, false);
+	}
+
+	/**
+	 * 读取指定位置的一条消息的消息头，不拷贝属性和消息体，读取规则和readMessage相同
+	 *
+	 * @param pos 文件内的相对位置
+	 * @return 只包含消息头字段的消息存储模型
+	 */
+	public CommitLogMessageModel readMessageHeader(int pos) {
+		return this.readMessage(pos, true);
+	}
+
+	private CommitLogMessageModel readMessage(int pos, boolean headerOnly) {
+		ByteBuffer byteBuffer = this.writeBuffer;
+		if (byteBuffer == null || pos < channelPosition.get()) {
+			return this.buildFromBuffer(mappedByteBuffer, pos, headerOnly);
+		}
+		CommitLogMessageModel commitLogMessageModel;
+		try {
+			commitLogMessageModel = this.buildFromBuffer(byteBuffer, pos, headerOnly);
+		} catch (RuntimeException e) {
+			if (this.writeBuffer == byteBuffer) {
+				throw e;
+			}
+			return this.buildFromBuffer(mappedByteBuffer, pos, headerOnly);
+		}
+		if (this.writeBuffer != byteBuffer) {
+			return this.buildFromBuffer(mappedByteBuffer, pos, headerOnly);
+		}
+		return commitLogMessageModel;
+	}
+
+	private CommitLogMessageModel buildFromBuffer(ByteBuffer byteBuffer, int pos, boolean headerOnly) {
+		return headerOnly ? CommitLogMessageModel.buildHeaderFromBuffer(byteBuffer, pos) : CommitLogMessageModel.buildFromBuffer(byteBuffer, pos);
+	}
+
+	/**
+	 * 获取从指定位置开始的只读视图，不会影响原缓冲区的position
+	 *
+	 * @param pos 文件内的相对位置
+	 * @return 共享底层内存的缓冲区
+	 */
+	public ByteBuffer selectMappedBuffer(int pos) {
+		ByteBuffer byteBuffer = mappedByteBuffer.slice();
+		byteBuffer.position(pos);
+		return byteBuffer;
+	}
+
+	/**
+	 * 获取指定区间的只读视图，直接引用映射内存，不做数据拷贝
+	 *
+	 * @param pos  文件内的相对位置
+	 * @param size 区间长度
+	 * @return 共享底层内存的缓冲区，数据还在写缓冲区中没有写入文件时返回null
+	 */
+	public ByteBuffer selectMappedBuffer(int pos, int size) {
+		if (this.writeBuffer != null && pos + size > channelPosition.get()) {
+			return null;
+		}
+		ByteBuffer byteBuffer = mappedByteBuffer.duplicate();
+		byteBuffer.limit(pos + size);
+		byteBuffer.position(pos);
+		return byteBuffer.slice();
+	}
+
+	/**
+	 * 文件已提交数据的最大全局偏移量
+	 */
+	public long getCommittedOffset() {
+		return fileFromOffset + commitPosition.get();
+	}
+
+	/**
+	 * 将写缓冲区中已经写入完成的数据写入文件通道
+	 * 文件写满并且全部写入之后，把写缓冲区归还给池
+	 *
+	 * @throws IOException 如果写入文件通道失败
+	 */
+	public synchronized void commit() throws IOException {
+		ByteBuffer byteBuffer = this.writeBuffer;
+		if (byteBuffer == null) {
+			return;
+		}
+		int from = channelPosition.get();
+		int to = commitPosition.get();
+		if (to > from) {
+			ByteBuffer commitBuffer = byteBuffer.duplicate();
+			commitBuffer.limit(to);
+			commitBuffer.position(from);
+			while (commitBuffer.hasRemaining()) {
+				fileChannel.write(commitBuffer, commitBuffer.position());
+			}
+			channelPosition.set(to);
+		}
+		if (to == fileSize) {
+			this.writeBuffer = null;
+			transientStorePool.returnBuffer(byteBuffer);
+		}
+	}
+
+	/**
+	 * 强制刷盘，开启写缓冲池时先把写缓冲区中的数据写入文件通道
+	 *
+	 * @throws IOException 如果刷盘失败
+	 */
+	public void flush() throws IOException {
+		if (transientStorePool != null) {
+			this.commit();
+			fileChannel.force(false);
+		} else {
+			mappedByteBuffer.force();
+		}
+	}
+
+	/**
+	 * 关闭文件通道
+	 */
+	public void close() {
+		try {
+			fileChannel.close();
+		} catch (IOException e) {
+			log.error("close mapped file error:", e);
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package com.zhb.broker.core;
+
+import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.utils.LogFileNameUtil;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * commitLog文件段队列
+ * 按照全局物理偏移量从小到大维护一个topic下的所有commitLog文件，每个文件大小固定，
+ * 通过全局物理偏移量可以二分查找到消息所在的文件，文件写满后追加新的文件，老的消息依然可以读取
+ */
+@Slf4j
+public class MappedFileQueue {
+
+	/**
+	 * commitLog文件所在目录
+	 */
+	private final String storePath;
+	/**
+	 * 每个文件的大小
+	 */
+	@Getter
+	private final int mappedFileSize;
+	/**
+	 * 所有的文件段，只会在尾部追加
+	 */
+	private final CopyOnWriteArrayList<MappedFile> mappedFiles = new CopyOnWriteArrayList<>();
+
+	public MappedFileQueue(String storePath, int mappedFileSize) {
+		this.storePath = storePath;
+		this.mappedFileSize = mappedFileSize;
+	}
+
+	/**
+	 * 加载目录下已经存在的所有文件，除最后一个文件外都认为是已经写满的
+	 *
+	 * @throws IOException 如果文件映射失败
+	 */
+	public void load() throws IOException {
+		File dir = new File(storePath);
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		List<File> fileList = new ArrayList<>(Arrays.asList(files));
+		fileList.removeIf(file -> !file.isFile() || !file.getName().matches("\\d+"));
+		fileList.sort(Comparator.comparingLong(file -> Long.parseLong(file.getName())));
+		for (File file : fileList) {
+			MappedFile mappedFile = new MappedFile(file.getPath(), mappedFileSize);
+			mappedFile.setPosition(mappedFileSize);
+			mappedFiles.add(mappedFile);
+		}
+	}
+
+	/**
+	 * 获取最后一个文件，也就是正在写入的文件
+	 *
+	 * @return 文件段，不存在时返回null
+	 */
+	public MappedFile getLastMappedFile() {
+		if (mappedFiles.isEmpty()) {
+			return null;
+		}
+		return mappedFiles.get(mappedFiles.size() - 1);
+	}
+
+	/**
+	 * 创建一个新的文件段并追加到队列尾部
+	 * 开启了预分配服务时直接取后台线程提前准备好的文件，并提交下一个文件的预分配请求
+	 *
+	 * @param startOffset 新文件的起始全局物理偏移量
+	 * @return 新的文件段
+	 * @throws IOException 如果文件创建失败
+	 */
+	public MappedFile createMappedFile(long startOffset) throws IOException {
+		String filePath = this.buildFilePath(startOffset);
+		AllocateMappedFileService allocateMappedFileService = CommonCache.getAllocateMappedFileService();
+		MappedFile mappedFile;
+		if (allocateMappedFileService != null) {
+			mappedFile = allocateMappedFileService.putRequestAndReturnMappedFile(filePath, this.buildFilePath(startOffset + mappedFileSize), mappedFileSize);
+		} else {
+			File file = new File(filePath);
+			if (!file.exists() && !file.createNewFile()) {
+				throw new IOException("create commitLog file fail, filePath is " + filePath);
+			}
+			mappedFile = new MappedFile(filePath, mappedFileSize);
+		}
+		mappedFiles.add(mappedFile);
+		log.info("创建了新的commitLog文件:{}", filePath);
+		return mappedFile;
+	}
+
+	/**
+	 * 提前预分配最后一个文件之后的下一个文件，切换文件时不需要再同步创建
+	 */
+	public void preAllocateNextMappedFile() {
+		AllocateMappedFileService allocateMappedFileService = CommonCache.getAllocateMappedFileService();
+		MappedFile lastMappedFile = this.getLastMappedFile();
+		if (allocateMappedFileService == null || lastMappedFile == null) {
+			return;
+		}
+		allocateMappedFileService.submitRequest(this.buildFilePath(lastMappedFile.getFileFromOffset() + mappedFileSize), mappedFileSize);
+	}
+
+	private String buildFilePath(long startOffset) {
+		return storePath + File.separator + LogFileNameUtil.buildCommitLogFileName(startOffset);
+	}
+
+	/**
+	 * 根据全局物理偏移量二分查找所在的文件段
+	 *
+	 * @param offset 全局物理偏移量
+	 * @return 文件段，偏移量不在任何文件中时返回null
+	 */
+	public MappedFile findMappedFileByOffset(long offset) {
+		List<MappedFile> mappedFileList = this.mappedFiles;
+		int low = 0;
+		int high = mappedFileList.size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			MappedFile mappedFile = mappedFileList.get(mid);
+			if (offset < mappedFile.getFileFromOffset()) {
+				high = mid - 1;
+			} else if (offset >= mappedFile.getFileFromOffset() + mappedFile.getFileSize()) {
+				low = mid + 1;
+			} else {
+				return mappedFile;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 已经提交的最大全局物理偏移量
+	 */
+	public long getMaxCommittedOffset() {
+		MappedFile mappedFile = getLastMappedFile();
+		return mappedFile == null ? 0 : mappedFile.getCommittedOffset();
+	}
+
+	/**
+	 * 所有的文件段
+	 */
+	public List<MappedFile> getMappedFiles() {
+		return mappedFiles;
+	}
+}
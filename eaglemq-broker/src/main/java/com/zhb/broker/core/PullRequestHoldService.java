@@ -0,0 +1,185 @@
+package com.zhb.broker.core;
+
+import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.event.model.ConsumeMsgEvent;
+import com.zhb.broker.model.EagleMqTopicModel;
+import com.zhb.broker.model.QueueModel;
+import com.zhb.common.constants.BrokerConstants;
+import com.zhb.common.event.Listener;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 拉取请求挂起服务
+ * 消费者拉取不到消息时，请求不会立即返回空数据，而是按照topic和queueId挂起在这里，
+ * 分发线程为对应队列写入新的consumeQueue索引后唤醒挂起的请求重新拉取，达到客户端指定的挂起时间后也会唤醒并返回，
+ * 这样消费者不需要在没有消息时反复轮询，新消息到达后可以立即投递
+ */
+@Slf4j
+public class PullRequestHoldService {
+
+	/**
+	 * topic@queueId和挂起在该队列上的请求的映射，一个请求可能同时挂起在多个队列上
+	 */
+	private final ConcurrentHashMap<String, ConcurrentLinkedQueue<HoldRequest>> holdRequestTable = new ConcurrentHashMap<>();
+	/**
+	 * 所有挂起中的请求，用于检查超时，没有分配到队列的请求只会出现在这里
+	 */
+	private final Set<HoldRequest> holdRequestSet = ConcurrentHashMap.newKeySet();
+	/**
+	 * 被唤醒的请求交给单独的线程重新拉取，不占用分发线程
+	 */
+	private final ExecutorService wakeupExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "pull-request-wakeup-task");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/**
+	 * 重新处理拉取请求的监听器
+	 */
+	private final Listener<ConsumeMsgEvent> consumeMsgListener;
+
+	public PullRequestHoldService(Listener<ConsumeMsgEvent> consumeMsgListener) {
+		this.consumeMsgListener = consumeMsgListener;
+	}
+
+	/**
+	 * 启动超时检查线程
+	 */
+	public void start() {
+		Thread holdTask = new Thread(() -> {
+			while (true) {
+				try {
+					TimeUnit.MILLISECONDS.sleep(BrokerConstants.PULL_REQUEST_HOLD_CHECK_INTERVAL_MILLS);
+					this.checkHoldRequest();
+				} catch (InterruptedException e) {
+					log.error("pull request hold task interrupted");
+					return;
+				} catch (Exception e) {
+					log.error("check hold pull request error:", e);
+				}
+			}
+		});
+		holdTask.setName("pull-request-hold-task");
+		holdTask.setDaemon(true);
+		holdTask.start();
+	}
+
+	/**
+	 * 挂起一个没有拉取到消息的请求
+	 *
+	 * @param consumeMsgEvent     拉取请求，挂起截止时间由调用方提前写入
+	 * @param queueOffsetSnapshot 拉取之前各个队列的最新索引位置，挂起之后如果发生变化说明挂起期间已经有新消息分发，需要立即唤醒
+	 */
+	public void suspendPullRequest(ConsumeMsgEvent consumeMsgEvent, Map<Integer, Integer> queueOffsetSnapshot) {
+		String topic = consumeMsgEvent.getConsumeMsgReqDTO().getTopic();
+		HoldRequest holdRequest = new HoldRequest(consumeMsgEvent, queueOffsetSnapshot);
+		holdRequestSet.add(holdRequest);
+		for (Integer queueId : queueOffsetSnapshot.keySet()) {
+			holdRequestTable.computeIfAbsent(this.buildKey(topic, queueId), key -> new ConcurrentLinkedQueue<>()).add(holdRequest);
+		}
+		//拉取和挂起之间分发的消息不会触发唤醒，挂起之后再检查一次
+		if (this.hasNewMsg(topic, queueOffsetSnapshot)) {
+			this.wakeup(holdRequest);
+		}
+	}
+
+	/**
+	 * 新的consumeQueue索引分发完成后，唤醒挂起在该队列上的所有请求
+	 *
+	 * @param topic   主题
+	 * @param queueId 队列id
+	 */
+	public void notifyMessageArriving(String topic, int queueId) {
+		ConcurrentLinkedQueue<HoldRequest> holdRequests = holdRequestTable.get(this.buildKey(topic, queueId));
+		if (holdRequests == null) {
+			return;
+		}
+		HoldRequest holdRequest;
+		while ((holdRequest = holdRequests.poll()) != null) {
+			this.wakeup(holdRequest);
+		}
+	}
+
+	/**
+	 * 当前挂起中的请求数量
+	 */
+	public int getHoldRequestCount() {
+		return holdRequestSet.size();
+	}
+
+	/**
+	 * 唤醒到达挂起截止时间的请求
+	 */
+	private void checkHoldRequest() {
+		long now = System.currentTimeMillis();
+		for (HoldRequest holdRequest : holdRequestSet) {
+			if (holdRequest.consumeMsgEvent.getSuspendDeadline() <= now) {
+				this.wakeup(holdRequest);
+			}
+		}
+	}
+
+	/**
+	 * 唤醒请求并重新拉取，同一个请求只会被唤醒一次，重新拉取时依然没有消息并且没有到截止时间会再次挂起
+	 */
+	private void wakeup(HoldRequest holdRequest) {
+		if (!holdRequest.finished.compareAndSet(false, true)) {
+			return;
+		}
+		holdRequestSet.remove(holdRequest);
+		String topic = holdRequest.consumeMsgEvent.getConsumeMsgReqDTO().getTopic();
+		for (Integer queueId : holdRequest.queueOffsetSnapshot.keySet()) {
+			ConcurrentLinkedQueue<HoldRequest> holdRequests = holdRequestTable.get(this.buildKey(topic, queueId));
+			if (holdRequests != null) {
+				holdRequests.remove(holdRequest);
+			}
+		}
+		wakeupExecutor.execute(() -> {
+			try {
+				consumeMsgListener.onReceive(holdRequest.consumeMsgEvent);
+			} catch (Exception e) {
+				log.error("process hold pull request error:", e);
+			}
+		});
+	}
+
+	private boolean hasNewMsg(String topic, Map<Integer, Integer> queueOffsetSnapshot) {
+		EagleMqTopicModel eagleMqTopicModel = CommonCache.getEagleMqTopicModelMap().get(topic);
+		if (eagleMqTopicModel == null || eagleMqTopicModel.getQueueList() == null) {
+			return false;
+		}
+		List<QueueModel> queueList = eagleMqTopicModel.getQueueList();
+		for (Map.Entry<Integer, Integer> queueOffsetEntry : queueOffsetSnapshot.entrySet()) {
+			if (queueList.get(queueOffsetEntry.getKey()).getLatestOffset().get() != queueOffsetEntry.getValue()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private String buildKey(String topic, int queueId) {
+		return topic + "@" + queueId;
+	}
+
+	private static class HoldRequest {
+
+		private final ConsumeMsgEvent consumeMsgEvent;
+		private final Map<Integer, Integer> queueOffsetSnapshot;
+		private final AtomicBoolean finished = new AtomicBoolean(false);
+
+		private HoldRequest(ConsumeMsgEvent consumeMsgEvent, Map<Integer, Integer> queueOffsetSnapshot) {
+			this.consumeMsgEvent = consumeMsgEvent;
+			this.queueOffsetSnapshot = queueOffsetSnapshot;
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package com.zhb.broker.core;
+
+import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.model.CommitLogMessageModel;
+import com.zhb.broker.model.CommitLogModel;
+import com.zhb.broker.model.ConsumeQueueDetailModel;
+import com.zhb.broker.model.EagleMqTopicModel;
+import com.zhb.broker.model.QueueModel;
+import com.zhb.common.constants.BrokerConstants;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * consumeQueue异步分发服务
+ * 分发线程从上次分发的位置开始顺序扫描已经提交的commitLog数据，解析消息头后批量构建consumeQueue索引，
+ * 这样生产者的写入耗时中就不再包含consumeQueue的维护开销，同时重启后也可以从记录的分发位点继续补齐索引
+ */
+@Slf4j
+public class ReputMessageService {
+
+	/**
+	 * 主题名称
+	 */
+	private final String topic;
+	/**
+	 * 所属的commitLog映射模型
+	 */
+	private final CommitLogMMapFileModel commitLogMMapFileModel;
+	/**
+	 * 下一条待分发消息的全局物理偏移量
+	 */
+	private long reputOffset;
+
+	public ReputMessageService(String topic, CommitLogMMapFileModel commitLogMMapFileModel) {
+		this.topic = topic;
+		this.commitLogMMapFileModel = commitLogMMapFileModel;
+	}
+
+	/**
+	 * 启动分发线程
+	 */
+	public void start() {
+		CommitLogModel commitLogModel = CommonCache.getEagleMqTopicModelMap().get(topic).getCommitLogModel();
+		if (commitLogModel.getDispatchOffset() == null) {
+			//没有分发记录时从第一个文件开始补齐索引，从写入位置开始会丢掉已经写入但还没有分发的消息
+			commitLogModel.setDispatchOffset(commitLogMMapFileModel.getMappedFileQueue().getMappedFiles().get(0).getFileFromOffset());
+		}
+		this.reputOffset = commitLogModel.getDispatchOffset();
+		Thread reputTask = new Thread(() -> {
+			while (true) {
+				try {
+					if (!this.doReput()) {
+						TimeUnit.MILLISECONDS.sleep(1);
+					}
+				} catch (InterruptedException e) {
+					log.error("reput msg task interrupted, topic is {}", topic);
+					return;
+				} catch (Exception e) {
+					log.error("reput msg error:", e);
+				}
+			}
+		});
+		reputTask.setName("reput-msg-" + topic + "-task");
+		reputTask.start();
+	}
+
+	/**
+	 * 扫描一批已经提交的消息并写入consumeQueue
+	 *
+	 * @return 本轮是否有新的数据被处理
+	 */
+	private boolean doReput() {
+		MappedFileQueue mappedFileQueue = commitLogMMapFileModel.getMappedFileQueue();
+		MappedFile mappedFile = mappedFileQueue.findMappedFileByOffset(reputOffset);
+		if (mappedFile == null) {
+			return false;
+		}
+		//只能读到文件的提交位点，已经切换掉的文件读到空白记录为止
+		int readLimit = mappedFile.getCommitPosition().get();
+		int pos = (int) (reputOffset - mappedFile.getFileFromOffset());
+		EagleMqTopicModel eagleMqTopicModel = CommonCache.getEagleMqTopicModelMap().get(topic);
+		List<ConsumeQueueMMapFileModel> consumeQueueMMapFileModels = CommonCache.getConsumeQueueMMapFileModelManager().get(topic);
+		boolean hasDispatched = false;
+		//本轮写入过新索引的队列，扫描结束后统一唤醒挂起在这些队列上的拉取请求
+		boolean[] arrivedQueueFlags = null;
+		for (int i = 0; i < BrokerConstants.DISPATCH_BATCH_SIZE; i++) {
+			if (readLimit - pos < CommitLogMessageModel.BLANK_SIZE) {
+				break;
+			}
+			//分发只需要消息头，不拷贝属性和消息体
+			CommitLogMessageModel commitLogMessageModel = mappedFile.readMessageHeader(pos);
+			if (commitLogMessageModel.getMagic() != CommitLogMessageModel.MESSAGE_MAGIC_CODE) {
+				if (commitLogMessageModel.getMagic() != CommitLogMessageModel.BLANK_MAGIC_CODE) {
+					log.error("commitLog msg magic is inValid, topic is {}, fileName is {}, pos is {}", topic, mappedFile.getFileName(), pos);
+				}
+				break;
+			}
+			//retry重试topic没有consume queue存在
+			if (eagleMqTopicModel.getQueueList() != null && consumeQueueMMapFileModels != null) {
+				if (this.dispatch(commitLogMessageModel, mappedFile.getFileFromOffset() + pos, consumeQueueMMapFileModels, eagleMqTopicModel.getQueueList())) {
+					if (arrivedQueueFlags == null) {
+						arrivedQueueFlags = new boolean[eagleMqTopicModel.getQueueList().size()];
+					}
+					arrivedQueueFlags[commitLogMessageModel.getQueueId()] = true;
+				}
+			}
+			pos += commitLogMessageModel.getTotalSize();
+			hasDispatched = true;
+		}
+		long nextFileFromOffset = mappedFile.getFileFromOffset() + mappedFile.getFileSize();
+		if (readLimit - pos < CommitLogMessageModel.BLANK_SIZE || this.isBlank(mappedFile, pos, readLimit)) {
+			if (mappedFileQueue.findMappedFileByOffset(nextFileFromOffset) != null) {
+				//上面读到的提交位点可能在文件切换之前就已经过期，切换时会先把提交位点推进到文件末尾再创建下一个文件，
+				//所以看到下一个文件之后重新读取一次提交位点，确认当前文件确实已经扫描完才能跳到下一个文件
+				int sealedLimit = mappedFile.getCommitPosition().get();
+				if (sealedLimit - pos < CommitLogMessageModel.BLANK_SIZE || this.isBlank(mappedFile, pos, sealedLimit)) {
+					pos = mappedFile.getFileSize();
+				}
+				hasDispatched = true;
+			}
+		}
+		this.reputOffset = mappedFile.getFileFromOffset() + pos;
+		eagleMqTopicModel.getCommitLogModel().setDispatchOffset(reputOffset);
+		this.notifyMessageArriving(arrivedQueueFlags);
+		return hasDispatched;
+	}
+
+	/**
+	 * 唤醒挂起在有新消息的队列上的拉取请求，同时通知推送服务向订阅了这些队列的消费者推送
+	 */
+	private void notifyMessageArriving(boolean[] arrivedQueueFlags) {
+		if (arrivedQueueFlags == null) {
+			return;
+		}
+		PullRequestHoldService pullRequestHoldService = CommonCache.getPullRequestHoldService();
+		ConsumePushService consumePushService = CommonCache.getConsumePushService();
+		for (int queueId = 0; queueId < arrivedQueueFlags.length; queueId++) {
+			if (!arrivedQueueFlags[queueId]) {
+				continue;
+			}
+			if (pullRequestHoldService != null) {
+				pullRequestHoldService.notifyMessageArriving(topic, queueId);
+			}
+			if (consumePushService != null) {
+				consumePushService.notifyMessageArriving(topic, queueId);
+			}
+		}
+	}
+
+	private boolean isBlank(MappedFile mappedFile, int pos, int readLimit) {
+		return readLimit - pos >= CommitLogMessageModel.BLANK_SIZE
+			&& mappedFile.readMessageHeader(pos).getMagic() == CommitLogMessageModel.BLANK_MAGIC_CODE;
+	}
+
+	/**
+	 * 构建单条consumeQueue索引并写入
+	 *
+	 * @return 是否写入成功
+	 */
+	private boolean dispatch(CommitLogMessageModel commitLogMessageModel, long commitLogOffset, List<ConsumeQueueMMapFileModel> consumeQueueMMapFileModels,
+						  List<QueueModel> queueList) {
+		int queueId = commitLogMessageModel.getQueueId();
+		if (queueId < 0 || queueId >= queueList.size()) {
+			log.error("commitLog msg queueId is inValid, topic is {}, queueId is {}", topic, queueId);
+			return false;
+		}
+		ConsumeQueueDetailModel consumeQueueDetailModel = new ConsumeQueueDetailModel();
+		consumeQueueDetailModel.setCommitLogOffset(commitLogOffset);
+		consumeQueueDetailModel.setRetryTimes(commitLogMessageModel.getRetryTimes());
+		consumeQueueDetailModel.setMsgLength(commitLogMessageModel.getTotalSize());
+		byte[] content = consumeQueueDetailModel.convertToBytes();
+		//consumeQueue映射模型是按照queueId的顺序初始化的，可以直接按下标定位
+		ConsumeQueueMMapFileModel consumeQueueMMapFileModel = consumeQueueMMapFileModels.get(queueId);
+		consumeQueueMMapFileModel.writeContent(content);
+		//刷新队列的偏移量
+		QueueModel queueModel = queueList.get(queueId);
+		queueModel.getLatestOffset().addAndGet(content.length);
+		return true;
+	}
+}
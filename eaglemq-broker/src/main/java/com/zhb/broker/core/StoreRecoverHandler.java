@@ -0,0 +1,298 @@
+package com.zhb.broker.core;
+
+import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.model.CommitLogMessageModel;
+import com.zhb.broker.model.CommitLogModel;
+import com.zhb.broker.model.EagleMqTopicModel;
+import com.zhb.broker.model.QueueModel;
+import com.zhb.broker.utils.LogFileNameUtil;
+import com.zhb.common.constants.BrokerConstants;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 存储恢复处理器
+ * topic配置文件是定时刷盘的，broker异常退出后记录的写入位点可能落后或者超前于真实数据。
+ * 启动时顺序扫描最后一个有数据的commitLog文件和每个队列的consumeQueue文件，根据消息的crc找到真实的数据结尾，
+ * 截断不完整的尾部数据，并修正内存中的写入位点和分发位点
+ * <p>
+ * 尾部的残留数据只可能来自崩溃前最后几次写入，清零时扫描到第一个全零的页就停止，启动耗时和残留数据的大小相关，和文件大小无关
+ */
+@Slf4j
+public class StoreRecoverHandler {
+
+	private static final int PAGE_SIZE = 4096;
+
+	/**
+	 * 恢复指定topic的commitLog和consumeQueue写入位点，需要在mmap映射之前执行
+	 *
+	 * @param topicName 主题名称
+	 * @throws IOException 如果文件操作失败
+	 */
+	public void recover(String topicName) throws IOException {
+		long begin = System.currentTimeMillis();
+		EagleMqTopicModel eagleMqTopicModel = CommonCache.getEagleMqTopicModelMap().get(topicName);
+		CommitLogModel commitLogModel = eagleMqTopicModel.getCommitLogModel();
+		File lastFile = this.findLastCommitLogFile(topicName);
+		if (lastFile == null) {
+			log.warn("topic:{} has no commitLog file, skip recover", topicName);
+			return;
+		}
+		boolean legacyFormat = this.isLegacyFormat(lastFile);
+		long commitLogEnd = this.recoverCommitLog(topicName, lastFile, commitLogModel);
+		//没有任何索引时从第一个文件开始分发，旧格式的数据已经同步构建过索引并且无法解析，从写入位点开始
+		long firstUndispatchedOffset = legacyFormat ? commitLogEnd : Long.parseLong(this.listCommitLogFiles(topicName).get(0).getName());
+		int queueCount = this.recoverConsumeQueue(topicName, eagleMqTopicModel, commitLogEnd, firstUndispatchedOffset);
+		log.info("recover topic:{} finish, commitLog file:{}, offset:{}, dispatch offset:{}, queue count:{}, cost:{}ms",
+			topicName, lastFile.getName(), commitLogEnd, commitLogModel.getDispatchOffset(), queueCount, System.currentTimeMillis() - begin);
+	}
+
+	/**
+	 * 配置文件中记录的文件名可能落后于磁盘上真实存在的文件（切换文件后还没来得及刷新配置），以磁盘上的文件为准。
+	 * 预分配服务会提前创建后续的文件，这些文件还没有写入任何数据，需要跳过，找到最后一个有数据的文件
+	 */
+	private File findLastCommitLogFile(String topicName) throws IOException {
+		List<File> fileList = this.listCommitLogFiles(topicName);
+		for (int i = fileList.size() - 1; i > 0; i--) {
+			if (!this.isEmptyFile(fileList.get(i))) {
+				return fileList.get(i);
+			}
+		}
+		return fileList.isEmpty() ? null : fileList.get(0);
+	}
+
+	private List<File> listCommitLogFiles(String topicName) {
+		File[] files = new File(LogFileNameUtil.buildCommitLogBasePath(topicName)).listFiles();
+		if (files == null) {
+			return new ArrayList<>();
+		}
+		List<File> fileList = new ArrayList<>(Arrays.asList(files));
+		fileList.removeIf(file -> !file.isFile() || !file.getName().matches("\\d+"));
+		fileList.sort(Comparator.comparingLong(file -> Long.parseLong(file.getName())));
+		return fileList;
+	}
+
+	/**
+	 * 旧版本的数据没有消息头，第一条记录的magic既不是消息也不是空白记录
+	 */
+	private boolean isLegacyFormat(File file) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+			if (randomAccessFile.length() < CommitLogMessageModel.BLANK_SIZE) {
+				return false;
+			}
+			int firstSize = randomAccessFile.readInt();
+			int firstMagic = randomAccessFile.readInt();
+			return firstSize != 0 && firstMagic != CommitLogMessageModel.MESSAGE_MAGIC_CODE
+				&& firstMagic != CommitLogMessageModel.BLANK_MAGIC_CODE;
+		}
+	}
+
+	private boolean isEmptyFile(File file) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+			//每条记录的第一个字段都是大于0的记录长度
+			return randomAccessFile.length() < 4 || randomAccessFile.readInt() == 0;
+		}
+	}
+
+	/**
+	 * 扫描最后一个commitLog文件，返回最后一条完整消息结束位置的全局物理偏移量
+	 */
+	private long recoverCommitLog(String topicName, File lastFile, CommitLogModel commitLogModel) throws IOException {
+		long fileFromOffset = Long.parseLong(lastFile.getName());
+		long commitLogEnd;
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(lastFile, "rw");
+			 FileChannel fileChannel = randomAccessFile.getChannel()) {
+			int fileSize = (int) fileChannel.size();
+			if (fileSize == 0) {
+				return this.updateCommitLogOffset(topicName, commitLogModel, fileFromOffset);
+			}
+			if (this.isLegacyFormat(lastFile)) {
+				//旧版本的数据没有消息头，无法校验，沿用配置中的位点
+				log.warn("commitLog file:{} is not binary record format, skip recover", lastFile.getPath());
+				return commitLogModel.getOffset().get();
+			}
+			MappedByteBuffer mappedByteBuffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+			int validEnd = 0;
+			boolean fileFull = false;
+			while (fileSize - validEnd >= CommitLogMessageModel.BLANK_SIZE) {
+				int totalSize = mappedByteBuffer.getInt(validEnd);
+				int magic = mappedByteBuffer.getInt(validEnd + 4);
+				if (magic == CommitLogMessageModel.BLANK_MAGIC_CODE && totalSize == fileSize - validEnd) {
+					//文件已经写满，写入位点在下一个文件的开头
+					fileFull = true;
+					break;
+				}
+				if (magic != CommitLogMessageModel.MESSAGE_MAGIC_CODE || totalSize < CommitLogMessageModel.HEADER_SIZE
+					|| totalSize > fileSize - validEnd) {
+					break;
+				}
+				if (!CommitLogMessageModel.buildFromBuffer(mappedByteBuffer, validEnd).checkCrc()) {
+					log.warn("commitLog file:{} crc check fail at pos:{}", lastFile.getPath(), validEnd);
+					break;
+				}
+				validEnd += totalSize;
+			}
+			if (fileFull) {
+				commitLogEnd = fileFromOffset + fileSize;
+			} else {
+				//清理掉不完整的尾部数据，避免后续扫描时被当成有效消息，消息头完整时至少清理到它声明的结尾
+				int tornEnd = validEnd;
+				if (fileSize - validEnd >= CommitLogMessageModel.BLANK_SIZE
+					&& mappedByteBuffer.getInt(validEnd + 4) == CommitLogMessageModel.MESSAGE_MAGIC_CODE) {
+					tornEnd = validEnd + Math.max(0, Math.min(mappedByteBuffer.getInt(validEnd), fileSize - validEnd));
+				}
+				this.truncateTail(mappedByteBuffer, validEnd, tornEnd, fileSize);
+				mappedByteBuffer.force();
+				commitLogEnd = fileFromOffset + validEnd;
+			}
+		}
+		this.deleteUnusedFiles(topicName, commitLogEnd);
+		return this.updateCommitLogOffset(topicName, commitLogModel, commitLogEnd);
+	}
+
+	/**
+	 * 删除写入位点所在文件之后的预分配文件，这些文件里没有数据，启动后会重新预分配
+	 */
+	private void deleteUnusedFiles(String topicName, long commitLogEnd) {
+		int fileSize = CommonCache.getGlobalProperties().getCommitLogFileSize();
+		long currentFileFromOffset = commitLogEnd - commitLogEnd % fileSize;
+		for (File file : this.listCommitLogFiles(topicName)) {
+			if (Long.parseLong(file.getName()) > currentFileFromOffset && !file.delete()) {
+				log.warn("delete unused commitLog file:{} fail", file.getPath());
+			}
+		}
+	}
+
+	private long updateCommitLogOffset(String topicName, CommitLogModel commitLogModel, long commitLogEnd) {
+		int fileSize = CommonCache.getGlobalProperties().getCommitLogFileSize();
+		String fileName = LogFileNameUtil.buildCommitLogFileName(commitLogEnd - commitLogEnd % fileSize);
+		if (!fileName.equals(commitLogModel.getFileName()) || commitLogEnd != commitLogModel.getOffset().get()) {
+			log.warn("commitLog of topic:{} recover from file:{} offset:{} to file:{} offset:{}", topicName,
+				commitLogModel.getFileName(), commitLogModel.getOffset().get(), fileName, commitLogEnd);
+		}
+		commitLogModel.setFileName(fileName);
+		commitLogModel.setOffset(new AtomicLong(commitLogEnd));
+		return commitLogEnd;
+	}
+
+	/**
+	 * 扫描每个队列的consumeQueue文件，索引指向的消息必须已经完整写入commitLog，否则截断。
+	 * 配置中记录的文件名可能落后于磁盘上的文件，从记录的文件开始扫描之后的所有文件，最后一个有索引的文件作为写入文件。
+	 * 所有队列中最后一条有效索引的位置就是commitLog的分发位点，之后的消息由分发服务重新构建索引，
+	 * 没有任何索引时从firstUndispatchedOffset开始分发，不能从写入位点开始，否则崩溃前写入但还没有分发的消息永远不会被消费
+	 *
+	 * @return 恢复的队列数量
+	 */
+	private int recoverConsumeQueue(String topicName, EagleMqTopicModel eagleMqTopicModel, long commitLogEnd,
+									long firstUndispatchedOffset) throws IOException {
+		CommitLogModel commitLogModel = eagleMqTopicModel.getCommitLogModel();
+		List<QueueModel> queueList = eagleMqTopicModel.getQueueList();
+		//初始值取配置中记录的分发位点，但是不能超过commitLog的真实结尾
+		if (commitLogModel.getDispatchOffset() != null && commitLogModel.getDispatchOffset() > commitLogEnd) {
+			commitLogModel.setDispatchOffset(commitLogEnd);
+		}
+		if (queueList == null) {
+			return 0;
+		}
+		long maxEntryEnd = -1;
+		for (QueueModel queueModel : queueList) {
+			String currentFileName = queueModel.getFileName();
+			int currentValidEnd = 0;
+			for (File file : this.listConsumeQueueFiles(topicName, queueModel)) {
+				int validEnd;
+				try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+					 FileChannel fileChannel = randomAccessFile.getChannel()) {
+					int fileSize = (int) fileChannel.size();
+					if (fileSize == 0) {
+						continue;
+					}
+					MappedByteBuffer mappedByteBuffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+					//consumeQueue的索引由ConsumeQueueDetailModel按照小端序写入
+					mappedByteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+					validEnd = 0;
+					while (fileSize - validEnd >= BrokerConstants.CONSUME_QUEUE_EACH_MSG_SIZE) {
+						long commitLogOffset = mappedByteBuffer.getLong(validEnd);
+						int msgLength = mappedByteBuffer.getInt(validEnd + 8);
+						long entryEnd = commitLogOffset + msgLength;
+						if (msgLength <= 0 || entryEnd > commitLogEnd) {
+							break;
+						}
+						maxEntryEnd = Math.max(maxEntryEnd, entryEnd);
+						validEnd += BrokerConstants.CONSUME_QUEUE_EACH_MSG_SIZE;
+					}
+					this.truncateTail(mappedByteBuffer, validEnd, validEnd, fileSize);
+					mappedByteBuffer.force();
+				}
+				if (validEnd > 0) {
+					currentFileName = file.getName();
+					currentValidEnd = validEnd;
+				}
+			}
+			if (!currentFileName.equals(queueModel.getFileName()) || currentValidEnd != queueModel.getLatestOffset().get()) {
+				log.warn("consumeQueue of topic:{} queueId:{} recover from file:{} offset:{} to file:{} offset:{}", topicName,
+					queueModel.getId(), queueModel.getFileName(), queueModel.getLatestOffset().get(), currentFileName, currentValidEnd);
+			}
+			queueModel.setFileName(currentFileName);
+			queueModel.setLatestOffset(new AtomicInteger(currentValidEnd));
+		}
+		//以consumeQueue中真实存在的索引为准，避免重复分发或者漏分发
+		commitLogModel.setDispatchOffset(maxEntryEnd >= 0 ? maxEntryEnd : Math.min(firstUndispatchedOffset, commitLogEnd));
+		return queueList.size();
+	}
+
+	/**
+	 * 队列目录下从配置中记录的文件开始的所有consumeQueue文件，按照文件名排序
+	 */
+	private List<File> listConsumeQueueFiles(String topicName, QueueModel queueModel) {
+		File recordedFile = new File(LogFileNameUtil.buildConsumeQueueFilePath(topicName, queueModel.getId(), queueModel.getFileName()));
+		File[] files = recordedFile.getParentFile().listFiles();
+		List<File> fileList = new ArrayList<>();
+		if (files != null) {
+			long recordedFileIndex = Long.parseLong(queueModel.getFileName());
+			for (File file : files) {
+				if (file.isFile() && file.getName().matches("\\d+") && Long.parseLong(file.getName()) >= recordedFileIndex) {
+					fileList.add(file);
+				}
+			}
+		}
+		fileList.sort(Comparator.comparingLong(file -> Long.parseLong(file.getName())));
+		return fileList;
+	}
+
+	/**
+	 * 将有效数据之后的非零内容清零，按页扫描，遇到全零的页就停止
+	 *
+	 * @param mappedByteBuffer 文件映射
+	 * @param validEnd         有效数据的结尾
+	 * @param tornEnd          已知的残留数据结尾，这之前的内容不管是否有全零的页都会清零
+	 * @param fileSize         文件大小
+	 */
+	private void truncateTail(MappedByteBuffer mappedByteBuffer, int validEnd, int tornEnd, int fileSize) {
+		int pos = validEnd;
+		while (pos < fileSize) {
+			int pageEnd = Math.min(fileSize, (pos / PAGE_SIZE + 1) * PAGE_SIZE);
+			boolean dirty = false;
+			for (; pos < pageEnd; pos++) {
+				if (mappedByteBuffer.get(pos) != 0) {
+					mappedByteBuffer.put(pos, (byte) 0);
+					dirty = true;
+				}
+			}
+			if (!dirty && pos >= tornEnd) {
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package com.zhb.broker.core;
+
+import com.zhb.common.constants.BrokerConstants;
+import io.netty.util.internal.PlatformDependent;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * commitLog写缓冲池
+ * 启动时预先分配固定数量、大小和commitLog文件一致的堆外内存，开启后消息先写入堆外内存，
+ * 再由提交线程批量写入文件通道，避免写入线程直接和page cache的脏页回写竞争，文件写满并全部提交后缓冲区归还到池中复用。
+ * 缓冲区数量由池占用的堆外内存上限决定，分配之前校验不超过-XX:MaxDirectMemorySize，网络层同样使用堆外内存，池占用超过一半时告警
+ */
+@Slf4j
+public class TransientStorePool {
+
+	/**
+	 * 缓冲区数量
+	 */
+	private final int poolSize;
+	/**
+	 * 每个缓冲区的大小，和commitLog文件大小一致
+	 */
+	private final int fileSize;
+	/**
+	 * 空闲的缓冲区
+	 */
+	private final ConcurrentLinkedDeque<ByteBuffer> availableBuffers = new ConcurrentLinkedDeque<>();
+
+	/**
+	 * @param maxPoolSize    最多分配的缓冲区数量
+	 * @param maxMemoryBytes 池最多占用的堆外内存，实际的缓冲区数量是两个上限中较小的一个
+	 * @param fileSize       commitLog文件大小，每个缓冲区对应一个文件
+	 */
+	public TransientStorePool(int maxPoolSize, long maxMemoryBytes, int fileSize) {
+		if (maxPoolSize <= 0 || fileSize <= 0) {
+			throw new IllegalArgumentException("transient store pool size and commitLog file size must be positive");
+		}
+		if (maxMemoryBytes < fileSize) {
+			throw new IllegalArgumentException("transient store pool memory " + maxMemoryBytes
+				+ " can not hold a single buffer of commitLog file size " + fileSize);
+		}
+		this.poolSize = (int) Math.min(maxPoolSize, maxMemoryBytes / fileSize);
+		this.fileSize = fileSize;
+	}
+
+	/**
+	 * 分配所有的缓冲区，并且每个内存页写入一个字节，让物理内存在启动时就分配好
+	 *
+	 * @throws IllegalStateException 池占用的堆外内存超过-XX:MaxDirectMemorySize
+	 */
+	public void init() {
+		long poolMemory = this.getPoolMemory();
+		long maxDirectMemory = PlatformDependent.maxDirectMemory();
+		if (poolMemory > maxDirectMemory) {
+			throw new IllegalStateException("transient store pool needs " + poolMemory + " bytes direct memory, exceed MaxDirectMemorySize "
+				+ maxDirectMemory + ", reduce transient.store.pool.memory.mb or raise -XX:MaxDirectMemorySize");
+		}
+		if (poolMemory > maxDirectMemory / 2) {
+			log.warn("transient store pool takes {} of {} bytes direct memory, little is left for network buffers", poolMemory, maxDirectMemory);
+		}
+		long begin = System.currentTimeMillis();
+		for (int i = 0; i < poolSize; i++) {
+			ByteBuffer byteBuffer = ByteBuffer.allocateDirect(fileSize);
+			for (int pos = 0; pos < fileSize; pos += BrokerConstants.OS_PAGE_SIZE) {
+				byteBuffer.put(pos, (byte) 0);
+			}
+			availableBuffers.offer(byteBuffer);
+		}
+		log.info("init transient store pool finish, pool size:{}, buffer size:{}, cost:{}ms", poolSize, fileSize,
+			System.currentTimeMillis() - begin);
+	}
+
+	/**
+	 * 借出一个缓冲区
+	 *
+	 * @return 缓冲区，池中没有空闲的缓冲区时返回null，由调用方退化为直接写mmap
+	 */
+	public ByteBuffer borrowBuffer() {
+		ByteBuffer byteBuffer = availableBuffers.pollFirst();
+		if (byteBuffer == null) {
+			log.warn("transient store pool is empty, write to mapped file directly");
+		}
+		return byteBuffer;
+	}
+
+	/**
+	 * 归还缓冲区
+	 *
+	 * @param byteBuffer 缓冲区
+	 */
+	public void returnBuffer(ByteBuffer byteBuffer) {
+		byteBuffer.clear();
+		availableBuffers.offerFirst(byteBuffer);
+	}
+
+	/**
+	 * 空闲的缓冲区数量
+	 */
+	public int availableBufferNums() {
+		return availableBuffers.size();
+	}
+
+	/**
+	 * 缓冲区数量
+	 */
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * 所有缓冲区占用的堆外内存
+	 */
+	public long getPoolMemory() {
+		return (long) poolSize * fileSize;
+	}
+}
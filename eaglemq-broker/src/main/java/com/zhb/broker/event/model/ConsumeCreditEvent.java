@@ -0,0 +1,15 @@
+package com.zhb.broker.event.model;
+
+import com.zhb.common.dto.ConsumeCreditReqDTO;
+import com.zhb.common.event.model.Event;
+import lombok.Getter;
+import lombok.Setter;
+
+
+@Setter
+@Getter
+public class ConsumeCreditEvent extends Event {
+
+	private ConsumeCreditReqDTO consumeCreditReqDTO;
+
+}
@@ -13,5 +13,9 @@ import lombok.Setter;
 public class ConsumeMsgEvent extends Event {
 
 	private ConsumeMsgReqDTO consumeMsgReqDTO;
+	/**
+	 * 挂起的截止时间，第一次挂起时计算，被唤醒后重新拉取依然没有消息时继续挂起到这个时间，0表示还没有挂起过
+	 */
+	private long suspendDeadline;
 
 }
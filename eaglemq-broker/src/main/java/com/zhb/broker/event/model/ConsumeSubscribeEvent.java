@@ -0,0 +1,15 @@
+package com.zhb.broker.event.model;
+
+import com.zhb.common.dto.ConsumeSubscribeReqDTO;
+import com.zhb.common.event.model.Event;
+import lombok.Getter;
+import lombok.Setter;
+
+
+@Setter
+@Getter
+public class ConsumeSubscribeEvent extends Event {
+
+	private ConsumeSubscribeReqDTO consumeSubscribeReqDTO;
+
+}
@@ -0,0 +1,26 @@
+package com.zhb.broker.event.model;
+
+import com.zhb.common.dto.DelayStoreSyncDTO;
+import com.zhb.common.event.model.Event;
+import lombok.Getter;
+import lombok.Setter;
+
+
+@Setter
+@Getter
+public class DelayStoreSyncEvent extends Event {
+
+	private DelayStoreSyncDTO delayStoreSyncDTO;
+
+	/**
+	 * 按照桶分区，同一个桶的记录和墓碑按照主节点发送的顺序写入
+	 */
+	@Override
+	public Object getPartitionKey() {
+		if (delayStoreSyncDTO == null) {
+			return super.getPartitionKey();
+		}
+		return "delay@" + delayStoreSyncDTO.getBucket();
+	}
+
+}
@@ -0,0 +1,15 @@
+package com.zhb.broker.event.model;
+
+import com.zhb.common.dto.BatchMessageDTO;
+import com.zhb.common.event.model.Event;
+import lombok.Getter;
+import lombok.Setter;
+
+
+@Setter
+@Getter
+public class PushBatchMsgEvent extends Event {
+
+	private BatchMessageDTO batchMessageDTO;
+
+}
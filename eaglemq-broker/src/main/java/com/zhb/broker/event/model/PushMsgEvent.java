@@ -12,4 +12,15 @@ public class PushMsgEvent extends Event {
 
 	private MessageDTO messageDTO;
 
+	/**
+	 * 指定了队列的消息按照topic和队列分区，同一个队列的写入顺序执行；没有指定队列时由broker选择队列，按照连接分区
+	 */
+	@Override
+	public Object getPartitionKey() {
+		if (messageDTO == null || messageDTO.getQueueId() < 0) {
+			return super.getPartitionKey();
+		}
+		return messageDTO.getTopic() + "@" + messageDTO.getQueueId();
+	}
+
 }
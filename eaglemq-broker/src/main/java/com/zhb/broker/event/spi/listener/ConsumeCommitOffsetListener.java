@@ -0,0 +1,41 @@
+package com.zhb.broker.event.spi.listener;
+
+import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.event.model.ConsumeCommitOffsetEvent;
+import com.zhb.common.dto.ConsumeCommitOffsetReqDTO;
+import com.zhb.common.event.ExecutionHint;
+import com.zhb.common.event.Listener;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+
+/**
+ * 提交消费位点监听器
+ * 每个队列的位点只做一次更新，请求是单向发送的，不返回响应，丢失的提交会被消费者后续提交的更大位点覆盖
+ */
+@Slf4j
+public class ConsumeCommitOffsetListener implements Listener<ConsumeCommitOffsetEvent> {
+
+	/**
+	 * 只更新内存中的位点，直接在io线程上执行
+	 */
+	@Override
+	public ExecutionHint getExecutionHint() {
+		return ExecutionHint.INLINE;
+	}
+
+	@Override
+	public void onReceive(ConsumeCommitOffsetEvent event) throws Exception {
+		ConsumeCommitOffsetReqDTO consumeCommitOffsetReqDTO = event.getConsumeCommitOffsetReqDTO();
+		String topic = consumeCommitOffsetReqDTO.getTopic();
+		Map<Integer, Integer> queueCommitOffsetMap = consumeCommitOffsetReqDTO.getQueueCommitOffsetMap();
+		if (!CommonCache.getEagleMqTopicModelMap().containsKey(topic) || queueCommitOffsetMap == null) {
+			log.warn("invalid commit offset request, topic is {}, consumeGroup is {}", topic, consumeCommitOffsetReqDTO.getConsumeGroup());
+			return;
+		}
+		for (Map.Entry<Integer, Integer> queueCommitOffsetEntry : queueCommitOffsetMap.entrySet()) {
+			CommonCache.getConsumeQueueConsumeHandler().commitOffset(topic, consumeCommitOffsetReqDTO.getConsumeGroup(),
+				queueCommitOffsetEntry.getKey(), queueCommitOffsetEntry.getValue());
+		}
+	}
+}
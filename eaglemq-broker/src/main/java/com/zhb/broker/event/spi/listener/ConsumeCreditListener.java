@@ -0,0 +1,31 @@
+package com.zhb.broker.event.spi.listener;
+
+import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.core.ConsumePushService;
+import com.zhb.broker.event.model.ConsumeCreditEvent;
+import com.zhb.common.event.ExecutionHint;
+import com.zhb.common.event.Listener;
+
+/**
+ * 推送模式确认消费监听器
+ * 更新消费位点并归还推送额度，请求是单向发送的，不返回响应
+ */
+public class ConsumeCreditListener implements Listener<ConsumeCreditEvent> {
+
+	/**
+	 * 只更新位点和额度，推送由推送线程完成，直接在io线程上执行
+	 */
+	@Override
+	public ExecutionHint getExecutionHint() {
+		return ExecutionHint.INLINE;
+	}
+
+	@Override
+	public void onReceive(ConsumeCreditEvent event) throws Exception {
+		ConsumePushService consumePushService = CommonCache.getConsumePushService();
+		if (consumePushService == null) {
+			return;
+		}
+		consumePushService.ackAndGrantCredit(event.getChannelHandlerContext().channel(), event.getConsumeCreditReqDTO());
+	}
+}
@@ -10,12 +10,14 @@ import com.zhb.common.dto.ConsumeMsgAckReqDTO;
 import com.zhb.common.dto.ConsumeMsgAckRespDTO;
 import com.zhb.common.enums.AckStatus;
 import com.zhb.common.enums.BrokerResponseCode;
+import com.zhb.common.event.ExecutionHint;
 import com.zhb.common.event.Listener;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 /**
  * 消息确认(ACK)监听器
@@ -25,6 +27,14 @@ import java.util.Map;
 @Slf4j
 public class ConsumeMsgAckListener implements Listener<ConsumeMsgAckEvent> {
 
+	/**
+	 * 只更新内存中的位点并返回响应，直接在io线程上执行，这里不能有info日志、stream之类的额外开销
+	 */
+	@Override
+	public ExecutionHint getExecutionHint() {
+		return ExecutionHint.INLINE;
+	}
+
 	/**
 	 * 接收并处理消息确认事件
 	 * 验证请求的合法性，并更新消费队列偏移量
@@ -48,7 +58,7 @@ public class ConsumeMsgAckListener implements Listener<ConsumeMsgAckEvent> {
 		if (eagleMqTopicModel == null) {
 			//topic不存在，ack失败
 			consumeMsgAckRespDTO.setAckStatus(AckStatus.FAIL.getCode());
-			event.getChannelHandlerContext().writeAndFlush(new TcpMsg(BrokerResponseCode.BROKER_UPDATE_CONSUME_OFFSET_RESP.getCode(),
+			event.reply(new TcpMsg(BrokerResponseCode.BROKER_UPDATE_CONSUME_OFFSET_RESP.getCode(),
 				JSON.toJSONBytes(consumeMsgAckRespDTO)));
 			return;
 		}
@@ -56,7 +66,7 @@ public class ConsumeMsgAckListener implements Listener<ConsumeMsgAckEvent> {
 		Map<String, List<ConsumerInstance>> consumerInstanceMap = CommonCache.getConsumeHoldMap().get(topic);
 		if (consumerInstanceMap == null || consumerInstanceMap.isEmpty()) {
 			consumeMsgAckRespDTO.setAckStatus(AckStatus.FAIL.getCode());
-			event.getChannelHandlerContext().writeAndFlush(new TcpMsg(BrokerResponseCode.BROKER_UPDATE_CONSUME_OFFSET_RESP.getCode(),
+			event.reply(new TcpMsg(BrokerResponseCode.BROKER_UPDATE_CONSUME_OFFSET_RESP.getCode(),
 				JSON.toJSONBytes(consumeMsgAckRespDTO)));
 			return;
 		}
@@ -64,30 +74,40 @@ public class ConsumeMsgAckListener implements Listener<ConsumeMsgAckEvent> {
 		List<ConsumerInstance> consumeGroupInstances = consumerInstanceMap.get(consumeGroup);
 		if (CollectionUtils.isEmpty(consumeGroupInstances)) {
 			consumeMsgAckRespDTO.setAckStatus(AckStatus.FAIL.getCode());
-			event.getChannelHandlerContext().writeAndFlush(new TcpMsg(BrokerResponseCode.BROKER_UPDATE_CONSUME_OFFSET_RESP.getCode(),
+			event.reply(new TcpMsg(BrokerResponseCode.BROKER_UPDATE_CONSUME_OFFSET_RESP.getCode(),
 				JSON.toJSONBytes(consumeMsgAckRespDTO)));
 			return;
 		}
 		// 验证当前请求的消费者是否存在于消费者组中
-		String currentConsumeReqId = consumeMsgAckReqDTO.getIp() + ":" + consumeMsgAckReqDTO.getPort();
-		ConsumerInstance matchInstance = consumeGroupInstances.stream().filter(item -> item.getConsumerReqId().equals(currentConsumeReqId)).findAny().orElse(null);
-		if (matchInstance == null) {
+		if (!this.containsConsumer(consumeGroupInstances, consumeMsgAckReqDTO.getIp(), consumeMsgAckReqDTO.getPort())) {
 			consumeMsgAckRespDTO.setAckStatus(AckStatus.FAIL.getCode());
-			event.getChannelHandlerContext().writeAndFlush(new TcpMsg(BrokerResponseCode.BROKER_UPDATE_CONSUME_OFFSET_RESP.getCode(),
+			event.reply(new TcpMsg(BrokerResponseCode.BROKER_UPDATE_CONSUME_OFFSET_RESP.getCode(),
 				JSON.toJSONBytes(consumeMsgAckRespDTO)));
 			return;
 		}
-		// 执行确认操作，更新消费偏移量
-		// 根据确认的消息数量(ackCount)多次调用确认方法
-		for (int i = 0; i < ackCount; i++) {
-			CommonCache.getConsumeQueueConsumeHandler().ack(topic, consumeGroup, queueId);
+		// 执行确认操作，消费偏移量一次性增加ackCount条
+		CommonCache.getConsumeQueueConsumeHandler().ack(topic, consumeGroup, queueId, ackCount);
+		if (log.isDebugEnabled()) {
+			log.debug("broker receive offset value ,topic is {},consumeGroup is {},queueId is {},ackCount is {}",
+				topic, consumeGroup, queueId, ackCount);
 		}
-		log.info("broker receive offset value ,topic is {},consumeGroup is {},queueId is {},ackCount is {}",
-			topic, consumeGroup, queueId, ackCount);
 		// 发送确认成功响应
 		consumeMsgAckRespDTO.setAckStatus(AckStatus.SUCCESS.getCode());
 		TcpMsg tcpMsg = new TcpMsg(BrokerResponseCode.BROKER_UPDATE_CONSUME_OFFSET_RESP.getCode(),
 			JSON.toJSONBytes(consumeMsgAckRespDTO));
-		event.getChannelHandlerContext().writeAndFlush(tcpMsg);
+		event.reply(tcpMsg);
+	}
+
+	/**
+	 * 按照ip和端口查找消费者实例，消费者实例的reqId就是由这两个字段拼接的，不需要再拼接字符串
+	 */
+	private boolean containsConsumer(List<ConsumerInstance> consumeGroupInstances, String ip, Integer port) {
+		for (int i = 0; i < consumeGroupInstances.size(); i++) {
+			ConsumerInstance consumerInstance = consumeGroupInstances.get(i);
+			if (Objects.equals(consumerInstance.getIp(), ip) && Objects.equals(consumerInstance.getPort(), port)) {
+				return true;
+			}
+		}
+		return false;
 	}
 }
@@ -1,20 +1,26 @@
 package com.zhb.broker.event.spi.listener;
 
-import com.alibaba.fastjson.JSON;
 import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.core.PullRequestHoldService;
 import com.zhb.broker.event.model.ConsumeMsgEvent;
-import com.zhb.broker.model.ConsumeQueueConsumeReqModel;
+import com.zhb.broker.model.CommitLogBodySliceModel;
+import com.zhb.broker.model.EagleMqTopicModel;
+import com.zhb.broker.model.QueueModel;
 import com.zhb.broker.rebalance.ConsumerInstance;
+import com.zhb.broker.utils.ConsumeMsgRespUtil;
 import com.zhb.common.coder.TcpMsg;
-import com.zhb.common.dto.ConsumeMsgBaseRespDTO;
-import com.zhb.common.dto.ConsumeMsgCommitLogDTO;
+import com.zhb.common.constants.BrokerConstants;
 import com.zhb.common.dto.ConsumeMsgReqDTO;
-import com.zhb.common.dto.ConsumeMsgRespDTO;
 import com.zhb.common.enums.BrokerResponseCode;
+import com.zhb.common.enums.SerializeTypeEnum;
 import com.zhb.common.event.Listener;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelHandlerContext;
 import org.apache.commons.collections4.CollectionUtils;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -22,8 +28,11 @@ import java.util.Map;
  * 消费者拉取消息监听器
  * 负责处理消费者发送的消息拉取请求事件
  * 验证消费者权限并从相应队列拉取消息返回给客户端
+ * 没有拉取到消息时按照客户端指定的挂起时间挂起请求，新消息分发后或者挂起超时后由PullRequestHoldService唤醒重新处理
+ * 响应使用二进制序列化，格式和ConsumeMsgBaseRespDTO的二进制编码一致，消息体直接从commitLog的映射内存发送到socket
  */
 public class ConsumeMsgListener implements Listener<ConsumeMsgEvent> {
+
 	/**
 	 * 接收并处理消息拉取事件
 	 * 验证消费者权限，从分配给该消费者的队列中拉取消息
@@ -47,53 +56,103 @@ public class ConsumeMsgListener implements Listener<ConsumeMsgEvent> {
 		consumerInstance.setBatchSize(consumeMsgReqDTO.getBatchSize());
 		// 加入到消费池中
 		CommonCache.getConsumerInstancePool().addInstancePool(consumerInstance);
-		// 准备响应数据
-		ConsumeMsgBaseRespDTO consumeMsgBaseRespDTO = new ConsumeMsgBaseRespDTO();
-		List<ConsumeMsgRespDTO> consumeMsgRespDTOS = new ArrayList<>();
-		consumeMsgBaseRespDTO.setConsumeMsgRespDTOList(consumeMsgRespDTOS);
-		consumeMsgBaseRespDTO.setMsgId(event.getMsgId());
+		// 准备响应数据，key是队列id，value是该队列拉取到的消息
+		Map<Integer, List<CommitLogBodySliceModel>> queueMsgMap = new LinkedHashMap<>();
+		// 拉取之前各个队列的最新索引位置，没有拉取到消息需要挂起请求时使用
+		Map<Integer, Integer> queueOffsetSnapshot = new HashMap<>();
 		// 获取主题下的消费组映射
 		Map<String, List<ConsumerInstance>> consumeGroupMap = CommonCache.getConsumeHoldMap().get(topic);
 		// 检查消费组是否已经过重平衡，如果没有则返回空数据
 		if (consumeGroupMap == null) {
-			// 直接返回空数据，表示队列尚未分配
-			event.getChannelHandlerContext().writeAndFlush(new TcpMsg(BrokerResponseCode.CONSUME_MSG_RESP.getCode(),
-				JSON.toJSONBytes(consumeMsgBaseRespDTO)));
+			// 队列尚未分配，返回空数据或者挂起请求
+			this.suspendOrWriteResp(event, queueMsgMap, queueOffsetSnapshot);
 			return;
 		}
 		// 检查指定消费组下是否有消费者实例
 		List<ConsumerInstance> consumerInstances = consumeGroupMap.get(consumeMsgReqDTO.getConsumeGroup());
 		if (CollectionUtils.isEmpty(consumerInstances)) {
-			//直接返回空数据 表示该消费组下暂无消费者
-			event.getChannelHandlerContext().writeAndFlush(new TcpMsg(BrokerResponseCode.CONSUME_MSG_RESP.getCode(),
-				JSON.toJSONBytes(consumeMsgBaseRespDTO)));
+			//该消费组下暂无消费者，返回空数据或者挂起请求
+			this.suspendOrWriteResp(event, queueMsgMap, queueOffsetSnapshot);
 			return;
 		}
+		EagleMqTopicModel eagleMqTopicModel = CommonCache.getEagleMqTopicModelMap().get(topic);
+		List<QueueModel> queueList = eagleMqTopicModel == null ? null : eagleMqTopicModel.getQueueList();
+		boolean hasMsg = false;
 		// 遍历消费组下的所有消费者实例，查找匹配当前请求的消费者
 		for (ConsumerInstance instance : consumerInstances) {
 			if (instance.getConsumerReqId().equals(currentReqId)) {
 				// 当前消费者有占有队列的权利，可以消费
+				Map<Integer, Integer> queueOffsetMap = consumeMsgReqDTO.getQueueOffsetMap();
 				for (Integer queueId : instance.getQueueIdSet()) {
-					// 构建消费请求模型
-					ConsumeQueueConsumeReqModel consumeQueueConsumeReqModel = new ConsumeQueueConsumeReqModel();
-					consumeQueueConsumeReqModel.setTopic(topic);
-					consumeQueueConsumeReqModel.setQueueId(queueId);
-					consumeQueueConsumeReqModel.setBatchSize(instance.getBatchSize());
-					consumeQueueConsumeReqModel.setConsumeGroup(instance.getConsumeGroup());
-					List<ConsumeMsgCommitLogDTO> commitLogContentList = CommonCache.getConsumeQueueConsumeHandler().consume(consumeQueueConsumeReqModel);
-					// 从消费队列中拉取消息
-					ConsumeMsgRespDTO consumeMsgRespDTO = new ConsumeMsgRespDTO();
-					// 构建响应数据
-					consumeMsgRespDTO.setQueueId(queueId);
-					consumeMsgRespDTO.setCommitLogContentList(commitLogContentList);
-					consumeMsgRespDTOS.add(consumeMsgRespDTO);
+					Integer pullOffset = queueOffsetMap == null ? null : queueOffsetMap.get(queueId);
+					// 客户端本地缓存的消息已经达到上限，暂停拉取这个队列
+					if (pullOffset != null && pullOffset == BrokerConstants.PAUSED_QUEUE_OFFSET) {
+						continue;
+					}
+					if (queueList != null) {
+						queueOffsetSnapshot.put(queueId, queueList.get(queueId).getLatestOffset().get());
+					}
+					// 客户端指定了拉取位置时从该位置继续拉取，但是不会早于已经提交的消费位置
+					int consumeQueueOffset = CommonCache.getConsumeQueueConsumeHandler().getConsumeOffset(topic, instance.getConsumeGroup(), queueId);
+					if (pullOffset != null) {
+						consumeQueueOffset = Math.max(consumeQueueOffset, pullOffset);
+					}
+					// 从消费队列中拉取消息，消息体直接引用commitLog的映射内存
+					List<CommitLogBodySliceModel> commitLogBodySliceModels = CommonCache.getConsumeQueueConsumeHandler()
+						.consumeBodySlices(topic, queueId, consumeQueueOffset, instance.getBatchSize());
+					queueMsgMap.put(queueId, commitLogBodySliceModels == null ? new ArrayList<>() : commitLogBodySliceModels);
+					hasMsg = hasMsg || CollectionUtils.isNotEmpty(commitLogBodySliceModels);
 				}
 			}
 		}
+		if (!hasMsg) {
+			this.suspendOrWriteResp(event, queueMsgMap, queueOffsetSnapshot);
+			return;
+		}
 		// 发送响应消息给客户端
-		byte[] body = JSON.toJSONBytes(consumeMsgBaseRespDTO);
-		TcpMsg respMsg = new TcpMsg(BrokerResponseCode.CONSUME_MSG_RESP.getCode(),
-			body);
-		event.getChannelHandlerContext().writeAndFlush(respMsg);
+		this.writeResp(event, queueMsgMap);
+	}
+
+	/**
+	 * 没有拉取到消息时，客户端指定了挂起时间并且还没有到截止时间就挂起请求，否则直接返回空数据
+	 *
+	 * @param event               拉取消息事件
+	 * @param queueMsgMap         每个队列拉取到的消息，都是空的
+	 * @param queueOffsetSnapshot 拉取之前各个队列的最新索引位置
+	 */
+	private void suspendOrWriteResp(ConsumeMsgEvent event, Map<Integer, List<CommitLogBodySliceModel>> queueMsgMap,
+									Map<Integer, Integer> queueOffsetSnapshot) {
+		PullRequestHoldService pullRequestHoldService = CommonCache.getPullRequestHoldService();
+		Integer suspendTimeoutMills = event.getConsumeMsgReqDTO().getSuspendTimeoutMills();
+		if (pullRequestHoldService == null || suspendTimeoutMills == null || suspendTimeoutMills <= 0) {
+			this.writeResp(event, queueMsgMap);
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (event.getSuspendDeadline() == 0) {
+			long holdMills = Math.min(suspendTimeoutMills, BrokerConstants.MAX_PULL_SUSPEND_TIMEOUT_MILLS);
+			if (queueOffsetSnapshot.isEmpty()) {
+				//没有分配到队列时不会有新消息唤醒，只短暂挂起，起到退避的作用
+				holdMills = Math.min(holdMills, BrokerConstants.PULL_REQUEST_HOLD_NO_QUEUE_MILLS);
+			}
+			event.setSuspendDeadline(now + holdMills);
+		}
+		if (event.getSuspendDeadline() <= now) {
+			this.writeResp(event, queueMsgMap);
+			return;
+		}
+		pullRequestHoldService.suspendPullRequest(event, queueOffsetSnapshot);
+	}
+
+	/**
+	 * 发送拉取消息的响应，消息体直接引用commitLog的映射内存
+	 *
+	 * @param event       拉取消息事件，响应通过它带回请求id
+	 * @param queueMsgMap 每个队列拉取到的消息
+	 */
+	private void writeResp(ConsumeMsgEvent event, Map<Integer, List<CommitLogBodySliceModel>> queueMsgMap) {
+		ChannelHandlerContext ctx = event.getChannelHandlerContext();
+		CompositeByteBuf body = ConsumeMsgRespUtil.buildRespBody(ctx.alloc(), event.getMsgId(), queueMsgMap);
+		event.reply(new TcpMsg(BrokerResponseCode.CONSUME_MSG_RESP.getCode(), SerializeTypeEnum.BINARY.getCode(), body));
 	}
 }
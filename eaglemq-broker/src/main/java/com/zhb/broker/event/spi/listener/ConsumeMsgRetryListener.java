@@ -38,7 +38,7 @@ public class ConsumeMsgRetryListener implements Listener<ConsumeMsgRetryEvent> {
 
 	/**
 	 * 接收并处理消息重试事件
-	 * 校验请求参数的合法性，确认(ACK)原消息并将消息放入重试队列
+	 * 校验请求参数的合法性，将消息放入重试队列，原消息的消费位点由消费者处理完整批消息之后提交
 	 *
 	 * @param event 消息重试事件对象
 	 * @throws Exception 处理过程中可能发生的异常
@@ -52,37 +52,32 @@ public class ConsumeMsgRetryListener implements Listener<ConsumeMsgRetryEvent> {
 		// 获取重试请求数据
 		ConsumeMsgRetryReqDTO consumeMsgRetryReqDTO = event.getConsumeMsgRetryReqDTO();
 		InetSocketAddress inetSocketAddress = (InetSocketAddress) event.getChannelHandlerContext().channel().remoteAddress();
-		// 参数校验合格了才能继续往下ack
+		// 参数校验合格了才能继续放入重试队列
 		for (ConsumeMsgRetryReqDetailDTO consumeMsgRetryReqDetailDTO : consumeMsgRetryReqDTO.getConsumeMsgRetryReqDetailDTOList()) {
-			//如果参数异常，中间会抛出异常，不会继续后续的ack和重新发送topic
+			//如果参数异常，中间会抛出异常，不会继续后续的重新发送topic
 			consumeMsgRetryReqDetailDTO.setIp(inetSocketAddress.getHostString());
 			consumeMsgRetryReqDetailDTO.setPort(inetSocketAddress.getPort());
 			this.checkParam(consumeMsgRetryRespDTO, event, consumeMsgRetryReqDetailDTO);
 		}
-		// 所有参数校验通过后，逐条处理消息的确认和重试
+		// 所有参数校验通过后，逐条放入重试队列
 		for (ConsumeMsgRetryReqDetailDTO consumeMsgRetryReqDetailDTO : consumeMsgRetryReqDTO.getConsumeMsgRetryReqDetailDTOList()) {
-			this.ackAndSendToRetryTopic(consumeMsgRetryReqDetailDTO, event);
+			this.sendToRetryTopic(consumeMsgRetryReqDetailDTO, event);
 		}
 		// 发送成功响应
 		consumeMsgRetryRespDTO.setAckStatus(AckStatus.SUCCESS.getCode());
 		TcpMsg retryMsg = new TcpMsg(BrokerResponseCode.CONSUME_MSG_RETRY_RESP.getCode(), JSON.toJSONBytes(consumeMsgRetryRespDTO));
-		event.getChannelHandlerContext().writeAndFlush(retryMsg);
+		event.reply(retryMsg);
 	}
 
 	/**
-	 * 确认消息并将消息发送到重试主题
-	 * 更新消费偏移量并将消息入队到重试队列，使用时间轮实现延迟重试
+	 * 将消息发送到重试主题
+	 * 将消息入队到重试队列，使用时间轮实现延迟重试
 	 *
 	 * @param consumeMsgRetryReqDetailDTO 消息重试请求详情
 	 * @param event                       原始事件对象
 	 */
-	private void ackAndSendToRetryTopic(ConsumeMsgRetryReqDetailDTO consumeMsgRetryReqDetailDTO, Event event) {
+	private void sendToRetryTopic(ConsumeMsgRetryReqDetailDTO consumeMsgRetryReqDetailDTO, Event event) {
 		String topic = consumeMsgRetryReqDetailDTO.getTopic();
-		Integer queueId = consumeMsgRetryReqDetailDTO.getQueueId();
-		String consumeGroup = consumeMsgRetryReqDetailDTO.getConsumerGroup();
-
-		//先保障后续的数据内容可以继续处理，避免出现消息大量堆积情况
-		CommonCache.getConsumeQueueConsumeHandler().ack(topic, consumeGroup, queueId);
 
 		//需要被重试的消息offset地址存储到retry主题里，当时间到了之后 重新取出推到重试队列的专用主题中
 		Integer commitLogMsgLength = consumeMsgRetryReqDetailDTO.getCommitLogMsgLength();
@@ -93,7 +88,7 @@ public class ConsumeMsgRetryListener implements Listener<ConsumeMsgRetryEvent> {
 		messageRetryDTO.setTopic(topic);
 		messageRetryDTO.setQueueId(consumeMsgRetryReqDetailDTO.getQueueId());
 		messageRetryDTO.setConsumeGroup(consumeMsgRetryReqDetailDTO.getConsumerGroup());
-		messageRetryDTO.setSourceCommitLogOffset(Math.toIntExact(commitLogOffset));
+		messageRetryDTO.setSourceCommitLogOffset(commitLogOffset);
 		messageRetryDTO.setSourceCommitLogSize(commitLogMsgLength);
 		messageRetryDTO.setCurrentRetryTimes(consumeMsgRetryReqDetailDTO.getRetryTime());
 
@@ -150,7 +145,7 @@ public class ConsumeMsgRetryListener implements Listener<ConsumeMsgRetryEvent> {
 		if (eagleMqTopicModel == null) {
 			//topic不存在，ack失败
 			consumeMsgRetryRespDTO.setAckStatus(AckStatus.FAIL.getCode());
-			event.getChannelHandlerContext().writeAndFlush(new TcpMsg(BrokerResponseCode.CONSUME_MSG_RETRY_RESP.getCode(),
+			event.reply(new TcpMsg(BrokerResponseCode.CONSUME_MSG_RETRY_RESP.getCode(),
 				com.alibaba.fastjson.JSON.toJSONBytes(consumeMsgRetryRespDTO)));
 			throw new RuntimeException("checkParam error");
 		}
@@ -159,7 +154,7 @@ public class ConsumeMsgRetryListener implements Listener<ConsumeMsgRetryEvent> {
 		Map<String, List<ConsumerInstance>> consumerInstanceMap = CommonCache.getConsumeHoldMap().get(topic);
 		if (consumerInstanceMap == null || consumerInstanceMap.isEmpty()) {
 			consumeMsgRetryRespDTO.setAckStatus(AckStatus.FAIL.getCode());
-			event.getChannelHandlerContext().writeAndFlush(new TcpMsg(BrokerResponseCode.BROKER_UPDATE_CONSUME_OFFSET_RESP.getCode(),
+			event.reply(new TcpMsg(BrokerResponseCode.BROKER_UPDATE_CONSUME_OFFSET_RESP.getCode(),
 				com.alibaba.fastjson.JSON.toJSONBytes(consumeMsgRetryRespDTO)));
 			throw new RuntimeException("checkParam error");
 		}
@@ -168,7 +163,7 @@ public class ConsumeMsgRetryListener implements Listener<ConsumeMsgRetryEvent> {
 		List<ConsumerInstance> consumeGroupInstances = consumerInstanceMap.get(consumeGroup);
 		if (CollectionUtils.isEmpty(consumeGroupInstances)) {
 			consumeMsgRetryRespDTO.setAckStatus(AckStatus.FAIL.getCode());
-			event.getChannelHandlerContext().writeAndFlush(new TcpMsg(BrokerResponseCode.BROKER_UPDATE_CONSUME_OFFSET_RESP.getCode(),
+			event.reply(new TcpMsg(BrokerResponseCode.BROKER_UPDATE_CONSUME_OFFSET_RESP.getCode(),
 				com.alibaba.fastjson.JSON.toJSONBytes(consumeMsgRetryRespDTO)));
 			throw new RuntimeException("checkParam error");
 		}
@@ -178,7 +173,7 @@ public class ConsumeMsgRetryListener implements Listener<ConsumeMsgRetryEvent> {
 		ConsumerInstance matchInstance = consumeGroupInstances.stream().filter(item -> item.getConsumerReqId().equals(currentConsumeReqId)).findAny().orElse(null);
 		if (matchInstance == null) {
 			consumeMsgRetryRespDTO.setAckStatus(AckStatus.FAIL.getCode());
-			event.getChannelHandlerContext().writeAndFlush(new TcpMsg(BrokerResponseCode.BROKER_UPDATE_CONSUME_OFFSET_RESP.getCode(),
+			event.reply(new TcpMsg(BrokerResponseCode.BROKER_UPDATE_CONSUME_OFFSET_RESP.getCode(),
 				com.alibaba.fastjson.JSON.toJSONBytes(consumeMsgRetryRespDTO)));
 			throw new RuntimeException("checkParam error");
 		}
@@ -0,0 +1,59 @@
+package com.zhb.broker.event.spi.listener;
+
+import com.alibaba.fastjson.JSON;
+import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.core.ConsumePushService;
+import com.zhb.broker.event.model.ConsumeSubscribeEvent;
+import com.zhb.broker.rebalance.ConsumerInstance;
+import com.zhb.common.coder.TcpMsg;
+import com.zhb.common.dto.ConsumeSubscribeReqDTO;
+import com.zhb.common.dto.ConsumeSubscribeRespDTO;
+import com.zhb.common.enums.AckStatus;
+import com.zhb.common.enums.BrokerResponseCode;
+import com.zhb.common.event.Listener;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 推送模式订阅监听器
+ * 把消费者加入消费者池参与重平衡，然后在消费者的连接上建立订阅，之后由ConsumePushService持续推送分配给它的队列中的消息
+ */
+@Slf4j
+public class ConsumeSubscribeListener implements Listener<ConsumeSubscribeEvent> {
+
+	@Override
+	public void onReceive(ConsumeSubscribeEvent event) throws Exception {
+		ConsumeSubscribeReqDTO consumeSubscribeReqDTO = event.getConsumeSubscribeReqDTO();
+		ConsumeSubscribeRespDTO consumeSubscribeRespDTO = new ConsumeSubscribeRespDTO();
+		consumeSubscribeRespDTO.setMsgId(event.getMsgId());
+		ConsumePushService consumePushService = CommonCache.getConsumePushService();
+		if (consumePushService == null || !this.isValid(consumeSubscribeReqDTO)) {
+			log.warn("push subscribe request is invalid, topic is {}, consumeGroup is {}", consumeSubscribeReqDTO.getTopic(),
+				consumeSubscribeReqDTO.getConsumeGroup());
+			consumeSubscribeRespDTO.setSubscribeStatus(AckStatus.FAIL.getCode());
+			event.reply(new TcpMsg(BrokerResponseCode.CONSUME_SUBSCRIBE_RESP.getCode(), JSON.toJSONBytes(consumeSubscribeRespDTO)));
+			return;
+		}
+		String currentReqId = consumeSubscribeReqDTO.getIp() + ":" + consumeSubscribeReqDTO.getPort();
+		// 和拉取模式一样加入消费池，由重平衡任务分配队列
+		ConsumerInstance consumerInstance = new ConsumerInstance();
+		consumerInstance.setIp(consumeSubscribeReqDTO.getIp());
+		consumerInstance.setPort(consumeSubscribeReqDTO.getPort());
+		consumerInstance.setConsumerReqId(currentReqId);
+		consumerInstance.setTopic(consumeSubscribeReqDTO.getTopic());
+		consumerInstance.setConsumeGroup(consumeSubscribeReqDTO.getConsumeGroup());
+		consumerInstance.setBatchSize(consumeSubscribeReqDTO.getBatchSize());
+		CommonCache.getConsumerInstancePool().addInstancePool(consumerInstance);
+		consumePushService.subscribe(event.getChannelHandlerContext().channel(), consumeSubscribeReqDTO, currentReqId);
+		consumeSubscribeRespDTO.setSubscribeStatus(AckStatus.SUCCESS.getCode());
+		event.reply(new TcpMsg(BrokerResponseCode.CONSUME_SUBSCRIBE_RESP.getCode(), JSON.toJSONBytes(consumeSubscribeRespDTO)));
+	}
+
+	private boolean isValid(ConsumeSubscribeReqDTO consumeSubscribeReqDTO) {
+		return consumeSubscribeReqDTO.getMsgId() != null
+			&& CommonCache.getEagleMqTopicModelMap().get(consumeSubscribeReqDTO.getTopic()) != null
+			&& consumeSubscribeReqDTO.getConsumeGroup() != null
+			&& consumeSubscribeReqDTO.getBatchSize() != null && consumeSubscribeReqDTO.getBatchSize() > 0
+			&& consumeSubscribeReqDTO.getCreditMsgCount() != null && consumeSubscribeReqDTO.getCreditMsgCount() > 0
+			&& consumeSubscribeReqDTO.getCreditBytes() != null && consumeSubscribeReqDTO.getCreditBytes() > 0;
+	}
+}
@@ -13,6 +13,7 @@ import com.zhb.common.dto.CreateTopicReqDTO;
 import com.zhb.common.enums.BrokerClusterModeEnum;
 import com.zhb.common.enums.BrokerEventCode;
 import com.zhb.common.enums.BrokerResponseCode;
+import com.zhb.common.event.ExecutionHint;
 import com.zhb.common.event.Listener;
 import com.zhb.common.utils.AssertUtils;
 import io.netty.channel.ChannelHandlerContext;
@@ -23,6 +24,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 主题创建监听器
@@ -32,6 +34,14 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Slf4j
 public class CreateTopicListener implements Listener<CreateTopicEvent> {
 
+	/**
+	 * 需要创建文件并建立内存映射，交给线程池执行
+	 */
+	@Override
+	public ExecutionHint getExecutionHint() {
+		return ExecutionHint.BLOCKING;
+	}
+
 	/**
 	 * 接收并处理创建主题事件
 	 * 验证请求参数，创建文件结构，并在缓存中注册新主题
@@ -62,7 +72,7 @@ public class CreateTopicListener implements Listener<CreateTopicEvent> {
 		log.info("topic:{} is created! queueSize is {}", createTopicReqDTO.getTopic(), createTopicReqDTO.getQueueSize());
 
 		// 发送创建成功响应
-		event.getChannelHandlerContext().write(new TcpMsg(BrokerResponseCode.CREATED_TOPIC_SUCCESS.getCode(), "success".getBytes()));
+		event.reply(new TcpMsg(BrokerResponseCode.CREATED_TOPIC_SUCCESS.getCode(), "success".getBytes()));
 
 		// 集群模式下的主从同步处理
 		if (BrokerClusterModeEnum.MASTER_SLAVE.getCode().equals(CommonCache.getGlobalProperties().getBrokerClusterMode())
@@ -135,8 +145,8 @@ public class CreateTopicListener implements Listener<CreateTopicEvent> {
 		// 创建CommitLog模型
 		CommitLogModel commitLogModel = new CommitLogModel();
 		commitLogModel.setFileName(LogFileNameUtil.buildFirstCommitLogName());
-		commitLogModel.setOffsetLimit(BrokerConstants.COMMIT_LOG_DEFAULT_MMAP_SIZE.longValue());
-		commitLogModel.setOffset(new AtomicInteger(0));
+		commitLogModel.setOffsetLimit(CommonCache.getGlobalProperties().getCommitLogFileSize().longValue());
+		commitLogModel.setOffset(new AtomicLong(0));
 		eagleMqTopicModel.setCommitLogModel(commitLogModel);
 
 		// 创建队列模型列表
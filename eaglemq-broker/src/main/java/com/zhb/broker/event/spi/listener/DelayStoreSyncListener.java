@@ -0,0 +1,32 @@
+package com.zhb.broker.event.spi.listener;
+
+import com.alibaba.fastjson.JSON;
+import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.event.model.DelayStoreSyncEvent;
+import com.zhb.common.coder.TcpMsg;
+import com.zhb.common.dto.DelayStoreSyncDTO;
+import com.zhb.common.dto.SlaveSyncRespDTO;
+import com.zhb.common.enums.BrokerResponseCode;
+import com.zhb.common.enums.MessageSendWay;
+import com.zhb.common.event.Listener;
+
+/**
+ * 延迟消息存储同步监听器
+ * 从节点把主节点同步过来的记录和墓碑写入备用的延迟消息存储，同步发送的记录写入之后返回确认
+ */
+public class DelayStoreSyncListener implements Listener<DelayStoreSyncEvent> {
+
+	@Override
+	public void onReceive(DelayStoreSyncEvent event) throws Exception {
+		DelayStoreSyncDTO delayStoreSyncDTO = event.getDelayStoreSyncDTO();
+		CommonCache.getDelayMessageStore().applySync(delayStoreSyncDTO);
+		if (delayStoreSyncDTO.getSendWay() == MessageSendWay.ASYNC.getCode()) {
+			return;
+		}
+		SlaveSyncRespDTO slaveSyncAckRespDTO = new SlaveSyncRespDTO();
+		slaveSyncAckRespDTO.setSyncSuccess(true);
+		slaveSyncAckRespDTO.setMsgId(delayStoreSyncDTO.getMsgId());
+		event.reply(new TcpMsg(BrokerResponseCode.SLAVE_SYNC_RESP.getCode(),
+			JSON.toJSONBytes(slaveSyncAckRespDTO)));
+	}
+}
@@ -0,0 +1,25 @@
+package com.zhb.broker.event.spi.listener;
+
+import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.event.model.PushBatchMsgEvent;
+import com.zhb.common.event.Listener;
+
+import java.io.IOException;
+
+/**
+ * 批量消息推送监听器
+ * 整批消息一次性追加到commitLog，并一次性返回每条消息的写入结果
+ */
+public class PushBatchMsgListener implements Listener<PushBatchMsgEvent> {
+
+	/**
+	 * 接收并处理批量消息推送事件
+	 *
+	 * @param event 批量消息推送事件对象
+	 * @throws IOException 写入过程中可能发生的IO异常
+	 */
+	@Override
+	public void onReceive(PushBatchMsgEvent event) throws IOException {
+		CommonCache.getCommitLogAppendHandler().appendBatchMsg(event.getBatchMessageDTO(), event);
+	}
+}
@@ -1,18 +1,17 @@
 package com.zhb.broker.event.spi.listener;
 
-import com.alibaba.fastjson.JSON;
 import com.zhb.broker.cache.CommonCache;
 import com.zhb.broker.event.model.PushMsgEvent;
 import com.zhb.broker.model.TxMessageAckModel;
 import com.zhb.broker.timewheel.DelayMessageDTO;
 import com.zhb.broker.timewheel.SlotStoreTypeEnum;
+import com.zhb.common.coder.SerializerManager;
 import com.zhb.common.coder.TcpMsg;
 import com.zhb.common.dto.MessageDTO;
 import com.zhb.common.dto.SendMessageToBrokerResponseDTO;
 import com.zhb.common.dto.TxMessageDTO;
 import com.zhb.common.enums.*;
 import com.zhb.common.event.Listener;
-import com.zhb.common.utils.AssertUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,7 +39,8 @@ public class PushMsgListener implements Listener<PushMsgEvent> {
 		MessageDTO messageDTO = event.getMessageDTO();
 
 		// 判断消息类型：延迟消息、半事务消息、事务确认消息或普通消息
-		boolean isDelayMsg = messageDTO.getDelay() > 0;
+		// 延迟消息通过延迟消息存储同步给从节点，从节点收到的延迟消息是主节点到期投递的，直接写入commitLog
+		boolean isDelayMsg = messageDTO.getDelay() > 0 && !this.isSlaveNode();
 		boolean isHalfMsg = messageDTO.getTxFlag() == TxMessageFlagEnum.HALF_MSG.getCode();
 		boolean isRemainHalfAck = messageDTO.getTxFlag() == TxMessageFlagEnum.REMAIN_HALF_ACK.getCode();
 		// 根据消息类型分发到不同的处理方法
@@ -68,22 +68,36 @@ public class PushMsgListener implements Listener<PushMsgEvent> {
 		LocalTransactionState localTransactionState = LocalTransactionState.of(messageDTO.getLocalTxState());
 
 		if (localTransactionState == LocalTransactionState.COMMIT) {
-			// 如果是提交状态，移除事务映射并将消息写入CommitLog
+			// 如果是提交状态，移除事务映射并将消息写入CommitLog，落盘之后再响应，不在当前线程等待刷盘
 			CommonCache.getTxMessageAckModelMap().remove(messageDTO.getMsgId());
-			CommonCache.getCommitLogAppendHandler().appendMsg(messageDTO);
+			CommonCache.getCommitLogAppendHandler().appendMsgAsync(messageDTO).whenComplete((result, throwable) -> {
+				if (throwable != null) {
+					//和写入失败一样不返回成功，由客户端的超时处理
+					log.error("flush tx commit msg error, msgId is {}", messageDTO.getMsgId(), throwable);
+					return;
+				}
+				this.replyRemainHalfAck(messageDTO, event);
+			});
 			log.info("收到事务消息的commit请求");
+			return;
 		} else if (localTransactionState == LocalTransactionState.ROLLBACK) {
 			// 如果是回滚状态，只移除事务映射
 			CommonCache.getTxMessageAckModelMap().remove(messageDTO.getMsgId());
 			log.info("收到事务消息的rollback请求");
 		}
-		// 告知客户端事务确认处理成功
+		this.replyRemainHalfAck(messageDTO, event);
+	}
+
+	/**
+	 * 告知客户端事务确认处理成功
+	 */
+	private void replyRemainHalfAck(MessageDTO messageDTO, PushMsgEvent event) {
 		SendMessageToBrokerResponseDTO sendMsgResp = new SendMessageToBrokerResponseDTO();
 		sendMsgResp.setMsgId(messageDTO.getMsgId());
 		sendMsgResp.setStatus(SendMessageToBrokerResponseStatus.SUCCESS.getCode());
 		sendMsgResp.setDesc("send tx remain ack msg success");
-		TcpMsg responseMsg = new TcpMsg(BrokerResponseCode.REMAIN_ACK_MSG_SEND_SUCCESS.getCode(), JSON.toJSONBytes(sendMsgResp));
-		event.getChannelHandlerContext().writeAndFlush(responseMsg);
+		TcpMsg responseMsg = SerializerManager.encode(BrokerResponseCode.REMAIN_ACK_MSG_SEND_SUCCESS.getCode(), sendMsgResp);
+		event.reply(responseMsg);
 	}
 
 	/**
@@ -117,8 +131,8 @@ public class PushMsgListener implements Listener<PushMsgEvent> {
 		sendMsgResp.setMsgId(messageDTO.getMsgId());
 		sendMsgResp.setStatus(SendMessageToBrokerResponseStatus.SUCCESS.getCode());
 		sendMsgResp.setDesc("send tx half msg success");
-		TcpMsg responseMsg = new TcpMsg(BrokerResponseCode.HALF_MSG_SEND_SUCCESS.getCode(), JSON.toJSONBytes(sendMsgResp));
-		event.getChannelHandlerContext().writeAndFlush(responseMsg);
+		TcpMsg responseMsg = SerializerManager.encode(BrokerResponseCode.HALF_MSG_SEND_SUCCESS.getCode(), sendMsgResp);
+		event.reply(responseMsg);
 	}
 
 	/**
@@ -137,39 +151,40 @@ public class PushMsgListener implements Listener<PushMsgEvent> {
 
 	/**
 	 * 处理延迟消息
-	 * 将延迟消息存入时间轮和特殊延迟队列
+	 * 将延迟消息写入延迟消息存储，到期之后由时间轮投递
 	 *
 	 * @param messageDTO 消息数据传输对象
 	 * @param event 消息推送事件对象
 	 * @throws IOException 处理过程中可能发生的IO异常
 	 */
 	private void appendDelayMsgHandler(MessageDTO messageDTO, PushMsgEvent event) throws IOException {
-		// 获取延迟时间并验证合法性
+		// 时间轮支持任意长度的延迟，不再限制延迟时间
 		int delaySeconds = messageDTO.getDelay();
-		AssertUtils.isTrue(delaySeconds <= 3600, "too large delay seconds");
 
-		// 创建延迟消息对象并添加到时间轮
+		// 创建延迟消息对象并写入延迟消息存储，即将到期的消息同时放入时间轮
 		DelayMessageDTO delayMessageDTO = new DelayMessageDTO();
 		delayMessageDTO.setDelay(messageDTO.getDelay());
 		delayMessageDTO.setData(messageDTO);
 		delayMessageDTO.setSlotStoreType(SlotStoreTypeEnum.DELAY_MESSAGE_DTO);
-		delayMessageDTO.setNextExecuteTime(System.currentTimeMillis() + delaySeconds * 1000);
-		CommonCache.getTimeWheelModelManager().add(delayMessageDTO);
-
-		// 将延迟消息持久化到特殊延迟队列中
-		MessageDTO delayMessage = new MessageDTO();
-		delayMessage.setBody(JSON.toJSONBytes(delayMessageDTO));
-		delayMessage.setTopic("delay_queue");
-		delayMessage.setQueueId(0);
-		delayMessage.setSendWay(MessageSendWay.ASYNC.getCode());
-		CommonCache.getCommitLogAppendHandler().appendMsg(delayMessage, event);
+		delayMessageDTO.setNextExecuteTime(System.currentTimeMillis() + delaySeconds * 1000L);
+		String slaveSyncFailDesc = CommonCache.getDelayMessageStore().append(delayMessageDTO);
 
-		// 告知客户端延迟消息接收成功
+		// 告知客户端延迟消息的接收结果，主从模式下同步发送需要从节点也写入成功
 		SendMessageToBrokerResponseDTO sendMsgResp = new SendMessageToBrokerResponseDTO();
 		sendMsgResp.setMsgId(messageDTO.getMsgId());
-		sendMsgResp.setStatus(SendMessageToBrokerResponseStatus.SUCCESS.getCode());
-		sendMsgResp.setDesc("send delay msg success");
-		TcpMsg responseMsg = new TcpMsg(BrokerResponseCode.SEND_MSG_RESP.getCode(), JSON.toJSONBytes(sendMsgResp));
-		event.getChannelHandlerContext().writeAndFlush(responseMsg);
+		if (slaveSyncFailDesc == null) {
+			sendMsgResp.setStatus(SendMessageToBrokerResponseStatus.SUCCESS.getCode());
+			sendMsgResp.setDesc("send delay msg success");
+		} else {
+			sendMsgResp.setStatus(SendMessageToBrokerResponseStatus.FAIL.getCode());
+			sendMsgResp.setDesc(slaveSyncFailDesc);
+		}
+		TcpMsg responseMsg = SerializerManager.encode(BrokerResponseCode.SEND_MSG_RESP.getCode(), sendMsgResp);
+		event.reply(responseMsg);
+	}
+
+	private boolean isSlaveNode() {
+		return BrokerClusterModeEnum.MASTER_SLAVE.getCode().equals(CommonCache.getGlobalProperties().getBrokerClusterMode())
+			&& !"master".equals(CommonCache.getGlobalProperties().getBrokerClusterRole());
 	}
 }
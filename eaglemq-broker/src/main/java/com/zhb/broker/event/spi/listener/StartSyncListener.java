@@ -6,6 +6,7 @@ import com.zhb.broker.event.model.StartSyncEvent;
 import com.zhb.common.coder.TcpMsg;
 import com.zhb.common.dto.StartSyncRespDTO;
 import com.zhb.common.enums.BrokerResponseCode;
+import com.zhb.common.event.ExecutionHint;
 import com.zhb.common.event.Listener;
 import io.netty.util.AttributeKey;
 
@@ -18,6 +19,14 @@ import java.net.InetSocketAddress;
  */
 public class StartSyncListener implements Listener<StartSyncEvent> {
 
+	/**
+	 * 只记录从节点连接并返回响应，直接在io线程上执行
+	 */
+	@Override
+	public ExecutionHint getExecutionHint() {
+		return ExecutionHint.INLINE;
+	}
+
 	/**
 	 * 接收并处理同步启动事件
 	 * 识别从节点身份，保存通信通道，并返回同步启动结果
@@ -45,6 +54,6 @@ public class StartSyncListener implements Listener<StartSyncEvent> {
 
 		// 发送同步启动成功响应
 		TcpMsg responseMsg = new TcpMsg(BrokerResponseCode.START_SYNC_SUCCESS.getCode(), JSON.toJSONBytes(startSyncRespDTO));
-		event.getChannelHandlerContext().writeAndFlush(responseMsg);
+		event.reply(responseMsg);
 	}
 }
@@ -18,7 +18,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
@@ -29,6 +32,11 @@ import java.util.concurrent.ThreadLocalRandom;
 @Slf4j
 public class TimeWheelListener implements Listener<TimeWheelEvent> {
 
+	/**
+	 * 写入失败的任务重新放入时间轮的延迟时间
+	 */
+	private static final int RETRY_LATER_SECONDS = 5;
+
 	/**
 	 * 接收并处理时间轮触发的事件
 	 * 根据槽中存储的数据类型分发到不同的处理逻辑
@@ -45,73 +53,151 @@ public class TimeWheelListener implements Listener<TimeWheelEvent> {
 			return;
 		}
 
-		// 遍历时间槽中的任务，根据类型分发处理
-		for (TimeWheelSlotModel timeWheelSlotModel : timeWheelSlotModelList) {
-			// 处理消息重试事件
-			if (SlotStoreTypeEnum.MESSAGE_RETRY_DTO.getClazz().equals(timeWheelSlotModel.getStoreType())) {
-				MessageRetryDTO messageRetryDTO = (MessageRetryDTO) timeWheelSlotModel.getData();
-				this.messageRetryHandler(messageRetryDTO);
-			}
-			// 处理延迟消息投递事件
-			else if (SlotStoreTypeEnum.DELAY_MESSAGE_DTO.getClazz().equals(timeWheelSlotModel.getStoreType())) {
-				MessageDTO messageDTO = (MessageDTO) timeWheelSlotModel.getData();
-				System.out.println("延迟消���重新入commitLog:" + JSON.toJSONString(messageDTO));
-				// 延迟时间到，将消息写入CommitLog进行正常投递
-				CommonCache.getCommitLogAppendHandler().appendMsg(messageDTO, event);
+		// 遍历时间槽中的任务，根据类型分发处理，单个任务失败不影响这一批中的其他任务
+		List<TimeWheelSlotModel> appendedSlotModelList = new ArrayList<>();
+		List<CompletableFuture<Boolean>> flushFutureList = new ArrayList<>();
+		boolean delayMessageDelivered = false;
+		try {
+			for (TimeWheelSlotModel timeWheelSlotModel : timeWheelSlotModelList) {
+				try {
+					this.handleSlotModel(timeWheelSlotModel, event, appendedSlotModelList, flushFutureList);
+				} catch (IOException e) {
+					//写入失败，稍后重新投递
+					log.error("time wheel task append error, retry later, storeType is {}", timeWheelSlotModel.getStoreType().getSimpleName(), e);
+					this.retryLater(timeWheelSlotModel);
+				} catch (Exception e) {
+					//数据本身有问题，重试也不会成功，跳过这个任务
+					log.error("time wheel task error, skip it, storeType is {}", timeWheelSlotModel.getStoreType().getSimpleName(), e);
+				}
 			}
-			// 处理事务消息回查事件
-			else if (SlotStoreTypeEnum.TX_MESSAGE_DTO.getClazz().equals(timeWheelSlotModel.getStoreType())) {
-				TxMessageDTO txMessageDTO = (TxMessageDTO) timeWheelSlotModel.getData();
-				// 时间轮到期，检查ack缓存是否还有未提交的事务消息记录
-				TxMessageAckModel txMessageAckModel = CommonCache.getTxMessageAckModelMap().get(txMessageDTO.getMsgId());
-				if (txMessageAckModel == null) {
-					// 事务消息已经被确认处理，无需进一步回查
-					log.info("txMessageAckModel is already been ack");
+			// 延迟消息全部写入之后再等待刷盘，这一批消息只需要等待一次组提交
+			for (int i = 0; i < appendedSlotModelList.size(); i++) {
+				TimeWheelSlotModel timeWheelSlotModel = appendedSlotModelList.get(i);
+				try {
+					flushFutureList.get(i).get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					this.retryLater(timeWheelSlotModel);
+					continue;
+				} catch (ExecutionException e) {
+					log.error("delay message flush error, retry later, bucket is {}, offset is {}",
+						timeWheelSlotModel.getStoreBucket(), timeWheelSlotModel.getStoreOffset(), e.getCause());
+					this.retryLater(timeWheelSlotModel);
 					continue;
 				}
+				// 落盘之后在延迟消息存储中记录墓碑，重启之后不会再次投递
+				CommonCache.getDelayMessageStore().markDelivered(timeWheelSlotModel.getStoreBucket(), timeWheelSlotModel.getStoreOffset());
+				delayMessageDelivered = true;
+			}
+		} finally {
+			if (delayMessageDelivered) {
+				// 这一批墓碑统一刷盘并同步给从节点
+				CommonCache.getDelayMessageStore().flushDelivered();
+			}
+		}
+	}
 
-				// 构建事务消息回调请求，询问客户端事务状态
-				TxMessageCallbackReqDTO txMessageCallbackReqDTO = new TxMessageCallbackReqDTO();
-				txMessageCallbackReqDTO.setMessageDTO(txMessageAckModel.getMessageDTO());
-				TcpMsg tcpMsg = new TcpMsg(BrokerResponseCode.TX_CALLBACK_MSG.getCode(), JSON.toJSONBytes(txMessageCallbackReqDTO));
+	/**
+	 * 处理单个到期任务
+	 * 延迟消息只写入commitLog，刷盘结果放入列表，由调用方统一等待之后再记录墓碑
+	 *
+	 * @throws IOException 写入commitLog失败
+	 */
+	private void handleSlotModel(TimeWheelSlotModel timeWheelSlotModel, TimeWheelEvent event,
+								 List<TimeWheelSlotModel> appendedSlotModelList, List<CompletableFuture<Boolean>> flushFutureList) throws IOException {
+		// 处理消息重试事件
+		if (SlotStoreTypeEnum.MESSAGE_RETRY_DTO.getClazz().equals(timeWheelSlotModel.getStoreType())) {
+			MessageRetryDTO messageRetryDTO = (MessageRetryDTO) timeWheelSlotModel.getData();
+			this.messageRetryHandler(messageRetryDTO);
+		}
+		// 处理延迟消息投递事件
+		else if (SlotStoreTypeEnum.DELAY_MESSAGE_DTO.getClazz().equals(timeWheelSlotModel.getStoreType())) {
+			// 时间轮只保存了存储位置，到期时从延迟消息存储中读取消息内容
+			MessageDTO messageDTO;
+			try {
+				messageDTO = CommonCache.getDelayMessageStore().read(timeWheelSlotModel.getStoreBucket(), timeWheelSlotModel.getStoreOffset());
+			} catch (IOException e) {
+				//记录无法读取，重试也不会成功
+				throw new IllegalStateException("read delay message error, bucket is " + timeWheelSlotModel.getStoreBucket()
+					+ ", offset is " + timeWheelSlotModel.getStoreOffset(), e);
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("延迟消息重新入commitLog:{}", JSON.toJSONString(messageDTO));
+			}
+			// 延迟时间到，将消息写入CommitLog进行正常投递
+			flushFutureList.add(CommonCache.getCommitLogAppendHandler().appendMsg(messageDTO, event));
+			appendedSlotModelList.add(timeWheelSlotModel);
+		}
+		// 处理事务消息回查事件
+		else if (SlotStoreTypeEnum.TX_MESSAGE_DTO.getClazz().equals(timeWheelSlotModel.getStoreType())) {
+			TxMessageDTO txMessageDTO = (TxMessageDTO) timeWheelSlotModel.getData();
+			// 时间轮到期，检查ack缓存是否还有未提交的事务消息记录
+			TxMessageAckModel txMessageAckModel = CommonCache.getTxMessageAckModelMap().get(txMessageDTO.getMsgId());
+			if (txMessageAckModel == null) {
+				// 事务消息已经被确认处理，无需进一步回查
+				log.info("txMessageAckModel is already been ack");
+				return;
+			}
 
-				// 发送回调请求并监听结果
-				txMessageAckModel.getChannelHandlerContext().writeAndFlush(tcpMsg).addListener(new ChannelFutureListener() {
-					@Override
-					public void operationComplete(ChannelFuture channelFuture) throws Exception {
-						if (channelFuture.isSuccess()) {
-							System.out.println("成功发送回调");
-							// 重新将事务消息检查任务添加到时间轮中，等待下一次回查
-							DelayMessageDTO delayMessageDTO = new DelayMessageDTO();
-							delayMessageDTO.setData(txMessageDTO);
-							delayMessageDTO.setSlotStoreType(SlotStoreTypeEnum.TX_MESSAGE_DTO);
-							delayMessageDTO.setNextExecuteTime(System.currentTimeMillis() + 3 * 1000);
-							delayMessageDTO.setDelay(3);
-							CommonCache.getTimeWheelModelManager().add(delayMessageDTO);
-						} else {
-							// 客户端可能已经异常退出
-							System.err.println("异常发送回调");
-						}
+			// 构建事务消息回调请求，询问客户端事务状态
+			TxMessageCallbackReqDTO txMessageCallbackReqDTO = new TxMessageCallbackReqDTO();
+			txMessageCallbackReqDTO.setMessageDTO(txMessageAckModel.getMessageDTO());
+			TcpMsg tcpMsg = new TcpMsg(BrokerResponseCode.TX_CALLBACK_MSG.getCode(), JSON.toJSONBytes(txMessageCallbackReqDTO));
+
+			// 发送回调请求并监听结果
+			txMessageAckModel.getChannelHandlerContext().writeAndFlush(tcpMsg).addListener(new ChannelFutureListener() {
+				@Override
+				public void operationComplete(ChannelFuture channelFuture) throws Exception {
+					if (channelFuture.isSuccess()) {
+						log.debug("成功发送回调");
+						// 重新将事务消息检查任务添加到时间轮中，等待下一次回查
+						DelayMessageDTO delayMessageDTO = new DelayMessageDTO();
+						delayMessageDTO.setData(txMessageDTO);
+						delayMessageDTO.setSlotStoreType(SlotStoreTypeEnum.TX_MESSAGE_DTO);
+						delayMessageDTO.setNextExecuteTime(System.currentTimeMillis() + 3 * 1000);
+						delayMessageDTO.setDelay(3);
+						CommonCache.getTimeWheelModelManager().add(delayMessageDTO);
+					} else {
+						// 客户端可能已经异常退出
+						log.debug("异常发送回调");
 					}
-				});
-			}
+				}
+			});
 		}
 	}
 
+	/**
+	 * 写入失败的任务延迟一段时间之后重新放入时间轮
+	 * 延迟消息只需要存储位置，重新投递时再从延迟消息存储中读取
+	 */
+	private void retryLater(TimeWheelSlotModel timeWheelSlotModel) {
+		DelayMessageDTO delayMessageDTO = new DelayMessageDTO();
+		delayMessageDTO.setData(timeWheelSlotModel.getData());
+		delayMessageDTO.setSlotStoreType(SlotStoreTypeEnum.of(timeWheelSlotModel.getStoreType()));
+		delayMessageDTO.setStoreBucket(timeWheelSlotModel.getStoreBucket());
+		delayMessageDTO.setStoreOffset(timeWheelSlotModel.getStoreOffset());
+		delayMessageDTO.setDelay(RETRY_LATER_SECONDS);
+		delayMessageDTO.setNextExecuteTime(System.currentTimeMillis() + RETRY_LATER_SECONDS * 1000L);
+		CommonCache.getTimeWheelModelManager().add(delayMessageDTO);
+	}
+
 	/**
 	 * 消息重试处理器
 	 * 从原CommitLog中读取消息内容，重新构建消息发送到特定的重试主题
 	 *
 	 * @param messageRetryDTO 消息重试数据传输对象，包含原消息的位置信息
+	 * @throws IOException 写入重试主题失败
 	 */
-	private void messageRetryHandler(MessageRetryDTO messageRetryDTO) {
+	private void messageRetryHandler(MessageRetryDTO messageRetryDTO) throws IOException {
 		// 从CommitLog中读取原始消息数据
 		CommitLogMMapFileModel commitLogMMapFileModel = CommonCache.getCommitLogMMapFileModelManager().get(messageRetryDTO.getTopic());
 		ConsumeMsgCommitLogDTO consumeMsgCommitLogDTO = commitLogMMapFileModel.readContent(
 			messageRetryDTO.getSourceCommitLogOffset(),
 			messageRetryDTO.getSourceCommitLogSize());
 		byte[] commitLogBody = consumeMsgCommitLogDTO.getBody();
-		System.out.println("扔到重试topic的数据：" + new String(commitLogBody));
+		if (log.isDebugEnabled()) {
+			log.debug("扔到重试topic的数据：{}", new String(commitLogBody));
+		}
 
 		// 构建重试消息对象
 		MessageDTO messageDTO = new MessageDTO();
@@ -125,10 +211,6 @@ public class TimeWheelListener implements Listener<TimeWheelEvent> {
 		log.info("重试次数增加：{}", messageDTO.getCurrentRetryTimes());
 
 		// 将重试消息写入CommitLog
-		try {
-			CommonCache.getCommitLogAppendHandler().appendMsg(messageDTO);
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
+		CommonCache.getCommitLogAppendHandler().appendMsg(messageDTO);
 	}
 }
@@ -0,0 +1,37 @@
+package com.zhb.broker.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 消费时返回的消息体切片
+ * body直接引用commitLog的映射内存，发送到网络之前不会拷贝到堆内存
+ */
+@Setter
+@Getter
+public class CommitLogBodySliceModel {
+
+	/**
+	 * 消息的全局物理偏移量
+	 */
+	private long commitLogOffset;
+	/**
+	 * 消息在commitLog中的总长度
+	 */
+	private int commitLogSize;
+	/**
+	 * 重试次数
+	 */
+	private int retryTimes;
+	/**
+	 * 消息在consumeQueue中的位置
+	 */
+	private int consumeQueueOffset;
+	/**
+	 * 消息体
+	 */
+	private ByteBuffer body;
+
+}
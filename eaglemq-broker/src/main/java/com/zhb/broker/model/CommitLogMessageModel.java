@@ -1,21 +1,198 @@
 package com.zhb.broker.model;
 
+import com.google.common.hash.Hashing;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * commitLog真实数据存储对象模型
+ * 每条消息在commitLog中的存储格式如下（单位byte）：
+ * totalSize(4) | magic(4) | bodyCrc(4) | queueId(4) | queueOffset(8) | bornTimestamp(8) | storeTimestamp(8)
+ * | retryTimes(4) | flags(4) | propertiesLength(2) | properties | body
+ * 文件末尾剩余空间不足以写入下一条消息时，会写入一条只有totalSize和magic的空白记录，表示文件结束
  */
 @Setter
 @Getter
 public class CommitLogMessageModel {
 
+	/**
+	 * 正常消息的魔数
+	 */
+	public static final int MESSAGE_MAGIC_CODE = 0xEA6E2024;
+	/**
+	 * 文件末尾空白记录的魔数
+	 */
+	public static final int BLANK_MAGIC_CODE = 0xBB6E2024;
+	/**
+	 * 消息头的固定长度
+	 */
+	public static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8 + 8 + 8 + 4 + 4 + 2;
+	/**
+	 * 空白记录的长度，totalSize + magic
+	 */
+	public static final int BLANK_SIZE = 4 + 4;
+	/**
+	 * 需要在提交窗口中回填的字段在消息中的位置
+	 */
+	public static final int QUEUE_ID_POSITION = 12;
+	public static final int QUEUE_OFFSET_POSITION = 16;
+	public static final int STORE_TIMESTAMP_POSITION = 32;
+	/**
+	 * 属性长度字段的位置，属性之后就是消息体
+	 */
+	public static final int PROPERTIES_LENGTH_POSITION = 48;
+
+	public static final int FLAG_RETRY = 1;
+	public static final int FLAG_DELAY = 1 << 1;
+	public static final int FLAG_TX = 1 << 2;
+
+	public static final String PROPERTY_MSG_ID = "msgId";
+	public static final String PROPERTY_PRODUCER_ID = "producerId";
+	private static final char NAME_VALUE_SEPARATOR = 1;
+	private static final char PROPERTY_SEPARATOR = 2;
+
+	private int totalSize;
+
+	private int magic;
+
+	private int bodyCrc;
+
+	private int queueId;
+
+	private long queueOffset;
+
+	private long bornTimestamp;
+
+	private long storeTimestamp;
+
+	private int retryTimes;
+
+	private int flags;
+
+	private Map<String, String> properties = new HashMap<>();
+
 	/**
 	 * 真正的消息内容
 	 */
 	private byte[] content;
 
 	public byte[] convertToBytes() {
-		return content;
+		byte[] propertiesBytes = encodeProperties(properties);
+		this.totalSize = HEADER_SIZE + propertiesBytes.length + content.length;
+		this.magic = MESSAGE_MAGIC_CODE;
+		this.bodyCrc = crc32c(content);
+		ByteBuffer byteBuffer = ByteBuffer.allocate(totalSize);
+		byteBuffer.putInt(totalSize);
+		byteBuffer.putInt(magic);
+		byteBuffer.putInt(bodyCrc);
+		byteBuffer.putInt(queueId);
+		byteBuffer.putLong(queueOffset);
+		byteBuffer.putLong(bornTimestamp);
+		byteBuffer.putLong(storeTimestamp);
+		byteBuffer.putInt(retryTimes);
+		byteBuffer.putInt(flags);
+		byteBuffer.putShort((short) propertiesBytes.length);
+		byteBuffer.put(propertiesBytes);
+		byteBuffer.put(content);
+		return byteBuffer.array();
+	}
+
+	/**
+	 * 从指定位置解析一条完整的消息，不会修改传入缓冲区的position
+	 *
+	 * @param byteBuffer 缓冲区
+	 * @param pos        消息起始位置
+	 * @return 消息模型，只有magic为MESSAGE_MAGIC_CODE并且长度字段合法时才会解析完整内容
+	 */
+	public static CommitLogMessageModel buildFromBuffer(ByteBuffer byteBuffer, int pos) {
+		CommitLogMessageModel commitLogMessageModel = buildHeaderFromBuffer(byteBuffer, pos);
+		if (commitLogMessageModel.getMagic() != MESSAGE_MAGIC_CODE) {
+			return commitLogMessageModel;
+		}
+		int propertiesLength = byteBuffer.getShort(pos + PROPERTIES_LENGTH_POSITION) & 0xFFFF;
+		if (commitLogMessageModel.getTotalSize() < HEADER_SIZE + propertiesLength) {
+			//写了一半的消息头，不解析内容，crc校验不会通过
+			return commitLogMessageModel;
+		}
+		ByteBuffer readBuf = byteBuffer.duplicate();
+		readBuf.position(pos + HEADER_SIZE);
+		byte[] propertiesBytes = new byte[propertiesLength];
+		readBuf.get(propertiesBytes);
+		byte[] content = new byte[commitLogMessageModel.getTotalSize() - HEADER_SIZE - propertiesLength];
+		readBuf.get(content);
+		commitLogMessageModel.setProperties(decodeProperties(propertiesBytes));
+		commitLogMessageModel.setContent(content);
+		return commitLogMessageModel;
+	}
+
+	/**
+	 * 只解析固定长度的消息头，不读取属性和消息体，不会修改传入缓冲区的position
+	 * 分发和扫描只需要长度、魔数和队列信息，不需要为每条消息拷贝消息体
+	 *
+	 * @param byteBuffer 缓冲区
+	 * @param pos        消息起始位置
+	 * @return 消息模型，properties为空，content为null
+	 */
+	public static CommitLogMessageModel buildHeaderFromBuffer(ByteBuffer byteBuffer, int pos) {
+		CommitLogMessageModel commitLogMessageModel = new CommitLogMessageModel();
+		commitLogMessageModel.setTotalSize(byteBuffer.getInt(pos));
+		commitLogMessageModel.setMagic(byteBuffer.getInt(pos + 4));
+		if (commitLogMessageModel.getMagic() != MESSAGE_MAGIC_CODE) {
+			return commitLogMessageModel;
+		}
+		commitLogMessageModel.setBodyCrc(byteBuffer.getInt(pos + 8));
+		commitLogMessageModel.setQueueId(byteBuffer.getInt(pos + QUEUE_ID_POSITION));
+		commitLogMessageModel.setQueueOffset(byteBuffer.getLong(pos + QUEUE_OFFSET_POSITION));
+		commitLogMessageModel.setBornTimestamp(byteBuffer.getLong(pos + 24));
+		commitLogMessageModel.setStoreTimestamp(byteBuffer.getLong(pos + STORE_TIMESTAMP_POSITION));
+		commitLogMessageModel.setRetryTimes(byteBuffer.getInt(pos + 40));
+		commitLogMessageModel.setFlags(byteBuffer.getInt(pos + 44));
+		return commitLogMessageModel;
+	}
+
+	/**
+	 * 校验消息体的crc是否和消息头中记录的一致
+	 */
+	public boolean checkCrc() {
+		return content != null && crc32c(content) == bodyCrc;
+	}
+
+	private static int crc32c(byte[] content) {
+		return Hashing.crc32c().hashBytes(content).asInt();
+	}
+
+	private static byte[] encodeProperties(Map<String, String> properties) {
+		StringBuilder stringBuilder = new StringBuilder();
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			if (entry.getValue() == null) {
+				continue;
+			}
+			stringBuilder.append(entry.getKey()).append(NAME_VALUE_SEPARATOR).append(entry.getValue()).append(PROPERTY_SEPARATOR);
+		}
+		byte[] propertiesBytes = stringBuilder.toString().getBytes(StandardCharsets.UTF_8);
+		if (propertiesBytes.length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("properties is too long, length is " + propertiesBytes.length);
+		}
+		return propertiesBytes;
+	}
+
+	private static Map<String, String> decodeProperties(byte[] propertiesBytes) {
+		Map<String, String> properties = new HashMap<>();
+		if (propertiesBytes.length == 0) {
+			return properties;
+		}
+		String propertiesStr = new String(propertiesBytes, StandardCharsets.UTF_8);
+		for (String item : propertiesStr.split(String.valueOf(PROPERTY_SEPARATOR))) {
+			int index = item.indexOf(NAME_VALUE_SEPARATOR);
+			if (index > 0) {
+				properties.put(item.substring(0, index), item.substring(index + 1));
+			}
+		}
+		return properties;
 	}
 }
@@ -2,7 +2,7 @@ package com.zhb.broker.model;
 
 import lombok.Data;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * commitLog文件的写入offset封装
@@ -16,16 +16,17 @@ public class CommitLogModel {
 	private String fileName;
 
 	/**
-	 * commitLog文件写入的最大上限体积
+	 * 每个commitLog文件的大小
 	 */
 	private Long offsetLimit;
 
 	/**
-	 * 最新commitLog文件写入数据的地址
+	 * commitLog已经写入数据的全局物理偏移量
 	 */
-	private AtomicInteger offset;
+	private AtomicLong offset;
 
-	public Long countDiff() {
-		return this.offsetLimit - this.offset.get();
-	}
+	/**
+	 * 已经分发到consumeQueue的commitLog全局物理偏移量
+	 */
+	private Long dispatchOffset;
 }
@@ -11,9 +11,8 @@ import lombok.Setter;
 @Getter
 public class ConsumeQueueDetailModel {
 
-	private int commitLogFilename;
-	//4byte
-	private int msgIndex; //commitlog数据存储的地址，mmap映射的地址，Integer.MAX校验
+	//8byte，消息在commitLog中的全局物理偏移量
+	private long commitLogOffset;
 
 	private int msgLength;
 
@@ -21,17 +20,13 @@ public class ConsumeQueueDetailModel {
 
 
 	public byte[] convertToBytes() {
-		byte[] commitLogFileNameBytes = ByteConvertUtils.intToBytes(commitLogFilename);
-		byte[] msgIndexBytes = ByteConvertUtils.intToBytes(msgIndex);
+		byte[] commitLogOffsetBytes = ByteConvertUtils.longToBytes(commitLogOffset);
 		byte[] msgLengthBytes = ByteConvertUtils.intToBytes(msgLength);
 		byte[] retryTimeBytes = ByteConvertUtils.intToBytes(retryTimes);
 		byte[] finalBytes = new byte[16];
 		int p = 0;
-		for (int i = 0; i < 4; i++) {
-			finalBytes[p++] = commitLogFileNameBytes[i];
-		}
-		for (int i = 0; i < 4; i++) {
-			finalBytes[p++] = msgIndexBytes[i];
+		for (int i = 0; i < 8; i++) {
+			finalBytes[p++] = commitLogOffsetBytes[i];
 		}
 		for (int i = 0; i < 4; i++) {
 			finalBytes[p++] = msgLengthBytes[i];
@@ -43,8 +38,7 @@ public class ConsumeQueueDetailModel {
 	}
 
 	public void buildFromBytes(byte[] body) {
-		this.setCommitLogFilename(ByteConvertUtils.bytesToInt(ByteConvertUtils.readInPos(body, 0, 4)));
-		this.setMsgIndex(ByteConvertUtils.bytesToInt(ByteConvertUtils.readInPos(body, 4, 4)));
+		this.setCommitLogOffset(ByteConvertUtils.bytesToLong(ByteConvertUtils.readInPos(body, 0, 8)));
 		this.setMsgLength(ByteConvertUtils.bytesToInt(ByteConvertUtils.readInPos(body, 8, 4)));
 		this.setRetryTimes(ByteConvertUtils.bytesToInt(ByteConvertUtils.readInPos(body, 12, 4)));
 	}
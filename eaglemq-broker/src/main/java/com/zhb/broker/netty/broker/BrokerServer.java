@@ -1,20 +1,25 @@
 package com.zhb.broker.netty.broker;
 
+import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.config.GlobalProperties;
+import com.zhb.common.coder.BinaryBodyTypes;
 import com.zhb.common.coder.TcpMsgDecoder;
 import com.zhb.common.coder.TcpMsgEncoder;
-import com.zhb.common.constants.TcpConstants;
+import com.zhb.common.constants.BrokerConstants;
 import com.zhb.common.event.EventBus;
+import com.zhb.common.event.ExecutionHint;
+import com.zhb.common.utils.LatencyHistogram;
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.DelimiterBasedFrameDecoder;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Broker服务器类
  * 负责创建并启动基于Netty的消息代理服务器
@@ -54,19 +59,21 @@ public class BrokerServer {
 		bootstrap.group(bossGroup, workerGroup);
 		// 指定通道类型为NIO服务器套接��通道
 		bootstrap.channel(NioServerSocketChannel.class);
+		// 所有连接共用一个处理器和事件总线，事件按照分区key分配到固定的执行通道
+		GlobalProperties globalProperties = CommonCache.getGlobalProperties();
+		EventBus eventBus = new EventBus("broker-server-handle-", globalProperties.getEventLaneCount(), globalProperties.getEventLaneCapacity());
+		BrokerServerHandler brokerServerHandler = new BrokerServerHandler(eventBus);
+		this.startEventBusStatsTask(eventBus);
 		// 配置子通道处理器
 		bootstrap.childHandler(new ChannelInitializer<Channel>() {
 			@Override
 			protected void initChannel(Channel ch) throws Exception {
-				// 创建基于分隔符的解码器，用于处理粘包/拆包问题
-				ByteBuf delimiter = Unpooled.copiedBuffer(TcpConstants.DEFAULT_DECODE_CHAR.getBytes());
-				ch.pipeline().addLast(new DelimiterBasedFrameDecoder(1024 * 8, delimiter));
-				// 添加TCP消息解码器
-				ch.pipeline().addLast(new TcpMsgDecoder());
+				// 添加TCP消息解码器，根据消息头中的长度字段处理粘包/拆包问题
+				ch.pipeline().addLast(new TcpMsgDecoder(CommonCache.getGlobalProperties().getMaxFrameSizeMb(), BinaryBodyTypes.BROKER_BODY_TYPES));
 				// 添加TCP消息编码器
 				ch.pipeline().addLast(new TcpMsgEncoder());
 				// 添加Broker服务器消息处理器，并关联事件总线
-				ch.pipeline().addLast(new BrokerServerHandler(new EventBus("broker-server-handle")));
+				ch.pipeline().addLast(brokerServerHandler);
 			}
 		});
 
@@ -83,4 +90,36 @@ public class BrokerServer {
 		// 等待服务器通道关闭，此调用将阻塞直到服务器关闭
 		channelFuture.channel().closeFuture().sync();
 	}
+
+	/**
+	 * 定时输出事件从io线程交给监听器的延迟、各个执行通道的积压和时间轮中等待的任务数量，每个周期重新统计
+	 *
+	 * @param eventBus 事件总线
+	 */
+	private void startEventBusStatsTask(EventBus eventBus) {
+		Thread statsTask = new Thread(() -> {
+			while (true) {
+				try {
+					TimeUnit.MILLISECONDS.sleep(BrokerConstants.EVENT_BUS_STATS_INTERVAL_MILLS);
+					for (ExecutionHint executionHint : ExecutionHint.values()) {
+						LatencyHistogram handoffLatencyHistogram = eventBus.getHandoffLatencyHistogram(executionHint);
+						if (handoffLatencyHistogram.getCount() > 0) {
+							log.info("event bus handoff latency, executionHint is {}, {}", executionHint, handoffLatencyHistogram);
+							handoffLatencyHistogram.reset();
+						}
+					}
+					log.info("event bus lane pending counts: {}", Arrays.toString(eventBus.getLanePendingCounts()));
+					log.info("time wheel pending count: {}", CommonCache.getTimeWheelModelManager().getPendingCount());
+				} catch (InterruptedException e) {
+					log.error("event bus stats task interrupted");
+					return;
+				} catch (Exception e) {
+					log.error("event bus stats task error:", e);
+				}
+			}
+		});
+		statsTask.setName("event-bus-stats-task");
+		statsTask.setDaemon(true);
+		statsTask.start();
+	}
 }
@@ -1,17 +1,18 @@
 package com.zhb.broker.netty.broker;
 
-import com.alibaba.fastjson2.JSON;
 import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.core.ConsumePushService;
 import com.zhb.broker.event.model.*;
 import com.zhb.broker.model.ConsumeMsgAckEvent;
-import com.zhb.common.cache.BrokerServerSyncFutureManager;
+import com.zhb.common.coder.SerializerManager;
 import com.zhb.common.coder.TcpMsg;
 import com.zhb.common.dto.*;
 import com.zhb.common.enums.BrokerEventCode;
 import com.zhb.common.enums.BrokerResponseCode;
+import com.zhb.common.enums.SendMessageToBrokerResponseStatus;
 import com.zhb.common.event.EventBus;
 import com.zhb.common.event.model.Event;
-import com.zhb.common.remote.SyncFuture;
+import com.zhb.common.remote.InFlightRequestTable;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
@@ -19,6 +20,9 @@ import io.netty.util.AttributeKey;
 import lombok.extern.slf4j.Slf4j;
 
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Broker服务器消息处理器
@@ -57,21 +61,27 @@ public class BrokerServerHandler extends SimpleChannelInboundHandler {
 		// 转换为TcpMsg类型并获取消息编码和内容
 		TcpMsg tcpMsg = (TcpMsg) msg;
 		int code = tcpMsg.getCode();
-		byte[] body = tcpMsg.getBody();
 		Event event = null;
 
 		// 根据消息编码创建对应的事件对象
 		if (BrokerEventCode.PUSH_MSG.getCode() == code) {
 			// 处理消息推送请求
-			MessageDTO messageDTO = JSON.parseObject(body, MessageDTO.class);
+			MessageDTO messageDTO = SerializerManager.decode(tcpMsg, MessageDTO.class);
 			PushMsgEvent pushMsgEvent = new PushMsgEvent();
 			pushMsgEvent.setMessageDTO(messageDTO);
 			pushMsgEvent.setMsgId(messageDTO.getMsgId());
-			log.info("收到消息推送内容:{},message is {}", new String(messageDTO.getBody()), JSON.toJSONString(messageDTO));
+			log.debug("收到消息推送内容, topic is {}, msgId is {}", messageDTO.getTopic(), messageDTO.getMsgId());
 			event = pushMsgEvent;
+		} else if (BrokerEventCode.PUSH_BATCH_MSG.getCode() == code) {
+			// 处理批量消息推送请求
+			BatchMessageDTO batchMessageDTO = SerializerManager.decode(tcpMsg, BatchMessageDTO.class);
+			PushBatchMsgEvent pushBatchMsgEvent = new PushBatchMsgEvent();
+			pushBatchMsgEvent.setBatchMessageDTO(batchMessageDTO);
+			pushBatchMsgEvent.setMsgId(batchMessageDTO.getMsgId());
+			event = pushBatchMsgEvent;
 		} else if (BrokerEventCode.CONSUME_MSG.getCode() == code) {
 			// 处理消息消费请求
-			ConsumeMsgReqDTO consumeMsgReqDTO = JSON.parseObject(body, ConsumeMsgReqDTO.class);
+			ConsumeMsgReqDTO consumeMsgReqDTO = SerializerManager.decode(tcpMsg, ConsumeMsgReqDTO.class);
 			// 获取消费者的网络地址信息
 			InetSocketAddress inetSocketAddress = (InetSocketAddress) channelHandlerContext.channel().remoteAddress();
 			consumeMsgReqDTO.setIp(inetSocketAddress.getHostString());
@@ -83,9 +93,36 @@ public class BrokerServerHandler extends SimpleChannelInboundHandler {
 			// 将消费者ID作为属性附加到通道上，用于后续识别
 			channelHandlerContext.attr(AttributeKey.valueOf("consumer-reqId")).set(consumeMsgReqDTO.getIp() + ":" + consumeMsgReqDTO.getPort());
 			event = consumeMsgEvent;
+		} else if (BrokerEventCode.CONSUME_SUBSCRIBE.getCode() == code) {
+			// 处理推送模式的订阅请求
+			ConsumeSubscribeReqDTO consumeSubscribeReqDTO = SerializerManager.decode(tcpMsg, ConsumeSubscribeReqDTO.class);
+			InetSocketAddress inetSocketAddress = (InetSocketAddress) channelHandlerContext.channel().remoteAddress();
+			consumeSubscribeReqDTO.setIp(inetSocketAddress.getHostString());
+			consumeSubscribeReqDTO.setPort(inetSocketAddress.getPort());
+
+			ConsumeSubscribeEvent consumeSubscribeEvent = new ConsumeSubscribeEvent();
+			consumeSubscribeEvent.setConsumeSubscribeReqDTO(consumeSubscribeReqDTO);
+			consumeSubscribeEvent.setMsgId(consumeSubscribeReqDTO.getMsgId());
+			// 和拉取模式一样，连接断开时需要把消费者从重平衡池中移除
+			channelHandlerContext.attr(AttributeKey.valueOf("consumer-reqId")).set(consumeSubscribeReqDTO.getIp() + ":" + consumeSubscribeReqDTO.getPort());
+			event = consumeSubscribeEvent;
+		} else if (BrokerEventCode.CONSUME_CREDIT.getCode() == code) {
+			// 处理推送模式的确认消费和额度归还
+			ConsumeCreditReqDTO consumeCreditReqDTO = SerializerManager.decode(tcpMsg, ConsumeCreditReqDTO.class);
+			ConsumeCreditEvent consumeCreditEvent = new ConsumeCreditEvent();
+			consumeCreditEvent.setConsumeCreditReqDTO(consumeCreditReqDTO);
+			consumeCreditEvent.setMsgId(consumeCreditReqDTO.getMsgId());
+			event = consumeCreditEvent;
+		} else if (BrokerEventCode.CONSUME_COMMIT_OFFSET.getCode() == code) {
+			// 处理消费位点提交
+			ConsumeCommitOffsetReqDTO consumeCommitOffsetReqDTO = SerializerManager.decode(tcpMsg, ConsumeCommitOffsetReqDTO.class);
+			ConsumeCommitOffsetEvent consumeCommitOffsetEvent = new ConsumeCommitOffsetEvent();
+			consumeCommitOffsetEvent.setConsumeCommitOffsetReqDTO(consumeCommitOffsetReqDTO);
+			consumeCommitOffsetEvent.setMsgId(consumeCommitOffsetReqDTO.getMsgId());
+			event = consumeCommitOffsetEvent;
 		} else if (BrokerEventCode.CONSUME_SUCCESS_MSG.getCode() == code) {
 			// 处理消息消费确认请求
-			ConsumeMsgAckReqDTO consumeMsgAckReqDTO = JSON.parseObject(body, ConsumeMsgAckReqDTO.class);
+			ConsumeMsgAckReqDTO consumeMsgAckReqDTO = SerializerManager.decode(tcpMsg, ConsumeMsgAckReqDTO.class);
 			InetSocketAddress inetSocketAddress = (InetSocketAddress) channelHandlerContext.channel().remoteAddress();
 			consumeMsgAckReqDTO.setIp(inetSocketAddress.getHostString());
 			consumeMsgAckReqDTO.setPort(inetSocketAddress.getPort());
@@ -96,37 +133,80 @@ public class BrokerServerHandler extends SimpleChannelInboundHandler {
 			event = consumeMsgAckEvent;
 		} else if (BrokerEventCode.CONSUME_LATER_MSG.getCode() == code) {
 			// 处理消息延迟消费请求
-			ConsumeMsgRetryReqDTO consumeMsgRetryReqDTO = JSON.parseObject(body, ConsumeMsgRetryReqDTO.class);
+			ConsumeMsgRetryReqDTO consumeMsgRetryReqDTO = SerializerManager.decode(tcpMsg, ConsumeMsgRetryReqDTO.class);
 			ConsumeMsgRetryEvent consumeMsgRetryEvent = new ConsumeMsgRetryEvent();
 			consumeMsgRetryEvent.setMsgId(consumeMsgRetryReqDTO.getMsgId());
 			consumeMsgRetryEvent.setConsumeMsgRetryReqDTO(consumeMsgRetryReqDTO);
 			event = consumeMsgRetryEvent;
 		} else if (BrokerEventCode.CREATE_TOPIC.getCode() == code) {
 			// 处理主题创建请求
-			CreateTopicReqDTO createTopicReqDTO = JSON.parseObject(body, CreateTopicReqDTO.class);
+			CreateTopicReqDTO createTopicReqDTO = SerializerManager.decode(tcpMsg, CreateTopicReqDTO.class);
 			CreateTopicEvent createTopicEvent = new CreateTopicEvent();
 			createTopicEvent.setCreateTopicReqDTO(createTopicReqDTO);
 			createTopicEvent.setMsgId(createTopicReqDTO.getMsgId());
 			event = createTopicEvent;
 		} else if (BrokerEventCode.START_SYNC_MSG.getCode() == code) {
 			// 处理主从同步启动请求
-			StartSyncReqDTO startSyncReqDTO = JSON.parseObject(body, StartSyncReqDTO.class);
+			StartSyncReqDTO startSyncReqDTO = SerializerManager.decode(tcpMsg, StartSyncReqDTO.class);
 			StartSyncEvent startSyncEvent = new StartSyncEvent();
 			startSyncEvent.setMsgId(startSyncReqDTO.getMsgId());
 			event = startSyncEvent;
 		} else if (BrokerResponseCode.SLAVE_SYNC_RESP.getCode() == code) {
-			// 处理从节点同步响应
-			SlaveSyncRespDTO slaveSyncRespDTO = JSON.parseObject(body, SlaveSyncRespDTO.class);
-			// 获取对应的同步Future并设置响应结果
-			SyncFuture slaveAckRsp = BrokerServerSyncFutureManager.get(slaveSyncRespDTO.getMsgId());
-			slaveAckRsp.setResponse(slaveSyncRespDTO);
+			// 处理从节点同步响应，按照请求id完成主节点发出的同步请求
+			if (!InFlightRequestTable.completeResponse(channelHandlerContext.channel(), tcpMsg)) {
+				log.warn("slave sync resp has no matched request, requestId is {}", tcpMsg.getRequestId());
+			}
 		}
 
 		// 如果创建了有效事件，将其发布到事件总线
 		if (event != null) {
 			event.setChannelHandlerContext(channelHandlerContext);
-			eventBus.publish(event);
+			event.setRequestId(tcpMsg.getRequestId());
+			if (!eventBus.publish(event)) {
+				this.replyBusy(event);
+			}
+		}
+	}
+
+	/**
+	 * 执行通道积压达到硬上限时事件被拒绝，给等待响应的请求方返回失败，不能在IO线程中阻塞或者抛出异常
+	 * 发送消息返回失败状态，其他请求返回broker繁忙的响应code
+	 *
+	 * @param event 被拒绝的事件
+	 */
+	private void replyBusy(Event event) {
+		if (event.getRequestId() == 0) {
+			log.warn("broker is busy, drop event {}, msgId is {}", event.getClass().getSimpleName(), event.getMsgId());
+			return;
+		}
+		String busyDesc = "broker is busy, please retry later";
+		TcpMsg responseMsg;
+		if (event instanceof PushMsgEvent) {
+			SendMessageToBrokerResponseDTO sendMsgResp = new SendMessageToBrokerResponseDTO();
+			sendMsgResp.setMsgId(event.getMsgId());
+			sendMsgResp.setStatus(SendMessageToBrokerResponseStatus.FAIL.getCode());
+			sendMsgResp.setDesc(busyDesc);
+			responseMsg = SerializerManager.encode(BrokerResponseCode.SEND_MSG_RESP.getCode(), sendMsgResp);
+		} else if (event instanceof PushBatchMsgEvent) {
+			BatchMessageDTO batchMessageDTO = ((PushBatchMsgEvent) event).getBatchMessageDTO();
+			List<SendMessageToBrokerResponseDTO> responseDTOList = new ArrayList<>();
+			if (batchMessageDTO.getMessageDTOList() != null) {
+				for (MessageDTO messageDTO : batchMessageDTO.getMessageDTOList()) {
+					SendMessageToBrokerResponseDTO sendMsgResp = new SendMessageToBrokerResponseDTO();
+					sendMsgResp.setMsgId(messageDTO.getMsgId());
+					sendMsgResp.setStatus(SendMessageToBrokerResponseStatus.FAIL.getCode());
+					sendMsgResp.setDesc(busyDesc);
+					responseDTOList.add(sendMsgResp);
+				}
+			}
+			BatchSendMessageToBrokerResponseDTO batchResponseDTO = new BatchSendMessageToBrokerResponseDTO();
+			batchResponseDTO.setMsgId(batchMessageDTO.getMsgId());
+			batchResponseDTO.setResponseDTOList(responseDTOList);
+			responseMsg = SerializerManager.encode(BrokerResponseCode.SEND_BATCH_MSG_RESP.getCode(), batchResponseDTO);
+		} else {
+			responseMsg = new TcpMsg(BrokerResponseCode.BROKER_BUSY.getCode(), busyDesc.getBytes(StandardCharsets.UTF_8));
 		}
+		event.reply(responseMsg);
 	}
 
 	/**
@@ -153,6 +233,11 @@ public class BrokerServerHandler extends SimpleChannelInboundHandler {
 	@Override
 	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
 		super.channelInactive(ctx);
+		// 通道断开时，移除连接上的推送订阅
+		ConsumePushService consumePushService = CommonCache.getConsumePushService();
+		if (consumePushService != null) {
+			consumePushService.removeSubscriptions(ctx.channel());
+		}
 		// 通道断开时，从消费者重平衡池中移除该消费者
 		Object reqId = ctx.attr(AttributeKey.valueOf("consumer-reqId")).get();
 		if (reqId == null) {
@@ -161,6 +246,22 @@ public class BrokerServerHandler extends SimpleChannelInboundHandler {
 		CommonCache.getConsumerInstancePool().removeFromInstancePool(String.valueOf(reqId));
 	}
 
+	/**
+	 * 处理通道可写状态变化事件
+	 * 推送模式下连接不可写时会暂停推送，恢复可写之后通知推送服务继续推送
+	 *
+	 * @param ctx 通道处理上下文
+	 * @throws Exception 处理过程中可能发生的异常
+	 */
+	@Override
+	public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+		ConsumePushService consumePushService = CommonCache.getConsumePushService();
+		if (consumePushService != null) {
+			consumePushService.notifyWritabilityChanged(ctx.channel());
+		}
+		super.channelWritabilityChanged(ctx);
+	}
+
 	/**
 	 * 处理通道激活事件
 	 * 在新通道建立时记录日志
@@ -6,10 +6,10 @@ import com.zhb.common.coder.TcpMsg;
 import com.zhb.common.dto.HeartBeatDTO;
 import com.zhb.common.enums.NameServerEventCode;
 import com.zhb.common.enums.NameServerResponseCode;
+import com.zhb.common.remote.InFlightRequestTable;
 import com.zhb.common.remote.NameServerNettyRemoteClient;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -58,11 +58,10 @@ public class HeartBeatTaskManager {
 
 					// 构建心跳数据对象
 					HeartBeatDTO heartBeatDTO = new HeartBeatDTO();
-					heartBeatDTO.setMsgId(UUID.randomUUID().toString());
 
 					// 创建TCP消息并发送
 					TcpMsg tcpMsg = new TcpMsg(NameServerEventCode.HEART_BEAT.getCode(), JSON.toJSONBytes(heartBeatDTO));
-					TcpMsg heartBeatResp = nameServerNettyRemoteClient.sendSyncMsg(tcpMsg, heartBeatDTO.getMsgId());
+					TcpMsg heartBeatResp = nameServerNettyRemoteClient.sendSyncMsg(tcpMsg);
 
 					// 检查心跳响应状态
 					if (NameServerResponseCode.HEART_BEAT_SUCCESS.getCode() != heartBeatResp.getCode()) {
@@ -70,6 +69,9 @@ public class HeartBeatTaskManager {
 					}
 				} catch (InterruptedException e) {
 					throw new RuntimeException(e);
+				} catch (Exception e) {
+					//同步请求超时会抛出异常，下一轮继续发送心跳
+					log.error("heart beat to nameserver error, in-flight request count is {}", InFlightRequestTable.getTotalInFlightCount(), e);
 				}
 			}
 		}
@@ -21,7 +21,6 @@ import java.net.Inet4Address;
 import java.net.UnknownHostException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.UUID;
 
 /**
  * NameServer客户端类
@@ -112,12 +111,11 @@ public class NameServerClient {
 			registryDTO.setPassword(globalProperties.getNameserverPassword());
 			registryDTO.setRegistryType(RegistryTypeEnum.BROKER.getCode());
 			registryDTO.setAttrs(attrs);
-			registryDTO.setMsgId(UUID.randomUUID().toString());
 			byte[] body = JSON.toJSONBytes(registryDTO);
 
 			// 发送注册数据给nameserver
 			TcpMsg tcpMsg = new TcpMsg(NameServerEventCode.REGISTRY.getCode(), body);
-			TcpMsg registryResponseMsg = nameServerNettyRemoteClient.sendSyncMsg(tcpMsg, registryDTO.getMsgId());
+			TcpMsg registryResponseMsg = nameServerNettyRemoteClient.sendSyncMsg(tcpMsg);
 
 			// 处理注册响应
 			if (NameServerResponseCode.REGISTRY_SUCCESS.getCode() == registryResponseMsg.getCode()) {
@@ -153,11 +151,10 @@ public class NameServerClient {
 		PullBrokerIpDTO pullBrokerIpDTO = new PullBrokerIpDTO();
 		pullBrokerIpDTO.setBrokerClusterGroup(CommonCache.getGlobalProperties().getBrokerClusterGroup());
 		pullBrokerIpDTO.setRole(BrokerRegistryRoleEnum.MASTER.getCode());
-		pullBrokerIpDTO.setMsgId(UUID.randomUUID().toString());
 
 		// 发送查询请求并获取响应
 		TcpMsg tcpMsg = new TcpMsg(NameServerEventCode.PULL_BROKER_IP_LIST.getCode(), JSON.toJSONBytes(pullBrokerIpDTO));
-		TcpMsg pullBrokerIpResponse = nameServerNettyRemoteClient.sendSyncMsg(tcpMsg, pullBrokerIpDTO.getMsgId());
+		TcpMsg pullBrokerIpResponse = nameServerNettyRemoteClient.sendSyncMsg(tcpMsg);
 
 		// 解析响应并返回主节点地址
 		PullBrokerIpRespDTO pullBrokerIpRespDTO = JSON.parseObject(pullBrokerIpResponse.getBody(), PullBrokerIpRespDTO.class);
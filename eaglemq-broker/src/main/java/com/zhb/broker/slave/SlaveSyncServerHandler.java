@@ -1,19 +1,22 @@
 package com.zhb.broker.slave;
 
-import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson.JSON;
 import com.zhb.broker.event.model.CreateTopicEvent;
+import com.zhb.broker.event.model.DelayStoreSyncEvent;
+import com.zhb.broker.event.model.PushBatchMsgEvent;
 import com.zhb.broker.event.model.PushMsgEvent;
-import com.zhb.common.cache.BrokerServerSyncFutureManager;
+import com.zhb.common.coder.SerializerManager;
 import com.zhb.common.coder.TcpMsg;
+import com.zhb.common.dto.BatchMessageDTO;
 import com.zhb.common.dto.CreateTopicReqDTO;
+import com.zhb.common.dto.DelayStoreSyncDTO;
 import com.zhb.common.dto.MessageDTO;
 import com.zhb.common.dto.SlaveSyncRespDTO;
-import com.zhb.common.dto.StartSyncRespDTO;
 import com.zhb.common.enums.BrokerEventCode;
 import com.zhb.common.enums.BrokerResponseCode;
 import com.zhb.common.event.EventBus;
 import com.zhb.common.event.model.Event;
-import com.zhb.common.remote.SyncFuture;
+import com.zhb.common.remote.InFlightRequestTable;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
@@ -22,7 +25,7 @@ import lombok.extern.slf4j.Slf4j;
 /**
  * 从节点同步服务器处理器
  * 负责处理从主节点接收到的同步消息
- * 将网络消息转换为事件并发布到事件总线上，包括主题创建、消息推送等操作
+ * 将网络消息转换为事件并发布到事件总线上，包括主题创建、消息推送、延迟消息存储同步等操作
  */
 @Slf4j
 @ChannelHandler.Sharable
@@ -57,42 +60,77 @@ public class SlaveSyncServerHandler extends SimpleChannelInboundHandler {
 	@Override
 	protected void channelRead0(ChannelHandlerContext channelHandlerContext, Object msg) throws Exception {
 		TcpMsg tcpMsg = (TcpMsg) msg;
+		// 开始同步等请求的响应按照请求id完成对应的请求
+		if (InFlightRequestTable.completeResponse(channelHandlerContext.channel(), tcpMsg)) {
+			return;
+		}
 		int code = tcpMsg.getCode();
-		byte[] body = tcpMsg.getBody();
 		Event event = null;
 		if (BrokerEventCode.CREATE_TOPIC.getCode() == code) {
 			// 处理创建主题消息
-			CreateTopicReqDTO createTopicReqDTO = JSON.parseObject(body, CreateTopicReqDTO.class);
+			CreateTopicReqDTO createTopicReqDTO = SerializerManager.decode(tcpMsg, CreateTopicReqDTO.class);
 			CreateTopicEvent createTopicEvent = new CreateTopicEvent();
 			createTopicEvent.setCreateTopicReqDTO(createTopicReqDTO);
 			createTopicEvent.setMsgId(createTopicReqDTO.getMsgId());
 			event = createTopicEvent;
 			event.setChannelHandlerContext(channelHandlerContext);
-			eventBus.publish(event);
+			event.setRequestId(tcpMsg.getRequestId());
+			if (!eventBus.publish(event)) {
+				this.replySyncFail(event);
+			}
 		} else if (BrokerEventCode.PUSH_MSG.getCode() == code) {
 			// 处理消息推送
-			MessageDTO messageDTO = JSON.parseObject(body, MessageDTO.class);
+			MessageDTO messageDTO = SerializerManager.decode(tcpMsg, MessageDTO.class);
 			PushMsgEvent pushMsgEvent = new PushMsgEvent();
 			pushMsgEvent.setMessageDTO(messageDTO);
 			pushMsgEvent.setMsgId(messageDTO.getMsgId());
-			log.info("收到消息推送内容:{},message is {}", new String(messageDTO.getBody()), JSON.toJSONString(messageDTO));
+			log.debug("收到消息推送内容, topic is {}, msgId is {}", messageDTO.getTopic(), messageDTO.getMsgId());
 			event = pushMsgEvent;
 			event.setChannelHandlerContext(channelHandlerContext);
-			eventBus.publish(event);
-		} else if (BrokerResponseCode.START_SYNC_SUCCESS.getCode() == code) {
-			// 处理开始同步成功响应
-			StartSyncRespDTO startSyncRespDTO = JSON.parseObject(body, StartSyncRespDTO.class);
-			SyncFuture syncFuture = BrokerServerSyncFutureManager.get(startSyncRespDTO.getMsgId());
-			if (syncFuture != null) {
-				syncFuture.setResponse(tcpMsg);
+			event.setRequestId(tcpMsg.getRequestId());
+			if (!eventBus.publish(event)) {
+				this.replySyncFail(event);
+			}
+		} else if (BrokerEventCode.PUSH_BATCH_MSG.getCode() == code) {
+			// 处理批量消息推送
+			BatchMessageDTO batchMessageDTO = SerializerManager.decode(tcpMsg, BatchMessageDTO.class);
+			PushBatchMsgEvent pushBatchMsgEvent = new PushBatchMsgEvent();
+			pushBatchMsgEvent.setBatchMessageDTO(batchMessageDTO);
+			pushBatchMsgEvent.setMsgId(batchMessageDTO.getMsgId());
+			event = pushBatchMsgEvent;
+			event.setChannelHandlerContext(channelHandlerContext);
+			event.setRequestId(tcpMsg.getRequestId());
+			if (!eventBus.publish(event)) {
+				this.replySyncFail(event);
 			}
-		} else if (BrokerResponseCode.SLAVE_SYNC_RESP.getCode() == code) {
-			// 处理从节点同步响应
-			SlaveSyncRespDTO slaveSyncRespDTO = JSON.parseObject(body, SlaveSyncRespDTO.class);
-			SyncFuture syncFuture = BrokerServerSyncFutureManager.get(slaveSyncRespDTO.getMsgId());
-			if (syncFuture != null) {
-				syncFuture.setResponse(tcpMsg);
+		} else if (BrokerEventCode.DELAY_STORE_SYNC.getCode() == code) {
+			// 处理延迟消息存储的同步
+			DelayStoreSyncDTO delayStoreSyncDTO = SerializerManager.decode(tcpMsg, DelayStoreSyncDTO.class);
+			DelayStoreSyncEvent delayStoreSyncEvent = new DelayStoreSyncEvent();
+			delayStoreSyncEvent.setDelayStoreSyncDTO(delayStoreSyncDTO);
+			delayStoreSyncEvent.setMsgId(delayStoreSyncDTO.getMsgId());
+			event = delayStoreSyncEvent;
+			event.setChannelHandlerContext(channelHandlerContext);
+			event.setRequestId(tcpMsg.getRequestId());
+			if (!eventBus.publish(event)) {
+				this.replySyncFail(event);
 			}
 		}
 	}
+
+	/**
+	 * 执行通道积压达到硬上限时同步事件被拒绝，主节点在等待确认时直接返回同步失败，不用等到超时
+	 *
+	 * @param event 被拒绝的事件
+	 */
+	private void replySyncFail(Event event) {
+		log.error("slave is busy, reject sync event {}, msgId is {}", event.getClass().getSimpleName(), event.getMsgId());
+		if (event.getRequestId() == 0) {
+			return;
+		}
+		SlaveSyncRespDTO slaveSyncRespDTO = new SlaveSyncRespDTO();
+		slaveSyncRespDTO.setSyncSuccess(false);
+		slaveSyncRespDTO.setMsgId(event.getMsgId());
+		event.reply(new TcpMsg(BrokerResponseCode.SLAVE_SYNC_RESP.getCode(), JSON.toJSONBytes(slaveSyncRespDTO)));
+	}
 }
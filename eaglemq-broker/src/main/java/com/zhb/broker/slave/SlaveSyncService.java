@@ -1,6 +1,8 @@
 package com.zhb.broker.slave;
 
 import com.alibaba.fastjson.JSON;
+import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.config.GlobalProperties;
 import com.zhb.common.coder.TcpMsg;
 import com.zhb.common.dto.StartSyncReqDTO;
 import com.zhb.common.enums.BrokerEventCode;
@@ -8,7 +10,6 @@ import com.zhb.common.event.EventBus;
 import com.zhb.common.remote.BrokerNettyRemoteClient;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.UUID;
 
 /**
  * 从节点同步服务类
@@ -37,7 +38,10 @@ public class SlaveSyncService {
 		Integer port = Integer.valueOf(addressAddr[1]);
 		try {
 			brokerNettyRemoteClient = new BrokerNettyRemoteClient(ip, port);
-			brokerNettyRemoteClient.buildConnection(new SlaveSyncServerHandler(new EventBus("slave-sync-eventbus")));
+			// 使用分区执行通道，同一个队列的消息和同一个桶的延迟消息存储修改按照主节点发送的顺序执行
+			GlobalProperties globalProperties = CommonCache.getGlobalProperties();
+			EventBus eventBus = new EventBus("slave-sync-eventbus-", globalProperties.getEventLaneCount(), globalProperties.getEventLaneCapacity());
+			brokerNettyRemoteClient.buildConnection(new SlaveSyncServerHandler(eventBus));
 			return true;
 		} catch (Exception e) {
 			log.error("error connect master broker", e);
@@ -48,13 +52,12 @@ public class SlaveSyncService {
 	/**
 	 * 发送开始同步消息
 	 * 向主节点发送请求，启动数据同步过程
-	 * 同步请求包含唯一的消息ID用于跟踪请求状态
+	 * 同步请求的响应按照消息头中的请求id匹配
 	 */
 	public void sendStartSyncMsg() {
 		StartSyncReqDTO startSyncReqDTO = new StartSyncReqDTO();
-		startSyncReqDTO.setMsgId(UUID.randomUUID().toString());
 		TcpMsg tcpMsg = new TcpMsg(BrokerEventCode.START_SYNC_MSG.getCode(), JSON.toJSONBytes(startSyncReqDTO));
-		TcpMsg startSyncMsgResp = brokerNettyRemoteClient.sendSyncMsg(tcpMsg, startSyncReqDTO.getMsgId());
+		TcpMsg startSyncMsgResp = brokerNettyRemoteClient.sendSyncMsg(tcpMsg);
 		log.info("startSyncMsgResp is:{}", JSON.toJSONString(startSyncMsgResp));
 	}
 }
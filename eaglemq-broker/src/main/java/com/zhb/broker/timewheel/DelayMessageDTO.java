@@ -25,5 +25,11 @@ public class DelayMessageDTO {
 
 	private long nextExecuteTime;
 
+	/**
+	 * 延迟消息在DelayMessageStore中所在的桶和位置，投递之后用于记录墓碑，不是来自存储的任务为-1
+	 */
+	private long storeBucket = -1;
+	private long storeOffset = -1;
+
 
 }
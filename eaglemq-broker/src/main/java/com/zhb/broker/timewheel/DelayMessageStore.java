@@ -0,0 +1,768 @@
+package com.zhb.broker.timewheel;
+
+import com.alibaba.fastjson.JSON;
+import com.zhb.common.coder.Serializer;
+import com.zhb.common.coder.SerializerManager;
+import com.zhb.common.constants.BrokerConstants;
+import com.zhb.common.dto.DelayStoreSyncDTO;
+import com.zhb.common.dto.MessageDTO;
+import com.zhb.common.enums.DelayStoreSyncTypeEnum;
+import com.zhb.common.enums.MessageSendWay;
+import com.zhb.common.enums.SerializeTypeEnum;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 延迟消息存储
+ * <p>
+ * 延迟消息按照到期时间分桶，每个桶是一个只追加的日志文件{桶id}.log，桶id是到期时间除以桶的时间跨度。
+ * 时间轮只加载到期时间落在预加载窗口内的桶，更远的消息只在磁盘上，启动时也只读取即将到期的桶，启动耗时和到期消息的数量相关，和总量无关。
+ * 时间轮中只保存消息所在的桶和位置，加载时只校验记录不解析消息，到期时再通过read读取消息内容。
+ * 投递完成的消息在{桶id}.tomb中追加一条墓碑，重启时跳过，一个桶的时间范围过去并且消息全部投递之后删除这个桶的两个文件。
+ * 已经过期的消息写入当前时间所在的桶，时间范围已经过去的桶不会再写入，删除之后不会被重新创建。
+ * <p>
+ * 记录格式：magic(4) + 消息长度(4) + crc32(4) + 到期时间(8) + 二进制编码的消息；墓碑格式：记录在日志文件中的位置(8)。
+ * 旧版本使用json编码消息，magic不同，依然可以读取。
+ * 加载时按块把日志文件读入内存，遇到不完整或者校验失败的记录在缓冲区中逐字节向后寻找下一条合法记录，宕机时写了一半的记录不会影响之后追加的记录。
+ * <p>
+ * 追加在写锁内完成，同步刷盘时写入和force分开，并发追加的记录由同一次force一起刷盘。
+ * 时间轮拿到的位置上的记录已经写完不会再改变，到期读取不需要写锁，每个已加载的桶保持一个只读文件用于并发的按位置读取。
+ * <p>
+ * 延迟消息不经过commitLog，主从模式下主节点通过SyncHandler把新写入的记录和墓碑按照原来的桶和位置同步给从节点。
+ * 从节点的存储处于备用状态，只写入同步过来的修改，按照同样的规则统计和删除桶，但是不放入时间轮，切换为主节点重启之后正常加载。
+ */
+@Slf4j
+public class DelayMessageStore {
+
+	private static final int RECORD_MAGIC = 0x4551_4442;
+	private static final int LEGACY_JSON_RECORD_MAGIC = 0x4551_444C;
+	private static final int RECORD_HEADER_SIZE = 20;
+	private static final int TOMBSTONE_SIZE = 8;
+	private static final String LOG_FILE_SUFFIX = ".log";
+	private static final String TOMBSTONE_FILE_SUFFIX = ".tomb";
+	/**
+	 * 同时保持打开的桶文件数量，超过之后关闭最久没有写入的桶
+	 */
+	private static final int MAX_OPEN_BUCKET_COUNT = 64;
+	/**
+	 * 加载桶时每次读入内存的字节数，超过这个长度的记录单独读取
+	 */
+	private static final int LOAD_BUFFER_SIZE = 4 * 1024 * 1024;
+
+	private final File storeDir;
+	private final long bucketMills;
+	private final long preloadMills;
+	private final boolean syncFlush;
+	private final boolean standby;
+	private final TimeWheelModelManager timeWheelModelManager;
+	private final Serializer binarySerializer = SerializerManager.getSerializer(SerializeTypeEnum.BINARY.getCode());
+
+	/**
+	 * 主节点把存储的修改同步给从节点，单机和从节点为null
+	 */
+	private volatile SyncHandler syncHandler;
+
+	/**
+	 * 到期读取使用的只读文件，按照位置读取，不需要持有锁，桶删除时关闭
+	 */
+	private final Map<Long, FileChannel> readChannelMap = new ConcurrentHashMap<>();
+	/**
+	 * 同步刷盘时排队执行force，持有时可以再获取lock，反过来不行
+	 */
+	private final Object forceLock = new Object();
+	/**
+	 * 已经刷盘的最大写入序号，只在forceLock内访问
+	 */
+	private long forcedSequence;
+
+	/**
+	 * 保护下面的所有字段，追加、加载和投递完成都在锁内完成，保证一个桶加载之后追加的消息直接进入时间轮
+	 */
+	private final Object lock = new Object();
+	/**
+	 * 每写入一条记录加一，同步刷盘时用来判断自己的记录是否已经被其他线程刷盘
+	 */
+	private long writeSequence;
+	/**
+	 * 小于这个值的桶已经加载到时间轮
+	 */
+	private long loadedUntilBucket;
+	/**
+	 * 已经加载到时间轮的桶的投递进度
+	 */
+	private final Map<Long, LoadedBucket> loadedBucketMap = new HashMap<>();
+	/**
+	 * 按照访问顺序排列的打开的日志文件，只在锁内访问
+	 */
+	private final LinkedHashMap<Long, FileChannel> logChannelMap = new LinkedHashMap<>(16, 0.75f, true);
+	/**
+	 * 写入之后还没有刷盘的桶
+	 */
+	private final Set<Long> dirtyBucketSet = new HashSet<>();
+	/**
+	 * 已经写入还没有刷盘的墓碑所在的桶
+	 */
+	private final Set<Long> dirtyTombstoneBucketSet = new HashSet<>();
+	/**
+	 * 已经写入还没有同步给从节点的墓碑，按桶分组
+	 */
+	private final Map<Long, List<Long>> unsyncedTombstoneMap = new HashMap<>();
+
+	/**
+	 * @param storeDir              存储目录
+	 * @param bucketMills           每个桶的时间跨度
+	 * @param preloadMills          提前加载到时间轮的时间窗口
+	 * @param syncFlush             每次追加之后是否刷盘
+	 * @param standby               是否是从节点的备用存储，备用存储中的消息不会放入时间轮
+	 * @param timeWheelModelManager 时间轮
+	 */
+	public DelayMessageStore(File storeDir, long bucketMills, long preloadMills, boolean syncFlush, boolean standby,
+							 TimeWheelModelManager timeWheelModelManager) {
+		if (bucketMills <= 0 || preloadMills < 0) {
+			throw new IllegalArgumentException("bucketMills must be positive and preloadMills can not be negative");
+		}
+		this.storeDir = storeDir;
+		this.bucketMills = bucketMills;
+		this.preloadMills = preloadMills;
+		this.syncFlush = syncFlush;
+		this.standby = standby;
+		this.timeWheelModelManager = timeWheelModelManager;
+	}
+
+	/**
+	 * 设置主节点的同步处理器，需要在start之前设置
+	 */
+	public void setSyncHandler(SyncHandler syncHandler) {
+		if (standby) {
+			throw new IllegalStateException("standby delay message store can not sync to other nodes");
+		}
+		this.syncHandler = syncHandler;
+	}
+
+	/**
+	 * 加载预加载窗口内的桶，然后启动后台加载和刷盘任务
+	 */
+	public void start() {
+		if (!storeDir.exists() && !storeDir.mkdirs()) {
+			throw new IllegalStateException("create delay message store dir fail, path is " + storeDir);
+		}
+		long targetBucket = this.bucketOf(System.currentTimeMillis() + preloadMills);
+		List<Long> dueBucketList = new ArrayList<>();
+		File[] logFiles = storeDir.listFiles((dir, name) -> name.endsWith(LOG_FILE_SUFFIX));
+		if (logFiles != null) {
+			for (File logFile : logFiles) {
+				long bucket = Long.parseLong(logFile.getName().substring(0, logFile.getName().length() - LOG_FILE_SUFFIX.length()));
+				if (bucket <= targetBucket) {
+					dueBucketList.add(bucket);
+				}
+			}
+		}
+		dueBucketList.sort(Long::compare);
+		List<DelayMessageDTO> loadedMessageList = new ArrayList<>();
+		synchronized (lock) {
+			try {
+				for (Long bucket : dueBucketList) {
+					this.loadBucket(bucket, loadedMessageList);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			loadedUntilBucket = targetBucket + 1;
+		}
+		log.info("delay message store started, standby is {}, load {} buckets, {} messages", standby, dueBucketList.size(), loadedMessageList.size());
+		this.addToTimeWheel(loadedMessageList);
+
+		Thread loadTask = new Thread(() -> {
+			while (true) {
+				try {
+					TimeUnit.MILLISECONDS.sleep(BrokerConstants.DELAY_STORE_LOAD_INTERVAL_MILLS);
+					this.loadDueBuckets();
+					this.deleteDeliveredBuckets();
+					this.flushDirtyBuckets();
+				} catch (InterruptedException e) {
+					log.error("delay bucket load task interrupted");
+					return;
+				} catch (Exception e) {
+					log.error("delay bucket load task error:", e);
+				}
+			}
+		});
+		loadTask.setName("delay-bucket-load-task");
+		loadTask.setDaemon(true);
+		loadTask.start();
+	}
+
+	/**
+	 * 追加一条延迟消息，主从模式下先同步给从节点，到期时间落在已经加载的桶里时再放入时间轮，
+	 * 保证从节点先收到记录，之后才可能收到这条记录的墓碑
+	 *
+	 * @param delayMessageDTO 延迟消息，data为MessageDTO，nextExecuteTime为到期时间
+	 * @return 同步从节点失败时返回失败原因，成功或者不需要同步时返回null
+	 * @throws IOException 写入失败
+	 */
+	public String append(DelayMessageDTO delayMessageDTO) throws IOException {
+		if (standby) {
+			throw new IllegalStateException("standby delay message store only accept sync from master");
+		}
+		MessageDTO messageDTO = (MessageDTO) delayMessageDTO.getData();
+		long dueTime = delayMessageDTO.getNextExecuteTime();
+		ByteBuffer record = this.encodeRecord(binarySerializer.serialize(messageDTO), dueTime);
+		long bucket = Math.max(this.bucketOf(dueTime), this.bucketOf(System.currentTimeMillis()));
+		long position;
+		long sequence;
+		boolean loaded;
+		synchronized (lock) {
+			FileChannel logChannel = this.openLogChannel(bucket);
+			position = logChannel.size();
+			sequence = this.writeRecord(bucket, logChannel, record, position);
+			loaded = bucket < loadedUntilBucket;
+			if (loaded) {
+				loadedBucketMap.computeIfAbsent(bucket, LoadedBucket::new).pendingCount++;
+			}
+		}
+		if (syncFlush) {
+			this.forceUntil(sequence);
+		}
+		String syncFailDesc = null;
+		SyncHandler syncHandler = this.syncHandler;
+		if (syncHandler != null) {
+			boolean waitAck = messageDTO.getSendWay() != MessageSendWay.ASYNC.getCode();
+			DelayStoreSyncDTO delayStoreSyncDTO = new DelayStoreSyncDTO();
+			delayStoreSyncDTO.setMsgId(messageDTO.getMsgId());
+			delayStoreSyncDTO.setSyncType(DelayStoreSyncTypeEnum.RECORD.getCode());
+			delayStoreSyncDTO.setBucket(bucket);
+			delayStoreSyncDTO.setPosition(position);
+			delayStoreSyncDTO.setContent(record.array());
+			delayStoreSyncDTO.setSendWay(waitAck ? MessageSendWay.SYNC.getCode() : MessageSendWay.ASYNC.getCode());
+			syncFailDesc = syncHandler.sync(delayStoreSyncDTO, waitAck);
+		}
+		if (loaded) {
+			//桶已经加载过，直接进入时间轮
+			delayMessageDTO.setStoreBucket(bucket);
+			delayMessageDTO.setStoreOffset(position);
+			timeWheelModelManager.add(delayMessageDTO);
+		}
+		return syncFailDesc;
+	}
+
+	/**
+	 * 读取到期的延迟消息，位置上的记录已经写完，不需要持有锁
+	 *
+	 * @param bucket   消息所在的桶
+	 * @param position 消息在桶日志文件中的位置
+	 * @return 消息内容
+	 * @throws IOException 读取失败或者记录已经损坏
+	 */
+	public MessageDTO read(long bucket, long position) throws IOException {
+		FileChannel readChannel = this.openReadChannel(bucket);
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+		this.readFully(readChannel, header, position);
+		header.flip();
+		int magic = header.getInt();
+		int length = header.getInt();
+		int crc = header.getInt();
+		if (!this.isRecordMagic(magic) || length < 0) {
+			throw new IOException("delay message record is invalid, bucket is " + bucket + ", position is " + position);
+		}
+		ByteBuffer content = ByteBuffer.allocate(length);
+		this.readFully(readChannel, content, position + RECORD_HEADER_SIZE);
+		CRC32 crc32 = new CRC32();
+		crc32.update(content.array());
+		if ((int) crc32.getValue() != crc) {
+			throw new IOException("delay message record checksum mismatch, bucket is " + bucket + ", position is " + position);
+		}
+		if (magic == LEGACY_JSON_RECORD_MAGIC) {
+			return JSON.parseObject(content.array(), MessageDTO.class);
+		}
+		return binarySerializer.deserialize(content.array(), MessageDTO.class);
+	}
+
+	/**
+	 * 延迟消息已经投递，记录墓碑，桶的时间范围过去并且桶内消息全部投递之后删除桶文件。
+	 * 墓碑只写入文件，同一批投递完成之后调用flushDelivered统一刷盘和同步
+	 *
+	 * @param bucket   消息所在的桶
+	 * @param position 消息在桶日志文件中的位置
+	 */
+	public void markDelivered(long bucket, long position) {
+		synchronized (lock) {
+			try {
+				this.writeTombstone(bucket, position);
+			} catch (IOException e) {
+				//墓碑写入失败只会导致重启之后重复投递
+				log.error("mark delay message delivered error, bucket is {}, position is {}", bucket, position, e);
+			}
+			if (syncHandler != null) {
+				unsyncedTombstoneMap.computeIfAbsent(bucket, key -> new ArrayList<>()).add(position);
+			}
+		}
+	}
+
+	/**
+	 * 一批消息投递完成之后调用，同步刷盘时把这一批墓碑统一刷盘，然后同步给从节点。
+	 * 调用之前投递的消息已经写入commitLog，宕机时最多重复投递，不会丢失
+	 */
+	public void flushDelivered() {
+		Map<Long, List<Long>> syncTombstoneMap;
+		synchronized (lock) {
+			if (syncFlush) {
+				this.flushDirtyTombstones();
+			}
+			if (unsyncedTombstoneMap.isEmpty()) {
+				return;
+			}
+			syncTombstoneMap = new HashMap<>(unsyncedTombstoneMap);
+			unsyncedTombstoneMap.clear();
+		}
+		SyncHandler syncHandler = this.syncHandler;
+		if (syncHandler == null) {
+			return;
+		}
+		for (Map.Entry<Long, List<Long>> entry : syncTombstoneMap.entrySet()) {
+			List<Long> positionList = entry.getValue();
+			ByteBuffer tombstones = ByteBuffer.allocate(positionList.size() * TOMBSTONE_SIZE);
+			for (Long position : positionList) {
+				tombstones.putLong(position);
+			}
+			DelayStoreSyncDTO delayStoreSyncDTO = new DelayStoreSyncDTO();
+			delayStoreSyncDTO.setSyncType(DelayStoreSyncTypeEnum.TOMBSTONE.getCode());
+			delayStoreSyncDTO.setBucket(entry.getKey());
+			delayStoreSyncDTO.setContent(tombstones.array());
+			delayStoreSyncDTO.setSendWay(MessageSendWay.ASYNC.getCode());
+			syncHandler.sync(delayStoreSyncDTO, false);
+		}
+	}
+
+	/**
+	 * 从节点写入主节点同步过来的修改，记录写到相同的位置，重复写入同一条记录不会改变文件内容
+	 *
+	 * @param delayStoreSyncDTO 主节点的修改
+	 * @throws IOException 写入失败
+	 */
+	public void applySync(DelayStoreSyncDTO delayStoreSyncDTO) throws IOException {
+		if (!standby) {
+			throw new IllegalStateException("only standby delay message store accept sync from master");
+		}
+		long bucket = delayStoreSyncDTO.getBucket();
+		long sequence = 0;
+		synchronized (lock) {
+			if (delayStoreSyncDTO.getSyncType() == DelayStoreSyncTypeEnum.RECORD.getCode()) {
+				FileChannel logChannel = this.openLogChannel(bucket);
+				boolean newRecord = delayStoreSyncDTO.getPosition() >= logChannel.size();
+				sequence = this.writeRecord(bucket, logChannel, ByteBuffer.wrap(delayStoreSyncDTO.getContent()), delayStoreSyncDTO.getPosition());
+				if (newRecord && bucket < loadedUntilBucket) {
+					loadedBucketMap.computeIfAbsent(bucket, LoadedBucket::new).pendingCount++;
+				}
+			} else if (delayStoreSyncDTO.getSyncType() == DelayStoreSyncTypeEnum.TOMBSTONE.getCode()) {
+				ByteBuffer tombstones = ByteBuffer.wrap(delayStoreSyncDTO.getContent());
+				while (tombstones.remaining() >= TOMBSTONE_SIZE) {
+					this.writeTombstone(bucket, tombstones.getLong());
+				}
+				if (syncFlush) {
+					this.flushDirtyTombstones();
+				}
+			} else {
+				throw new IllegalArgumentException("unknown delay store sync type " + delayStoreSyncDTO.getSyncType());
+			}
+		}
+		if (syncFlush && sequence > 0) {
+			this.forceUntil(sequence);
+		}
+	}
+
+	/**
+	 * 加载进入预加载窗口的桶
+	 */
+	private void loadDueBuckets() throws IOException {
+		long targetBucket = this.bucketOf(System.currentTimeMillis() + preloadMills);
+		List<DelayMessageDTO> loadedMessageList = new ArrayList<>();
+		synchronized (lock) {
+			while (loadedUntilBucket <= targetBucket) {
+				if (Files.exists(this.bucketPath(loadedUntilBucket, LOG_FILE_SUFFIX))) {
+					this.loadBucket(loadedUntilBucket, loadedMessageList);
+				}
+				loadedUntilBucket++;
+			}
+		}
+		this.addToTimeWheel(loadedMessageList);
+	}
+
+	/**
+	 * 读取一个桶中没有墓碑的消息，需要持有锁
+	 */
+	private void loadBucket(long bucket, List<DelayMessageDTO> loadedMessageList) throws IOException {
+		Set<Long> tombstoneSet = this.readTombstones(bucket);
+		LoadedBucket loadedBucket = loadedBucketMap.computeIfAbsent(bucket, LoadedBucket::new);
+		try (FileChannel logChannel = FileChannel.open(this.bucketPath(bucket, LOG_FILE_SUFFIX), StandardOpenOption.READ)) {
+			long fileSize = logChannel.size();
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(fileSize, LOAD_BUFFER_SIZE));
+			buffer.limit(0);
+			//缓冲区第一个字节在文件中的位置
+			long bufferPosition = 0;
+			long position = 0;
+			CRC32 crc32 = new CRC32();
+			while (position + RECORD_HEADER_SIZE <= fileSize) {
+				int offset = (int) (position - bufferPosition);
+				if (offset + RECORD_HEADER_SIZE > buffer.limit()) {
+					buffer = this.fillLoadBuffer(logChannel, buffer, position, RECORD_HEADER_SIZE, fileSize);
+					bufferPosition = position;
+					offset = 0;
+				}
+				int magic = buffer.getInt(offset);
+				int length = buffer.getInt(offset + 4);
+				if (!this.isRecordMagic(magic) || length < 0 || position + RECORD_HEADER_SIZE + length > fileSize) {
+					position++;
+					continue;
+				}
+				if (offset + RECORD_HEADER_SIZE + length > buffer.limit()) {
+					buffer = this.fillLoadBuffer(logChannel, buffer, position, RECORD_HEADER_SIZE + length, fileSize);
+					bufferPosition = position;
+					offset = 0;
+				}
+				int crc = buffer.getInt(offset + 8);
+				long dueTime = buffer.getLong(offset + 12);
+				crc32.reset();
+				crc32.update(buffer.array(), buffer.arrayOffset() + offset + RECORD_HEADER_SIZE, length);
+				if ((int) crc32.getValue() != crc) {
+					position++;
+					continue;
+				}
+				if (!tombstoneSet.contains(position)) {
+					DelayMessageDTO delayMessageDTO = new DelayMessageDTO();
+					delayMessageDTO.setSlotStoreType(SlotStoreTypeEnum.DELAY_MESSAGE_DTO);
+					delayMessageDTO.setNextExecuteTime(dueTime);
+					delayMessageDTO.setStoreBucket(bucket);
+					delayMessageDTO.setStoreOffset(position);
+					loadedMessageList.add(delayMessageDTO);
+					loadedBucket.pendingCount++;
+				}
+				position += RECORD_HEADER_SIZE + length;
+			}
+		}
+		this.deleteBucketIfDelivered(loadedBucket);
+	}
+
+	/**
+	 * 从position开始把文件读入缓冲区，至少读入minSize个字节，缓冲区放不下时换一个更大的
+	 */
+	private ByteBuffer fillLoadBuffer(FileChannel logChannel, ByteBuffer buffer, long position, int minSize, long fileSize) throws IOException {
+		if (buffer.capacity() < minSize) {
+			buffer = ByteBuffer.allocate(minSize);
+		}
+		buffer.clear();
+		buffer.limit((int) Math.min(buffer.capacity(), fileSize - position));
+		this.readFully(logChannel, buffer, position);
+		buffer.flip();
+		return buffer;
+	}
+
+	private Set<Long> readTombstones(long bucket) throws IOException {
+		Path tombstonePath = this.bucketPath(bucket, TOMBSTONE_FILE_SUFFIX);
+		Set<Long> tombstoneSet = new HashSet<>();
+		if (!Files.exists(tombstonePath)) {
+			return tombstoneSet;
+		}
+		ByteBuffer tombstones = ByteBuffer.wrap(Files.readAllBytes(tombstonePath));
+		//末尾写了一半的墓碑直接忽略
+		while (tombstones.remaining() >= TOMBSTONE_SIZE) {
+			tombstoneSet.add(tombstones.getLong());
+		}
+		return tombstoneSet;
+	}
+
+	/**
+	 * 写入一条记录，不刷盘，需要持有锁
+	 *
+	 * @return 这条记录的写入序号，同步刷盘时释放锁之后用forceUntil等待刷盘
+	 */
+	private long writeRecord(long bucket, FileChannel logChannel, ByteBuffer record, long position) throws IOException {
+		while (record.hasRemaining()) {
+			logChannel.write(record, position + record.position());
+		}
+		dirtyBucketSet.add(bucket);
+		return ++writeSequence;
+	}
+
+	/**
+	 * 同步刷盘时等待写入序号之前的记录全部刷盘，不能持有锁。
+	 * 追加的线程排队进入，第一个进入的线程把当时所有还没有刷盘的桶一起刷盘，
+	 * 排在后面的线程发现自己的记录已经被刷盘直接返回，并发追加时一次force覆盖多条记录
+	 */
+	private void forceUntil(long sequence) throws IOException {
+		synchronized (forceLock) {
+			if (forcedSequence >= sequence) {
+				return;
+			}
+			long targetSequence;
+			Map<Long, FileChannel> forceChannelMap = new HashMap<>();
+			synchronized (lock) {
+				targetSequence = writeSequence;
+				for (Long bucket : dirtyBucketSet) {
+					FileChannel logChannel = logChannelMap.get(bucket);
+					if (logChannel != null) {
+						forceChannelMap.put(bucket, logChannel);
+					}
+				}
+				dirtyBucketSet.clear();
+			}
+			try {
+				for (FileChannel logChannel : forceChannelMap.values()) {
+					try {
+						logChannel.force(false);
+					} catch (ClosedChannelException e) {
+						//文件被淘汰时关闭之前已经刷盘，被删除的桶不需要刷盘
+					}
+				}
+			} catch (IOException e) {
+				synchronized (lock) {
+					dirtyBucketSet.addAll(forceChannelMap.keySet());
+				}
+				throw e;
+			}
+			forcedSequence = targetSequence;
+		}
+	}
+
+	/**
+	 * 追加一条墓碑并减少桶中等待投递的消息数量，需要持有锁。
+	 * 墓碑文件只对已经加载的桶保持打开，从节点上还没有加载的桶每次单独打开
+	 */
+	private void writeTombstone(long bucket, long position) throws IOException {
+		ByteBuffer tombstone = ByteBuffer.allocate(TOMBSTONE_SIZE);
+		tombstone.putLong(position);
+		tombstone.flip();
+		LoadedBucket loadedBucket = loadedBucketMap.get(bucket);
+		if (loadedBucket == null) {
+			if (!Files.exists(this.bucketPath(bucket, LOG_FILE_SUFFIX))) {
+				//桶已经删除，墓碑没有意义
+				return;
+			}
+			try (FileChannel tombstoneChannel = this.openTombstoneChannel(bucket)) {
+				while (tombstone.hasRemaining()) {
+					tombstoneChannel.write(tombstone);
+				}
+				if (syncFlush) {
+					tombstoneChannel.force(false);
+				}
+			}
+			return;
+		}
+		if (loadedBucket.tombstoneChannel == null) {
+			loadedBucket.tombstoneChannel = this.openTombstoneChannel(bucket);
+		}
+		while (tombstone.hasRemaining()) {
+			loadedBucket.tombstoneChannel.write(tombstone);
+		}
+		dirtyTombstoneBucketSet.add(bucket);
+		loadedBucket.pendingCount--;
+		this.deleteBucketIfDelivered(loadedBucket);
+	}
+
+	private FileChannel openTombstoneChannel(long bucket) throws IOException {
+		return FileChannel.open(this.bucketPath(bucket, TOMBSTONE_FILE_SUFFIX),
+			StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * 删除时间范围已经过去并且没有等待投递的消息的桶
+	 */
+	private void deleteDeliveredBuckets() throws IOException {
+		synchronized (lock) {
+			for (LoadedBucket loadedBucket : new ArrayList<>(loadedBucketMap.values())) {
+				this.deleteBucketIfDelivered(loadedBucket);
+			}
+		}
+	}
+
+	/**
+	 * 桶的时间范围已经过去并且消息全部投递时删除桶，需要持有锁。
+	 * 留出一个桶的余量给主从之间的时钟误差和同步延迟，这之后主节点不会再写入这个桶，主从两边删除之后都不会被重新创建
+	 */
+	private void deleteBucketIfDelivered(LoadedBucket loadedBucket) throws IOException {
+		if (loadedBucket.pendingCount > 0 || loadedBucket.bucket >= this.bucketOf(System.currentTimeMillis()) - 1) {
+			return;
+		}
+		long bucket = loadedBucket.bucket;
+		loadedBucketMap.remove(bucket);
+		if (loadedBucket.tombstoneChannel != null) {
+			loadedBucket.tombstoneChannel.close();
+		}
+		FileChannel logChannel = logChannelMap.remove(bucket);
+		if (logChannel != null) {
+			logChannel.close();
+		}
+		FileChannel readChannel = readChannelMap.remove(bucket);
+		if (readChannel != null) {
+			readChannel.close();
+		}
+		dirtyBucketSet.remove(bucket);
+		dirtyTombstoneBucketSet.remove(bucket);
+		Files.deleteIfExists(this.bucketPath(bucket, LOG_FILE_SUFFIX));
+		Files.deleteIfExists(this.bucketPath(bucket, TOMBSTONE_FILE_SUFFIX));
+	}
+
+	private void flushDirtyBuckets() {
+		synchronized (lock) {
+			Iterator<Long> iterator = dirtyBucketSet.iterator();
+			while (iterator.hasNext()) {
+				FileChannel logChannel = logChannelMap.get(iterator.next());
+				iterator.remove();
+				if (logChannel == null) {
+					continue;
+				}
+				try {
+					logChannel.force(false);
+				} catch (IOException e) {
+					log.error("flush delay message bucket error:", e);
+				}
+			}
+			this.flushDirtyTombstones();
+		}
+	}
+
+	/**
+	 * 刷盘已经写入的墓碑，需要持有锁
+	 */
+	private void flushDirtyTombstones() {
+		for (Long bucket : dirtyTombstoneBucketSet) {
+			LoadedBucket loadedBucket = loadedBucketMap.get(bucket);
+			if (loadedBucket == null || loadedBucket.tombstoneChannel == null) {
+				continue;
+			}
+			try {
+				loadedBucket.tombstoneChannel.force(false);
+			} catch (IOException e) {
+				log.error("flush delay message tombstone error, bucket is {}", bucket, e);
+			}
+		}
+		dirtyTombstoneBucketSet.clear();
+	}
+
+	/**
+	 * 打开桶的日志文件用于追加，打开的文件过多时关闭最久没有使用的，需要持有锁
+	 */
+	private FileChannel openLogChannel(long bucket) throws IOException {
+		FileChannel logChannel = logChannelMap.get(bucket);
+		if (logChannel != null) {
+			return logChannel;
+		}
+		if (logChannelMap.size() >= MAX_OPEN_BUCKET_COUNT) {
+			Iterator<Map.Entry<Long, FileChannel>> iterator = logChannelMap.entrySet().iterator();
+			Map.Entry<Long, FileChannel> eldest = iterator.next();
+			iterator.remove();
+			//关闭之前刷盘，避免异步刷盘时数据只留在被关闭的文件上
+			eldest.getValue().force(false);
+			eldest.getValue().close();
+			dirtyBucketSet.remove(eldest.getKey());
+		}
+		logChannel = FileChannel.open(this.bucketPath(bucket, LOG_FILE_SUFFIX), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		logChannelMap.put(bucket, logChannel);
+		return logChannel;
+	}
+
+	/**
+	 * 打开桶的只读文件用于到期读取，不需要持有锁，并发打开时只保留一个
+	 */
+	private FileChannel openReadChannel(long bucket) throws IOException {
+		FileChannel readChannel = readChannelMap.get(bucket);
+		if (readChannel != null) {
+			return readChannel;
+		}
+		readChannel = FileChannel.open(this.bucketPath(bucket, LOG_FILE_SUFFIX), StandardOpenOption.READ);
+		FileChannel existChannel = readChannelMap.putIfAbsent(bucket, readChannel);
+		if (existChannel != null) {
+			readChannel.close();
+			return existChannel;
+		}
+		return readChannel;
+	}
+
+	private ByteBuffer encodeRecord(byte[] content, long dueTime) {
+		CRC32 crc32 = new CRC32();
+		crc32.update(content);
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + content.length);
+		record.putInt(RECORD_MAGIC);
+		record.putInt(content.length);
+		record.putInt((int) crc32.getValue());
+		record.putLong(dueTime);
+		record.put(content);
+		record.flip();
+		return record;
+	}
+
+	private boolean isRecordMagic(int magic) {
+		return magic == RECORD_MAGIC || magic == LEGACY_JSON_RECORD_MAGIC;
+	}
+
+	private void readFully(FileChannel fileChannel, ByteBuffer byteBuffer, long position) throws IOException {
+		while (byteBuffer.hasRemaining()) {
+			if (fileChannel.read(byteBuffer, position + byteBuffer.position()) < 0) {
+				throw new IOException("unexpected end of delay message bucket file");
+			}
+		}
+	}
+
+	private void addToTimeWheel(List<DelayMessageDTO> delayMessageDTOList) {
+		if (standby) {
+			return;
+		}
+		for (DelayMessageDTO delayMessageDTO : delayMessageDTOList) {
+			timeWheelModelManager.add(delayMessageDTO);
+		}
+	}
+
+	private long bucketOf(long dueTime) {
+		return Math.max(dueTime, 0) / bucketMills;
+	}
+
+	private Path bucketPath(long bucket, String suffix) {
+		return new File(storeDir, bucket + suffix).toPath();
+	}
+
+	/**
+	 * 主节点把延迟消息存储的修改同步给从节点
+	 */
+	public interface SyncHandler {
+
+		/**
+		 * @param delayStoreSyncDTO 新写入的记录或者墓碑
+		 * @param waitAck           是否等待从节点确认
+		 * @return 同步成功或者不需要等待确认时返回null，失败时返回失败原因
+		 */
+		String sync(DelayStoreSyncDTO delayStoreSyncDTO, boolean waitAck);
+	}
+
+	/**
+	 * 已经加载到时间轮的桶
+	 */
+	private static class LoadedBucket {
+
+		private final long bucket;
+		//已经进入时间轮但还没有投递的消息数量
+		private int pendingCount;
+		private FileChannel tombstoneChannel;
+
+		private LoadedBucket(long bucket) {
+			this.bucket = bucket;
+		}
+	}
+}
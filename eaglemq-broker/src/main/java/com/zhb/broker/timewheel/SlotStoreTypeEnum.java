@@ -18,4 +18,13 @@ public enum SlotStoreTypeEnum {
         this.clazz = clazz;
     }
 
+    public static SlotStoreTypeEnum of(Class clazz) {
+        for (SlotStoreTypeEnum slotStoreTypeEnum : values()) {
+            if (slotStoreTypeEnum.getClazz().equals(clazz)) {
+                return slotStoreTypeEnum;
+            }
+        }
+        throw new IllegalArgumentException("unknown slot store type " + clazz);
+    }
+
 }
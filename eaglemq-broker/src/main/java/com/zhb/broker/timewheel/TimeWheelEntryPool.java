@@ -0,0 +1,250 @@
+package com.zhb.broker.timewheel;
+
+import com.zhb.common.dto.MessageRetryDTO;
+import com.zhb.common.dto.TxMessageDTO;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 时间轮任务池
+ * <p>
+ * 时间轮中等待的任务不保存消息对象，只保存定位消息所需的几个数字，每个任务占用4个long，按页存放在long数组中，
+ * 任务id是任务在池中的下标，同一个槽里的任务通过link中的next串成单链表，释放的任务通过同样的方式串成空闲链表重复使用。
+ * 到期时才根据这些数字重新构建TimeWheelSlotModel，消息内容由监听器从存储中重新读取。
+ * <p>
+ * 任务格式：到期tick(8) + ref(8) + meta(8) + link(8)，link为 类型(8位) + key id(24位) + next(32位)
+ * <ul>
+ *     <li>延迟消息：ref为DelayMessageStore中的桶，meta为桶日志文件中的位置</li>
+ *     <li>重试消息：ref为原始消息的commitLog偏移量，meta为 消息长度(32位) + 重试次数(32位)，key id为(topic, 消费组, 队列id)在字典中的id</li>
+ *     <li>事务回查：只需要msgId，msgId本身已经作为key保存在事务缓存中，放在按需分配的引用页里</li>
+ * </ul>
+ * 不是线程安全的，由时间轮的锁保护。
+ */
+final class TimeWheelEntryPool {
+
+	/**
+	 * 空链表
+	 */
+	static final int NIL = -1;
+
+	private static final int ENTRY_LONGS = 4;
+	private static final int DEADLINE_INDEX = 0;
+	private static final int REF_INDEX = 1;
+	private static final int META_INDEX = 2;
+	private static final int LINK_INDEX = 3;
+	private static final int PAGE_SHIFT = 12;
+	private static final int PAGE_ENTRY_COUNT = 1 << PAGE_SHIFT;
+	private static final int PAGE_MASK = PAGE_ENTRY_COUNT - 1;
+	private static final int MAX_KEY_ID = (1 << 24) - 1;
+	private static final SlotStoreTypeEnum[] SLOT_STORE_TYPES = SlotStoreTypeEnum.values();
+
+	/**
+	 * 按页分配，扩容时不需要复制已有的任务
+	 */
+	private long[][] entryPages = new long[0][];
+	/**
+	 * 事务回查的msgId，只有放入过事务回查任务的页才会分配
+	 */
+	private Object[][] attachmentPages = new Object[0][];
+	/**
+	 * 从未使用过的第一个任务id
+	 */
+	private int allocatedCount;
+	private int freeHead = NIL;
+	private int liveCount;
+
+	/**
+	 * (topic, 消费组, 队列id)字典，重试任务只保存id，数量受topic、消费组和队列的配置限制，不会回收
+	 */
+	private final Map<RetryKey, Integer> retryKeyIdMap = new HashMap<>();
+	private final List<RetryKey> retryKeyList = new ArrayList<>();
+
+	/**
+	 * 把延迟任务编码成一个池中的任务
+	 *
+	 * @param delayMessageDTO 延迟任务
+	 * @param deadlineTick    到期tick
+	 * @return 任务id
+	 * @throws IllegalArgumentException 任务无法只用数字定位
+	 */
+	int allocate(DelayMessageDTO delayMessageDTO, long deadlineTick) {
+		SlotStoreTypeEnum slotStoreType = delayMessageDTO.getSlotStoreType();
+		long ref = 0;
+		long meta = 0;
+		int keyId = 0;
+		Object attachment = null;
+		if (slotStoreType == SlotStoreTypeEnum.DELAY_MESSAGE_DTO) {
+			if (delayMessageDTO.getStoreBucket() < 0) {
+				throw new IllegalArgumentException("delay message must be appended to DelayMessageStore before added to time wheel");
+			}
+			ref = delayMessageDTO.getStoreBucket();
+			meta = delayMessageDTO.getStoreOffset();
+		} else if (slotStoreType == SlotStoreTypeEnum.MESSAGE_RETRY_DTO) {
+			MessageRetryDTO messageRetryDTO = (MessageRetryDTO) delayMessageDTO.getData();
+			ref = messageRetryDTO.getSourceCommitLogOffset();
+			meta = ((long) messageRetryDTO.getSourceCommitLogSize() << 32)
+				| (messageRetryDTO.getCurrentRetryTimes() & 0xFFFFFFFFL);
+			keyId = this.retryKeyId(new RetryKey(messageRetryDTO.getTopic(), messageRetryDTO.getConsumeGroup(), messageRetryDTO.getQueueId()));
+		} else {
+			attachment = ((TxMessageDTO) delayMessageDTO.getData()).getMsgId();
+		}
+
+		int entry = this.nextFreeEntry();
+		long[] page = entryPages[entry >>> PAGE_SHIFT];
+		int base = (entry & PAGE_MASK) * ENTRY_LONGS;
+		page[base + DEADLINE_INDEX] = deadlineTick;
+		page[base + REF_INDEX] = ref;
+		page[base + META_INDEX] = meta;
+		page[base + LINK_INDEX] = ((long) slotStoreType.ordinal() << 56) | ((long) keyId << 32) | (NIL & 0xFFFFFFFFL);
+		if (attachment != null) {
+			this.attachmentPage(entry)[entry & PAGE_MASK] = attachment;
+		}
+		liveCount++;
+		return entry;
+	}
+
+	long deadlineTick(int entry) {
+		return entryPages[entry >>> PAGE_SHIFT][(entry & PAGE_MASK) * ENTRY_LONGS + DEADLINE_INDEX];
+	}
+
+	int next(int entry) {
+		return (int) entryPages[entry >>> PAGE_SHIFT][(entry & PAGE_MASK) * ENTRY_LONGS + LINK_INDEX];
+	}
+
+	void setNext(int entry, int next) {
+		long[] page = entryPages[entry >>> PAGE_SHIFT];
+		int linkIndex = (entry & PAGE_MASK) * ENTRY_LONGS + LINK_INDEX;
+		page[linkIndex] = (page[linkIndex] & 0xFFFFFFFF00000000L) | (next & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * 解码到期任务并放回空闲链表
+	 *
+	 * @param entry 任务id
+	 * @return 到期任务，延迟消息只带有存储位置，data为null
+	 */
+	TimeWheelSlotModel release(int entry) {
+		int pageIndex = entry >>> PAGE_SHIFT;
+		long[] page = entryPages[pageIndex];
+		int base = (entry & PAGE_MASK) * ENTRY_LONGS;
+		long ref = page[base + REF_INDEX];
+		long meta = page[base + META_INDEX];
+		long link = page[base + LINK_INDEX];
+		SlotStoreTypeEnum slotStoreType = SLOT_STORE_TYPES[(int) (link >>> 56)];
+
+		TimeWheelSlotModel timeWheelSlotModel = new TimeWheelSlotModel();
+		timeWheelSlotModel.setStoreType(slotStoreType.getClazz());
+		timeWheelSlotModel.setDeadlineTick(page[base + DEADLINE_INDEX]);
+		if (slotStoreType == SlotStoreTypeEnum.DELAY_MESSAGE_DTO) {
+			timeWheelSlotModel.setStoreBucket(ref);
+			timeWheelSlotModel.setStoreOffset(meta);
+		} else if (slotStoreType == SlotStoreTypeEnum.MESSAGE_RETRY_DTO) {
+			RetryKey retryKey = retryKeyList.get((int) (link >>> 32) & MAX_KEY_ID);
+			MessageRetryDTO messageRetryDTO = new MessageRetryDTO();
+			messageRetryDTO.setTopic(retryKey.topic);
+			messageRetryDTO.setConsumeGroup(retryKey.consumeGroup);
+			messageRetryDTO.setQueueId(retryKey.queueId);
+			messageRetryDTO.setSourceCommitLogOffset(ref);
+			messageRetryDTO.setSourceCommitLogSize((int) (meta >>> 32));
+			messageRetryDTO.setCurrentRetryTimes((int) meta);
+			timeWheelSlotModel.setData(messageRetryDTO);
+		} else {
+			Object[] attachmentPage = attachmentPages[pageIndex];
+			TxMessageDTO txMessageDTO = new TxMessageDTO();
+			txMessageDTO.setMsgId((String) attachmentPage[entry & PAGE_MASK]);
+			attachmentPage[entry & PAGE_MASK] = null;
+			timeWheelSlotModel.setData(txMessageDTO);
+		}
+
+		page[base + LINK_INDEX] = freeHead & 0xFFFFFFFFL;
+		freeHead = entry;
+		liveCount--;
+		return timeWheelSlotModel;
+	}
+
+	/**
+	 * 时间轮中等待的任务数量
+	 */
+	int getLiveCount() {
+		return liveCount;
+	}
+
+	private int nextFreeEntry() {
+		if (freeHead != NIL) {
+			int entry = freeHead;
+			freeHead = this.next(entry);
+			return entry;
+		}
+		int pageIndex = allocatedCount >>> PAGE_SHIFT;
+		if (pageIndex == entryPages.length) {
+			if (allocatedCount == Integer.MAX_VALUE) {
+				throw new IllegalStateException("time wheel entry pool is full");
+			}
+			entryPages = Arrays.copyOf(entryPages, pageIndex + 1);
+			entryPages[pageIndex] = new long[PAGE_ENTRY_COUNT * ENTRY_LONGS];
+		}
+		return allocatedCount++;
+	}
+
+	private Object[] attachmentPage(int entry) {
+		int pageIndex = entry >>> PAGE_SHIFT;
+		if (pageIndex >= attachmentPages.length) {
+			attachmentPages = Arrays.copyOf(attachmentPages, entryPages.length);
+		}
+		if (attachmentPages[pageIndex] == null) {
+			attachmentPages[pageIndex] = new Object[PAGE_ENTRY_COUNT];
+		}
+		return attachmentPages[pageIndex];
+	}
+
+	private int retryKeyId(RetryKey retryKey) {
+		Integer keyId = retryKeyIdMap.get(retryKey);
+		if (keyId == null) {
+			if (retryKeyList.size() > MAX_KEY_ID) {
+				throw new IllegalStateException("too many retry topic, consume group and queue in time wheel");
+			}
+			keyId = retryKeyList.size();
+			retryKeyList.add(retryKey);
+			retryKeyIdMap.put(retryKey, keyId);
+		}
+		return keyId;
+	}
+
+	/**
+	 * 重试任务字典的key
+	 */
+	private static final class RetryKey {
+
+		private final String topic;
+		private final String consumeGroup;
+		private final int queueId;
+
+		private RetryKey(String topic, String consumeGroup, int queueId) {
+			this.topic = topic;
+			this.consumeGroup = consumeGroup;
+			this.queueId = queueId;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof RetryKey)) {
+				return false;
+			}
+			RetryKey retryKey = (RetryKey) o;
+			return queueId == retryKey.queueId && Objects.equals(topic, retryKey.topic) && Objects.equals(consumeGroup, retryKey.consumeGroup);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(topic, consumeGroup, queueId);
+		}
+	}
+}
@@ -1,18 +1,23 @@
 package com.zhb.broker.timewheel;
 
-import com.zhb.common.utils.AssertUtils;
 import lombok.Getter;
 import lombok.Setter;
 
 /**
- * 时间轮组件
+ * 时间轮组件，多层时间轮中的一层
  */
 @Setter
 @Getter
 public class TimeWheelModel {
 
-	private int current;
-	private TimeWheelSlotListModel timeWheelSlotListModel[];
+	/**
+	 * 每个槽覆盖的最底层tick数量，最底层为1，上一层是下一层的槽数量乘以下一层的这个值
+	 */
+	private long slotTickCount;
+	/**
+	 * 每个槽中第一个任务在TimeWheelEntryPool中的id，空槽为TimeWheelEntryPool.NIL
+	 */
+	private int[] slotEntryHeads;
 	/**
 	 * 时间轮的存储时间单位
 	 *
@@ -20,16 +25,20 @@ public class TimeWheelModel {
 	 */
 	private String unit;
 
-
-	public int countNextSlot(int delay) {
-		AssertUtils.isTrue(delay < timeWheelSlotListModel.length, "delay can not large than slot's total count");
-		int remainSlotCount = timeWheelSlotListModel.length - current;
-		int diff = delay - remainSlotCount;
-		if (diff < 0) {
-			return current + delay;
-		}
-		return diff;
+	/**
+	 * 到期tick所在的槽位
+	 *
+	 * @param deadlineTick 到期tick
+	 * @return 槽位下标
+	 */
+	public int slotIndex(long deadlineTick) {
+		return (int) ((deadlineTick / slotTickCount) % slotEntryHeads.length);
 	}
 
-
+	/**
+	 * 到期tick和当前tick在这一层上相差的槽数量，小于槽总数时可以放入这一层
+	 */
+	public long slotDistance(long deadlineTick, long currentTick) {
+		return deadlineTick / slotTickCount - currentTick / slotTickCount;
+	}
 }
@@ -4,44 +4,55 @@ package com.zhb.broker.timewheel;
 import com.zhb.broker.event.model.TimeWheelEvent;
 import com.zhb.common.event.EventBus;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.collections4.CollectionUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * 时间轮模型管理器
- * 负责管理秒级和分钟级两个层次的时间轮
- * 处理延迟消息的添加、扫描和执行
+ * 负责管理毫秒、秒、分钟、小时、天五个层次的时间轮，处理延迟消息的添加、扫描和执行
+ * <p>
+ * 时间以最底层的tick为单位，到期tick和当前tick在某一层相差的槽数量小于该层槽总数时放入该层，插入和到期都是O(1)。
+ * 上层的槽到达时把其中的任务重新插入，任务会落到更低的层或者直接到期；超过最高层范围的任务先放在最高层，到达时再次插回最高层，
+ * 所以延迟时间没有上限。扫描线程按照System.nanoTime计算每个tick的截止时间，睡眠不准确或者处理变慢时会连续补齐错过的tick，不会累积误差。
+ * <p>
+ * 槽中只保存TimeWheelEntryPool中的任务id，任务本身是long数组中的几个数字，降级时只修改链表指针，大量任务等待期间不会给GC带来压力。
  */
 @Slf4j
 public class TimeWheelModelManager {
 
 	/**
-	 * 秒级时间轮同步锁
+	 * 时间轮同步锁，保护所有层的槽位和当前tick
 	 */
-	private final Object secondsLock = new Object();
+	private final Object lock = new Object();
 
 	/**
-	 * 分钟级时间轮同步锁
+	 * 所有层共用的任务池，由lock保护
 	 */
-	private final Object minutesLock = new Object();
+	private final TimeWheelEntryPool entryPool = new TimeWheelEntryPool();
 
 	/**
-	 * 已执行的秒数计数器
+	 * 已经处理完成的tick数量
 	 */
-	private long executeSeconds = 0l;
+	private volatile long currentTick = 0L;
 
 	/**
-	 * 秒级时间轮模型
+	 * 时间轮启动时的System.nanoTime
 	 */
-	private TimeWheelModel secondsTimeWheelModel;
+	private long startNanos;
 
 	/**
-	 * 分钟级时间轮模型
+	 * 最底层每个tick的纳秒数
 	 */
-	private TimeWheelModel minutesTimeWheelModel;
+	private long tickNanos;
+
+	/**
+	 * 从低到高的各层时间轮
+	 */
+	private TimeWheelModel[] timeWheelModels;
 
 	/**
 	 * 事件总线，用于发布时间轮触发的事件
@@ -51,22 +62,33 @@ public class TimeWheelModelManager {
 
 	/**
 	 * 初始化时间轮内部的变量值
-	 * 创建秒级和分钟级两个时间轮，并初始化事件总线
+	 * 创建毫秒、秒、分钟、小时、天五层时间轮，并初始化事件总线
 	 *
-	 * @param eventBus 事件总线实例
+	 * @param eventBus     事件总线实例
+	 * @param tickMills    最底层每个槽的毫秒数，需要能整除1000
+	 * @param daySlotCount 天级时间轮的槽数量，超过这个范围的任务会在天级时间轮上多转几圈
 	 */
-	public void init(EventBus eventBus) {
-		// 初始化秒级时间轮，包含60个槽位
-		secondsTimeWheelModel = new TimeWheelModel();
-		secondsTimeWheelModel.setUnit(TimeWheelSlotStepUnitEnum.SECOND.getCode());
-		secondsTimeWheelModel.setCurrent(0);
-		secondsTimeWheelModel.setTimeWheelSlotListModel(buildTimeWheelSlotListModel(60));
-
-		// 初始化分钟级时间轮，包含60个槽位
-		minutesTimeWheelModel = new TimeWheelModel();
-		minutesTimeWheelModel.setCurrent(0);
-		minutesTimeWheelModel.setTimeWheelSlotListModel(buildTimeWheelSlotListModel(60));
-		minutesTimeWheelModel.setUnit(TimeWheelSlotStepUnitEnum.MINUTE.getCode());
+	public void init(EventBus eventBus, int tickMills, int daySlotCount) {
+		if (tickMills <= 0 || 1000 % tickMills != 0) {
+			throw new IllegalArgumentException("time wheel tick mills must be a divisor of 1000, value is " + tickMills);
+		}
+		if (daySlotCount <= 0) {
+			throw new IllegalArgumentException("time wheel day slot count must be positive, value is " + daySlotCount);
+		}
+		TimeWheelSlotStepUnitEnum[] units = TimeWheelSlotStepUnitEnum.values();
+		int[] slotCounts = new int[]{1000 / tickMills, 60, 60, 24, daySlotCount};
+		timeWheelModels = new TimeWheelModel[slotCounts.length];
+		long slotTickCount = 1;
+		for (int i = 0; i < slotCounts.length; i++) {
+			TimeWheelModel timeWheelModel = new TimeWheelModel();
+			timeWheelModel.setUnit(units[i].getCode());
+			timeWheelModel.setSlotTickCount(slotTickCount);
+			timeWheelModel.setSlotEntryHeads(buildSlotEntryHeads(slotCounts[i]));
+			timeWheelModels[i] = timeWheelModel;
+			slotTickCount = slotTickCount * slotCounts[i];
+		}
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMills);
+		this.startNanos = System.nanoTime();
 
 		// 设置并初始化事件总线
 		this.eventBus = eventBus;
@@ -75,77 +97,52 @@ public class TimeWheelModelManager {
 
 	/**
 	 * 添加延迟消息到时间轮
-	 * 根据延迟时间长短决定放入秒级还是分钟级时间轮
+	 * 设置了下一次执行时间时按照它计算剩余的毫秒数，否则按照延迟秒数计算，任务编码进任务池之后不再引用delayMessageDTO
 	 *
-	 * @param delayMessageDTO 延迟消息数据传输对象
+	 * @param delayMessageDTO 延迟消息数据传输对象，延迟消息需要先写入DelayMessageStore
 	 */
 	public void add(DelayMessageDTO delayMessageDTO) {
-		int delay = delayMessageDTO.getDelay();
-		// 计算延迟的分钟数
-		int min = delay / 60;
-
-		if (min == 0) {
-			// 延迟小于1分钟，放入秒级时间轮
-			synchronized (secondsLock) {
-				// 计算应放入的槽位
-				int nextSlot = secondsTimeWheelModel.countNextSlot(delay);
-				log.info("current second slot:{},next slot:{}", secondsTimeWheelModel.getCurrent(), nextSlot);
-
-				// 获取对应槽位并创建时间轮槽位模型
-				TimeWheelSlotListModel timeWheelSlotListModel = secondsTimeWheelModel.getTimeWheelSlotListModel()[nextSlot];
-				TimeWheelSlotModel timeWheelSlotModel = new TimeWheelSlotModel();
-				timeWheelSlotModel.setData(delayMessageDTO.getData());
-				timeWheelSlotModel.setDelaySeconds(delayMessageDTO.getDelay());
-				timeWheelSlotModel.setNextExecuteTime(delayMessageDTO.getNextExecuteTime());
-				timeWheelSlotModel.setStoreType(delayMessageDTO.getSlotStoreType().getClazz());
-
-				// 将任务添加到对应槽位
-				timeWheelSlotListModel.getTimeWheelSlotModels().add(timeWheelSlotModel);
-			}
-		} else if (min > 0) {
-			// 延迟大于等于1分钟，放入分钟级时间轮
-			synchronized (minutesLock) {
-				// 计算应放入的槽位
-				int nextSlot = minutesTimeWheelModel.countNextSlot(min);
-				log.info("current minutes slot:{},next slot:{}", minutesTimeWheelModel.getCurrent(), nextSlot);
-
-				// 获取对应槽位并创建时间轮槽位模型
-				TimeWheelSlotListModel timeWheelSlotListModel = minutesTimeWheelModel.getTimeWheelSlotListModel()[nextSlot];
-				TimeWheelSlotModel timeWheelSlotModel = new TimeWheelSlotModel();
-				timeWheelSlotModel.setData(delayMessageDTO.getData());
-				timeWheelSlotModel.setDelaySeconds(delayMessageDTO.getDelay());
-				timeWheelSlotModel.setNextExecuteTime(delayMessageDTO.getNextExecuteTime());
-				timeWheelSlotModel.setStoreType(delayMessageDTO.getSlotStoreType().getClazz());
+		long delayMills = delayMessageDTO.getNextExecuteTime() > 0
+			? delayMessageDTO.getNextExecuteTime() - System.currentTimeMillis()
+			: TimeUnit.SECONDS.toMillis(delayMessageDTO.getDelay());
+		// 向上取整到tick，保证不会提前执行
+		long deadlineNanos = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(delayMills, 0));
+		this.add(delayMessageDTO, (deadlineNanos + tickNanos - 1) / tickNanos);
+	}
 
-				// 将任务添加到对应槽位
-				timeWheelSlotListModel.getTimeWheelSlotModels().add(timeWheelSlotModel);
-			}
+	/**
+	 * 按照到期tick添加任务
+	 *
+	 * @param delayMessageDTO 延迟消息数据传输对象
+	 * @param deadlineTick    到期tick，不大于当前tick时直接执行
+	 */
+	void add(DelayMessageDTO delayMessageDTO, long deadlineTick) {
+		List<TimeWheelSlotModel> expiredSlotModels = new ArrayList<>(1);
+		synchronized (lock) {
+			this.addToWheel(entryPool.allocate(delayMessageDTO, deadlineTick), expiredSlotModels);
 		}
+		// 已经到期的任务直接执行
+		this.publish(expiredSlotModels);
 	}
 
 	/**
 	 * 开启扫描slot数组任务
-	 * 启动一个单独线程，按秒为单位扫描时间轮
-	 * 触发到期任务的执行
+	 * 启动一个单独线程，按照每个tick的截止时间推进时间轮，触发到期任务的执行
 	 */
 	public void doScanTask() {
 		Thread scanThread = new Thread(() -> {
 			log.info("start scan slot task");
 			while (true) {
 				try {
-					// 执行秒级时间轮的扫描
-					doSecondsTimeWheelExecute();
-
-					// 每60秒执行一次分钟级时间轮的扫描
-					if (executeSeconds % 60 == 0) {
-						doMinutesTimeWheelExecute();
+					long nextTickNanos = startNanos + (currentTick + 1) * tickNanos;
+					long waitNanos = nextTickNanos - System.nanoTime();
+					if (waitNanos > 0) {
+						LockSupport.parkNanos(waitNanos);
+						continue;
 					}
-
-					// 休眠1秒
-					TimeUnit.SECONDS.sleep(1);
-					executeSeconds++;
-				} catch (InterruptedException e) {
-					throw new RuntimeException(e);
+					this.advanceClock(System.nanoTime());
+				} catch (Exception e) {
+					log.error("scan slot task error:", e);
 				}
 			}
 		});
@@ -154,103 +151,116 @@ public class TimeWheelModelManager {
 	}
 
 	/**
-	 * 执行秒级时间轮的检查和任务触发
-	 * 发布当前时间��中的所有任务事件
+	 * 把当前时间换算成tick之后推进时间轮
+	 *
+	 * @param nowNanos 当前的System.nanoTime
 	 */
-	private void doSecondsTimeWheelExecute() {
-		synchronized (secondsLock) {
-			// 获取当前槽位和其中的任务列表
-			int current = secondsTimeWheelModel.getCurrent();
-			TimeWheelSlotListModel timeWheelSlotListModel = secondsTimeWheelModel.getTimeWheelSlotListModel()[current];
-			List<TimeWheelSlotModel> timeWheelSlotModelList = timeWheelSlotListModel.getTimeWheelSlotModels();
-
-			// 如果当前槽位有任务，则发布事件触发执行
-			if (CollectionUtils.isNotEmpty(timeWheelSlotModelList)) {
-				TimeWheelEvent timeWheelEvent = new TimeWheelEvent();
-				List<TimeWheelSlotModel> copySlotModel = timeWheelSlotModelList;
-				timeWheelEvent.setTimeWheelSlotModelList(copySlotModel);
-				eventBus.publish(timeWheelEvent);
-			}
-
-			// 执行完成后清空当前槽位
-			timeWheelSlotListModel.setTimeWheelSlotModels(new ArrayList<>());
+	private void advanceClock(long nowNanos) {
+		this.advanceTo((nowNanos - startNanos) / tickNanos);
+	}
 
-			// 更新当前槽位指针，循环使用时间轮
-			if (current == secondsTimeWheelModel.getTimeWheelSlotListModel().length - 1) {
-				current = 0;
-			} else {
-				current = current + 1;
+	/**
+	 * 推进时间轮直到指定tick，依次处理每个错过的tick
+	 *
+	 * @param targetTick 目标tick
+	 */
+	void advanceTo(long targetTick) {
+		List<TimeWheelSlotModel> expiredSlotModels = new ArrayList<>();
+		synchronized (lock) {
+			while (currentTick < targetTick) {
+				currentTick++;
+				// 从高到低降级到达的上层槽，重新插入的任务可能落到本次要处理的最底层槽
+				for (int level = timeWheelModels.length - 1; level > 0; level--) {
+					TimeWheelModel timeWheelModel = timeWheelModels[level];
+					if (currentTick % timeWheelModel.getSlotTickCount() == 0) {
+						int entry = this.takeSlot(timeWheelModel, currentTick);
+						while (entry != TimeWheelEntryPool.NIL) {
+							int next = entryPool.next(entry);
+							this.addToWheel(entry, expiredSlotModels);
+							entry = next;
+						}
+					}
+				}
+				int entry = this.takeSlot(timeWheelModels[0], currentTick);
+				while (entry != TimeWheelEntryPool.NIL) {
+					int next = entryPool.next(entry);
+					expiredSlotModels.add(entryPool.release(entry));
+					entry = next;
+				}
 			}
-			secondsTimeWheelModel.setCurrent(current);
 		}
+		this.publish(expiredSlotModels);
 	}
 
 	/**
-	 * 执行分钟级时间轮的检查和任务触发
-	 * 将分钟级任务转换为秒级任务，或直接触发执行
+	 * 按照到期tick放入能容纳它的最低一层，需要持有锁
+	 *
+	 * @param entry             任务id
+	 * @param expiredSlotModels 已经到期的任务
 	 */
-	private void doMinutesTimeWheelExecute() {
-		synchronized (minutesLock) {
-			log.info("doScan minutes slot:{}", minutesTimeWheelModel.getCurrent());
-
-			// 获取当前槽位和其中的任务列表
-			int current = minutesTimeWheelModel.getCurrent();
-			TimeWheelSlotListModel timeWheelSlotListModel = minutesTimeWheelModel.getTimeWheelSlotListModel()[current];
-			List<TimeWheelSlotModel> timeWheelSlotModelList = timeWheelSlotListModel.getTimeWheelSlotModels();
-			List<TimeWheelSlotModel> minutesTimeWheelModelList = new ArrayList<>();
-
-			// 处理每个任务
-			for (TimeWheelSlotModel timeWheelSlotModel : timeWheelSlotModelList) {
-				// 计算剩余秒数
-				int remainSecond = timeWheelSlotModel.getDelaySeconds() % 60;
-
-				// 如果延迟的时间不是分钟的整数（如2min30s）
-				if (remainSecond > 0) {
-					// 需要被转移到秒级别的时间轮继续等待
-					DelayMessageDTO delayMessageDTO = new DelayMessageDTO();
-					delayMessageDTO.setDelay(remainSecond);
-					delayMessageDTO.setSlotStoreType(SlotStoreTypeEnum.MESSAGE_RETRY_DTO);
-					delayMessageDTO.setData(timeWheelSlotModel.getData());
-					delayMessageDTO.setNextExecuteTime(timeWheelSlotModel.getNextExecuteTime());
-					add(delayMessageDTO);
-					log.info("added message to second timeWheel");
-				} else {
-					// 整分钟任务直接加入执行列表
-					minutesTimeWheelModelList.add(timeWheelSlotModel);
-				}
+	private void addToWheel(int entry, List<TimeWheelSlotModel> expiredSlotModels) {
+		long deadlineTick = entryPool.deadlineTick(entry);
+		if (deadlineTick <= currentTick) {
+			expiredSlotModels.add(entryPool.release(entry));
+			return;
+		}
+		int topLevel = timeWheelModels.length - 1;
+		for (int level = 0; level <= topLevel; level++) {
+			TimeWheelModel timeWheelModel = timeWheelModels[level];
+			if (level == topLevel
+				|| timeWheelModel.slotDistance(deadlineTick, currentTick) < timeWheelModel.getSlotEntryHeads().length) {
+				int[] slotEntryHeads = timeWheelModel.getSlotEntryHeads();
+				int slotIndex = timeWheelModel.slotIndex(deadlineTick);
+				entryPool.setNext(entry, slotEntryHeads[slotIndex]);
+				slotEntryHeads[slotIndex] = entry;
+				return;
 			}
+		}
+	}
 
-			// 如果有整分钟任务，直接发布事件触发执行
-			if (CollectionUtils.isNotEmpty(minutesTimeWheelModelList)) {
-				TimeWheelEvent timeWheelEvent = new TimeWheelEvent();
-				timeWheelEvent.setTimeWheelSlotModelList(timeWheelSlotModelList);
-				eventBus.publish(timeWheelEvent);
-			}
+	/**
+	 * 取出并清空tick所在的槽，需要持有锁
+	 *
+	 * @return 槽中第一个任务的id，通过entryPool.next遍历
+	 */
+	private int takeSlot(TimeWheelModel timeWheelModel, long tick) {
+		int[] slotEntryHeads = timeWheelModel.getSlotEntryHeads();
+		int slotIndex = timeWheelModel.slotIndex(tick);
+		int entry = slotEntryHeads[slotIndex];
+		slotEntryHeads[slotIndex] = TimeWheelEntryPool.NIL;
+		return entry;
+	}
 
-			// 执行完成后清空当前槽位
-			timeWheelSlotListModel.setTimeWheelSlotModels(new ArrayList<>());
+	/**
+	 * 时间轮中等待的任务数量
+	 */
+	public int getPendingCount() {
+		synchronized (lock) {
+			return entryPool.getLiveCount();
+		}
+	}
 
-			// 更新当前槽位指针，循环使用时间轮
-			if (current == minutesTimeWheelModel.getTimeWheelSlotListModel().length - 1) {
-				current = 0;
-			} else {
-				current = current + 1;
-			}
-			minutesTimeWheelModel.setCurrent(current);
+	/**
+	 * 发布到期任务
+	 */
+	private void publish(List<TimeWheelSlotModel> expiredSlotModels) {
+		if (expiredSlotModels.isEmpty()) {
+			return;
 		}
+		TimeWheelEvent timeWheelEvent = new TimeWheelEvent();
+		timeWheelEvent.setTimeWheelSlotModelList(expiredSlotModels);
+		eventBus.publish(timeWheelEvent);
 	}
 
 	/**
-	 * 构建指定数量的时间轮槽位列表模型
+	 * 构建指定数量的空槽
 	 *
 	 * @param count 槽位数量
-	 * @return 初始化的时间轮槽位列表数组
+	 * @return 每个槽的链表头，全部为空
 	 */
-	private TimeWheelSlotListModel[] buildTimeWheelSlotListModel(int count) {
-		TimeWheelSlotListModel[] timeWheelSlotListModels = new TimeWheelSlotListModel[count];
-		for (int i = 0; i < count; i++) {
-			timeWheelSlotListModels[i] = new TimeWheelSlotListModel();
-		}
-		return timeWheelSlotListModels;
+	private int[] buildSlotEntryHeads(int count) {
+		int[] slotEntryHeads = new int[count];
+		Arrays.fill(slotEntryHeads, TimeWheelEntryPool.NIL);
+		return slotEntryHeads;
 	}
 }
@@ -4,17 +4,15 @@ package com.zhb.broker.timewheel;
 import lombok.Getter;
 import lombok.Setter;
 
+/**
+ * 时间轮到期的任务，只在到期时由TimeWheelEntryPool解码生成
+ */
 @Setter
 @Getter
 public class TimeWheelSlotModel {
 
 	/**
-	 * 需要延迟的秒数
-	 */
-	private int delaySeconds;
-
-	/**
-	 * 元数据
+	 * 元数据，重试任务为MessageRetryDTO，事务回查为TxMessageDTO，延迟消息为null，需要按照存储位置读取
 	 */
 	private Object data;
 
@@ -26,8 +24,14 @@ public class TimeWheelSlotModel {
 	private Class storeType;
 
 	/**
-	 * 下一次执行时间
+	 * 到期时间，时间轮启动之后经过的tick数量
+	 */
+	private long deadlineTick;
+
+	/**
+	 * 延迟消息在DelayMessageStore中所在的桶和位置，其他类型的任务为-1
 	 */
-	private long nextExecuteTime;
+	private long storeBucket = -1;
+	private long storeOffset = -1;
 
 }
@@ -8,9 +8,11 @@ import lombok.Getter;
 @Getter
 public enum TimeWheelSlotStepUnitEnum {
 
+	MILLISECOND("millisecond"),
 	SECOND("second"),
 	MINUTE("minute"),
 	HOUR("hour"),
+	DAY("day"),
 	;
 
 	TimeWheelSlotStepUnitEnum(String code) {
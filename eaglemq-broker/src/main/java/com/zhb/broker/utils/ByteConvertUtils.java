@@ -59,6 +59,34 @@ public class ByteConvertUtils {
 		return value;
 	}
 
+	/**
+	 * 将长整数转换为字节数组（小端序）
+	 *
+	 * @param value 需要转换的长整数值
+	 * @return 转换后的8字节数组
+	 */
+	public static byte[] longToBytes(long value) {
+		byte[] src = new byte[8];
+		for (int i = 0; i < 8; i++) {
+			src[i] = (byte) ((value >> (8 * i)) & 0xFF);
+		}
+		return src;
+	}
+
+	/**
+	 * 将字节数组转换为长整数（小端序）
+	 *
+	 * @param ary 源字节数组，长度应为8
+	 * @return 转换后的长整数值
+	 */
+	public static long bytesToLong(byte[] ary) {
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value |= (ary[i] & 0xFFL) << (8 * i);
+		}
+		return value;
+	}
+
 	/**
 	 * 测试方法
 	 * 演示整数与字节数组之间的互相转换
@@ -0,0 +1,45 @@
+package com.zhb.broker.utils;
+
+import com.zhb.broker.model.CommitLogBodySliceModel;
+import com.zhb.common.coder.ConsumeMsgRespCodec;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 消费消息响应体的组装工具，拉取响应和推送消息共用
+ */
+public class ConsumeMsgRespUtil {
+
+	/**
+	 * 组装消费消息的响应体
+	 * 消息头写入一块小的缓冲区，消息体直接包装commitLog的映射内存，组合之后一次性写出，消息体不会拷贝到堆内存中
+	 *
+	 * @param alloc       缓冲区分配器
+	 * @param msgId       拉取请求的msgId，推送时为订阅id
+	 * @param queueMsgMap 每个队列的消息
+	 * @return 响应体
+	 */
+	public static CompositeByteBuf buildRespBody(ByteBufAllocator alloc, String msgId, Map<Integer, List<CommitLogBodySliceModel>> queueMsgMap) {
+		CompositeByteBuf body = alloc.compositeBuffer(Integer.MAX_VALUE);
+		ByteBuf headerBuf = alloc.buffer();
+		ConsumeMsgRespCodec.writeRespHeader(headerBuf, msgId, queueMsgMap.size());
+		for (Map.Entry<Integer, List<CommitLogBodySliceModel>> queueMsgEntry : queueMsgMap.entrySet()) {
+			ConsumeMsgRespCodec.writeQueueHeader(headerBuf, queueMsgEntry.getKey(), queueMsgEntry.getValue().size());
+			for (CommitLogBodySliceModel commitLogBodySliceModel : queueMsgEntry.getValue()) {
+				ByteBuf bodyBuf = Unpooled.wrappedBuffer(commitLogBodySliceModel.getBody());
+				ConsumeMsgRespCodec.writeMsgHeader(headerBuf, commitLogBodySliceModel.getCommitLogOffset(), commitLogBodySliceModel.getCommitLogSize(),
+					commitLogBodySliceModel.getRetryTimes(), commitLogBodySliceModel.getConsumeQueueOffset(), bodyBuf.readableBytes());
+				body.addComponent(true, headerBuf);
+				body.addComponent(true, bodyBuf);
+				headerBuf = alloc.buffer(ConsumeMsgRespCodec.MSG_HEADER_SIZE);
+			}
+		}
+		body.addComponent(true, headerBuf);
+		return body;
+	}
+}
@@ -12,12 +12,23 @@ public class LogFileNameUtil {
 
 	/**
 	 * 构建第一份commitLog文件名称
-	 * 使用固定格式"00000000"作为初始文件名
+	 * 第一个文件的起始物理偏移量为0
 	 *
 	 * @return 初始commitLog文件名
 	 */
 	public static String buildFirstCommitLogName() {
-		return "00000000";
+		return buildCommitLogFileName(0L);
+	}
+
+	/**
+	 * 根据文件的起始全局物理偏移量构建commitLog文件名称
+	 * 文件名固定20位，不足补0，例如"00000000001073741824"
+	 *
+	 * @param startOffset 文件的起始全局物理偏移量
+	 * @return commitLog文件名
+	 */
+	public static String buildCommitLogFileName(long startOffset) {
+		return String.format("%020d", startOffset);
 	}
 
 	/**
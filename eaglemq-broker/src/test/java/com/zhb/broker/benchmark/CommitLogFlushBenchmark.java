@@ -0,0 +1,88 @@
+package com.zhb.broker.benchmark;
+
+import com.zhb.broker.core.CommitLogMMapFileModel;
+import com.zhb.broker.core.StoreTestSupport;
+import com.zhb.common.dto.MessageDTO;
+import com.zhb.common.enums.FlushDiskTypeEnum;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * commitLog写入吞吐量，对比同步组提交刷盘和异步刷盘，每次写入都按照配置的刷盘策略处理
+ * <p>
+ * 运行方式：mvn -pl eaglemq-broker -am test-compile 之后执行main方法，
+ * 或者 java -cp eaglemq-broker/target/test-classes:{测试classpath} org.openjdk.jmh.Main CommitLogFlushBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class CommitLogFlushBenchmark {
+
+	private static final int COMMIT_LOG_FILE_SIZE = 64 * 1024 * 1024;
+
+	@Param({"SYNC_FLUSH", "ASYNC_FLUSH"})
+	public String flushDiskType;
+
+	@Param({"128", "1024"})
+	public int bodySize;
+
+	private File eagleMqHome;
+	private CommitLogMMapFileModel commitLog;
+	private MessageDTO messageDTO;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		eagleMqHome = Files.createTempDirectory("commitlog-flush-benchmark").toFile();
+		StoreTestSupport.initGlobalProperties(eagleMqHome, COMMIT_LOG_FILE_SIZE, FlushDiskTypeEnum.of(flushDiskType));
+		String topic = "benchmark_" + flushDiskType.toLowerCase() + "_" + bodySize;
+		StoreTestSupport.registerTopic(topic, 4);
+		commitLog = StoreTestSupport.loadCommitLog(topic);
+		messageDTO = StoreTestSupport.newMessage(topic, -1, new byte[bodySize]);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		try (Stream<Path> pathStream = Files.walk(eagleMqHome.toPath())) {
+			pathStream.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+	/**
+	 * 单条写入并等待刷盘策略完成，同步刷盘时并发的写入线程会被合并成一次force
+	 */
+	@Benchmark
+	public void appendAndFlush() throws IOException {
+		commitLog.writeContent(messageDTO, true);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(CommitLogFlushBenchmark.class.getSimpleName()).build()).run();
+	}
+}
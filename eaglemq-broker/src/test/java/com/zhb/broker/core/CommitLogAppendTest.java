@@ -0,0 +1,110 @@
+package com.zhb.broker.core;
+
+import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.model.CommitLogMessageModel;
+import com.zhb.common.dto.MessageDTO;
+import com.zhb.common.enums.FlushDiskTypeEnum;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 多线程通过CAS预留写入区间时，commitLog中的消息必须完整、首尾相接，并且队列位点按照提交顺序连续分配
+ */
+public class CommitLogAppendTest {
+
+	private static final int FILE_SIZE = 64 * 1024;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws Exception {
+		StoreTestSupport.initGlobalProperties(temporaryFolder.newFolder(), FILE_SIZE, FlushDiskTypeEnum.ASYNC_FLUSH);
+	}
+
+	@Test
+	public void concurrentAppendsAreContiguousAndQueueOffsetsFollowCommitOrder() throws Exception {
+		String topic = "append_concurrent";
+		int queueCount = 4;
+		StoreTestSupport.registerTopic(topic, queueCount);
+		CommitLogMMapFileModel commitLog = StoreTestSupport.loadCommitLog(topic);
+		int writerCount = 8;
+		int msgCountPerWriter = 500;
+		ExecutorService executorService = Executors.newFixedThreadPool(writerCount);
+		CountDownLatch startLatch = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int writer = 0; writer < writerCount; writer++) {
+			int writerId = writer;
+			futures.add(executorService.submit(() -> {
+				startLatch.await();
+				for (int i = 0; i < msgCountPerWriter; i++) {
+					byte[] body = ("writer-" + writerId + "-msg-" + i).getBytes(StandardCharsets.UTF_8);
+					commitLog.writeContent(StoreTestSupport.newMessage(topic, i % queueCount, body));
+				}
+				return null;
+			}));
+		}
+		startLatch.countDown();
+		for (Future<?> future : futures) {
+			future.get(30, TimeUnit.SECONDS);
+		}
+		executorService.shutdown();
+
+		long writeOffset = CommonCache.getEagleMqTopicModelMap().get(topic).getCommitLogModel().getOffset().get();
+		List<StoreTestSupport.StoredMessage> storedMessages = StoreTestSupport.readAll(commitLog, writeOffset);
+		assertEquals(writerCount * msgCountPerWriter, storedMessages.size());
+		assertTrue("messages should roll over several files", commitLog.getMappedFileQueue().getMappedFiles().size() > 1);
+		long[] expectedQueueOffsets = new long[queueCount];
+		int[] lastMsgIndexOfWriter = new int[writerCount];
+		java.util.Arrays.fill(lastMsgIndexOfWriter, -1);
+		for (StoreTestSupport.StoredMessage storedMessage : storedMessages) {
+			CommitLogMessageModel commitLogMessageModel = storedMessage.commitLogMessageModel;
+			assertTrue(commitLogMessageModel.checkCrc());
+			int queueId = commitLogMessageModel.getQueueId();
+			assertEquals(expectedQueueOffsets[queueId]++, commitLogMessageModel.getQueueOffset());
+			//同一个线程的消息保持写入顺序
+			String[] parts = new String(commitLogMessageModel.getContent(), StandardCharsets.UTF_8).split("-");
+			int writerId = Integer.parseInt(parts[1]);
+			int msgIndex = Integer.parseInt(parts[3]);
+			assertEquals(lastMsgIndexOfWriter[writerId] + 1, msgIndex);
+			lastMsgIndexOfWriter[writerId] = msgIndex;
+		}
+	}
+
+	@Test
+	public void batchAppendKeepsOrderAcrossFileRoll() throws Exception {
+		String topic = "append_batch";
+		StoreTestSupport.registerTopic(topic, 1);
+		CommitLogMMapFileModel commitLog = StoreTestSupport.loadCommitLog(topic);
+		List<MessageDTO> batch = new ArrayList<>();
+		byte[] body = new byte[1000];
+		for (int i = 0; i < 200; i++) {
+			body[0] = (byte) i;
+			batch.add(StoreTestSupport.newMessage(topic, 0, body.clone()));
+		}
+		commitLog.writeBatchContent(batch, false);
+
+		long writeOffset = CommonCache.getEagleMqTopicModelMap().get(topic).getCommitLogModel().getOffset().get();
+		List<StoreTestSupport.StoredMessage> storedMessages = StoreTestSupport.readAll(commitLog, writeOffset);
+		assertEquals(batch.size(), storedMessages.size());
+		for (int i = 0; i < batch.size(); i++) {
+			assertArrayEquals(batch.get(i).getBody(), storedMessages.get(i).commitLogMessageModel.getContent());
+			assertEquals(i, storedMessages.get(i).commitLogMessageModel.getQueueOffset());
+		}
+	}
+}
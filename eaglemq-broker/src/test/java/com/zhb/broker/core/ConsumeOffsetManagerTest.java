@@ -0,0 +1,126 @@
+package com.zhb.broker.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 消费位点的更新规则和二进制快照的保存、加载、校验
+ */
+public class ConsumeOffsetManagerTest {
+
+	@Test
+	public void snapshotRoundTrip() {
+		ConsumeOffsetManager consumeOffsetManager = new ConsumeOffsetManager();
+		consumeOffsetManager.commitOffset("order_topic", "group_a", 0, 160);
+		consumeOffsetManager.commitOffset("order_topic", "group_a", 3, 320);
+		consumeOffsetManager.commitOffset("order_topic", "消费组_b", 1, 16);
+		consumeOffsetManager.commitOffset("pay_topic", "group_a", 0, 48);
+
+		ConsumeOffsetManager loaded = new ConsumeOffsetManager();
+		loaded.load(consumeOffsetManager.snapshotIfChanged().getContent());
+
+		assertEquals(160, loaded.getOffset("order_topic", "group_a", 0));
+		assertEquals(0, loaded.getOffset("order_topic", "group_a", 1));
+		assertEquals(320, loaded.getOffset("order_topic", "group_a", 3));
+		assertEquals(16, loaded.getOffset("order_topic", "消费组_b", 1));
+		assertEquals(48, loaded.getOffset("pay_topic", "group_a", 0));
+		assertEquals(0, loaded.getOffset("pay_topic", "group_c", 0));
+		//刚加载的位点和磁盘一致，不需要重新持久化
+		assertNull(loaded.snapshotIfChanged());
+	}
+
+	@Test
+	public void snapshotOnlyWhenChanged() {
+		ConsumeOffsetManager consumeOffsetManager = new ConsumeOffsetManager();
+		assertNull(consumeOffsetManager.snapshotIfChanged());
+
+		consumeOffsetManager.commitOffset("order_topic", "group_a", 0, 16);
+		ConsumeOffsetManager.Snapshot snapshot = consumeOffsetManager.snapshotIfChanged();
+		assertNotNull(snapshot);
+		//没有确认写入之前每次都会重新生成
+		assertNotNull(consumeOffsetManager.snapshotIfChanged());
+		consumeOffsetManager.markPersisted(snapshot);
+		assertNull(consumeOffsetManager.snapshotIfChanged());
+
+		//旧的位点不会产生变化
+		assertFalse(consumeOffsetManager.commitOffset("order_topic", "group_a", 0, 16));
+		assertNull(consumeOffsetManager.snapshotIfChanged());
+		assertTrue(consumeOffsetManager.commitOffset("order_topic", "group_a", 0, 32));
+		assertNotNull(consumeOffsetManager.snapshotIfChanged());
+	}
+
+	@Test
+	public void addOffsetIsCappedAndMonotonic() {
+		ConsumeOffsetManager consumeOffsetManager = new ConsumeOffsetManager();
+		assertEquals(32, consumeOffsetManager.addOffset("order_topic", "group_a", 0, 32, 64));
+		assertEquals(64, consumeOffsetManager.addOffset("order_topic", "group_a", 0, 160, 64));
+		//上限变小时位点不会回退
+		assertEquals(64, consumeOffsetManager.addOffset("order_topic", "group_a", 0, 16, 48));
+		assertEquals(64, consumeOffsetManager.getOffset("order_topic", "group_a", 0));
+	}
+
+	@Test
+	public void loadRejectsChecksumMismatch() {
+		byte[] content = this.sampleSnapshot();
+		//修改位点的最后一个字节
+		content[content.length - 9] ^= 0x01;
+		this.assertLoadFails(content, "checksum mismatch");
+	}
+
+	@Test
+	public void loadRejectsUnsupportedVersion() {
+		byte[] content = this.sampleSnapshot();
+		ByteBuffer.wrap(content).putInt(4, 2);
+		this.resignChecksum(content);
+		this.assertLoadFails(content, "not supported");
+	}
+
+	@Test
+	public void loadRejectsWrongMagic() {
+		byte[] content = this.sampleSnapshot();
+		ByteBuffer.wrap(content).putInt(0, 0x12345678);
+		this.resignChecksum(content);
+		this.assertLoadFails(content, "not supported");
+	}
+
+	@Test
+	public void loadRejectsTruncatedSnapshot() {
+		byte[] content = this.sampleSnapshot();
+		this.assertLoadFails(Arrays.copyOf(content, 10), "truncated");
+		//截断之后的crc也对不上
+		this.assertLoadFails(Arrays.copyOf(content, content.length - 4), "checksum mismatch");
+	}
+
+	private byte[] sampleSnapshot() {
+		ConsumeOffsetManager consumeOffsetManager = new ConsumeOffsetManager();
+		consumeOffsetManager.commitOffset("order_topic", "group_a", 0, 160);
+		return consumeOffsetManager.snapshotIfChanged().getContent();
+	}
+
+	private void resignChecksum(byte[] content) {
+		CRC32 crc32 = new CRC32();
+		crc32.update(content, 0, content.length - 8);
+		ByteBuffer.wrap(content).putLong(content.length - 8, crc32.getValue());
+	}
+
+	private void assertLoadFails(byte[] content, String message) {
+		ConsumeOffsetManager consumeOffsetManager = new ConsumeOffsetManager();
+		try {
+			consumeOffsetManager.load(content);
+			fail("load should fail");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(message));
+		}
+		assertEquals(0, consumeOffsetManager.getOffset("order_topic", "group_a", 0));
+	}
+}
@@ -0,0 +1,221 @@
+package com.zhb.broker.core;
+
+import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.model.CommitLogBodySliceModel;
+import com.zhb.broker.rebalance.ConsumerInstance;
+import com.zhb.common.coder.ConsumeMsgRespCodec;
+import com.zhb.common.coder.TcpMsg;
+import com.zhb.common.constants.BrokerConstants;
+import com.zhb.common.dto.ConsumeCreditReqDTO;
+import com.zhb.common.dto.ConsumeMsgBaseRespDTO;
+import com.zhb.common.dto.ConsumeMsgCommitLogDTO;
+import com.zhb.common.dto.ConsumeMsgRespDTO;
+import com.zhb.common.dto.ConsumeSubscribeReqDTO;
+import com.zhb.common.enums.BrokerResponseCode;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 推送消费的额度：每次推送扣减条数和字节额度，额度用完之后暂停，确认归还额度之后继续；
+ * 只推送和提交分配给消费者的队列
+ */
+public class ConsumePushServiceTest {
+
+	private static final int ENTRY_SIZE = BrokerConstants.CONSUME_QUEUE_EACH_MSG_SIZE;
+	private static final String TOPIC = "push_topic";
+	private static final String CONSUME_GROUP = "push_group";
+	private static final String CONSUMER_REQ_ID = "consumer-1";
+	private static final int BODY_SIZE = 10;
+
+	private final InMemoryConsumeHandler consumeHandler = new InMemoryConsumeHandler();
+	/**
+	 * 推送到连接上的消息，队列id和consumeQueue位置
+	 */
+	private final List<int[]> pushedMsgList = new CopyOnWriteArrayList<>();
+	private ConsumeQueueConsumeHandler originConsumeHandler;
+	private Map<String, Map<String, List<ConsumerInstance>>> originConsumeHoldMap;
+
+	@Before
+	public void setUp() {
+		originConsumeHandler = CommonCache.getConsumeQueueConsumeHandler();
+		originConsumeHoldMap = CommonCache.getConsumeHoldMap();
+		CommonCache.setConsumeQueueConsumeHandler(consumeHandler);
+		//两个队列都有消息，只有队列0分配给了这个消费者
+		ConsumerInstance consumerInstance = new ConsumerInstance();
+		consumerInstance.setConsumerReqId(CONSUMER_REQ_ID);
+		consumerInstance.getQueueIdSet().add(0);
+		Map<String, List<ConsumerInstance>> consumeGroupMap = new ConcurrentHashMap<>();
+		consumeGroupMap.put(CONSUME_GROUP, Collections.singletonList(consumerInstance));
+		Map<String, Map<String, List<ConsumerInstance>>> consumeHoldMap = new ConcurrentHashMap<>();
+		consumeHoldMap.put(TOPIC, consumeGroupMap);
+		CommonCache.setConsumeHoldMap(consumeHoldMap);
+		consumeHandler.queueMsgCountMap.put(0, 20);
+		consumeHandler.queueMsgCountMap.put(1, 20);
+	}
+
+	@After
+	public void tearDown() {
+		CommonCache.setConsumeQueueConsumeHandler(originConsumeHandler);
+		CommonCache.setConsumeHoldMap(originConsumeHoldMap);
+	}
+
+	@Test
+	public void pushStopsWhenMsgCreditRunsOutAndResumesAfterAck() throws Exception {
+		ConsumePushService consumePushService = new ConsumePushService();
+		consumePushService.start();
+		EmbeddedChannel channel = this.newChannel();
+		consumePushService.subscribe(channel, this.subscribeReq(3, 1024), CONSUMER_REQ_ID);
+
+		this.awaitPushedCount(3);
+		assertEquals(0, pushedMsgList.get(0)[1]);
+		assertEquals(2 * ENTRY_SIZE, pushedMsgList.get(2)[1]);
+
+		//确认前两条，队列1不属于这个消费者，它的确认被丢弃
+		Map<Integer, Integer> queueCommitOffsetMap = new HashMap<>();
+		queueCommitOffsetMap.put(0, 2 * ENTRY_SIZE);
+		queueCommitOffsetMap.put(1, 5 * ENTRY_SIZE);
+		consumePushService.ackAndGrantCredit(channel, this.creditReq(queueCommitOffsetMap, 4, null));
+		this.awaitPushedCount(7);
+		//已经推送还没有确认的第三条消息不会重复推送
+		assertEquals(3 * ENTRY_SIZE, pushedMsgList.get(3)[1]);
+		assertEquals(6 * ENTRY_SIZE, pushedMsgList.get(6)[1]);
+		assertEquals(1, consumeHandler.commitList.size());
+		assertEquals(0, consumeHandler.commitList.get(0)[0]);
+		assertEquals(2 * ENTRY_SIZE, consumeHandler.commitList.get(0)[1]);
+		for (int[] pushedMsg : pushedMsgList) {
+			assertEquals(0, pushedMsg[0]);
+		}
+	}
+
+	@Test
+	public void byteCreditLimitsPushButAlwaysAllowsOneMsg() throws Exception {
+		ConsumePushService consumePushService = new ConsumePushService();
+		consumePushService.start();
+		EmbeddedChannel channel = this.newChannel();
+		//字节额度可以容纳两条半消息，第三条超过剩余额度时依然推送，额度变为负数
+		consumePushService.subscribe(channel, this.subscribeReq(100, BODY_SIZE * 2 + BODY_SIZE / 2), CONSUMER_REQ_ID);
+		this.awaitPushedCount(3);
+
+		//归还的字节额度先抵扣欠下的部分
+		consumePushService.ackAndGrantCredit(channel, this.creditReq(null, null, BODY_SIZE));
+		this.awaitPushedCount(4);
+		consumePushService.ackAndGrantCredit(channel, this.creditReq(null, null, BODY_SIZE * 2));
+		this.awaitPushedCount(6);
+	}
+
+	/**
+	 * 等待推送的消息达到指定数量，并且之后不再继续推送
+	 */
+	private void awaitPushedCount(int expectedCount) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (pushedMsgList.size() < expectedCount && System.currentTimeMillis() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(10);
+		}
+		TimeUnit.MILLISECONDS.sleep(200);
+		assertEquals(expectedCount, pushedMsgList.size());
+	}
+
+	private EmbeddedChannel newChannel() {
+		return new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+			@Override
+			public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+				TcpMsg tcpMsg = (TcpMsg) msg;
+				assertEquals(BrokerResponseCode.PUSH_CONSUME_MSG.getCode(), tcpMsg.getCode());
+				try {
+					ConsumeMsgBaseRespDTO consumeMsgBaseRespDTO = ConsumeMsgRespCodec.decode(tcpMsg.getBodyBuf());
+					assertEquals("subscription-1", consumeMsgBaseRespDTO.getMsgId());
+					for (ConsumeMsgRespDTO consumeMsgRespDTO : consumeMsgBaseRespDTO.getConsumeMsgRespDTOList()) {
+						for (ConsumeMsgCommitLogDTO consumeMsgCommitLogDTO : consumeMsgRespDTO.getCommitLogContentList()) {
+							pushedMsgList.add(new int[]{consumeMsgRespDTO.getQueueId(), consumeMsgCommitLogDTO.getConsumeQueueOffset()});
+						}
+					}
+				} finally {
+					ReferenceCountUtil.release(tcpMsg.getBodyBuf());
+				}
+				promise.setSuccess();
+			}
+		});
+	}
+
+	private ConsumeSubscribeReqDTO subscribeReq(int creditMsgCount, int creditBytes) {
+		ConsumeSubscribeReqDTO consumeSubscribeReqDTO = new ConsumeSubscribeReqDTO();
+		consumeSubscribeReqDTO.setMsgId("subscription-1");
+		consumeSubscribeReqDTO.setTopic(TOPIC);
+		consumeSubscribeReqDTO.setConsumeGroup(CONSUME_GROUP);
+		consumeSubscribeReqDTO.setBatchSize(10);
+		consumeSubscribeReqDTO.setCreditMsgCount(creditMsgCount);
+		consumeSubscribeReqDTO.setCreditBytes(creditBytes);
+		return consumeSubscribeReqDTO;
+	}
+
+	private ConsumeCreditReqDTO creditReq(Map<Integer, Integer> queueCommitOffsetMap, Integer creditMsgCount, Integer creditBytes) {
+		ConsumeCreditReqDTO consumeCreditReqDTO = new ConsumeCreditReqDTO();
+		consumeCreditReqDTO.setMsgId("subscription-1");
+		consumeCreditReqDTO.setTopic(TOPIC);
+		consumeCreditReqDTO.setConsumeGroup(CONSUME_GROUP);
+		consumeCreditReqDTO.setQueueCommitOffsetMap(queueCommitOffsetMap);
+		consumeCreditReqDTO.setCreditMsgCount(creditMsgCount);
+		consumeCreditReqDTO.setCreditBytes(creditBytes);
+		return consumeCreditReqDTO;
+	}
+
+	/**
+	 * 内存中的消息和位点，每个队列的消息体都是固定大小
+	 */
+	private static class InMemoryConsumeHandler extends ConsumeQueueConsumeHandler {
+
+		private final Map<Integer, Integer> queueMsgCountMap = new ConcurrentHashMap<>();
+		private final Map<Integer, Integer> consumeOffsetMap = new ConcurrentHashMap<>();
+		/**
+		 * 提交过的位点，队列id和位点
+		 */
+		private final List<int[]> commitList = new CopyOnWriteArrayList<>();
+
+		@Override
+		public List<CommitLogBodySliceModel> consumeBodySlices(String topic, int queueId, int consumeQueueOffset, int maxCount) {
+			int msgCount = queueMsgCountMap.getOrDefault(queueId, 0);
+			int fromIndex = consumeQueueOffset / ENTRY_SIZE;
+			if (fromIndex >= msgCount) {
+				return null;
+			}
+			List<CommitLogBodySliceModel> commitLogBodySliceModels = new ArrayList<>();
+			for (int i = fromIndex; i < Math.min(msgCount, fromIndex + maxCount); i++) {
+				CommitLogBodySliceModel commitLogBodySliceModel = new CommitLogBodySliceModel();
+				commitLogBodySliceModel.setConsumeQueueOffset(i * ENTRY_SIZE);
+				commitLogBodySliceModel.setBody(ByteBuffer.allocate(BODY_SIZE));
+				commitLogBodySliceModels.add(commitLogBodySliceModel);
+			}
+			return commitLogBodySliceModels;
+		}
+
+		@Override
+		public int getConsumeOffset(String topic, String consumeGroup, int queueId) {
+			return consumeOffsetMap.getOrDefault(queueId, 0);
+		}
+
+		@Override
+		public boolean commitOffset(String topic, String consumeGroup, int queueId, int commitOffset) {
+			commitList.add(new int[]{queueId, commitOffset});
+			consumeOffsetMap.put(queueId, commitOffset);
+			return true;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.zhb.broker.core;
+
+import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.model.EagleMqTopicModel;
+import com.zhb.common.constants.BrokerConstants;
+import com.zhb.common.enums.FlushDiskTypeEnum;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 确认消费时位点的推进规则
+ */
+public class ConsumeQueueConsumeHandlerTest {
+
+	private static final int ENTRY_SIZE = BrokerConstants.CONSUME_QUEUE_EACH_MSG_SIZE;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final ConsumeQueueConsumeHandler consumeQueueConsumeHandler = new ConsumeQueueConsumeHandler();
+
+	@Before
+	public void setUp() throws Exception {
+		StoreTestSupport.initGlobalProperties(temporaryFolder.newFolder(), 64 * 1024, FlushDiskTypeEnum.ASYNC_FLUSH);
+		CommonCache.setConsumeOffsetManager(new ConsumeOffsetManager());
+	}
+
+	@Test
+	public void ackIsCappedByDispatchedEntries() {
+		EagleMqTopicModel eagleMqTopicModel = StoreTestSupport.registerTopic("ack_cap_topic", 2);
+		eagleMqTopicModel.getQueueList().get(0).getLatestOffset().set(3 * ENTRY_SIZE);
+
+		assertTrue(consumeQueueConsumeHandler.ack("ack_cap_topic", "group_a", 0, 2));
+		assertEquals(2 * ENTRY_SIZE, CommonCache.getConsumeOffsetManager().getOffset("ack_cap_topic", "group_a", 0));
+		//重复的确认不会越过已经分发的索引
+		assertTrue(consumeQueueConsumeHandler.ack("ack_cap_topic", "group_a", 0, 5));
+		assertEquals(3 * ENTRY_SIZE, CommonCache.getConsumeOffsetManager().getOffset("ack_cap_topic", "group_a", 0));
+		assertEquals(0, CommonCache.getConsumeOffsetManager().getOffset("ack_cap_topic", "group_a", 1));
+	}
+
+	@Test
+	public void ackRejectsUnknownQueue() {
+		StoreTestSupport.registerTopic("ack_reject_topic", 1);
+
+		assertFalse(consumeQueueConsumeHandler.ack("ack_reject_topic", "group_a", 1, 1));
+		assertFalse(consumeQueueConsumeHandler.ack("ack_reject_topic", "group_a", -1, 1));
+		assertFalse(consumeQueueConsumeHandler.ack("ack_reject_topic", "group_a", 0, 0));
+		assertFalse(consumeQueueConsumeHandler.ack("ack_missing_topic", "group_a", 0, 1));
+	}
+}
@@ -0,0 +1,161 @@
+package com.zhb.broker.core;
+
+import com.zhb.common.enums.FlushDiskTypeEnum;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FlushCommitLogServiceTest {
+
+	@Test
+	public void syncFlushMergesConcurrentRequestsIntoFewForces() throws Exception {
+		CountingCommitLog commitLog = new CountingCommitLog(20, null);
+		FlushCommitLogService flushCommitLogService = new FlushCommitLogService(commitLog, FlushDiskTypeEnum.SYNC_FLUSH, 10, 5000);
+		flushCommitLogService.start("sync-group-commit");
+		int writerCount = 32;
+		ExecutorService executorService = Executors.newFixedThreadPool(writerCount);
+		CountDownLatch startLatch = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < writerCount; i++) {
+			futures.add(executorService.submit(() -> {
+				startLatch.await();
+				flushCommitLogService.handleDiskFlush();
+				return null;
+			}));
+		}
+		startLatch.countDown();
+		for (Future<?> future : futures) {
+			future.get(10, TimeUnit.SECONDS);
+		}
+		executorService.shutdown();
+		int forceCount = commitLog.flushCount.get();
+		assertTrue("at least one force is needed", forceCount >= 1);
+		assertTrue("writers waiting together should share a force, force count is " + forceCount, forceCount < writerCount);
+	}
+
+	@Test
+	public void asyncFlushReturnsBeforeForce() throws Exception {
+		CountDownLatch releaseLatch = new CountDownLatch(1);
+		CountingCommitLog commitLog = new CountingCommitLog(0, releaseLatch);
+		FlushCommitLogService flushCommitLogService = new FlushCommitLogService(commitLog, FlushDiskTypeEnum.ASYNC_FLUSH, 10, 5000);
+		flushCommitLogService.start("async-flush");
+		long begin = System.nanoTime();
+		flushCommitLogService.handleDiskFlush();
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) < 1000);
+		releaseLatch.countDown();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (commitLog.flushCount.get() == 0 && System.currentTimeMillis() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(5);
+		}
+		assertEquals(1, commitLog.flushCount.get());
+	}
+
+	@Test
+	public void syncFlushTimesOutWhenForceIsStuck() throws Exception {
+		CountDownLatch releaseLatch = new CountDownLatch(1);
+		CountingCommitLog commitLog = new CountingCommitLog(0, releaseLatch);
+		FlushCommitLogService flushCommitLogService = new FlushCommitLogService(commitLog, FlushDiskTypeEnum.SYNC_FLUSH, 10, 50);
+		flushCommitLogService.start("sync-flush-timeout");
+		try {
+			flushCommitLogService.handleDiskFlush();
+			fail("flush should time out");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("timeout"));
+		} finally {
+			releaseLatch.countDown();
+		}
+	}
+
+	@Test
+	public void submittedFlushRequestCompletesAfterForceWithoutBlockingWriter() throws Exception {
+		CountDownLatch releaseLatch = new CountDownLatch(1);
+		CountingCommitLog commitLog = new CountingCommitLog(0, releaseLatch);
+		FlushCommitLogService flushCommitLogService = new FlushCommitLogService(commitLog, FlushDiskTypeEnum.SYNC_FLUSH, 10, 5000);
+		flushCommitLogService.start("sync-flush-submit");
+		CompletableFuture<Boolean> flushFuture = flushCommitLogService.submitFlushRequest();
+		TimeUnit.MILLISECONDS.sleep(50);
+		assertFalse(flushFuture.isDone());
+		releaseLatch.countDown();
+		assertTrue(flushFuture.get(5, TimeUnit.SECONDS));
+		assertEquals(1, commitLog.flushCount.get());
+	}
+
+	@Test
+	public void submittedFlushRequestTimesOutWhenForceIsStuck() throws Exception {
+		CountDownLatch releaseLatch = new CountDownLatch(1);
+		FlushCommitLogService flushCommitLogService = new FlushCommitLogService(new CountingCommitLog(0, releaseLatch), FlushDiskTypeEnum.SYNC_FLUSH, 10, 50);
+		flushCommitLogService.start("sync-flush-submit-timeout");
+		try {
+			flushCommitLogService.submitFlushRequest().get(5, TimeUnit.SECONDS);
+			fail("flush should time out");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		} finally {
+			releaseLatch.countDown();
+		}
+	}
+
+	@Test
+	public void syncFlushFailureIsReturnedToWriter() throws Exception {
+		IOException flushError = new IOException("disk error");
+		CommitLogMMapFileModel commitLog = new CommitLogMMapFileModel() {
+			@Override
+			public void flush() throws IOException {
+				throw flushError;
+			}
+		};
+		FlushCommitLogService flushCommitLogService = new FlushCommitLogService(commitLog, FlushDiskTypeEnum.SYNC_FLUSH, 10, 5000);
+		flushCommitLogService.start("sync-flush-error");
+		try {
+			flushCommitLogService.handleDiskFlush();
+			fail("flush error should be thrown");
+		} catch (IOException e) {
+			assertSame(flushError, e.getCause());
+		}
+	}
+
+	/**
+	 * 记录force次数，每次force耗时固定的时间，可以被latch阻塞
+	 */
+	private static class CountingCommitLog extends CommitLogMMapFileModel {
+
+		private final AtomicInteger flushCount = new AtomicInteger();
+		private final int flushCostMills;
+		private final CountDownLatch releaseLatch;
+
+		private CountingCommitLog(int flushCostMills, CountDownLatch releaseLatch) {
+			this.flushCostMills = flushCostMills;
+			this.releaseLatch = releaseLatch;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			try {
+				if (releaseLatch != null) {
+					releaseLatch.await();
+				}
+				TimeUnit.MILLISECONDS.sleep(flushCostMills);
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			flushCount.incrementAndGet();
+		}
+	}
+}
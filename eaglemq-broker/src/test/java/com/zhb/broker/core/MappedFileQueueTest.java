@@ -0,0 +1,100 @@
+package com.zhb.broker.core;
+
+import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.utils.LogFileNameUtil;
+import com.zhb.common.enums.FlushDiskTypeEnum;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * 按照全局物理偏移量查找文件段，重点是文件边界两侧的偏移量
+ */
+public class MappedFileQueueTest {
+
+	private static final int FILE_SIZE = 4096;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File storeDir;
+
+	@Before
+	public void setUp() throws Exception {
+		StoreTestSupport.initGlobalProperties(temporaryFolder.newFolder(), FILE_SIZE, FlushDiskTypeEnum.ASYNC_FLUSH);
+		storeDir = temporaryFolder.newFolder("commitlog");
+	}
+
+	@Test
+	public void findAcrossFileBoundaries() throws Exception {
+		MappedFileQueue mappedFileQueue = new MappedFileQueue(storeDir.getPath(), FILE_SIZE);
+		for (int i = 0; i < 5; i++) {
+			mappedFileQueue.createMappedFile((long) i * FILE_SIZE);
+		}
+		List<MappedFile> mappedFiles = mappedFileQueue.getMappedFiles();
+		for (int i = 0; i < 5; i++) {
+			long fileFromOffset = (long) i * FILE_SIZE;
+			assertSame(mappedFiles.get(i), mappedFileQueue.findMappedFileByOffset(fileFromOffset));
+			assertSame(mappedFiles.get(i), mappedFileQueue.findMappedFileByOffset(fileFromOffset + FILE_SIZE / 2));
+			assertSame(mappedFiles.get(i), mappedFileQueue.findMappedFileByOffset(fileFromOffset + FILE_SIZE - 1));
+		}
+		assertNull(mappedFileQueue.findMappedFileByOffset(-1));
+		assertNull(mappedFileQueue.findMappedFileByOffset(5L * FILE_SIZE));
+	}
+
+	@Test
+	public void loadSortsByOffsetAndKeepsLaterStart() throws Exception {
+		//前面的文件已经被删除，剩下的文件起始偏移量不从0开始，中间也有缺失，目录中还有不是文件段的文件
+		long[] fileFromOffsets = {3L * FILE_SIZE, 10L * FILE_SIZE, 4L * FILE_SIZE};
+		for (long fileFromOffset : fileFromOffsets) {
+			new File(storeDir, LogFileNameUtil.buildCommitLogFileName(fileFromOffset)).createNewFile();
+		}
+		new File(storeDir, "lock").createNewFile();
+		new File(storeDir, "00000000000000000999.tmp").createNewFile();
+
+		MappedFileQueue mappedFileQueue = new MappedFileQueue(storeDir.getPath(), FILE_SIZE);
+		mappedFileQueue.load();
+
+		List<MappedFile> mappedFiles = mappedFileQueue.getMappedFiles();
+		assertEquals(3, mappedFiles.size());
+		assertEquals(3L * FILE_SIZE, mappedFiles.get(0).getFileFromOffset());
+		assertEquals(4L * FILE_SIZE, mappedFiles.get(1).getFileFromOffset());
+		assertEquals(10L * FILE_SIZE, mappedFiles.get(2).getFileFromOffset());
+		assertSame(mappedFiles.get(2), mappedFileQueue.getLastMappedFile());
+		assertNull(mappedFileQueue.findMappedFileByOffset(3L * FILE_SIZE - 1));
+		assertSame(mappedFiles.get(0), mappedFileQueue.findMappedFileByOffset(4L * FILE_SIZE - 1));
+		assertSame(mappedFiles.get(1), mappedFileQueue.findMappedFileByOffset(4L * FILE_SIZE));
+		//中间缺失的文件段
+		assertNull(mappedFileQueue.findMappedFileByOffset(5L * FILE_SIZE));
+		assertNull(mappedFileQueue.findMappedFileByOffset(10L * FILE_SIZE - 1));
+		assertSame(mappedFiles.get(2), mappedFileQueue.findMappedFileByOffset(10L * FILE_SIZE));
+	}
+
+	@Test
+	public void messagesStayInsideTheirFile() throws Exception {
+		String topic = "mapped_file_queue_lookup";
+		StoreTestSupport.registerTopic(topic, 1);
+		CommitLogMMapFileModel commitLog = StoreTestSupport.loadCommitLog(topic);
+		for (int i = 0; i < 40; i++) {
+			commitLog.writeContent(StoreTestSupport.newMessage(topic, 0, new byte[300 + i * 7]));
+		}
+		MappedFileQueue mappedFileQueue = commitLog.getMappedFileQueue();
+		long writeOffset = CommonCache.getEagleMqTopicModelMap().get(topic).getCommitLogModel().getOffset().get();
+		List<StoreTestSupport.StoredMessage> storedMessages = StoreTestSupport.readAll(commitLog, writeOffset);
+		assertEquals(40, storedMessages.size());
+		for (StoreTestSupport.StoredMessage storedMessage : storedMessages) {
+			MappedFile mappedFile = mappedFileQueue.findMappedFileByOffset(storedMessage.offset);
+			long msgEnd = storedMessage.offset + storedMessage.commitLogMessageModel.getTotalSize();
+			assertEquals(true, msgEnd <= mappedFile.getFileFromOffset() + mappedFile.getFileSize());
+		}
+		assertEquals(true, mappedFileQueue.getMappedFiles().size() > 3);
+	}
+}
@@ -0,0 +1,107 @@
+package com.zhb.broker.core;
+
+import com.zhb.broker.event.model.ConsumeMsgEvent;
+import com.zhb.broker.model.EagleMqTopicModel;
+import com.zhb.common.constants.BrokerConstants;
+import com.zhb.common.dto.ConsumeMsgReqDTO;
+import com.zhb.common.enums.FlushDiskTypeEnum;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 拉取请求挂起：新消息到达时唤醒挂起在该队列上的请求，到达截止时间后超时唤醒，每个请求只唤醒一次
+ */
+public class PullRequestHoldServiceTest {
+
+	private static final int ENTRY_SIZE = BrokerConstants.CONSUME_QUEUE_EACH_MSG_SIZE;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final LinkedBlockingQueue<ConsumeMsgEvent> wakeupQueue = new LinkedBlockingQueue<>();
+	private final PullRequestHoldService pullRequestHoldService = new PullRequestHoldService(wakeupQueue::add);
+
+	@Before
+	public void setUp() throws Exception {
+		StoreTestSupport.initGlobalProperties(temporaryFolder.newFolder(), 64 * 1024, FlushDiskTypeEnum.ASYNC_FLUSH);
+	}
+
+	@Test
+	public void messageArrivingWakesRequestOnce() throws Exception {
+		StoreTestSupport.registerTopic("hold_arrive_topic", 2);
+		ConsumeMsgEvent consumeMsgEvent = this.consumeMsgEvent("hold_arrive_topic", Long.MAX_VALUE);
+		pullRequestHoldService.suspendPullRequest(consumeMsgEvent, this.snapshot(0, 0, 1, 0));
+		assertEquals(1, pullRequestHoldService.getHoldRequestCount());
+
+		//没有挂起请求的队列不会唤醒
+		pullRequestHoldService.notifyMessageArriving("hold_other_topic", 0);
+		assertNull(wakeupQueue.poll(100, TimeUnit.MILLISECONDS));
+
+		pullRequestHoldService.notifyMessageArriving("hold_arrive_topic", 1);
+		assertSame(consumeMsgEvent, wakeupQueue.poll(5, TimeUnit.SECONDS));
+		assertEquals(0, pullRequestHoldService.getHoldRequestCount());
+		//同一个请求挂起在两个队列上，另一个队列的消息不会再次唤醒
+		pullRequestHoldService.notifyMessageArriving("hold_arrive_topic", 0);
+		assertNull(wakeupQueue.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void requestIsWokenAtSuspendDeadline() throws Exception {
+		StoreTestSupport.registerTopic("hold_timeout_topic", 1);
+		pullRequestHoldService.start();
+		long begin = System.currentTimeMillis();
+		ConsumeMsgEvent consumeMsgEvent = this.consumeMsgEvent("hold_timeout_topic", begin + 200);
+		pullRequestHoldService.suspendPullRequest(consumeMsgEvent, this.snapshot(0, 0));
+
+		assertSame(consumeMsgEvent, wakeupQueue.poll(5, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - begin >= 200);
+		assertEquals(0, pullRequestHoldService.getHoldRequestCount());
+		//超时唤醒之后新消息到达不会再次唤醒
+		pullRequestHoldService.notifyMessageArriving("hold_timeout_topic", 0);
+		assertNull(wakeupQueue.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void messageDispatchedBeforeSuspendWakesImmediately() throws Exception {
+		EagleMqTopicModel eagleMqTopicModel = StoreTestSupport.registerTopic("hold_race_topic", 2);
+		//拉取时队列1没有消息，挂起之前分发线程已经写入了一条索引
+		eagleMqTopicModel.getQueueList().get(1).getLatestOffset().set(ENTRY_SIZE);
+		ConsumeMsgEvent consumeMsgEvent = this.consumeMsgEvent("hold_race_topic", Long.MAX_VALUE);
+		pullRequestHoldService.suspendPullRequest(consumeMsgEvent, this.snapshot(0, 0, 1, 0));
+
+		assertSame(consumeMsgEvent, wakeupQueue.poll(5, TimeUnit.SECONDS));
+		assertEquals(0, pullRequestHoldService.getHoldRequestCount());
+		pullRequestHoldService.notifyMessageArriving("hold_race_topic", 1);
+		assertNull(wakeupQueue.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	private ConsumeMsgEvent consumeMsgEvent(String topic, long suspendDeadline) {
+		ConsumeMsgReqDTO consumeMsgReqDTO = new ConsumeMsgReqDTO();
+		consumeMsgReqDTO.setTopic(topic);
+		consumeMsgReqDTO.setConsumeGroup("hold_group");
+		ConsumeMsgEvent consumeMsgEvent = new ConsumeMsgEvent();
+		consumeMsgEvent.setConsumeMsgReqDTO(consumeMsgReqDTO);
+		consumeMsgEvent.setSuspendDeadline(suspendDeadline);
+		return consumeMsgEvent;
+	}
+
+	private Map<Integer, Integer> snapshot(int... queueIdAndOffsets) {
+		Map<Integer, Integer> queueOffsetSnapshot = new HashMap<>();
+		for (int i = 0; i < queueIdAndOffsets.length; i += 2) {
+			queueOffsetSnapshot.put(queueIdAndOffsets[i], queueIdAndOffsets[i + 1]);
+		}
+		return queueOffsetSnapshot;
+	}
+}
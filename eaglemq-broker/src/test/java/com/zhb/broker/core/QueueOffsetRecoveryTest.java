@@ -0,0 +1,88 @@
+package com.zhb.broker.core;
+
+import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.model.EagleMqTopicModel;
+import com.zhb.broker.utils.LogFileNameUtil;
+import com.zhb.common.enums.FlushDiskTypeEnum;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 重启时还没有分发到consumeQueue的消息，队列位点要从这些消息的消息头继续分配
+ */
+public class QueueOffsetRecoveryTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws Exception {
+		StoreTestSupport.initGlobalProperties(temporaryFolder.newFolder(), 64 * 1024, FlushDiskTypeEnum.ASYNC_FLUSH);
+	}
+
+	@Test
+	public void undispatchedRecordsSeedQueueOffsets() throws Exception {
+		long writeOffset = this.writeSourceTopic("queue_offset_source", 5, 3);
+		EagleMqTopicModel restartedTopic = this.copyAsRestartedTopic("queue_offset_source", "queue_offset_restarted", writeOffset);
+		restartedTopic.getCommitLogModel().setDispatchOffset(0L);
+
+		this.assertNextQueueOffsets("queue_offset_restarted", writeOffset, 5, 3);
+	}
+
+	@Test
+	public void missingDispatchOffsetScansFromFirstFile() throws Exception {
+		long writeOffset = this.writeSourceTopic("queue_offset_source_2", 4, 7);
+		this.copyAsRestartedTopic("queue_offset_source_2", "queue_offset_restarted_2", writeOffset);
+
+		this.assertNextQueueOffsets("queue_offset_restarted_2", writeOffset, 4, 7);
+	}
+
+	private long writeSourceTopic(String topic, int queue0Count, int queue1Count) throws Exception {
+		StoreTestSupport.registerTopic(topic, 2);
+		CommitLogMMapFileModel commitLog = StoreTestSupport.loadCommitLog(topic);
+		for (int i = 0; i < Math.max(queue0Count, queue1Count); i++) {
+			if (i < queue0Count) {
+				commitLog.writeContent(StoreTestSupport.newMessage(topic, 0, new byte[8000]));
+			}
+			if (i < queue1Count) {
+				commitLog.writeContent(StoreTestSupport.newMessage(topic, 1, new byte[8000]));
+			}
+		}
+		return CommonCache.getEagleMqTopicModelMap().get(topic).getCommitLogModel().getOffset().get();
+	}
+
+	/**
+	 * 把源topic的commitLog复制成一个刚刚重启、consumeQueue为空的topic
+	 */
+	private EagleMqTopicModel copyAsRestartedTopic(String sourceTopic, String restartedTopic, long writeOffset) throws Exception {
+		EagleMqTopicModel eagleMqTopicModel = StoreTestSupport.registerTopic(restartedTopic, 2);
+		File targetDir = new File(LogFileNameUtil.buildCommitLogBasePath(restartedTopic));
+		targetDir.mkdirs();
+		for (File file : new File(LogFileNameUtil.buildCommitLogBasePath(sourceTopic)).listFiles()) {
+			Files.copy(file.toPath(), new File(targetDir, file.getName()).toPath());
+		}
+		eagleMqTopicModel.getCommitLogModel().getOffset().set(writeOffset);
+		return eagleMqTopicModel;
+	}
+
+	private void assertNextQueueOffsets(String topic, long writeOffset, long queue0Next, long queue1Next) throws Exception {
+		CommitLogMMapFileModel commitLog = StoreTestSupport.loadCommitLog(topic);
+		commitLog.writeContent(StoreTestSupport.newMessage(topic, 0, new byte[16]));
+		commitLog.writeContent(StoreTestSupport.newMessage(topic, 1, new byte[16]));
+		long newWriteOffset = CommonCache.getEagleMqTopicModelMap().get(topic).getCommitLogModel().getOffset().get();
+		List<StoreTestSupport.StoredMessage> storedMessages = StoreTestSupport.readAll(commitLog, newWriteOffset);
+		StoreTestSupport.StoredMessage queue0Msg = storedMessages.get(storedMessages.size() - 2);
+		StoreTestSupport.StoredMessage queue1Msg = storedMessages.get(storedMessages.size() - 1);
+		assertEquals(true, queue0Msg.offset >= writeOffset);
+		assertEquals(queue0Next, queue0Msg.commitLogMessageModel.getQueueOffset());
+		assertEquals(queue1Next, queue1Msg.commitLogMessageModel.getQueueOffset());
+	}
+}
@@ -0,0 +1,155 @@
+package com.zhb.broker.core;
+
+import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.model.CommitLogMessageModel;
+import com.zhb.broker.model.ConsumeQueueDetailModel;
+import com.zhb.broker.model.EagleMqTopicModel;
+import com.zhb.broker.model.QueueModel;
+import com.zhb.broker.utils.LogFileNameUtil;
+import com.zhb.common.constants.BrokerConstants;
+import com.zhb.common.enums.FlushDiskTypeEnum;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 异常退出后的存储恢复：commitLog尾部截断、分发位点的默认值、consumeQueue跨文件恢复
+ */
+public class StoreRecoverHandlerTest {
+
+	private static final int FILE_SIZE = 64 * 1024;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws Exception {
+		StoreTestSupport.initGlobalProperties(temporaryFolder.newFolder(), FILE_SIZE, FlushDiskTypeEnum.ASYNC_FLUSH);
+	}
+
+	@Test
+	public void noConsumeQueueEntryDispatchFromFirstFile() throws Exception {
+		long writeOffset = this.writeSourceTopic("recover_dispatch_source", 20, 8000);
+		assertTrue(writeOffset > 2 * FILE_SIZE);
+		EagleMqTopicModel restartedTopic = this.copyAsRestartedTopic("recover_dispatch_source", "recover_dispatch_restarted", writeOffset);
+		//配置中的分发位点已经刷到了写入位点，但是consumeQueue中的索引没有落盘
+		restartedTopic.getCommitLogModel().setDispatchOffset(writeOffset);
+
+		new StoreRecoverHandler().recover("recover_dispatch_restarted");
+
+		assertEquals(writeOffset, restartedTopic.getCommitLogModel().getOffset().get());
+		assertEquals(Long.valueOf(0), restartedTopic.getCommitLogModel().getDispatchOffset());
+	}
+
+	@Test
+	public void tornCommitLogTailIsTruncated() throws Exception {
+		long writeOffset = this.writeSourceTopic("recover_torn_source", 10, 4000);
+		EagleMqTopicModel restartedTopic = this.copyAsRestartedTopic("recover_torn_source", "recover_torn_restarted", writeOffset);
+		//配置中的写入位点落后于真实数据
+		restartedTopic.getCommitLogModel().getOffset().set(writeOffset / 2);
+		File lastFile = new File(LogFileNameUtil.buildCommitLogBasePath("recover_torn_restarted"), String.format("%020d", 0));
+		int tornPos = (int) writeOffset;
+		int tornSize = 9000;
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(lastFile, "rw")) {
+			//只写了一部分的消息，中间有一个全零的页，之后还有这条消息剩余的数据
+			randomAccessFile.seek(tornPos);
+			randomAccessFile.writeInt(tornSize);
+			randomAccessFile.writeInt(CommitLogMessageModel.MESSAGE_MAGIC_CODE);
+			randomAccessFile.write(this.filled(3000));
+			randomAccessFile.seek(tornPos + 8500);
+			randomAccessFile.write(this.filled(tornSize - 8500));
+		}
+
+		new StoreRecoverHandler().recover("recover_torn_restarted");
+
+		assertEquals(writeOffset, restartedTopic.getCommitLogModel().getOffset().get());
+		byte[] tail = new byte[tornSize];
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(lastFile, "r")) {
+			randomAccessFile.seek(tornPos);
+			randomAccessFile.readFully(tail);
+		}
+		assertTrue(Arrays.equals(new byte[tornSize], tail));
+	}
+
+	@Test
+	public void consumeQueueTornTailInRolledFile() throws Exception {
+		long writeOffset = this.writeSourceTopic("recover_cq_source", 4, 1000);
+		EagleMqTopicModel restartedTopic = this.copyAsRestartedTopic("recover_cq_source", "recover_cq_restarted", writeOffset);
+		CommitLogMMapFileModel sourceCommitLog = CommonCache.getCommitLogMMapFileModelManager().get("recover_cq_source");
+		List<StoreTestSupport.StoredMessage> storedMessages = StoreTestSupport.readAll(sourceCommitLog, writeOffset);
+		//配置中记录的还是第一个文件，索引已经写到了下一个文件，最后一条索引只写了一半
+		File firstFile = this.consumeQueueFile("recover_cq_restarted", 0, "00000000");
+		File rolledFile = this.consumeQueueFile("recover_cq_restarted", 0, "00000001");
+		firstFile.getParentFile().mkdirs();
+		Files.write(firstFile.toPath(), this.concat(this.entry(storedMessages.get(0)), this.entry(storedMessages.get(1))));
+		Files.write(rolledFile.toPath(), this.concat(this.entry(storedMessages.get(2)), Arrays.copyOf(this.entry(storedMessages.get(3)), 7)));
+
+		new StoreRecoverHandler().recover("recover_cq_restarted");
+
+		QueueModel queueModel = restartedTopic.getQueueList().get(0);
+		assertEquals("00000001", queueModel.getFileName());
+		assertEquals(BrokerConstants.CONSUME_QUEUE_EACH_MSG_SIZE, queueModel.getLatestOffset().get());
+		StoreTestSupport.StoredMessage lastIndexed = storedMessages.get(2);
+		assertEquals(Long.valueOf(lastIndexed.offset + lastIndexed.commitLogMessageModel.getTotalSize()),
+			restartedTopic.getCommitLogModel().getDispatchOffset());
+		byte[] rolledContent = Files.readAllBytes(rolledFile.toPath());
+		assertTrue(Arrays.equals(new byte[7], Arrays.copyOfRange(rolledContent, 16, 23)));
+	}
+
+	private long writeSourceTopic(String topic, int msgCount, int bodySize) throws Exception {
+		StoreTestSupport.registerTopic(topic, 1);
+		CommitLogMMapFileModel commitLog = StoreTestSupport.loadCommitLog(topic);
+		for (int i = 0; i < msgCount; i++) {
+			commitLog.writeContent(StoreTestSupport.newMessage(topic, 0, this.filled(bodySize)));
+		}
+		commitLog.flush();
+		return CommonCache.getEagleMqTopicModelMap().get(topic).getCommitLogModel().getOffset().get();
+	}
+
+	/**
+	 * 把源topic的commitLog复制成一个异常退出、还没有加载的topic
+	 */
+	private EagleMqTopicModel copyAsRestartedTopic(String sourceTopic, String restartedTopic, long writeOffset) throws Exception {
+		EagleMqTopicModel eagleMqTopicModel = StoreTestSupport.registerTopic(restartedTopic, 1);
+		File targetDir = new File(LogFileNameUtil.buildCommitLogBasePath(restartedTopic));
+		targetDir.mkdirs();
+		for (File file : new File(LogFileNameUtil.buildCommitLogBasePath(sourceTopic)).listFiles()) {
+			Files.copy(file.toPath(), new File(targetDir, file.getName()).toPath());
+		}
+		eagleMqTopicModel.getCommitLogModel().getOffset().set(writeOffset);
+		return eagleMqTopicModel;
+	}
+
+	private File consumeQueueFile(String topic, int queueId, String fileName) {
+		return new File(LogFileNameUtil.buildConsumeQueueFilePath(topic, queueId, fileName));
+	}
+
+	private byte[] entry(StoreTestSupport.StoredMessage storedMessage) {
+		ConsumeQueueDetailModel consumeQueueDetailModel = new ConsumeQueueDetailModel();
+		consumeQueueDetailModel.setCommitLogOffset(storedMessage.offset);
+		consumeQueueDetailModel.setMsgLength(storedMessage.commitLogMessageModel.getTotalSize());
+		return consumeQueueDetailModel.convertToBytes();
+	}
+
+	private byte[] concat(byte[] first, byte[] second) {
+		byte[] result = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, result, first.length, second.length);
+		return result;
+	}
+
+	private byte[] filled(int size) {
+		byte[] bytes = new byte[size];
+		Arrays.fill(bytes, (byte) 0x5A);
+		return bytes;
+	}
+}
@@ -0,0 +1,141 @@
+package com.zhb.broker.core;
+
+import com.zhb.broker.cache.CommonCache;
+import com.zhb.broker.config.GlobalProperties;
+import com.zhb.broker.model.CommitLogMessageModel;
+import com.zhb.broker.model.CommitLogModel;
+import com.zhb.broker.model.EagleMqTopicModel;
+import com.zhb.broker.model.QueueModel;
+import com.zhb.broker.utils.LogFileNameUtil;
+import com.zhb.common.constants.BrokerConstants;
+import com.zhb.common.dto.MessageDTO;
+import com.zhb.common.enums.FlushDiskTypeEnum;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 存储相关测试共用的环境，在临时目录中初始化全局配置和topic，和broker启动时的初始化顺序一致
+ */
+public class StoreTestSupport {
+
+	/**
+	 * 初始化全局配置，已经注册的topic保留，它们的后台线程还在运行，每个测试需要使用不同的topic名称
+	 *
+	 * @param eagleMqHome       存储根目录
+	 * @param commitLogFileSize commitLog单个文件的大小
+	 * @param flushDiskType     刷盘策略
+	 */
+	public static void initGlobalProperties(File eagleMqHome, int commitLogFileSize, FlushDiskTypeEnum flushDiskType) {
+		GlobalProperties globalProperties = new GlobalProperties();
+		globalProperties.setEagleMqHome(eagleMqHome.getPath());
+		globalProperties.setCommitLogFileSize(commitLogFileSize);
+		globalProperties.setWarmMappedFileEnable(false);
+		globalProperties.setFlushDiskType(flushDiskType.getCode());
+		globalProperties.setFlushIntervalMills(10);
+		globalProperties.setSyncFlushTimeoutMills(5000);
+		CommonCache.setGlobalProperties(globalProperties);
+		CommonCache.setAllocateMappedFileService(null);
+		CommonCache.setTransientStorePool(null);
+		CommonCache.setConsumeQueueMMapFileModelManager(new ConsumeQueueMMapFileModelManager());
+	}
+
+	/**
+	 * 注册一个新的topic，和CreateTopicListener创建的配置一致
+	 *
+	 * @param topic      主题名称
+	 * @param queueCount 队列数量
+	 * @return topic配置
+	 */
+	public static EagleMqTopicModel registerTopic(String topic, int queueCount) {
+		EagleMqTopicModel eagleMqTopicModel = new EagleMqTopicModel();
+		eagleMqTopicModel.setTopic(topic);
+		CommitLogModel commitLogModel = new CommitLogModel();
+		commitLogModel.setFileName(LogFileNameUtil.buildFirstCommitLogName());
+		commitLogModel.setOffsetLimit(CommonCache.getGlobalProperties().getCommitLogFileSize().longValue());
+		commitLogModel.setOffset(new AtomicLong(0));
+		eagleMqTopicModel.setCommitLogModel(commitLogModel);
+		List<QueueModel> queueList = new ArrayList<>();
+		for (int i = 0; i < queueCount; i++) {
+			QueueModel queueModel = new QueueModel();
+			queueModel.setId(i);
+			queueModel.setFileName(LogFileNameUtil.buildFirstConsumeQueueName());
+			queueModel.setOffsetLimit(BrokerConstants.COMSUMEQUEUE_DEFAULT_MMAP_SIZE);
+			queueModel.setLastOffset(0);
+			queueModel.setLatestOffset(new AtomicInteger(0));
+			queueList.add(queueModel);
+		}
+		eagleMqTopicModel.setQueueList(queueList);
+		CommonCache.getEagleMqTopicModelList().add(eagleMqTopicModel);
+		return eagleMqTopicModel;
+	}
+
+	/**
+	 * 创建topic的存储目录并加载commitLog
+	 *
+	 * @param topic 主题名称
+	 * @return commitLog映射模型
+	 * @throws IOException 如果映射失败
+	 */
+	public static CommitLogMMapFileModel loadCommitLog(String topic) throws IOException {
+		File commitLogDir = new File(LogFileNameUtil.buildCommitLogBasePath(topic));
+		if (!commitLogDir.exists() && !commitLogDir.mkdirs()) {
+			throw new IOException("create commitLog dir fail, path is " + commitLogDir);
+		}
+		CommitLogMMapFileModel commitLogMMapFileModel = new CommitLogMMapFileModel();
+		commitLogMMapFileModel.loadFileInMMap(topic);
+		CommonCache.getCommitLogMMapFileModelManager().put(topic, commitLogMMapFileModel);
+		return commitLogMMapFileModel;
+	}
+
+	public static MessageDTO newMessage(String topic, int queueId, byte[] body) {
+		MessageDTO messageDTO = new MessageDTO();
+		messageDTO.setTopic(topic);
+		messageDTO.setQueueId(queueId);
+		messageDTO.setBody(body);
+		return messageDTO;
+	}
+
+	/**
+	 * 按照全局物理偏移量顺序读取已经写入的所有消息，遇到空白记录跳到下一个文件
+	 *
+	 * @param commitLogMMapFileModel commitLog映射模型
+	 * @param endOffset              读取到这个全局物理偏移量为止
+	 * @return 消息和它的全局物理偏移量
+	 */
+	public static List<StoredMessage> readAll(CommitLogMMapFileModel commitLogMMapFileModel, long endOffset) {
+		MappedFileQueue mappedFileQueue = commitLogMMapFileModel.getMappedFileQueue();
+		List<StoredMessage> storedMessageList = new ArrayList<>();
+		long offset = mappedFileQueue.getMappedFiles().get(0).getFileFromOffset();
+		while (offset < endOffset) {
+			MappedFile mappedFile = mappedFileQueue.findMappedFileByOffset(offset);
+			int pos = (int) (offset - mappedFile.getFileFromOffset());
+			CommitLogMessageModel commitLogMessageModel = mappedFile.readMessage(pos);
+			if (commitLogMessageModel.getMagic() == CommitLogMessageModel.BLANK_MAGIC_CODE) {
+				offset = mappedFile.getFileFromOffset() + mappedFile.getFileSize();
+				continue;
+			}
+			if (commitLogMessageModel.getMagic() != CommitLogMessageModel.MESSAGE_MAGIC_CODE) {
+				throw new IllegalStateException("unexpected magic at offset " + offset);
+			}
+			storedMessageList.add(new StoredMessage(offset, commitLogMessageModel));
+			offset += commitLogMessageModel.getTotalSize();
+		}
+		return storedMessageList;
+	}
+
+	public static class StoredMessage {
+
+		public final long offset;
+		public final CommitLogMessageModel commitLogMessageModel;
+
+		StoredMessage(long offset, CommitLogMessageModel commitLogMessageModel) {
+			this.offset = offset;
+			this.commitLogMessageModel = commitLogMessageModel;
+		}
+	}
+}
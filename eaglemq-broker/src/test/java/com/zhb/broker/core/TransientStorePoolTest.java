@@ -0,0 +1,60 @@
+package com.zhb.broker.core;
+
+import io.netty.util.internal.PlatformDependent;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * 写缓冲池的大小：缓冲区数量受数量和内存两个上限限制，超过堆外内存上限时启动失败而不是运行中OOM
+ */
+public class TransientStorePoolTest {
+
+	private static final int FILE_SIZE = 64 * 1024;
+
+	@Test
+	public void poolSizeIsBoundedByMemory() {
+		assertEquals(3, new TransientStorePool(5, FILE_SIZE * 3L + 100, FILE_SIZE).getPoolSize());
+		assertEquals(2, new TransientStorePool(2, FILE_SIZE * 10L, FILE_SIZE).getPoolSize());
+
+		TransientStorePool transientStorePool = new TransientStorePool(5, FILE_SIZE * 2L, FILE_SIZE);
+		transientStorePool.init();
+		assertEquals(2, transientStorePool.availableBufferNums());
+		ByteBuffer first = transientStorePool.borrowBuffer();
+		assertNotNull(first);
+		assertEquals(FILE_SIZE, first.capacity());
+		assertNotNull(transientStorePool.borrowBuffer());
+		//池中没有空闲缓冲区时退化为直接写mmap
+		assertNull(transientStorePool.borrowBuffer());
+		transientStorePool.returnBuffer(first);
+		assertEquals(1, transientStorePool.availableBufferNums());
+	}
+
+	@Test
+	public void memoryMustHoldOneBuffer() {
+		try {
+			new TransientStorePool(5, FILE_SIZE - 1, FILE_SIZE);
+			fail("memory smaller than a commitLog file should be rejected");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	@Test
+	public void poolExceedingMaxDirectMemoryFailsBeforeAllocating() {
+		long maxDirectMemory = PlatformDependent.maxDirectMemory();
+		int fileSize = Integer.MAX_VALUE;
+		int poolSize = (int) Math.min(Integer.MAX_VALUE, maxDirectMemory / fileSize + 1);
+		TransientStorePool transientStorePool = new TransientStorePool(poolSize, Long.MAX_VALUE, fileSize);
+		try {
+			transientStorePool.init();
+			fail("pool larger than MaxDirectMemorySize should be rejected");
+		} catch (IllegalStateException expected) {
+		}
+		assertEquals(0, transientStorePool.availableBufferNums());
+	}
+}
@@ -0,0 +1,127 @@
+package com.zhb.broker.model;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CommitLogMessageModelTest {
+
+	@Test
+	public void recordRoundTripsAtAnyPosition() {
+		CommitLogMessageModel commitLogMessageModel = this.newMessage("hello eaglemq");
+		commitLogMessageModel.setQueueId(3);
+		commitLogMessageModel.setQueueOffset(42L);
+		commitLogMessageModel.setBornTimestamp(1000L);
+		commitLogMessageModel.setStoreTimestamp(2000L);
+		commitLogMessageModel.setRetryTimes(2);
+		commitLogMessageModel.setFlags(CommitLogMessageModel.FLAG_RETRY | CommitLogMessageModel.FLAG_TX);
+		commitLogMessageModel.getProperties().put(CommitLogMessageModel.PROPERTY_MSG_ID, "msg-1");
+		commitLogMessageModel.getProperties().put(CommitLogMessageModel.PROPERTY_PRODUCER_ID, "producer-1");
+		byte[] record = commitLogMessageModel.convertToBytes();
+
+		ByteBuffer byteBuffer = ByteBuffer.allocate(record.length + 17);
+		byteBuffer.position(17);
+		byteBuffer.put(record);
+		CommitLogMessageModel decoded = CommitLogMessageModel.buildFromBuffer(byteBuffer, 17);
+		assertEquals(record.length, decoded.getTotalSize());
+		assertEquals(CommitLogMessageModel.MESSAGE_MAGIC_CODE, decoded.getMagic());
+		assertEquals(3, decoded.getQueueId());
+		assertEquals(42L, decoded.getQueueOffset());
+		assertEquals(1000L, decoded.getBornTimestamp());
+		assertEquals(2000L, decoded.getStoreTimestamp());
+		assertEquals(2, decoded.getRetryTimes());
+		assertEquals(CommitLogMessageModel.FLAG_RETRY | CommitLogMessageModel.FLAG_TX, decoded.getFlags());
+		assertEquals("msg-1", decoded.getProperties().get(CommitLogMessageModel.PROPERTY_MSG_ID));
+		assertEquals("producer-1", decoded.getProperties().get(CommitLogMessageModel.PROPERTY_PRODUCER_ID));
+		assertArrayEquals("hello eaglemq".getBytes(StandardCharsets.UTF_8), decoded.getContent());
+		assertTrue(decoded.checkCrc());
+		//解析不能改变缓冲区的position
+		assertEquals(byteBuffer.capacity(), byteBuffer.position());
+	}
+
+	@Test
+	public void nullPropertiesAreSkippedAndEmptyPropertiesDecodeToEmptyMap() {
+		CommitLogMessageModel commitLogMessageModel = this.newMessage("body");
+		commitLogMessageModel.getProperties().put(CommitLogMessageModel.PROPERTY_PRODUCER_ID, null);
+		byte[] record = commitLogMessageModel.convertToBytes();
+		assertEquals(CommitLogMessageModel.HEADER_SIZE + 4, record.length);
+		CommitLogMessageModel decoded = CommitLogMessageModel.buildFromBuffer(ByteBuffer.wrap(record), 0);
+		assertTrue(decoded.getProperties().isEmpty());
+		assertTrue(decoded.checkCrc());
+	}
+
+	@Test
+	public void emptyBodyIsValid() {
+		byte[] record = this.newMessage("").convertToBytes();
+		CommitLogMessageModel decoded = CommitLogMessageModel.buildFromBuffer(ByteBuffer.wrap(record), 0);
+		assertEquals(0, decoded.getContent().length);
+		assertTrue(decoded.checkCrc());
+	}
+
+	@Test
+	public void corruptedBodyFailsCrc() {
+		byte[] record = this.newMessage("hello eaglemq").convertToBytes();
+		record[record.length - 1] ^= 0x01;
+		CommitLogMessageModel decoded = CommitLogMessageModel.buildFromBuffer(ByteBuffer.wrap(record), 0);
+		assertFalse(decoded.checkCrc());
+	}
+
+	@Test
+	public void corruptedCrcFieldFailsCrc() {
+		byte[] record = this.newMessage("hello eaglemq").convertToBytes();
+		record[8] ^= 0x01;
+		assertFalse(CommitLogMessageModel.buildFromBuffer(ByteBuffer.wrap(record), 0).checkCrc());
+	}
+
+	@Test
+	public void blankRecordOnlyDecodesHeader() {
+		ByteBuffer byteBuffer = ByteBuffer.allocate(64);
+		byteBuffer.putInt(0, 64);
+		byteBuffer.putInt(4, CommitLogMessageModel.BLANK_MAGIC_CODE);
+		CommitLogMessageModel decoded = CommitLogMessageModel.buildFromBuffer(byteBuffer, 0);
+		assertEquals(64, decoded.getTotalSize());
+		assertEquals(CommitLogMessageModel.BLANK_MAGIC_CODE, decoded.getMagic());
+		assertNull(decoded.getContent());
+		assertFalse(decoded.checkCrc());
+	}
+
+	@Test
+	public void headerOnlyDecodeSkipsPropertiesAndBody() {
+		CommitLogMessageModel commitLogMessageModel = this.newMessage("hello eaglemq");
+		commitLogMessageModel.setQueueId(5);
+		commitLogMessageModel.setRetryTimes(1);
+		commitLogMessageModel.getProperties().put(CommitLogMessageModel.PROPERTY_MSG_ID, "msg-1");
+		byte[] record = commitLogMessageModel.convertToBytes();
+		CommitLogMessageModel decoded = CommitLogMessageModel.buildHeaderFromBuffer(ByteBuffer.wrap(record), 0);
+		assertEquals(record.length, decoded.getTotalSize());
+		assertEquals(CommitLogMessageModel.MESSAGE_MAGIC_CODE, decoded.getMagic());
+		assertEquals(5, decoded.getQueueId());
+		assertEquals(1, decoded.getRetryTimes());
+		assertTrue(decoded.getProperties().isEmpty());
+		assertNull(decoded.getContent());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void oversizedPropertiesAreRejected() {
+		CommitLogMessageModel commitLogMessageModel = this.newMessage("body");
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < Short.MAX_VALUE; i++) {
+			value.append('a');
+		}
+		commitLogMessageModel.getProperties().put(CommitLogMessageModel.PROPERTY_MSG_ID, value.toString());
+		commitLogMessageModel.convertToBytes();
+	}
+
+	private CommitLogMessageModel newMessage(String body) {
+		CommitLogMessageModel commitLogMessageModel = new CommitLogMessageModel();
+		commitLogMessageModel.setContent(body.getBytes(StandardCharsets.UTF_8));
+		return commitLogMessageModel;
+	}
+}
@@ -0,0 +1,254 @@
+package com.zhb.broker.timewheel;
+
+import com.alibaba.fastjson.JSON;
+import com.zhb.broker.event.model.TimeWheelEvent;
+import com.zhb.common.dto.DelayStoreSyncDTO;
+import com.zhb.common.dto.MessageDTO;
+import com.zhb.common.enums.DelayStoreSyncTypeEnum;
+import com.zhb.common.enums.MessageSendWay;
+import com.zhb.common.event.EventBus;
+import com.zhb.common.event.model.Event;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 延迟消息存储的主从同步：从节点按照相同的桶和位置重放记录和墓碑，文件和主节点一致，切换之后可以直接加载
+ */
+public class DelayMessageStoreTest {
+
+	private static final long BUCKET_MILLS = 60000;
+	private static final long PRELOAD_MILLS = 120000;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final List<TimeWheelSlotModel> expiredSlotModels = new ArrayList<>();
+	private final List<DelayStoreSyncDTO> syncList = new ArrayList<>();
+
+	@Test
+	public void standbyReplaysRecordsAndTombstonesAndTakesOverAfterFailover() throws Exception {
+		File masterDir = temporaryFolder.newFolder("master");
+		File slaveDir = temporaryFolder.newFolder("slave");
+		TimeWheelModelManager masterTimeWheel = this.newTimeWheel();
+		DelayMessageStore master = new DelayMessageStore(masterDir, BUCKET_MILLS, PRELOAD_MILLS, true, false, masterTimeWheel);
+		master.setSyncHandler((delayStoreSyncDTO, waitAck) -> {
+			syncList.add(delayStoreSyncDTO);
+			return null;
+		});
+		master.start();
+		DelayMessageStore slave = new DelayMessageStore(slaveDir, BUCKET_MILLS, PRELOAD_MILLS, true, true, this.newTimeWheel());
+		slave.start();
+
+		long now = System.currentTimeMillis();
+		//预加载窗口之外，只在磁盘上
+		master.append(this.delayMessage("far", now + PRELOAD_MILLS * 5));
+		//已经加载的桶，进入时间轮
+		master.append(this.delayMessage("near", now + 30000));
+		//已经过期，写入当前的桶，下一个tick投递
+		master.append(this.delayMessage("expired", now - 5000));
+		assertEquals(3, syncList.size());
+		for (DelayStoreSyncDTO delayStoreSyncDTO : syncList) {
+			assertEquals(DelayStoreSyncTypeEnum.RECORD.getCode(), delayStoreSyncDTO.getSyncType());
+			slave.applySync(delayStoreSyncDTO);
+		}
+		assertEquals(2, masterTimeWheel.getPendingCount());
+		this.assertSameFiles(masterDir, slaveDir);
+
+		//投递过期的消息，墓碑批量同步
+		DelayStoreSyncDTO expired = syncList.get(2);
+		assertEquals("expired", master.read(expired.getBucket(), expired.getPosition()).getMsgId());
+		syncList.clear();
+		master.markDelivered(expired.getBucket(), expired.getPosition());
+		master.flushDelivered();
+		assertEquals(1, syncList.size());
+		assertEquals(DelayStoreSyncTypeEnum.TOMBSTONE.getCode(), syncList.get(0).getSyncType());
+		slave.applySync(syncList.get(0));
+		this.assertSameFiles(masterDir, slaveDir);
+
+		//从节点切换为主节点，只加载没有投递的消息
+		TimeWheelModelManager failoverTimeWheel = this.newTimeWheel();
+		DelayMessageStore failover = new DelayMessageStore(slaveDir, BUCKET_MILLS, PRELOAD_MILLS, true, false, failoverTimeWheel);
+		failover.start();
+		assertEquals(1, failoverTimeWheel.getPendingCount());
+		assertTrue(expiredSlotModels.isEmpty());
+	}
+
+	@Test
+	public void recordsAreBinaryAndLegacyJsonRecordsAreStillReadable() throws Exception {
+		File storeDir = temporaryFolder.newFolder("legacy");
+		long dueTime = System.currentTimeMillis() - 1000;
+		byte[] content = JSON.toJSONBytes(this.delayMessage("legacy", dueTime).getData());
+		CRC32 crc32 = new CRC32();
+		crc32.update(content);
+		ByteBuffer record = ByteBuffer.allocate(20 + content.length);
+		record.putInt(0x4551_444C).putInt(content.length).putInt((int) crc32.getValue()).putLong(dueTime).put(content);
+		Files.write(new File(storeDir, dueTime / BUCKET_MILLS + ".log").toPath(), record.array());
+
+		DelayMessageStore delayMessageStore = new DelayMessageStore(storeDir, BUCKET_MILLS, PRELOAD_MILLS, false, false, this.newTimeWheel());
+		delayMessageStore.start();
+		MessageDTO legacy = delayMessageStore.read(dueTime / BUCKET_MILLS, 0);
+		assertEquals("legacy", legacy.getMsgId());
+		assertArrayEquals("body-legacy".getBytes(StandardCharsets.UTF_8), legacy.getBody());
+
+		//新写入的记录不再是json，写入一个新的桶，从头开始
+		long binaryDueTime = System.currentTimeMillis() + PRELOAD_MILLS * 5;
+		delayMessageStore.append(this.delayMessage("binary", binaryDueTime));
+		long binaryBucket = binaryDueTime / BUCKET_MILLS;
+		byte[] written = Files.readAllBytes(new File(storeDir, binaryBucket + ".log").toPath());
+		assertEquals(0x4551_4442, ByteBuffer.wrap(written).getInt(0));
+		assertFalse(new String(written, StandardCharsets.UTF_8).contains("\"msgId\""));
+		assertEquals("binary", delayMessageStore.read(binaryBucket, 0).getMsgId());
+	}
+
+	@Test
+	public void syncAppendWaitsForSlaveAndReturnsFailure() throws Exception {
+		List<Boolean> waitAckList = new ArrayList<>();
+		DelayMessageStore master = new DelayMessageStore(temporaryFolder.newFolder("sync"), BUCKET_MILLS, PRELOAD_MILLS, false, false, this.newTimeWheel());
+		master.setSyncHandler((delayStoreSyncDTO, waitAck) -> {
+			waitAckList.add(waitAck);
+			return waitAck ? "Slave node sync fail!" : null;
+		});
+		master.start();
+
+		DelayMessageDTO syncMessage = this.delayMessage("sync", System.currentTimeMillis() + 60000);
+		assertEquals("Slave node sync fail!", master.append(syncMessage));
+		DelayMessageDTO asyncMessage = this.delayMessage("async", System.currentTimeMillis() + 60000);
+		((MessageDTO) asyncMessage.getData()).setSendWay(MessageSendWay.ASYNC.getCode());
+		assertNull(master.append(asyncMessage));
+		assertEquals(2, waitAckList.size());
+		assertTrue(waitAckList.get(0));
+		assertFalse(waitAckList.get(1));
+
+		//主节点不接收同步，备用存储不接收写入
+		try {
+			master.applySync(new DelayStoreSyncDTO());
+			fail("master should not accept sync");
+		} catch (IllegalStateException expected) {
+		}
+		DelayMessageStore standby = new DelayMessageStore(temporaryFolder.newFolder("standby"), BUCKET_MILLS, PRELOAD_MILLS, false, true, this.newTimeWheel());
+		try {
+			standby.append(syncMessage);
+			fail("standby should not accept append");
+		} catch (IllegalStateException expected) {
+		}
+	}
+
+	@Test
+	public void loadSkipsCorruptBytesAndConcurrentSyncAppendsAreReadable() throws Exception {
+		File storeDir = temporaryFolder.newFolder("corrupt");
+		long dueTime = System.currentTimeMillis() + 30000;
+		long bucket = dueTime / BUCKET_MILLS;
+		byte[] first = this.legacyRecord("first", dueTime);
+		byte[] second = this.legacyRecord("second", dueTime);
+		ByteBuffer file = ByteBuffer.allocate(7 + first.length + 13 + second.length);
+		//开头的垃圾数据、两条记录之间写了一半的记录
+		file.put(new byte[]{1, 2, 3, 4, 5, 6, 7}).put(first).put(second, 0, 13).put(second);
+		Files.write(new File(storeDir, bucket + ".log").toPath(), file.array());
+
+		TimeWheelModelManager timeWheelModelManager = this.newTimeWheel();
+		DelayMessageStore delayMessageStore = new DelayMessageStore(storeDir, BUCKET_MILLS, PRELOAD_MILLS, true, false, timeWheelModelManager);
+		delayMessageStore.start();
+		assertEquals(2, timeWheelModelManager.getPendingCount());
+		assertEquals("first", delayMessageStore.read(bucket, 7).getMsgId());
+		assertEquals("second", delayMessageStore.read(bucket, 7 + first.length + 13).getMsgId());
+
+		//同步刷盘下并发追加，每条记录都可以从自己的位置读出
+		int writerCount = 8;
+		List<Thread> writerList = new ArrayList<>();
+		for (int i = 0; i < writerCount; i++) {
+			String msgId = "concurrent-" + i;
+			Thread writer = new Thread(() -> {
+				try {
+					delayMessageStore.append(this.delayMessage(msgId, dueTime));
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			writerList.add(writer);
+			writer.start();
+		}
+		for (Thread writer : writerList) {
+			writer.join(5000);
+		}
+		assertEquals(2 + writerCount, timeWheelModelManager.getPendingCount());
+		assertTrue(delayMessageStore.read(bucket, file.capacity()).getMsgId().startsWith("concurrent-"));
+		TimeWheelModelManager reloadedTimeWheel = this.newTimeWheel();
+		new DelayMessageStore(storeDir, BUCKET_MILLS, PRELOAD_MILLS, true, false, reloadedTimeWheel).start();
+		assertEquals(2 + writerCount, reloadedTimeWheel.getPendingCount());
+	}
+
+	private byte[] legacyRecord(String msgId, long dueTime) {
+		byte[] content = JSON.toJSONBytes(this.delayMessage(msgId, dueTime).getData());
+		CRC32 crc32 = new CRC32();
+		crc32.update(content);
+		ByteBuffer record = ByteBuffer.allocate(20 + content.length);
+		record.putInt(0x4551_444C).putInt(content.length).putInt((int) crc32.getValue()).putLong(dueTime).put(content);
+		return record.array();
+	}
+
+	private DelayMessageDTO delayMessage(String msgId, long dueTime) {
+		MessageDTO messageDTO = new MessageDTO();
+		messageDTO.setMsgId(msgId);
+		messageDTO.setTopic("delay_order_topic");
+		messageDTO.setDelay(30);
+		messageDTO.setBody(("body-" + msgId).getBytes(StandardCharsets.UTF_8));
+		DelayMessageDTO delayMessageDTO = new DelayMessageDTO();
+		delayMessageDTO.setData(messageDTO);
+		delayMessageDTO.setSlotStoreType(SlotStoreTypeEnum.DELAY_MESSAGE_DTO);
+		delayMessageDTO.setNextExecuteTime(dueTime);
+		return delayMessageDTO;
+	}
+
+	private TimeWheelModelManager newTimeWheel() {
+		TimeWheelModelManager timeWheelModelManager = new TimeWheelModelManager();
+		timeWheelModelManager.init(new CapturingEventBus(), 100, 3);
+		return timeWheelModelManager;
+	}
+
+	private void assertSameFiles(File expectedDir, File actualDir) throws IOException {
+		String[] fileNames = expectedDir.list();
+		assertTrue(fileNames != null && fileNames.length > 0);
+		assertEquals(fileNames.length, actualDir.list().length);
+		for (String fileName : fileNames) {
+			assertArrayEquals(fileName, Files.readAllBytes(new File(expectedDir, fileName).toPath()),
+				Files.readAllBytes(new File(actualDir, fileName).toPath()));
+		}
+	}
+
+	/**
+	 * 不加载监听器，直接收集到期任务
+	 */
+	private class CapturingEventBus extends EventBus {
+
+		CapturingEventBus() {
+			super("delay-store-test-task");
+		}
+
+		@Override
+		public void init() {
+		}
+
+		@Override
+		public boolean publish(Event event) {
+			expiredSlotModels.addAll(((TimeWheelEvent) event).getTimeWheelSlotModelList());
+			return true;
+		}
+	}
+}
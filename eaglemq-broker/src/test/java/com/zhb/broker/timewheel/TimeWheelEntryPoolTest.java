@@ -0,0 +1,136 @@
+package com.zhb.broker.timewheel;
+
+import com.zhb.common.dto.MessageRetryDTO;
+import com.zhb.common.dto.TxMessageDTO;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * 时间轮任务池的编码：每种任务解码之后和放入时一致，数字字段在int的整个范围内都不会被截断
+ */
+public class TimeWheelEntryPoolTest {
+
+	private final TimeWheelEntryPool entryPool = new TimeWheelEntryPool();
+
+	@Test
+	public void retryEntryKeepsFullIntRange() {
+		int[][] cases = new int[][]{
+			//队列id、重试次数、消息长度
+			{0, 0, 0},
+			{0xFFFF, 0xFFFF, 1},
+			{0x10000, 0x10000, 4096},
+			{Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE},
+			//没有指定队列
+			{-1, 3, 128},
+		};
+		int[] entries = new int[cases.length];
+		for (int i = 0; i < cases.length; i++) {
+			entries[i] = entryPool.allocate(this.retryMessage("order_topic", "group_a", cases[i][0], cases[i][1], cases[i][2], Long.MAX_VALUE - i), i);
+		}
+		for (int i = 0; i < cases.length; i++) {
+			TimeWheelSlotModel timeWheelSlotModel = entryPool.release(entries[i]);
+			assertEquals(MessageRetryDTO.class, timeWheelSlotModel.getStoreType());
+			assertEquals(i, timeWheelSlotModel.getDeadlineTick());
+			MessageRetryDTO messageRetryDTO = (MessageRetryDTO) timeWheelSlotModel.getData();
+			assertEquals("order_topic", messageRetryDTO.getTopic());
+			assertEquals("group_a", messageRetryDTO.getConsumeGroup());
+			assertEquals(cases[i][0], messageRetryDTO.getQueueId());
+			assertEquals(cases[i][1], messageRetryDTO.getCurrentRetryTimes());
+			assertEquals(cases[i][2], messageRetryDTO.getSourceCommitLogSize());
+			assertEquals(Long.MAX_VALUE - i, messageRetryDTO.getSourceCommitLogOffset());
+		}
+		assertEquals(0, entryPool.getLiveCount());
+	}
+
+	@Test
+	public void retryKeysDoNotMixTopicGroupAndQueue() {
+		String[][] keys = new String[][]{
+			{"order_topic", "group_a"},
+			{"order_topic", "group_b"},
+			{"pay_topic", "group_a"},
+		};
+		int[] entries = new int[keys.length * 2];
+		for (int i = 0; i < entries.length; i++) {
+			String[] key = keys[i % keys.length];
+			entries[i] = entryPool.allocate(this.retryMessage(key[0], key[1], i / keys.length, 1, 64, i), 0);
+		}
+		for (int i = 0; i < entries.length; i++) {
+			MessageRetryDTO messageRetryDTO = (MessageRetryDTO) entryPool.release(entries[i]).getData();
+			assertEquals(keys[i % keys.length][0], messageRetryDTO.getTopic());
+			assertEquals(keys[i % keys.length][1], messageRetryDTO.getConsumeGroup());
+			assertEquals(i / keys.length, messageRetryDTO.getQueueId());
+			assertEquals(i, messageRetryDTO.getSourceCommitLogOffset());
+		}
+	}
+
+	@Test
+	public void delayAndTxEntriesRoundTrip() {
+		DelayMessageDTO delayMessageDTO = new DelayMessageDTO();
+		delayMessageDTO.setSlotStoreType(SlotStoreTypeEnum.DELAY_MESSAGE_DTO);
+		delayMessageDTO.setStoreBucket(Long.MAX_VALUE);
+		delayMessageDTO.setStoreOffset(Long.MAX_VALUE - 1);
+		int delayEntry = entryPool.allocate(delayMessageDTO, 7);
+
+		TxMessageDTO txMessageDTO = new TxMessageDTO();
+		txMessageDTO.setMsgId("tx-msg-1");
+		DelayMessageDTO txDelayMessageDTO = new DelayMessageDTO();
+		txDelayMessageDTO.setSlotStoreType(SlotStoreTypeEnum.TX_MESSAGE_DTO);
+		txDelayMessageDTO.setData(txMessageDTO);
+		int txEntry = entryPool.allocate(txDelayMessageDTO, 9);
+		assertEquals(2, entryPool.getLiveCount());
+
+		TimeWheelSlotModel delaySlotModel = entryPool.release(delayEntry);
+		assertEquals(7, delaySlotModel.getDeadlineTick());
+		assertEquals(Long.MAX_VALUE, delaySlotModel.getStoreBucket());
+		assertEquals(Long.MAX_VALUE - 1, delaySlotModel.getStoreOffset());
+		assertNull(delaySlotModel.getData());
+		TimeWheelSlotModel txSlotModel = entryPool.release(txEntry);
+		assertEquals(TxMessageDTO.class, txSlotModel.getStoreType());
+		assertEquals("tx-msg-1", ((TxMessageDTO) txSlotModel.getData()).getMsgId());
+	}
+
+	@Test
+	public void releasedEntryIsReusedAndLinkIsIndependentOfPayload() {
+		int first = entryPool.allocate(this.retryMessage("order_topic", "group_a", Integer.MAX_VALUE, Integer.MAX_VALUE, 1, 0), 0);
+		int second = entryPool.allocate(this.retryMessage("order_topic", "group_a", 0, 0, 1, 0), 0);
+		assertEquals(TimeWheelEntryPool.NIL, entryPool.next(first));
+		entryPool.setNext(first, second);
+		assertEquals(second, entryPool.next(first));
+		//链接不会覆盖任务的类型和key
+		MessageRetryDTO messageRetryDTO = (MessageRetryDTO) entryPool.release(first).getData();
+		assertEquals(Integer.MAX_VALUE, messageRetryDTO.getQueueId());
+		assertEquals(Integer.MAX_VALUE, messageRetryDTO.getCurrentRetryTimes());
+
+		assertEquals(first, entryPool.allocate(this.retryMessage("order_topic", "group_a", 1, 1, 1, 0), 0));
+		assertEquals(2, entryPool.getLiveCount());
+	}
+
+	@Test
+	public void delayMessageMustBeStoredFirst() {
+		DelayMessageDTO delayMessageDTO = new DelayMessageDTO();
+		delayMessageDTO.setSlotStoreType(SlotStoreTypeEnum.DELAY_MESSAGE_DTO);
+		try {
+			entryPool.allocate(delayMessageDTO, 0);
+			fail("delay message without store position should be rejected");
+		} catch (IllegalArgumentException expected) {
+		}
+		assertEquals(0, entryPool.getLiveCount());
+	}
+
+	private DelayMessageDTO retryMessage(String topic, String consumeGroup, int queueId, int retryTimes, int size, long offset) {
+		MessageRetryDTO messageRetryDTO = new MessageRetryDTO();
+		messageRetryDTO.setTopic(topic);
+		messageRetryDTO.setConsumeGroup(consumeGroup);
+		messageRetryDTO.setQueueId(queueId);
+		messageRetryDTO.setCurrentRetryTimes(retryTimes);
+		messageRetryDTO.setSourceCommitLogSize(size);
+		messageRetryDTO.setSourceCommitLogOffset(offset);
+		DelayMessageDTO delayMessageDTO = new DelayMessageDTO();
+		delayMessageDTO.setSlotStoreType(SlotStoreTypeEnum.MESSAGE_RETRY_DTO);
+		delayMessageDTO.setData(messageRetryDTO);
+		return delayMessageDTO;
+	}
+}
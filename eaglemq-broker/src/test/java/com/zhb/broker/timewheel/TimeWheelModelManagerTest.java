@@ -0,0 +1,136 @@
+package com.zhb.broker.timewheel;
+
+import com.zhb.broker.event.model.TimeWheelEvent;
+import com.zhb.common.event.EventBus;
+import com.zhb.common.event.model.Event;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 五层时间轮的逐层降级：每个任务都在自己的到期tick执行，不会提前也不会延后
+ * <p>
+ * tick为100ms时各层每个槽覆盖的tick数量为 1、10、600、36000、864000
+ */
+public class TimeWheelModelManagerTest {
+
+	private static final int TICK_MILLS = 100;
+	private static final long SECOND_TICKS = 10;
+	private static final long MINUTE_TICKS = 600;
+	private static final long HOUR_TICKS = 36000;
+	private static final long DAY_TICKS = 864000;
+	private static final int DAY_SLOT_COUNT = 3;
+
+	private final List<TimeWheelSlotModel> expiredSlotModels = new ArrayList<>();
+	private TimeWheelModelManager timeWheelModelManager;
+
+	@Before
+	public void setUp() {
+		timeWheelModelManager = new TimeWheelModelManager();
+		timeWheelModelManager.init(new CapturingEventBus(), TICK_MILLS, DAY_SLOT_COUNT);
+	}
+
+	@Test
+	public void entriesCascadeThroughEveryLevelAndFireOnTime() {
+		long[] deadlineTicks = new long[]{
+			//最底层
+			7,
+			//秒级，落在和当前tick不同的槽里
+			SECOND_TICKS * 5 + 3,
+			//分钟级
+			MINUTE_TICKS * 7 + SECOND_TICKS * 11 + 9,
+			//小时级，降级时要经过分钟和秒两层
+			HOUR_TICKS * 3 + MINUTE_TICKS * 59 + SECOND_TICKS * 59 + 9,
+			//天级，依次经过全部五层
+			DAY_TICKS * 2 + HOUR_TICKS * 5 + MINUTE_TICKS * 3 + SECOND_TICKS * 7 + 4,
+			//刚好落在每一层的槽边界上
+			DAY_TICKS,
+			//超过天级的范围，先在天级多转一圈
+			DAY_TICKS * (DAY_SLOT_COUNT + 2) + HOUR_TICKS + 1,
+		};
+		for (int i = 0; i < deadlineTicks.length; i++) {
+			timeWheelModelManager.add(this.delayMessage(i), deadlineTicks[i]);
+		}
+		assertEquals(deadlineTicks.length, timeWheelModelManager.getPendingCount());
+		assertTrue(expiredSlotModels.isEmpty());
+
+		long[] sortedDeadlineTicks = deadlineTicks.clone();
+		Arrays.sort(sortedDeadlineTicks);
+		for (long deadlineTick : sortedDeadlineTicks) {
+			timeWheelModelManager.advanceTo(deadlineTick - 1);
+			assertTrue("entry fired before tick " + deadlineTick, expiredSlotModels.isEmpty());
+
+			timeWheelModelManager.advanceTo(deadlineTick);
+			assertEquals("entry did not fire at tick " + deadlineTick, 1, expiredSlotModels.size());
+			TimeWheelSlotModel timeWheelSlotModel = expiredSlotModels.remove(0);
+			assertEquals(deadlineTick, timeWheelSlotModel.getDeadlineTick());
+			assertEquals(deadlineTicks[(int) timeWheelSlotModel.getStoreBucket()], deadlineTick);
+		}
+		assertEquals(0, timeWheelModelManager.getPendingCount());
+	}
+
+	@Test
+	public void entriesInSameSlotFireTogetherAfterLongPause() {
+		long deadlineTick = HOUR_TICKS * 2 + 1;
+		for (int i = 0; i < 100; i++) {
+			timeWheelModelManager.add(this.delayMessage(i), deadlineTick);
+		}
+		timeWheelModelManager.add(this.delayMessage(100), deadlineTick + 1);
+
+		//扫描线程长时间没有运行，一次补齐所有错过的tick
+		timeWheelModelManager.advanceTo(DAY_TICKS);
+		assertEquals(101, expiredSlotModels.size());
+		assertEquals(0, timeWheelModelManager.getPendingCount());
+	}
+
+	@Test
+	public void entryAlreadyDueIsPublishedOnAdd() {
+		timeWheelModelManager.advanceTo(MINUTE_TICKS);
+		timeWheelModelManager.add(this.delayMessage(0), MINUTE_TICKS - 1);
+		assertEquals(1, expiredSlotModels.size());
+		assertEquals(0, timeWheelModelManager.getPendingCount());
+
+		//当前tick之后的第一个tick
+		timeWheelModelManager.add(this.delayMessage(1), MINUTE_TICKS + 1);
+		assertEquals(1, expiredSlotModels.size());
+		timeWheelModelManager.advanceTo(MINUTE_TICKS + 1);
+		assertEquals(2, expiredSlotModels.size());
+	}
+
+	/**
+	 * 用桶编号区分不同的任务
+	 */
+	private DelayMessageDTO delayMessage(int index) {
+		DelayMessageDTO delayMessageDTO = new DelayMessageDTO();
+		delayMessageDTO.setSlotStoreType(SlotStoreTypeEnum.DELAY_MESSAGE_DTO);
+		delayMessageDTO.setStoreBucket(index);
+		delayMessageDTO.setStoreOffset(0);
+		return delayMessageDTO;
+	}
+
+	/**
+	 * 不加载监听器，直接收集到期任务
+	 */
+	private class CapturingEventBus extends EventBus {
+
+		CapturingEventBus() {
+			super("time-wheel-test-task");
+		}
+
+		@Override
+		public void init() {
+		}
+
+		@Override
+		public boolean publish(Event event) {
+			expiredSlotModels.addAll(((TimeWheelEvent) event).getTimeWheelSlotModelList());
+			return true;
+		}
+	}
+}
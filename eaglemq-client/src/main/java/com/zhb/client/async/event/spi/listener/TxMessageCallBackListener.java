@@ -1,8 +1,8 @@
 package com.zhb.client.async.event.spi.listener;
 
-import com.alibaba.fastjson.JSON;
 import com.zhb.client.async.event.model.TxMessageCallBackEvent;
 import com.zhb.client.common.CommonCache;
+import com.zhb.common.coder.SerializerManager;
 import com.zhb.common.coder.TcpMsg;
 import com.zhb.common.dto.MessageDTO;
 import com.zhb.common.dto.TxMessageCallbackReqDTO;
@@ -32,13 +32,13 @@ public class TxMessageCallBackListener implements Listener<TxMessageCallBackEven
         if(LocalTransactionState.COMMIT == localTransactionState) {
             messageDTO.setTxFlag(TxMessageFlagEnum.REMAIN_HALF_ACK.getCode());
             messageDTO.setLocalTxState(LocalTransactionState.COMMIT.getCode());
-            TcpMsg remainHalfAckMsg = new TcpMsg(BrokerEventCode.PUSH_MSG.getCode(), JSON.toJSONBytes(messageDTO));
+            TcpMsg remainHalfAckMsg = SerializerManager.encode(BrokerEventCode.PUSH_MSG.getCode(), messageDTO);
             event.getChannelHandlerContext().writeAndFlush(remainHalfAckMsg);
             System.out.println("commit callback");
         } else if(LocalTransactionState.ROLLBACK == localTransactionState) {
             messageDTO.setTxFlag(TxMessageFlagEnum.REMAIN_HALF_ACK.getCode());
             messageDTO.setLocalTxState(LocalTransactionState.ROLLBACK.getCode());
-            TcpMsg remainHalfAckMsg = new TcpMsg(BrokerEventCode.PUSH_MSG.getCode(), JSON.toJSONBytes(messageDTO));
+            TcpMsg remainHalfAckMsg = SerializerManager.encode(BrokerEventCode.PUSH_MSG.getCode(), messageDTO);
             event.getChannelHandlerContext().writeAndFlush(remainHalfAckMsg);
             System.out.println("rollback callback");
         }
@@ -1,5 +1,6 @@
 package com.zhb.client.common;
 
+import com.zhb.client.consumer.PushConsumeTask;
 import com.zhb.common.remote.BrokerNettyRemoteClient;
 import com.zhb.common.transaction.TransactionListener;
 
@@ -17,6 +18,16 @@ public class CommonCache {
     private static List<String> brokerAddressList;
     private static Map<String, BrokerNettyRemoteClient> brokerNettyRemoteClientMap = new ConcurrentHashMap<>();
     private static Map<String, TransactionListener> transactionListenerMap = new ConcurrentHashMap<>();
+    //推送模式的订阅id和消费任务的映射，收到broker推送的消息时按照订阅id找到对应的消费任务
+    private static Map<String, PushConsumeTask> pushConsumeTaskMap = new ConcurrentHashMap<>();
+
+    public static Map<String, PushConsumeTask> getPushConsumeTaskMap() {
+        return pushConsumeTaskMap;
+    }
+
+    public static void setPushConsumeTaskMap(Map<String, PushConsumeTask> pushConsumeTaskMap) {
+        CommonCache.pushConsumeTaskMap = pushConsumeTaskMap;
+    }
 
     public static Map<String, TransactionListener> getTransactionListenerMap() {
         return transactionListenerMap;
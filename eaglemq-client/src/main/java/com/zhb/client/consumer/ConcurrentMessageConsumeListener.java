@@ -1,16 +1,11 @@
 package com.zhb.client.consumer;
 
-import java.util.List;
-
 /**
  * @Author idea
  * @Date: Created in 11:09 2024/6/16
  * @Description 多线程消费监听器
+ * 同一个队列的消息会被多个消费线程并行处理，不保证消费顺序，消费进度按照队列中最小的未完成消息位置确认
  */
-public class ConcurrentMessageConsumeListener implements MessageConsumeListener{
+public abstract class ConcurrentMessageConsumeListener implements MessageConsumeListener {
 
-    @Override
-    public ConsumeResult consume(List<ConsumeMessage> consumeMessages) {
-        return null;
-    }
 }
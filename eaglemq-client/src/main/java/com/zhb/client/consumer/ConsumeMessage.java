@@ -11,6 +11,9 @@ public class ConsumeMessage {
 
     private int queueId;
 
+    //消息索引在consumeQueue中的位置，同一个队列内按照这个位置确定消息顺序和确认进度
+    private int consumeQueueOffset;
+
     private ConsumeMsgCommitLogDTO consumeMsgCommitLogDTO;
 
     public int getQueueId() {
@@ -21,6 +24,14 @@ public class ConsumeMessage {
         this.queueId = queueId;
     }
 
+    public int getConsumeQueueOffset() {
+        return consumeQueueOffset;
+    }
+
+    public void setConsumeQueueOffset(int consumeQueueOffset) {
+        this.consumeQueueOffset = consumeQueueOffset;
+    }
+
     public ConsumeMsgCommitLogDTO getConsumeMsgCommitLogDTO() {
         return consumeMsgCommitLogDTO;
     }
@@ -0,0 +1,267 @@
+package com.zhb.client.consumer;
+
+import com.alibaba.fastjson.JSON;
+import com.zhb.common.coder.SerializerManager;
+import com.zhb.common.coder.TcpMsg;
+import com.zhb.common.constants.BrokerConstants;
+import com.zhb.common.dto.ConsumeCommitOffsetReqDTO;
+import com.zhb.common.dto.ConsumeMsgCommitLogDTO;
+import com.zhb.common.dto.ConsumeMsgRespDTO;
+import com.zhb.common.enums.BrokerEventCode;
+import com.zhb.common.enums.ConsumeResultStatus;
+import com.zhb.common.remote.BrokerNettyRemoteClient;
+import org.apache.commons.collections4.CollectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @Description 拉取模式的消息消费服务
+ * 拉取线程只负责把消息放入每个队列的本地缓存ProcessQueue，消息交给消费线程池处理，拉取和消费互不阻塞
+ * 监听器是ConcurrentMessageConsumeListener时同一个队列的消息并行消费，不保证顺序；
+ * 其他监听器按照队列顺序消费，同一个队列同一时刻只有一个消费线程，不同队列之间并行
+ * 消费进度不需要每批消息同步确认一次：每个队列最早的未完成消息位置作为消费位点，同一个broker同一个topic下所有队列的位点合并成一个请求，
+ * 按照固定间隔或者完成的消息数量达到阈值时异步单向发送，位点是绝对位置，发送失败之后下一次提交会覆盖
+ */
+public class ConsumeMessageService {
+
+    private final Logger logger = LoggerFactory.getLogger(ConsumeMessageService.class);
+    private final static int RETRY_CONSUME_DELAY_MILLS = 1000; //重试请求发送失败时，1s之后重新消费这批消息
+
+    private final DefaultMqConsumer defaultMqConsumer;
+    private final boolean orderly;
+    //key是brokerReqId@topic@queueId
+    private final Map<String, ProcessQueue> processQueueMap = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor consumeExecutor;
+    //距离上一次提交位点之后完成的消息数量
+    private final AtomicInteger uncommittedMsgCount = new AtomicInteger(0);
+    //是否已经有一次因为达到数量阈值触发的提交在等待执行
+    private final AtomicBoolean commitTriggered = new AtomicBoolean(false);
+    private final ScheduledExecutorService commitExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "consume-offset-commit-task");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ConsumeMessageService(DefaultMqConsumer defaultMqConsumer) {
+        this.defaultMqConsumer = defaultMqConsumer;
+        this.orderly = !(defaultMqConsumer.getMessageConsumeListener() instanceof ConcurrentMessageConsumeListener);
+        int consumeThreadNum = defaultMqConsumer.getConsumeThreadNum();
+        this.consumeExecutor = new ThreadPoolExecutor(consumeThreadNum, consumeThreadNum, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "consume-msg-worker-task");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        long commitIntervalMills = defaultMqConsumer.getOffsetCommitIntervalMills();
+        commitExecutor.scheduleWithFixedDelay(this::commitOffsets, commitIntervalMills, commitIntervalMills, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 构建拉取请求中每个队列的拉取位置，本地缓存已满的队列标记为暂停拉取，还没有收到过消息的队列不指定位置，由broker从已提交的消费进度开始返回
+     *
+     * @param brokerReqId broker地址
+     * @param topic       主题
+     * @return key是队列id，value是拉取位置
+     */
+    public Map<Integer, Integer> getPullOffsetMap(String brokerReqId, String topic) {
+        Map<Integer, Integer> queueOffsetMap = new HashMap<>();
+        String keyPrefix = brokerReqId + "@" + topic + "@";
+        for (Map.Entry<String, ProcessQueue> processQueueEntry : processQueueMap.entrySet()) {
+            if (!processQueueEntry.getKey().startsWith(keyPrefix)) {
+                continue;
+            }
+            ProcessQueue processQueue = processQueueEntry.getValue();
+            int nextPullOffset = processQueue.getNextPullOffset();
+            if (nextPullOffset < 0) {
+                continue;
+            }
+            if (processQueue.isFull(defaultMqConsumer.getPullThresholdForQueue())) {
+                queueOffsetMap.put(processQueue.getQueueId(), BrokerConstants.PAUSED_QUEUE_OFFSET);
+            } else {
+                queueOffsetMap.put(processQueue.getQueueId(), nextPullOffset);
+            }
+        }
+        return queueOffsetMap;
+    }
+
+    /**
+     * 提交一个队列拉取到的消息，放入本地缓存之后交给消费线程池
+     *
+     * @param brokerReqId       broker地址
+     * @param topic             主题
+     * @param consumeMsgRespDTO 单个队列拉取到的消息
+     */
+    public void submit(String brokerReqId, String topic, ConsumeMsgRespDTO consumeMsgRespDTO) {
+        List<ConsumeMsgCommitLogDTO> commitLogBodyList = consumeMsgRespDTO.getCommitLogContentList();
+        if (CollectionUtils.isEmpty(commitLogBodyList)) {
+            return;
+        }
+        int queueId = consumeMsgRespDTO.getQueueId();
+        ProcessQueue processQueue = processQueueMap.computeIfAbsent(brokerReqId + "@" + topic + "@" + queueId,
+                key -> new ProcessQueue(brokerReqId, topic, queueId));
+        List<ConsumeMessage> consumeMessages = new ArrayList<>(commitLogBodyList.size());
+        for (ConsumeMsgCommitLogDTO consumeMsgCommitLogDTO : commitLogBodyList) {
+            ConsumeMessage consumeMessage = new ConsumeMessage();
+            consumeMessage.setQueueId(queueId);
+            consumeMessage.setConsumeQueueOffset(consumeMsgCommitLogDTO.getConsumeQueueOffset());
+            consumeMessage.setConsumeMsgCommitLogDTO(consumeMsgCommitLogDTO);
+            consumeMessages.add(consumeMessage);
+        }
+        List<ConsumeMessage> acceptedMessages = processQueue.putMessages(consumeMessages, orderly);
+        if (orderly) {
+            this.submitOrderly(processQueue);
+            return;
+        }
+        int batchSize = defaultMqConsumer.getConsumeMessageBatchSize();
+        for (int i = 0; i < acceptedMessages.size(); i += batchSize) {
+            List<ConsumeMessage> batch = acceptedMessages.subList(i, Math.min(i + batchSize, acceptedMessages.size()));
+            consumeExecutor.execute(() -> this.consumeConcurrently(processQueue, batch));
+        }
+    }
+
+    private void submitOrderly(ProcessQueue processQueue) {
+        if (processQueue.tryStartConsuming()) {
+            consumeExecutor.execute(() -> this.consumeOrderly(processQueue, null));
+        }
+    }
+
+    private void consumeConcurrently(ProcessQueue processQueue, List<ConsumeMessage> consumeMessages) {
+        if (this.consume(processQueue, consumeMessages)) {
+            return;
+        }
+        commitExecutor.schedule(() -> consumeExecutor.execute(() -> this.consumeConcurrently(processQueue, consumeMessages)),
+                RETRY_CONSUME_DELAY_MILLS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 顺序消费，持续处理队列中等待的消息直到没有消息为止，处理失败时保持对队列的占有，稍后从失败的这批消息继续
+     *
+     * @param processQueue   队列缓存
+     * @param failedMessages 上一次处理失败的消息，没有时为null
+     */
+    private void consumeOrderly(ProcessQueue processQueue, List<ConsumeMessage> failedMessages) {
+        List<ConsumeMessage> consumeMessages = failedMessages;
+        while (true) {
+            if (consumeMessages == null) {
+                consumeMessages = processQueue.takePendingMessages(defaultMqConsumer.getConsumeMessageBatchSize());
+                if (consumeMessages.isEmpty()) {
+                    //取不到消息时已经释放了对队列的占有，之后放入的消息由拉取线程重新提交
+                    return;
+                }
+            }
+            if (!this.consume(processQueue, consumeMessages)) {
+                List<ConsumeMessage> retryMessages = consumeMessages;
+                commitExecutor.schedule(() -> consumeExecutor.execute(() -> this.consumeOrderly(processQueue, retryMessages)),
+                        RETRY_CONSUME_DELAY_MILLS, TimeUnit.MILLISECONDS);
+                return;
+            }
+            consumeMessages = null;
+        }
+    }
+
+    /**
+     * 调用监听器处理一批消息，稍后重试的消息发送重试请求，监听器抛出异常或者没有返回结果时按照稍后重试处理
+     *
+     * @return 是否处理完成，重试请求发送失败时返回false，需要稍后重新处理这批消息
+     */
+    private boolean consume(ProcessQueue processQueue, List<ConsumeMessage> consumeMessages) {
+        ConsumeResult consumeResult = null;
+        try {
+            consumeResult = defaultMqConsumer.getMessageConsumeListener().consume(consumeMessages);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("consume message error, topic is {}, queueId is {}", processQueue.getTopic(), processQueue.getQueueId(), e);
+        }
+        if (consumeResult != null && consumeResult.getConsumeResultStatus() == ConsumeResultStatus.CONSUME_SUCCESS.getCode()) {
+            this.complete(processQueue, consumeMessages);
+            return true;
+        }
+        BrokerNettyRemoteClient brokerNettyRemoteClient = defaultMqConsumer.getBrokerNettyRemoteClientMap().get(processQueue.getBrokerReqId());
+        if (brokerNettyRemoteClient == null) {
+            logger.error("broker {} is offline, send consume later msg fail", processQueue.getBrokerReqId());
+            return false;
+        }
+        List<ConsumeMsgCommitLogDTO> commitLogBodyList = new ArrayList<>(consumeMessages.size());
+        for (ConsumeMessage consumeMessage : consumeMessages) {
+            commitLogBodyList.add(consumeMessage.getConsumeMsgCommitLogDTO());
+        }
+        try {
+            TcpMsg consumeLaterMsg = defaultMqConsumer.buildConsumeLaterMsg(processQueue.getTopic(), processQueue.getQueueId(), commitLogBodyList);
+            TcpMsg resp = brokerNettyRemoteClient.sendSyncMsg(consumeLaterMsg);
+            logger.info("consume later resp:{}", JSON.toJSONString(resp));
+        } catch (Exception e) {
+            logger.error("send consume later msg error, topic is {}, queueId is {}", processQueue.getTopic(), processQueue.getQueueId(), e);
+            return false;
+        }
+        //消息已经放入重试队列，和消费成功一样推进消费位点
+        this.complete(processQueue, consumeMessages);
+        return true;
+    }
+
+    private void complete(ProcessQueue processQueue, List<ConsumeMessage> consumeMessages) {
+        processQueue.complete(consumeMessages);
+        if (uncommittedMsgCount.addAndGet(consumeMessages.size()) >= defaultMqConsumer.getOffsetCommitThreshold()
+                && commitTriggered.compareAndSet(false, true)) {
+            commitExecutor.execute(this::commitOffsets);
+        }
+    }
+
+    /**
+     * 提交所有队列的消费位点，同一个broker同一个topic下的队列合并成一个请求
+     */
+    private void commitOffsets() {
+        commitTriggered.set(false);
+        uncommittedMsgCount.set(0);
+        Map<String, Map<Integer, Integer>> commitOffsetMap = new HashMap<>();
+        Map<String, ProcessQueue> sampleQueueMap = new HashMap<>();
+        for (ProcessQueue processQueue : processQueueMap.values()) {
+            int commitOffset = processQueue.getCommitOffset();
+            if (commitOffset < 0) {
+                continue;
+            }
+            String key = processQueue.getBrokerReqId() + "@" + processQueue.getTopic();
+            commitOffsetMap.computeIfAbsent(key, k -> new HashMap<>()).put(processQueue.getQueueId(), commitOffset);
+            sampleQueueMap.putIfAbsent(key, processQueue);
+        }
+        for (Map.Entry<String, Map<Integer, Integer>> commitOffsetEntry : commitOffsetMap.entrySet()) {
+            ProcessQueue sampleQueue = sampleQueueMap.get(commitOffsetEntry.getKey());
+            BrokerNettyRemoteClient brokerNettyRemoteClient = defaultMqConsumer.getBrokerNettyRemoteClientMap().get(sampleQueue.getBrokerReqId());
+            if (brokerNettyRemoteClient == null || !brokerNettyRemoteClient.isChannelActive()) {
+                continue;
+            }
+            Map<Integer, Integer> queueCommitOffsetMap = commitOffsetEntry.getValue();
+            ConsumeCommitOffsetReqDTO consumeCommitOffsetReqDTO = new ConsumeCommitOffsetReqDTO();
+            consumeCommitOffsetReqDTO.setTopic(sampleQueue.getTopic());
+            consumeCommitOffsetReqDTO.setConsumeGroup(defaultMqConsumer.getConsumeGroup());
+            consumeCommitOffsetReqDTO.setQueueCommitOffsetMap(queueCommitOffsetMap);
+            String keyPrefix = commitOffsetEntry.getKey() + "@";
+            try {
+                TcpMsg commitReq = SerializerManager.encode(BrokerEventCode.CONSUME_COMMIT_OFFSET.getCode(), consumeCommitOffsetReqDTO);
+                brokerNettyRemoteClient.sendAsyncMsg(commitReq, channelFuture -> {
+                    if (!channelFuture.isSuccess()) {
+                        logger.error("commit consume offset error, broker is {}, topic is {}", sampleQueue.getBrokerReqId(), sampleQueue.getTopic(), channelFuture.cause());
+                        return;
+                    }
+                    for (Map.Entry<Integer, Integer> queueCommitOffsetEntry : queueCommitOffsetMap.entrySet()) {
+                        ProcessQueue processQueue = processQueueMap.get(keyPrefix + queueCommitOffsetEntry.getKey());
+                        if (processQueue != null) {
+                            processQueue.commitSuccess(queueCommitOffsetEntry.getValue());
+                        }
+                    }
+                });
+            } catch (Exception e) {
+                //定时任务抛出异常之后不会再执行，这里不能把异常抛出去
+                logger.error("commit consume offset error, broker is {}, topic is {}", sampleQueue.getBrokerReqId(), sampleQueue.getTopic(), e);
+            }
+        }
+    }
+}
@@ -8,7 +8,6 @@ import com.zhb.common.enums.BrokerEventCode;
 import com.zhb.common.event.EventBus;
 import com.zhb.common.remote.BrokerNettyRemoteClient;
 
-import java.util.UUID;
 
 /**
  * @Author idea
@@ -27,7 +26,7 @@ public class CreateTopicClient {
         CreateTopicReqDTO createTopicReqDTO = new CreateTopicReqDTO();
         createTopicReqDTO.setTopic(topic);
         createTopicReqDTO.setQueueSize(3);
-        TcpMsg respMsg = brokerNettyRemoteClient.sendSyncMsg(new TcpMsg(BrokerEventCode.CREATE_TOPIC.getCode(), JSON.toJSONBytes(createTopicReqDTO)), UUID.randomUUID().toString());
+        TcpMsg respMsg = brokerNettyRemoteClient.sendSyncMsg(new TcpMsg(BrokerEventCode.CREATE_TOPIC.getCode(), JSON.toJSONBytes(createTopicReqDTO)));
         System.out.println("resp:" + JSON.toJSONString(respMsg));
         brokerNettyRemoteClient.close();
     }
@@ -3,7 +3,10 @@ package com.zhb.client.consumer;
 import com.alibaba.fastjson.JSON;
 import org.apache.commons.collections4.CollectionUtils;
 import com.zhb.client.netty.BrokerRemoteRespHandler;
+import com.zhb.common.coder.SerializerManager;
 import com.zhb.common.coder.TcpMsg;
+import com.zhb.common.constants.BrokerConstants;
+import com.zhb.common.constants.TcpConstants;
 import com.zhb.common.dto.*;
 import com.zhb.common.enums.*;
 import com.zhb.common.event.EventBus;
@@ -16,7 +19,6 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -30,8 +32,14 @@ import java.util.stream.Collectors;
 public class DefaultMqConsumer {
 
     private final Logger logger = LoggerFactory.getLogger(DefaultMqConsumer.class);
-    private final static int EACH_BATCH_PULL_MSG_INTER = 100; //如果broker有数据，每间隔100ms拉一批
+    private final static int EACH_BATCH_PULL_MSG_INTER = 100; //本地缓存已满暂停拉取的队列，每间隔100ms检查一次
     private final static int EACH_BATCH_PULL_MSG_INTER_WHEN_NO_MSG = 1000; //如果broker无数据，每间隔1s拉一批
+    private final static int DEFAULT_PULL_SUSPEND_TIMEOUT_MILLS = 15000; //长轮询时broker没有数据最多挂起15s
+    private final static int DEFAULT_PUSH_CREDIT_MSG_COUNT = 1000; //推送模式下最多1000条消息已推送未确认
+    private final static int DEFAULT_PUSH_CREDIT_BYTES = 4 * 1024 * 1024; //推送模式下已推送未确认的消息体最多4mb
+    private final static int DEFAULT_PULL_THRESHOLD_FOR_QUEUE = 1000; //每个队列本地最多缓存1000条未完成消费的消息
+    private final static int DEFAULT_OFFSET_COMMIT_INTERVAL_MILLS = 1000; //每隔1s提交一次消费位点
+    private final static int DEFAULT_OFFSET_COMMIT_THRESHOLD = 256; //完成256条消息之后不等间隔立即提交一次消费位点
 
     private String nsIp;
     private Integer nsPort;
@@ -42,6 +50,23 @@ public class DefaultMqConsumer {
     private String brokerRole = "single";
     private Integer queueId;
     private Integer batchSize;
+    //没有消息时broker挂起拉取请求的最长时间，不大于0时关闭长轮询，按照固定间隔轮询
+    private int pullSuspendTimeoutMills = DEFAULT_PULL_SUSPEND_TIMEOUT_MILLS;
+    //是否使用推送模式，推送模式下只订阅一次，broker按照授予的额度持续推送消息，不需要每批消息发起一次拉取请求
+    private boolean pushConsume = false;
+    //推送模式下授予broker的消息条数额度和字节数额度，任意一个用完broker就暂停推送，确认消费之后归还
+    private int pushCreditMsgCount = DEFAULT_PUSH_CREDIT_MSG_COUNT;
+    private int pushCreditBytes = DEFAULT_PUSH_CREDIT_BYTES;
+    //拉取模式下的消费线程数量
+    private int consumeThreadNum = Runtime.getRuntime().availableProcessors() * 2;
+    //拉取模式下每个队列本地缓存的消息数量上限，达到上限之后暂停拉取这个队列
+    private int pullThresholdForQueue = DEFAULT_PULL_THRESHOLD_FOR_QUEUE;
+    //拉取模式下每次交给监听器的消息数量
+    private int consumeMessageBatchSize = 1;
+    //拉取模式下提交消费位点的间隔，以及触发立即提交的已完成消息数量
+    private int offsetCommitIntervalMills = DEFAULT_OFFSET_COMMIT_INTERVAL_MILLS;
+    private int offsetCommitThreshold = DEFAULT_OFFSET_COMMIT_THRESHOLD;
+    private ConsumeMessageService consumeMessageService;
     private String brokerClusterGroup;
     private NameServerNettyRemoteClient nameServerNettyRemoteClient;
     private List<String> brokerAddressList;
@@ -60,8 +85,15 @@ public class DefaultMqConsumer {
             this.startHeartBeatTask();
             this.fetchBrokerAddress();
             this.creatRetryTopic();
-            this.startConsumeMsgTask(topic);
-            this.startConsumeMsgTask("retry%" + this.getConsumeGroup());
+            if (pushConsume) {
+                new PushConsumeTask(this, topic).start();
+                new PushConsumeTask(this, "retry%" + this.getConsumeGroup()).start();
+            } else {
+                consumeMessageService = new ConsumeMessageService(this);
+                consumeMessageService.start();
+                this.startConsumeMsgTask(topic);
+                this.startConsumeMsgTask("retry%" + this.getConsumeGroup());
+            }
             this.startRefreshBrokerAddressJob();
             countDownLatch.await();
         }
@@ -100,84 +132,46 @@ public class DefaultMqConsumer {
                         logger.warn("broker address is empty!");
                         continue;
                     }
+                    //多个broker是依次拉取的，挂起时间不超过原来的空闲轮询间隔，避免一个broker上的挂起拖慢其他broker的消息
+                    int suspendTimeoutMills = brokerNodeAddressList.size() > 1 ? Math.min(pullSuspendTimeoutMills, EACH_BATCH_PULL_MSG_INTER_WHEN_NO_MSG) : pullSuspendTimeoutMills;
                     for (String brokerNodeAddress : brokerNodeAddressList) {
-                        String msgId = UUID.randomUUID().toString();
                         //拉消息到本地
                         BrokerNettyRemoteClient brokerNettyRemoteClient = this.getBrokerNettyRemoteClientMap().get(brokerNodeAddress);
+                        Map<Integer, Integer> queueOffsetMap = consumeMessageService.getPullOffsetMap(brokerNodeAddress, pullMsgTopic);
+                        //有队列因为本地缓存已满暂停拉取时不挂起请求，尽快回来检查缓存是否已经消费完
+                        boolean hasPausedQueue = queueOffsetMap.containsValue(BrokerConstants.PAUSED_QUEUE_OFFSET);
+                        boolean longPolling = pullSuspendTimeoutMills > 0 && !hasPausedQueue;
                         ConsumeMsgReqDTO consumeMsgReqDTO = new ConsumeMsgReqDTO();
-                        consumeMsgReqDTO.setMsgId(msgId);
                         consumeMsgReqDTO.setConsumeGroup(consumeGroup);
                         consumeMsgReqDTO.setBatchSize(batchSize);
                         consumeMsgReqDTO.setTopic(pullMsgTopic);
-                        TcpMsg pullReqMsg = new TcpMsg(BrokerEventCode.CONSUME_MSG.getCode(), JSON.toJSONBytes(consumeMsgReqDTO));
-                        TcpMsg pullMsgResp = brokerNettyRemoteClient.sendSyncMsg(pullReqMsg, msgId);
+                        consumeMsgReqDTO.setSuspendTimeoutMills(longPolling ? suspendTimeoutMills : null);
+                        consumeMsgReqDTO.setQueueOffsetMap(queueOffsetMap);
+                        TcpMsg pullReqMsg = SerializerManager.encode(BrokerEventCode.CONSUME_MSG.getCode(), consumeMsgReqDTO);
+                        //长轮询时等待响应的时间需要加上broker挂起请求的时间
+                        long pullTimeoutMills = longPolling ? suspendTimeoutMills + TcpConstants.DEFAULT_SYNC_TIMEOUT_MILLIS : TcpConstants.DEFAULT_SYNC_TIMEOUT_MILLIS;
+                        TcpMsg pullMsgResp = brokerNettyRemoteClient.sendSyncMsg(pullReqMsg, pullTimeoutMills);
                         List<ConsumeMsgRespDTO> consumeMsgRespDTOS = null;
-                        ConsumeMsgBaseRespDTO consumeMsgBaseRespDTO = JSON.parseObject(pullMsgResp.getBody(), ConsumeMsgBaseRespDTO.class);
+                        ConsumeMsgBaseRespDTO consumeMsgBaseRespDTO = SerializerManager.decode(pullMsgResp, ConsumeMsgBaseRespDTO.class);
                         if (consumeMsgBaseRespDTO != null) {
                             consumeMsgRespDTOS = consumeMsgBaseRespDTO.getConsumeMsgRespDTOList();
                         }
                         boolean brokerHasData = false;
-                        //进入业务处理环节
+                        //放入本地缓存，交给消费线程池处理，消费位点由后台线程提交
                         if (CollectionUtils.isNotEmpty(consumeMsgRespDTOS)) {
                             for (ConsumeMsgRespDTO consumeMsgRespDTO : consumeMsgRespDTOS) {
-                                List<ConsumeMsgCommitLogDTO> commitLogBodyList = consumeMsgRespDTO.getCommitLogContentList();
-                                if (CollectionUtils.isEmpty(commitLogBodyList)) {
+                                if (CollectionUtils.isEmpty(consumeMsgRespDTO.getCommitLogContentList())) {
                                     continue;
                                 }
-                                List<ConsumeMessage> consumeMessages = new ArrayList<>();
-                                for (ConsumeMsgCommitLogDTO consumeMsgCommitLogDTO : commitLogBodyList) {
-                                    ConsumeMessage consumeMessage = new ConsumeMessage();
-                                    consumeMessage.setConsumeMsgCommitLogDTO(consumeMsgCommitLogDTO);
-                                    consumeMessages.add(consumeMessage);
-                                }
                                 brokerHasData = true;
-                                ConsumeResult consumeResult = messageConsumeListener.consume(consumeMessages);
-                                //消费成功，发送ack响应
-                                if (consumeResult.getConsumeResultStatus() == ConsumeResultStatus.CONSUME_SUCCESS.getCode()) {
-                                    this.setQueueId(consumeMsgRespDTO.getQueueId());
-                                    String ackMsgId = UUID.randomUUID().toString();
-                                    ConsumeMsgAckReqDTO consumeMsgAckReqDTO = new ConsumeMsgAckReqDTO();
-                                    consumeMsgAckReqDTO.setAckCount(this.getBatchSize());
-                                    consumeMsgAckReqDTO.setConsumeGroup(this.getConsumeGroup());
-                                    consumeMsgAckReqDTO.setTopic(this.getTopic());
-                                    consumeMsgAckReqDTO.setQueueId(consumeMsgRespDTO.getQueueId());
-                                    consumeMsgAckReqDTO.setMsgId(ackMsgId);
-                                    TcpMsg ackReq = new TcpMsg(BrokerEventCode.CONSUME_SUCCESS_MSG.getCode(), JSON.toJSONBytes(consumeMsgAckReqDTO));
-                                    TcpMsg ackResponse = brokerNettyRemoteClient.sendSyncMsg(ackReq, ackMsgId);
-                                    ConsumeMsgAckRespDTO consumeMsgAckRespDTO = JSON.parseObject(ackResponse.getBody(), ConsumeMsgAckRespDTO.class);
-                                    if (AckStatus.SUCCESS.getCode() == consumeMsgAckRespDTO.getAckStatus()) {
-                                        logger.info("consume ack success!");
-                                    } else {
-                                        logger.error("consume ack fail!");
-                                    }
-                                }
-                                //消费失败，回应ack，然后丢入重试队列中
-                                else if (consumeResult.getConsumeResultStatus() == ConsumeResultStatus.CONSUME_LATER.getCode()) {
-                                    this.setQueueId(consumeMsgRespDTO.getQueueId());
-                                    ConsumeMsgRetryReqDTO consumeMsgRetryReqDTO = new ConsumeMsgRetryReqDTO();
-                                    List<ConsumeMsgRetryReqDetailDTO> consumeMsgRetryReqDetailDTOList = new ArrayList<>();
-                                    for (int i = 0; i < commitLogBodyList.size(); i++) {
-                                        ConsumeMsgCommitLogDTO consumeMsgCommitLogDTO = commitLogBodyList.get(i);
-                                        ConsumeMsgRetryReqDetailDTO consumeMsgRetryReqDetailDTO = new ConsumeMsgRetryReqDetailDTO();
-                                        consumeMsgRetryReqDetailDTO.setConsumerGroup(this.getConsumeGroup());
-                                        consumeMsgRetryReqDetailDTO.setTopic(this.getTopic());
-                                        consumeMsgRetryReqDetailDTO.setQueueId(consumeMsgRespDTO.getQueueId());
-                                        consumeMsgRetryReqDetailDTO.setCommitLogOffset(consumeMsgCommitLogDTO.getCommitLogOffset());
-                                        consumeMsgRetryReqDetailDTO.setCommitLogMsgLength(consumeMsgCommitLogDTO.getCommitLogSize());
-                                        consumeMsgRetryReqDetailDTO.setRetryTime(consumeMsgCommitLogDTO.getRetryTimes() + 1);
-                                        consumeMsgRetryReqDetailDTO.setCommitLogName(consumeMsgCommitLogDTO.getFileName());
-                                        consumeMsgRetryReqDetailDTOList.add(consumeMsgRetryReqDetailDTO);
-                                        logger.info("重试次数:{}" , consumeMsgCommitLogDTO.getRetryTimes());
-                                    }
-                                    consumeMsgRetryReqDTO.setConsumeMsgRetryReqDetailDTOList(consumeMsgRetryReqDetailDTOList);
-                                    consumeMsgRetryReqDTO.setMsgId(UUID.randomUUID().toString());
-                                    TcpMsg tcpMsg = new TcpMsg(BrokerEventCode.CONSUME_LATER_MSG.getCode(), JSON.toJSONBytes(consumeMsgRetryReqDTO));
-                                    TcpMsg resp = brokerNettyRemoteClient.sendSyncMsg(tcpMsg,consumeMsgRetryReqDTO.getMsgId());
-                                    logger.info("consume later resp:{}", JSON.toJSONString(resp));
-                                }
+                                consumeMessageService.submit(brokerNodeAddress, pullMsgTopic, consumeMsgRespDTO);
                             }
                         }
-                        if (brokerHasData) {
+                        if (brokerHasData || longPolling) {
+                            //有数据时立即拉取下一批，没有数据时broker已经挂起过请求，也可以直接发起下一次拉取
+                            continue;
+                        }
+                        if (hasPausedQueue) {
                             TimeUnit.MILLISECONDS.sleep(EACH_BATCH_PULL_MSG_INTER);
                         } else {
                             TimeUnit.MILLISECONDS.sleep(EACH_BATCH_PULL_MSG_INTER_WHEN_NO_MSG);
@@ -197,6 +191,34 @@ public class DefaultMqConsumer {
         consumeTask.start();
     }
 
+    /**
+     * 构建消息重试请求，broker收到之后把消息放入重试队列并更新消费位点
+     *
+     * @param topic             消息所在的主题
+     * @param queueId           消息所在的队列id
+     * @param commitLogBodyList 需要重试的消息
+     * @return 重试请求
+     */
+    TcpMsg buildConsumeLaterMsg(String topic, Integer queueId, List<ConsumeMsgCommitLogDTO> commitLogBodyList) {
+        ConsumeMsgRetryReqDTO consumeMsgRetryReqDTO = new ConsumeMsgRetryReqDTO();
+        List<ConsumeMsgRetryReqDetailDTO> consumeMsgRetryReqDetailDTOList = new ArrayList<>();
+        for (int i = 0; i < commitLogBodyList.size(); i++) {
+            ConsumeMsgCommitLogDTO consumeMsgCommitLogDTO = commitLogBodyList.get(i);
+            ConsumeMsgRetryReqDetailDTO consumeMsgRetryReqDetailDTO = new ConsumeMsgRetryReqDetailDTO();
+            consumeMsgRetryReqDetailDTO.setConsumerGroup(this.getConsumeGroup());
+            consumeMsgRetryReqDetailDTO.setTopic(topic);
+            consumeMsgRetryReqDetailDTO.setQueueId(queueId);
+            consumeMsgRetryReqDetailDTO.setCommitLogOffset(consumeMsgCommitLogDTO.getCommitLogOffset());
+            consumeMsgRetryReqDetailDTO.setCommitLogMsgLength(consumeMsgCommitLogDTO.getCommitLogSize());
+            consumeMsgRetryReqDetailDTO.setRetryTime(consumeMsgCommitLogDTO.getRetryTimes() + 1);
+            consumeMsgRetryReqDetailDTO.setCommitLogName(consumeMsgCommitLogDTO.getFileName());
+            consumeMsgRetryReqDetailDTOList.add(consumeMsgRetryReqDetailDTO);
+            logger.info("重试次数:{}" , consumeMsgCommitLogDTO.getRetryTimes());
+        }
+        consumeMsgRetryReqDTO.setConsumeMsgRetryReqDetailDTOList(consumeMsgRetryReqDetailDTOList);
+        return new TcpMsg(BrokerEventCode.CONSUME_LATER_MSG.getCode(), JSON.toJSONBytes(consumeMsgRetryReqDTO));
+    }
+
     /**
      * 连接broker程序
      */
@@ -256,14 +278,12 @@ public class DefaultMqConsumer {
      * @return
      */
     private boolean doRegistry() {
-        String registryMsgId = UUID.randomUUID().toString();
         ServiceRegistryReqDTO serviceRegistryReqDTO = new ServiceRegistryReqDTO();
-        serviceRegistryReqDTO.setMsgId(registryMsgId);
         serviceRegistryReqDTO.setUser(nsUser);
         serviceRegistryReqDTO.setPassword(nsPwd);
         serviceRegistryReqDTO.setRegistryType(RegistryTypeEnum.CONSUMER.getCode());
         TcpMsg tcpMsg = new TcpMsg(NameServerEventCode.REGISTRY.getCode(), JSON.toJSONBytes(serviceRegistryReqDTO));
-        TcpMsg registryResponse = nameServerNettyRemoteClient.sendSyncMsg(tcpMsg, registryMsgId);
+        TcpMsg registryResponse = nameServerNettyRemoteClient.sendSyncMsg(tcpMsg);
         if (NameServerResponseCode.REGISTRY_SUCCESS.getCode() == registryResponse.getCode()) {
             return true;
         } else {
@@ -283,14 +303,15 @@ public class DefaultMqConsumer {
                     try {
                         TimeUnit.SECONDS.sleep(3);
                         logger.info("执行心跳数据发送");
-                        String heartBeatMsgId = UUID.randomUUID().toString();
                         HeartBeatDTO heartBeatDTO = new HeartBeatDTO();
-                        heartBeatDTO.setMsgId(heartBeatMsgId);
                         TcpMsg heartBeatResponse = nameServerNettyRemoteClient.sendSyncMsg(new TcpMsg(NameServerEventCode.HEART_BEAT.getCode(),
-                                JSON.toJSONBytes(heartBeatDTO)), heartBeatMsgId);
+                                JSON.toJSONBytes(heartBeatDTO)));
                         logger.info("heart beat response data is :{}", JSON.parseObject(heartBeatResponse.getBody()));
                     } catch (InterruptedException e) {
                         e.printStackTrace();
+                    } catch (Exception e) {
+                        //同步请求超时会抛出异常，下一轮继续发送心跳
+                        logger.error("heart beat error, in-flight request count is {}", nameServerNettyRemoteClient.getInFlightRequestCount(), e);
                     }
                 }
             }
@@ -304,16 +325,14 @@ public class DefaultMqConsumer {
      * 主从架构 -》从节点数据 / 主节点数据（两套ip都应该保存下来）
      */
     public void fetchBrokerAddress() {
-        String fetchBrokerAddressMsgId = UUID.randomUUID().toString();
         PullBrokerIpDTO pullBrokerIpDTO = new PullBrokerIpDTO();
         if (getBrokerClusterGroup() != null) {
             this.setBrokerRole("master");
             pullBrokerIpDTO.setBrokerClusterGroup(brokerClusterGroup);
         }
         pullBrokerIpDTO.setRole(getBrokerRole());
-        pullBrokerIpDTO.setMsgId(fetchBrokerAddressMsgId);
         TcpMsg heartBeatResponse = nameServerNettyRemoteClient.sendSyncMsg(new TcpMsg(NameServerEventCode.PULL_BROKER_IP_LIST.getCode(),
-                JSON.toJSONBytes(pullBrokerIpDTO)), fetchBrokerAddressMsgId);
+                JSON.toJSONBytes(pullBrokerIpDTO)));
         //获取broker节点ip地址，并且缓存起来，可能由多个master-broker角色
         PullBrokerIpRespDTO pullBrokerIpRespDTO = JSON.parseObject(heartBeatResponse.getBody(), PullBrokerIpRespDTO.class);
         this.setBrokerAddressList(pullBrokerIpRespDTO.getAddressList());
@@ -426,6 +445,78 @@ public class DefaultMqConsumer {
         this.queueId = queueId;
     }
 
+    public int getPullSuspendTimeoutMills() {
+        return pullSuspendTimeoutMills;
+    }
+
+    public void setPullSuspendTimeoutMills(int pullSuspendTimeoutMills) {
+        this.pullSuspendTimeoutMills = pullSuspendTimeoutMills;
+    }
+
+    public boolean isPushConsume() {
+        return pushConsume;
+    }
+
+    public void setPushConsume(boolean pushConsume) {
+        this.pushConsume = pushConsume;
+    }
+
+    public int getPushCreditMsgCount() {
+        return pushCreditMsgCount;
+    }
+
+    public void setPushCreditMsgCount(int pushCreditMsgCount) {
+        this.pushCreditMsgCount = pushCreditMsgCount;
+    }
+
+    public int getPushCreditBytes() {
+        return pushCreditBytes;
+    }
+
+    public void setPushCreditBytes(int pushCreditBytes) {
+        this.pushCreditBytes = pushCreditBytes;
+    }
+
+    public int getConsumeThreadNum() {
+        return consumeThreadNum;
+    }
+
+    public void setConsumeThreadNum(int consumeThreadNum) {
+        this.consumeThreadNum = consumeThreadNum;
+    }
+
+    public int getPullThresholdForQueue() {
+        return pullThresholdForQueue;
+    }
+
+    public void setPullThresholdForQueue(int pullThresholdForQueue) {
+        this.pullThresholdForQueue = pullThresholdForQueue;
+    }
+
+    public int getConsumeMessageBatchSize() {
+        return consumeMessageBatchSize;
+    }
+
+    public void setConsumeMessageBatchSize(int consumeMessageBatchSize) {
+        this.consumeMessageBatchSize = consumeMessageBatchSize;
+    }
+
+    public int getOffsetCommitIntervalMills() {
+        return offsetCommitIntervalMills;
+    }
+
+    public void setOffsetCommitIntervalMills(int offsetCommitIntervalMills) {
+        this.offsetCommitIntervalMills = offsetCommitIntervalMills;
+    }
+
+    public int getOffsetCommitThreshold() {
+        return offsetCommitThreshold;
+    }
+
+    public void setOffsetCommitThreshold(int offsetCommitThreshold) {
+        this.offsetCommitThreshold = offsetCommitThreshold;
+    }
+
     public Integer getBatchSize() {
         return batchSize;
     }
@@ -0,0 +1,157 @@
+package com.zhb.client.consumer;
+
+import com.zhb.common.constants.BrokerConstants;
+
+import java.util.*;
+
+/**
+ * @Description 单个broker上单个队列的本地消息缓存
+ * 拉取线程把消息按照consumeQueue位置放入缓存，消费线程处理完成之后移除，缓存中最小的位置就是还没有完成消费的最早消息，
+ * 在它之前的消息都已经处理完，后台线程把这个位置作为消费位点提交给broker；缓存的消息数量达到上限之后暂停拉取这个队列
+ * 所有字段都由自身的对象锁保护
+ */
+public class ProcessQueue {
+
+    private final String brokerReqId;
+    private final String topic;
+    private final int queueId;
+
+    //还没有完成消费的消息，key是消息在consumeQueue中的位置
+    private final TreeMap<Integer, ConsumeMessage> msgTreeMap = new TreeMap<>();
+    //顺序消费时等待处理的消息，同一时刻只有一个消费线程从这里取消息
+    private final Deque<ConsumeMessage> pendingMsgQueue = new ArrayDeque<>();
+    //顺序消费时是否已经有消费线程在处理这个队列
+    private boolean consuming;
+    //已经提交给broker的消费位点，-1表示还没有收到过消息
+    private int committedOffset = -1;
+    //下一次拉取的位置
+    private int nextPullOffset = -1;
+
+    public ProcessQueue(String brokerReqId, String topic, int queueId) {
+        this.brokerReqId = brokerReqId;
+        this.topic = topic;
+        this.queueId = queueId;
+    }
+
+    /**
+     * 放入一批拉取到的消息，位置不连续时说明broker上的消费进度已经被推进到了拉取位置之后，
+     * 只有本地没有待处理的消息时才从新的位置开始，否则丢弃这批消息，等本地消息处理完成之后再重新拉取
+     *
+     * @param consumeMessages 按照位置升序排列的消息
+     * @param orderly         是否顺序消费，顺序消费时消息同时放入等待处理的队列
+     * @return 实际放入缓存的消息
+     */
+    public synchronized List<ConsumeMessage> putMessages(List<ConsumeMessage> consumeMessages, boolean orderly) {
+        List<ConsumeMessage> acceptedMessages = new ArrayList<>(consumeMessages.size());
+        for (ConsumeMessage consumeMessage : consumeMessages) {
+            int offset = consumeMessage.getConsumeQueueOffset();
+            if (nextPullOffset < 0) {
+                committedOffset = offset;
+                nextPullOffset = offset;
+            }
+            if (offset < nextPullOffset) {
+                //重复返回的消息
+                continue;
+            }
+            if (offset > nextPullOffset) {
+                if (!msgTreeMap.isEmpty()) {
+                    break;
+                }
+                nextPullOffset = offset;
+            }
+            msgTreeMap.put(offset, consumeMessage);
+            if (orderly) {
+                pendingMsgQueue.add(consumeMessage);
+            }
+            nextPullOffset = offset + BrokerConstants.CONSUME_QUEUE_EACH_MSG_SIZE;
+            acceptedMessages.add(consumeMessage);
+        }
+        return acceptedMessages;
+    }
+
+    /**
+     * 缓存的消息数量是否达到上限
+     */
+    public synchronized boolean isFull(int pullThresholdForQueue) {
+        return msgTreeMap.size() >= pullThresholdForQueue;
+    }
+
+    /**
+     * 一批消息处理完成（消费成功或者已经发送了重试请求），从缓存中移除
+     *
+     * @param consumeMessages 处理完成的消息
+     */
+    public synchronized void complete(List<ConsumeMessage> consumeMessages) {
+        for (ConsumeMessage consumeMessage : consumeMessages) {
+            msgTreeMap.remove(consumeMessage.getConsumeQueueOffset());
+        }
+    }
+
+    /**
+     * 顺序消费时尝试占有这个队列，已经有消费线程在处理或者没有等待处理的消息时返回false
+     */
+    public synchronized boolean tryStartConsuming() {
+        if (consuming || pendingMsgQueue.isEmpty()) {
+            return false;
+        }
+        consuming = true;
+        return true;
+    }
+
+    /**
+     * 顺序消费时取出下一批等待处理的消息，没有消息时释放对队列的占有
+     *
+     * @param batchSize 最多取出的消息数量
+     * @return 下一批消息，为空时调用方需要停止处理这个队列
+     */
+    public synchronized List<ConsumeMessage> takePendingMessages(int batchSize) {
+        List<ConsumeMessage> consumeMessages = new ArrayList<>(Math.min(batchSize, pendingMsgQueue.size()));
+        while (consumeMessages.size() < batchSize && !pendingMsgQueue.isEmpty()) {
+            consumeMessages.add(pendingMsgQueue.poll());
+        }
+        if (consumeMessages.isEmpty()) {
+            consuming = false;
+        }
+        return consumeMessages;
+    }
+
+    /**
+     * 获取需要提交的消费位点，即最早的未完成消息的位置，没有未完成的消息时是下一次拉取的位置
+     *
+     * @return 消费位点，和上一次提交的位点相同时返回-1
+     */
+    public synchronized int getCommitOffset() {
+        if (committedOffset < 0) {
+            return -1;
+        }
+        int commitOffset = msgTreeMap.isEmpty() ? nextPullOffset : msgTreeMap.firstKey();
+        return commitOffset > committedOffset ? commitOffset : -1;
+    }
+
+    /**
+     * 消费位点已经写入网络之后记录下来，之后只提交更大的位点
+     */
+    public synchronized void commitSuccess(int commitOffset) {
+        committedOffset = Math.max(committedOffset, commitOffset);
+    }
+
+    public synchronized int getNextPullOffset() {
+        return nextPullOffset;
+    }
+
+    public synchronized int getMsgCount() {
+        return msgTreeMap.size();
+    }
+
+    public String getBrokerReqId() {
+        return brokerReqId;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public int getQueueId() {
+        return queueId;
+    }
+}
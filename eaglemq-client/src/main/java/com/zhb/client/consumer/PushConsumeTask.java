@@ -0,0 +1,169 @@
+package com.zhb.client.consumer;
+
+import com.alibaba.fastjson.JSON;
+import com.zhb.client.common.CommonCache;
+import com.zhb.common.coder.SerializerManager;
+import com.zhb.common.coder.TcpMsg;
+import com.zhb.common.constants.BrokerConstants;
+import com.zhb.common.constants.TcpConstants;
+import com.zhb.common.dto.*;
+import com.zhb.common.enums.AckStatus;
+import com.zhb.common.enums.BrokerEventCode;
+import com.zhb.common.enums.ConsumeResultStatus;
+import com.zhb.common.remote.BrokerNettyRemoteClient;
+import com.zhb.common.remote.InFlightRequestTable;
+import io.netty.channel.Channel;
+import org.apache.commons.collections4.CollectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description 推送模式的消费任务
+ * 对每个broker连接订阅一次，之后broker按照授予的额度持续推送消息，推送的消息在IO线程中放入队列，由消费线程按照到达顺序依次消费，
+ * 每消费完一批消息发送一次单向的请求，同时提交消费位点和归还这批消息占用的额度；连接重建之后自动重新订阅
+ */
+public class PushConsumeTask {
+
+    private final Logger logger = LoggerFactory.getLogger(PushConsumeTask.class);
+    private final static int CHECK_SUBSCRIPTION_INTERVAL = 1000; //没有推送消息时每隔1s检查一次是否有新的broker连接需要订阅
+
+    private final DefaultMqConsumer defaultMqConsumer;
+    private final String topic;
+    //订阅id，broker推送消息时带回，用于把消息交给对应的消费任务
+    private final String subscriptionId = UUID.randomUUID().toString();
+    private final LinkedBlockingQueue<PushMsg> pushMsgQueue = new LinkedBlockingQueue<>();
+    //已经订阅过的broker连接，只在消费线程中访问
+    private final Set<BrokerNettyRemoteClient> subscribedClientSet = new HashSet<>();
+
+    public PushConsumeTask(DefaultMqConsumer defaultMqConsumer, String topic) {
+        this.defaultMqConsumer = defaultMqConsumer;
+        this.topic = topic;
+    }
+
+    public void start() {
+        CommonCache.getPushConsumeTaskMap().put(subscriptionId, this);
+        Thread pushConsumeTask = new Thread(() -> {
+            while (true) {
+                try {
+                    this.subscribe();
+                    PushMsg pushMsg = pushMsgQueue.poll(CHECK_SUBSCRIPTION_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (pushMsg != null) {
+                        this.consume(pushMsg);
+                    }
+                } catch (InterruptedException e) {
+                    logger.error("push consume task interrupted");
+                    return;
+                } catch (Exception e) {
+                    logger.error("push consume has error:", e);
+                }
+            }
+        });
+        pushConsumeTask.setName("push-consume-task");
+        pushConsumeTask.start();
+    }
+
+    /**
+     * 收到broker推送的消息，在IO线程中调用，只放入队列
+     *
+     * @param channel 推送消息的连接，确认请求从同一个连接发回
+     * @param tcpMsg  推送的消息
+     */
+    public void onPushMsg(Channel channel, TcpMsg tcpMsg) {
+        pushMsgQueue.offer(new PushMsg(channel, tcpMsg));
+    }
+
+    /**
+     * 对还没有订阅过的broker连接发起订阅，连接断开后broker端的订阅随之失效，重连之后的新连接需要重新订阅
+     */
+    private void subscribe() {
+        Collection<BrokerNettyRemoteClient> brokerNettyRemoteClients = defaultMqConsumer.getBrokerNettyRemoteClientMap().values();
+        subscribedClientSet.retainAll(brokerNettyRemoteClients);
+        for (BrokerNettyRemoteClient brokerNettyRemoteClient : brokerNettyRemoteClients) {
+            if (!brokerNettyRemoteClient.isChannelActive()) {
+                subscribedClientSet.remove(brokerNettyRemoteClient);
+                continue;
+            }
+            if (subscribedClientSet.contains(brokerNettyRemoteClient)) {
+                continue;
+            }
+            ConsumeSubscribeReqDTO consumeSubscribeReqDTO = new ConsumeSubscribeReqDTO();
+            consumeSubscribeReqDTO.setMsgId(subscriptionId);
+            consumeSubscribeReqDTO.setTopic(topic);
+            consumeSubscribeReqDTO.setConsumeGroup(defaultMqConsumer.getConsumeGroup());
+            consumeSubscribeReqDTO.setBatchSize(defaultMqConsumer.getBatchSize());
+            consumeSubscribeReqDTO.setCreditMsgCount(defaultMqConsumer.getPushCreditMsgCount());
+            consumeSubscribeReqDTO.setCreditBytes(defaultMqConsumer.getPushCreditBytes());
+            TcpMsg subscribeResp = brokerNettyRemoteClient.sendSyncMsg(new TcpMsg(BrokerEventCode.CONSUME_SUBSCRIBE.getCode(),
+                    JSON.toJSONBytes(consumeSubscribeReqDTO)));
+            ConsumeSubscribeRespDTO consumeSubscribeRespDTO = JSON.parseObject(subscribeResp.getBody(), ConsumeSubscribeRespDTO.class);
+            if (AckStatus.SUCCESS.getCode() == consumeSubscribeRespDTO.getSubscribeStatus()) {
+                subscribedClientSet.add(brokerNettyRemoteClient);
+                logger.info("push subscribe success, broker is {}, topic is {}", brokerNettyRemoteClient.getBrokerReqId(), topic);
+            } else {
+                logger.error("push subscribe fail, broker is {}, topic is {}", brokerNettyRemoteClient.getBrokerReqId(), topic);
+            }
+        }
+    }
+
+    /**
+     * 消费一批推送的消息，稍后重试的消息发送重试请求，处理完成之后提交每个队列的消费位点并归还这批消息占用的额度
+     */
+    private void consume(PushMsg pushMsg) throws InterruptedException {
+        ConsumeMsgBaseRespDTO consumeMsgBaseRespDTO = SerializerManager.decode(pushMsg.tcpMsg, ConsumeMsgBaseRespDTO.class);
+        List<ConsumeMsgRespDTO> consumeMsgRespDTOS = consumeMsgBaseRespDTO.getConsumeMsgRespDTOList();
+        Map<Integer, Integer> queueCommitOffsetMap = new LinkedHashMap<>();
+        int creditMsgCount = 0;
+        int creditBytes = 0;
+        if (CollectionUtils.isNotEmpty(consumeMsgRespDTOS)) {
+            for (ConsumeMsgRespDTO consumeMsgRespDTO : consumeMsgRespDTOS) {
+                List<ConsumeMsgCommitLogDTO> commitLogBodyList = consumeMsgRespDTO.getCommitLogContentList();
+                if (CollectionUtils.isEmpty(commitLogBodyList)) {
+                    continue;
+                }
+                List<ConsumeMessage> consumeMessages = new ArrayList<>(commitLogBodyList.size());
+                for (ConsumeMsgCommitLogDTO consumeMsgCommitLogDTO : commitLogBodyList) {
+                    ConsumeMessage consumeMessage = new ConsumeMessage();
+                    consumeMessage.setQueueId(consumeMsgRespDTO.getQueueId());
+                    consumeMessage.setConsumeQueueOffset(consumeMsgCommitLogDTO.getConsumeQueueOffset());
+                    consumeMessage.setConsumeMsgCommitLogDTO(consumeMsgCommitLogDTO);
+                    consumeMessages.add(consumeMessage);
+                    creditBytes += consumeMsgCommitLogDTO.getBody().length;
+                }
+                creditMsgCount += commitLogBodyList.size();
+                ConsumeResult consumeResult = defaultMqConsumer.getMessageConsumeListener().consume(consumeMessages);
+                if (consumeResult.getConsumeResultStatus() == ConsumeResultStatus.CONSUME_LATER.getCode()) {
+                    TcpMsg consumeLaterMsg = defaultMqConsumer.buildConsumeLaterMsg(topic, consumeMsgRespDTO.getQueueId(), commitLogBodyList);
+                    TcpMsg resp = InFlightRequestTable.getOrCreate(pushMsg.channel, TcpConstants.DEFAULT_MAX_IN_FLIGHT_REQUESTS)
+                            .sendSync(pushMsg.channel, consumeLaterMsg, TcpConstants.DEFAULT_SYNC_TIMEOUT_MILLIS);
+                    logger.info("consume later resp:{}", JSON.toJSONString(resp));
+                }
+                //同一个订阅的消息按照推送顺序依次消费，这批消息中最后一条之后的位置就是消费位点
+                int lastConsumeQueueOffset = commitLogBodyList.get(commitLogBodyList.size() - 1).getConsumeQueueOffset();
+                queueCommitOffsetMap.put(consumeMsgRespDTO.getQueueId(), lastConsumeQueueOffset + BrokerConstants.CONSUME_QUEUE_EACH_MSG_SIZE);
+            }
+        }
+        ConsumeCreditReqDTO consumeCreditReqDTO = new ConsumeCreditReqDTO();
+        consumeCreditReqDTO.setMsgId(subscriptionId);
+        consumeCreditReqDTO.setTopic(topic);
+        consumeCreditReqDTO.setConsumeGroup(defaultMqConsumer.getConsumeGroup());
+        consumeCreditReqDTO.setQueueCommitOffsetMap(queueCommitOffsetMap);
+        consumeCreditReqDTO.setCreditMsgCount(creditMsgCount);
+        consumeCreditReqDTO.setCreditBytes(creditBytes);
+        pushMsg.channel.writeAndFlush(SerializerManager.encode(BrokerEventCode.CONSUME_CREDIT.getCode(), consumeCreditReqDTO));
+    }
+
+    private static class PushMsg {
+
+        private final Channel channel;
+        private final TcpMsg tcpMsg;
+
+        private PushMsg(Channel channel, TcpMsg tcpMsg) {
+            this.channel = channel;
+            this.tcpMsg = tcpMsg;
+        }
+    }
+}
@@ -1,16 +1,11 @@
 package com.zhb.client.consumer;
 
-import java.util.List;
-
 /**
  * @Author idea
  * @Date: Created in 11:08 2024/6/16
  * @Description 单线程数据消费监听器
+ * 同一个队列的消息同一时刻只有一个消费线程处理，按照消息在队列中的顺序消费，不同队列之间可以并行
  */
-public class SingleThreadMessageConsumeListener implements MessageConsumeListener{
+public abstract class SingleThreadMessageConsumeListener implements MessageConsumeListener {
 
-    @Override
-    public ConsumeResult consume(List<ConsumeMessage> consumeMessages) {
-        return null;
-    }
 }
@@ -7,14 +7,19 @@ import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.util.AttributeKey;
 import com.zhb.client.async.event.model.BrokerConnectionClosedEvent;
 import com.zhb.client.async.event.model.TxMessageCallBackEvent;
-import com.zhb.common.cache.BrokerServerSyncFutureManager;
+import com.zhb.client.common.CommonCache;
+import com.zhb.client.consumer.PushConsumeTask;
+import com.zhb.common.coder.ConsumeMsgRespCodec;
 import com.zhb.common.coder.TcpMsg;
-import com.zhb.common.dto.*;
+import com.zhb.common.dto.TxMessageCallbackReqDTO;
 import com.zhb.common.enums.BrokerResponseCode;
 import com.zhb.common.event.EventBus;
-import com.zhb.common.remote.SyncFuture;
+import com.zhb.common.remote.InFlightRequestTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
 
 /**
  * @Author idea
@@ -24,6 +29,8 @@ import java.net.InetSocketAddress;
 @ChannelHandler.Sharable
 public class BrokerRemoteRespHandler extends SimpleChannelInboundHandler {
 
+    private final Logger logger = LoggerFactory.getLogger(BrokerRemoteRespHandler.class);
+
     private EventBus eventBus;
 
     public BrokerRemoteRespHandler(EventBus eventBus) {
@@ -34,45 +41,13 @@ public class BrokerRemoteRespHandler extends SimpleChannelInboundHandler {
     @Override
     protected void channelRead0(ChannelHandlerContext channelHandlerContext, Object msg) throws Exception {
         TcpMsg tcpMsg = (TcpMsg) msg;
+        //请求的响应直接按照请求id匹配，不需要解析消息体
+        if (InFlightRequestTable.completeResponse(channelHandlerContext.channel(), tcpMsg)) {
+            return;
+        }
         int code = tcpMsg.getCode();
         byte[] body = tcpMsg.getBody();
-        if (BrokerResponseCode.SEND_MSG_RESP.getCode() == code) {
-            SendMessageToBrokerResponseDTO sendMessageToBrokerResponseDTO = JSON.parseObject(body, SendMessageToBrokerResponseDTO.class);
-            SyncFuture syncFuture = BrokerServerSyncFutureManager.get(sendMessageToBrokerResponseDTO.getMsgId());
-            if (syncFuture != null) {
-                syncFuture.setResponse(tcpMsg);
-            }
-        } else if (BrokerResponseCode.CONSUME_MSG_RESP.getCode() == code) {
-            ConsumeMsgBaseRespDTO consumeMsgBaseRespDTO = JSON.parseObject(body, ConsumeMsgBaseRespDTO.class);
-            SyncFuture syncFuture = BrokerServerSyncFutureManager.get(consumeMsgBaseRespDTO.getMsgId());
-            if (syncFuture != null) {
-                syncFuture.setResponse(tcpMsg);
-            }
-        } else if (BrokerResponseCode.BROKER_UPDATE_CONSUME_OFFSET_RESP.getCode() == code) {
-            ConsumeMsgAckRespDTO consumeMsgAckRespDTO = JSON.parseObject(body, ConsumeMsgAckRespDTO.class);
-            SyncFuture syncFuture = BrokerServerSyncFutureManager.get(consumeMsgAckRespDTO.getMsgId());
-            if (syncFuture != null) {
-                syncFuture.setResponse(tcpMsg);
-            }
-        } else if (BrokerResponseCode.CONSUME_MSG_RETRY_RESP.getCode() == code) {
-            ConsumeMsgRetryRespDTO consumeMsgRetryRespDTO = JSON.parseObject(body, ConsumeMsgRetryRespDTO.class);
-            SyncFuture syncFuture = BrokerServerSyncFutureManager.get(consumeMsgRetryRespDTO.getMsgId());
-            if (syncFuture != null) {
-                syncFuture.setResponse(tcpMsg);
-            }
-        } else if (BrokerResponseCode.HALF_MSG_SEND_SUCCESS.getCode() == code) {
-            SendMessageToBrokerResponseDTO consumeMsgRetryRespDTO = JSON.parseObject(body, SendMessageToBrokerResponseDTO.class);
-            SyncFuture syncFuture = BrokerServerSyncFutureManager.get(consumeMsgRetryRespDTO.getMsgId());
-            if (syncFuture != null) {
-                syncFuture.setResponse(tcpMsg);
-            }
-        } else if (BrokerResponseCode.REMAIN_ACK_MSG_SEND_SUCCESS.getCode() == code) {
-            SendMessageToBrokerResponseDTO consumeMsgRetryRespDTO = JSON.parseObject(body, SendMessageToBrokerResponseDTO.class);
-            SyncFuture syncFuture = BrokerServerSyncFutureManager.get(consumeMsgRetryRespDTO.getMsgId());
-            if (syncFuture != null) {
-                syncFuture.setResponse(tcpMsg);
-            }
-        } else if (BrokerResponseCode.TX_CALLBACK_MSG.getCode() == code) {
+        if (BrokerResponseCode.TX_CALLBACK_MSG.getCode() == code) {
             System.out.println("收到事务回调消息");
             TxMessageCallbackReqDTO txMessageCallbackReqDTO = JSON.parseObject(body, TxMessageCallbackReqDTO.class);
             TxMessageCallBackEvent txMessageCallBackEvent = new TxMessageCallBackEvent();
@@ -80,6 +55,15 @@ public class BrokerRemoteRespHandler extends SimpleChannelInboundHandler {
             txMessageCallBackEvent.setChannelHandlerContext(channelHandlerContext);
             txMessageCallBackEvent.setTxMessageCallbackReqDTO(txMessageCallbackReqDTO);
             eventBus.publish(txMessageCallBackEvent);
+        } else if (BrokerResponseCode.PUSH_CONSUME_MSG.getCode() == code) {
+            //推送模式下broker主动推送的消息，在IO线程中只解析订阅id，然后交给对应的消费任务
+            String subscriptionId = ConsumeMsgRespCodec.decodeMsgId(body);
+            PushConsumeTask pushConsumeTask = CommonCache.getPushConsumeTaskMap().get(subscriptionId);
+            if (pushConsumeTask == null) {
+                logger.warn("push consume task not exist, subscriptionId is {}", subscriptionId);
+                return;
+            }
+            pushConsumeTask.onPushMsg(channelHandlerContext.channel(), tcpMsg);
         }
     }
 
@@ -102,6 +86,7 @@ public class BrokerRemoteRespHandler extends SimpleChannelInboundHandler {
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         super.channelInactive(ctx);
         System.out.println("通道关闭");
+        InFlightRequestTable.failAll(ctx.channel(), new ClosedChannelException());
         //需要触发一个事件出来
         BrokerConnectionClosedEvent brokerConnectionClosedEvent = new BrokerConnectionClosedEvent();
         brokerConnectionClosedEvent.setBrokerReqId((String) ctx.attr(AttributeKey.valueOf("reqId")).get());
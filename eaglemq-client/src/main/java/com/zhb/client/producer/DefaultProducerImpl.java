@@ -3,7 +3,9 @@ package com.zhb.client.producer;
 import com.alibaba.fastjson.JSON;
 import com.zhb.client.common.CommonCache;
 import com.zhb.client.netty.BrokerRemoteRespHandler;
+import com.zhb.common.coder.SerializerManager;
 import com.zhb.common.coder.TcpMsg;
+import com.zhb.common.constants.TcpConstants;
 import com.zhb.common.dto.*;
 import com.zhb.common.enums.*;
 import com.zhb.common.event.EventBus;
@@ -15,7 +17,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -43,6 +47,21 @@ public class DefaultProducerImpl implements Producer {
     private String producerId;
     private NameServerNettyRemoteClient nameServerNettyRemoteClient;
     private Map<String, BrokerNettyRemoteClient> brokerNettyRemoteClientMap = new ConcurrentHashMap<>();
+    //是否开启累加模式，开启后异步发送的普通消息会先在内存中攒批，再由发送线程整批发送
+    private boolean accumulatorEnable = false;
+    //单个批次的字节数上限，达到之后立即发送
+    private int batchSize = 16 * 1024;
+    //批次最多等待的时间，单位毫秒
+    private long lingerMs = 5;
+    //等待发送的消息最多占用的内存，单位字节
+    private long bufferMemory = 32 * 1024 * 1024;
+    //缓冲区已满时异步发送最多阻塞的时间，单位毫秒，为0时直接失败
+    private long maxBlockMs = 60 * 1000;
+    private RecordAccumulator recordAccumulator;
+    //单个broker连接上最多同时等待响应的异步请求数量，超过之后异步发送会阻塞等待
+    private int maxInFlightRequests = TcpConstants.DEFAULT_MAX_IN_FLIGHT_REQUESTS;
+    //异步发送等待broker响应的超时时间，单位毫秒
+    private long sendTimeoutMs = 3000;
 
     public String getProducerId() {
         return producerId;
@@ -129,6 +148,73 @@ public class DefaultProducerImpl implements Producer {
             this.fetchBrokerAddress();
             this.startRefreshBrokerAddressJob();
         }
+        if (accumulatorEnable) {
+            recordAccumulator = new RecordAccumulator(batchSize, lingerMs, bufferMemory, maxBlockMs);
+            this.startBatchSendTask();
+        }
+    }
+
+    /**
+     * 累加模式下的发送线程，每个批次作为一个PUSH_BATCH_MSG请求异步发送，收到broker的响应之后逐条回调
+     * 多个批次可以同时等待响应，数量受连接的请求窗口限制
+     */
+    private void startBatchSendTask() {
+        Thread batchSendTask = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    List<ProducerBatch> producerBatchList;
+                    try {
+                        producerBatchList = recordAccumulator.drain();
+                    } catch (InterruptedException e) {
+                        logger.error("batch send task interrupted");
+                        return;
+                    }
+                    for (ProducerBatch producerBatch : producerBatchList) {
+                        sendProducerBatch(producerBatch);
+                    }
+                }
+            }
+        });
+        batchSendTask.setName("batch-send-task");
+        batchSendTask.start();
+    }
+
+    private void sendProducerBatch(ProducerBatch producerBatch) {
+        List<SendCallback> sendCallbackList = producerBatch.getSendCallbackList();
+        CompletableFuture<List<SendResult>> sendFuture;
+        try {
+            sendFuture = this.doSendBatch(producerBatch.getTopic(), producerBatch.getMessageDTOList());
+        } catch (Exception e) {
+            sendFuture = new CompletableFuture<>();
+            sendFuture.completeExceptionally(e);
+        }
+        sendFuture.whenComplete((sendResultList, throwable) -> {
+            recordAccumulator.release(producerBatch);
+            if (throwable != null) {
+                logger.error("send batch msg error, topic is {}, size is {}", producerBatch.getTopic(), sendCallbackList.size(), throwable);
+            }
+            //broker返回的结果少于批次中的消息数量时，没有结果的消息按照失败回调，不能让调用方一直等待
+            int resultCount = throwable != null || sendResultList == null ? 0 : sendResultList.size();
+            Throwable missingResultError = throwable != null ? throwable : new IllegalStateException("broker returned "
+                    + resultCount + " results for a batch of " + sendCallbackList.size() + " msgs, topic is " + producerBatch.getTopic());
+            for (int i = 0; i < sendCallbackList.size(); i++) {
+                SendCallback sendCallback = sendCallbackList.get(i);
+                if (sendCallback == null) {
+                    continue;
+                }
+                //单个回调抛出异常不能影响同一批次中其他消息的回调
+                try {
+                    if (i < resultCount) {
+                        sendCallback.onSuccess(sendResultList.get(i));
+                    } else {
+                        sendCallback.onException(missingResultError);
+                    }
+                } catch (Exception e) {
+                    logger.error("send callback error, topic is {}", producerBatch.getTopic(), e);
+                }
+            }
+        });
     }
 
 
@@ -156,14 +242,12 @@ public class DefaultProducerImpl implements Producer {
      * @return
      */
     private boolean doRegistry() {
-        String registryMsgId = UUID.randomUUID().toString();
         ServiceRegistryReqDTO serviceRegistryReqDTO = new ServiceRegistryReqDTO();
-        serviceRegistryReqDTO.setMsgId(registryMsgId);
         serviceRegistryReqDTO.setUser(nsUser);
         serviceRegistryReqDTO.setPassword(nsPwd);
         serviceRegistryReqDTO.setRegistryType(RegistryTypeEnum.PRODUCER.getCode());
         TcpMsg tcpMsg = new TcpMsg(NameServerEventCode.REGISTRY.getCode(), JSON.toJSONBytes(serviceRegistryReqDTO));
-        TcpMsg registryResponse = nameServerNettyRemoteClient.sendSyncMsg(tcpMsg, registryMsgId);
+        TcpMsg registryResponse = nameServerNettyRemoteClient.sendSyncMsg(tcpMsg);
         if (NameServerResponseCode.REGISTRY_SUCCESS.getCode() == registryResponse.getCode()) {
             return true;
         } else {
@@ -180,14 +264,15 @@ public class DefaultProducerImpl implements Producer {
                     try {
                         TimeUnit.SECONDS.sleep(3);
                         logger.info("执行心跳数据发送");
-                        String heartBeatMsgId = UUID.randomUUID().toString();
                         HeartBeatDTO heartBeatDTO = new HeartBeatDTO();
-                        heartBeatDTO.setMsgId(heartBeatMsgId);
                         TcpMsg heartBeatResponse = nameServerNettyRemoteClient.sendSyncMsg(new TcpMsg(NameServerEventCode.HEART_BEAT.getCode(),
-                                JSON.toJSONBytes(heartBeatDTO)), heartBeatMsgId);
+                                JSON.toJSONBytes(heartBeatDTO)));
                         logger.info("heart beat response data is :{}", JSON.parseObject(heartBeatResponse.getBody()));
                     } catch (InterruptedException e) {
                         e.printStackTrace();
+                    } catch (Exception e) {
+                        //同步请求超时会抛出异常，下一轮继续发送心跳
+                        logger.error("heart beat error, in-flight request count is {}", nameServerNettyRemoteClient.getInFlightRequestCount(), e);
                     }
                 }
             }
@@ -201,16 +286,14 @@ public class DefaultProducerImpl implements Producer {
      * 主从架构 -》从节点数据 / 主节点数据（两套ip都应该保存下来）
      */
     public void fetchBrokerAddress() {
-        String fetchBrokerAddressMsgId = UUID.randomUUID().toString();
         PullBrokerIpDTO pullBrokerIpDTO = new PullBrokerIpDTO();
         if (getBrokerClusterGroup() != null) {
             this.setBrokerRole("master");
             pullBrokerIpDTO.setBrokerClusterGroup(brokerClusterGroup);
         }
         pullBrokerIpDTO.setRole(this.getBrokerRole());
-        pullBrokerIpDTO.setMsgId(fetchBrokerAddressMsgId);
         TcpMsg heartBeatResponse = nameServerNettyRemoteClient.sendSyncMsg(new TcpMsg(NameServerEventCode.PULL_BROKER_IP_LIST.getCode(),
-                JSON.toJSONBytes(pullBrokerIpDTO)), fetchBrokerAddressMsgId);
+                JSON.toJSONBytes(pullBrokerIpDTO)));
         //获取broker节点ip地址，并且缓存起来，可能由多个master-broker角色
         PullBrokerIpRespDTO pullBrokerIpRespDTO = JSON.parseObject(heartBeatResponse.getBody(), PullBrokerIpRespDTO.class);
         this.setBrokerAddressList(pullBrokerIpRespDTO.getAddressList());
@@ -239,7 +322,7 @@ public class DefaultProducerImpl implements Producer {
                 //之前没有链接过，需要额外链接接入
                 String[] brokerAddressArr = brokerIp.split(":");
                 BrokerNettyRemoteClient newBrokerNettyRemoteClient = new BrokerNettyRemoteClient(brokerAddressArr[0],
-                        Integer.valueOf(brokerAddressArr[1]));
+                        Integer.valueOf(brokerAddressArr[1]), maxInFlightRequests);
                 newBrokerNettyRemoteClient.buildConnection(new BrokerRemoteRespHandler(new EventBus("consumer-client-eventbus")));
                 //新的链接通道建立
                 newBrokerNettyRemoteClientList.add(newBrokerNettyRemoteClient);
@@ -253,7 +336,7 @@ public class DefaultProducerImpl implements Producer {
             //老链接通讯失败，重连尝试
             String[] brokerAddressArr = brokerIp.split(":");
             BrokerNettyRemoteClient newBrokerNettyRemoteClient = new BrokerNettyRemoteClient(brokerAddressArr[0],
-                    Integer.valueOf(brokerAddressArr[1]));
+                    Integer.valueOf(brokerAddressArr[1]), maxInFlightRequests);
             newBrokerNettyRemoteClient.buildConnection(new BrokerRemoteRespHandler(new EventBus("consumer-client-eventbus")));
             //新的链接通道建立
             newBrokerNettyRemoteClientList.add(newBrokerNettyRemoteClient);
@@ -276,9 +359,13 @@ public class DefaultProducerImpl implements Producer {
         String msgId = UUID.randomUUID().toString();
         messageDTO.setMsgId(msgId);
         messageDTO.setSendWay(MessageSendWay.SYNC.getCode());
-        TcpMsg tcpMsg = new TcpMsg(BrokerEventCode.PUSH_MSG.getCode(), JSON.toJSONBytes(messageDTO));
-        TcpMsg responseMsg = remoteClient.sendSyncMsg(tcpMsg, msgId);
-        SendMessageToBrokerResponseDTO sendMessageToBrokerResponseDTO = JSON.parseObject(responseMsg.getBody(), SendMessageToBrokerResponseDTO.class);
+        TcpMsg tcpMsg = SerializerManager.encode(BrokerEventCode.PUSH_MSG.getCode(), messageDTO);
+        TcpMsg responseMsg = remoteClient.sendSyncMsg(tcpMsg);
+        return this.buildSendResult(responseMsg);
+    }
+
+    private SendResult buildSendResult(TcpMsg responseMsg) {
+        SendMessageToBrokerResponseDTO sendMessageToBrokerResponseDTO = SerializerManager.decode(responseMsg, SendMessageToBrokerResponseDTO.class);
         int responseStatus = sendMessageToBrokerResponseDTO.getStatus();
         SendResult sendResult = new SendResult();
         if (responseStatus == SendMessageToBrokerResponseStatus.SUCCESS.getCode()) {
@@ -291,13 +378,121 @@ public class DefaultProducerImpl implements Producer {
     }
 
     @Override
-    public void sendAsync(MessageDTO messageDTO) {
+    public CompletableFuture<SendResult> sendAsync(MessageDTO messageDTO) {
+        if (this.canAccumulate(messageDTO)) {
+            CompletableFuture<SendResult> sendFuture = new CompletableFuture<>();
+            try {
+                recordAccumulator.append(messageDTO, new SendCallback() {
+                    @Override
+                    public void onSuccess(SendResult sendResult) {
+                        sendFuture.complete(sendResult);
+                    }
+
+                    @Override
+                    public void onException(Throwable e) {
+                        sendFuture.completeExceptionally(e);
+                    }
+                });
+            } catch (RuntimeException e) {
+                //缓冲区耗尽或者消息过大时通过future返回失败，异步发送不向调用方抛出异常
+                sendFuture.completeExceptionally(e);
+            }
+            return sendFuture;
+        }
+        BrokerNettyRemoteClient remoteClient = this.getBrokerNettyRemoteClient();
+        messageDTO.setMsgId(UUID.randomUUID().toString());
+        //broker只会给同步方式的消息返回结果
+        messageDTO.setSendWay(MessageSendWay.SYNC.getCode());
+        TcpMsg tcpMsg = SerializerManager.encode(BrokerEventCode.PUSH_MSG.getCode(), messageDTO);
+        return remoteClient.sendAsyncRequest(tcpMsg, sendTimeoutMs).thenApply(this::buildSendResult);
+    }
+
+    @Override
+    public void sendAsync(MessageDTO messageDTO, SendCallback sendCallback) {
+        AssertUtils.isNotNull(sendCallback, "sendCallback is null");
+        this.sendAsync(messageDTO).whenComplete((sendResult, throwable) -> {
+            if (throwable != null) {
+                sendCallback.onException(throwable);
+            } else {
+                sendCallback.onSuccess(sendResult);
+            }
+        });
+    }
+
+    @Override
+    public void sendOneway(MessageDTO messageDTO) {
+        if (this.canAccumulate(messageDTO)) {
+            recordAccumulator.append(messageDTO, null);
+            return;
+        }
         BrokerNettyRemoteClient remoteClient = this.getBrokerNettyRemoteClient();
         messageDTO.setSendWay(MessageSendWay.ASYNC.getCode());
-        TcpMsg tcpMsg = new TcpMsg(BrokerEventCode.PUSH_MSG.getCode(), JSON.toJSONBytes(messageDTO));
+        TcpMsg tcpMsg = SerializerManager.encode(BrokerEventCode.PUSH_MSG.getCode(), messageDTO);
         remoteClient.sendAsyncMsg(tcpMsg);
     }
 
+    /**
+     * 只有普通消息会进入累加器，延迟消息和事务消息依然单条发送
+     */
+    private boolean canAccumulate(MessageDTO messageDTO) {
+        return recordAccumulator != null && messageDTO.getDelay() <= 0 && messageDTO.getTxFlag() < 0;
+    }
+
+    @Override
+    public List<SendResult> sendBatch(List<MessageDTO> messageDTOList) {
+        AssertUtils.isNotEmpty(messageDTOList, "messageDTOList is empty");
+        String topic = messageDTOList.get(0).getTopic();
+        for (MessageDTO messageDTO : messageDTOList) {
+            AssertUtils.isTrue(topic.equals(messageDTO.getTopic()), "batch msg must have same topic");
+            AssertUtils.isTrue(messageDTO.getDelay() <= 0 && messageDTO.getTxFlag() < 0, "batch send only support normal msg");
+        }
+        try {
+            return this.doSendBatch(topic, messageDTOList).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 整批消息使用一个请求异步发送
+     *
+     * @param topic
+     * @param messageDTOList 必须都是同一个topic下的普通消息
+     * @return 每条消息的发送结果
+     */
+    private CompletableFuture<List<SendResult>> doSendBatch(String topic, List<MessageDTO> messageDTOList) {
+        for (MessageDTO messageDTO : messageDTOList) {
+            messageDTO.setMsgId(UUID.randomUUID().toString());
+            messageDTO.setSendWay(MessageSendWay.SYNC.getCode());
+        }
+        BrokerNettyRemoteClient remoteClient = this.getBrokerNettyRemoteClient();
+        BatchMessageDTO batchMessageDTO = new BatchMessageDTO();
+        batchMessageDTO.setTopic(topic);
+        batchMessageDTO.setSendWay(MessageSendWay.SYNC.getCode());
+        batchMessageDTO.setMessageDTOList(messageDTOList);
+        TcpMsg tcpMsg = SerializerManager.encode(BrokerEventCode.PUSH_BATCH_MSG.getCode(), batchMessageDTO);
+        return remoteClient.sendAsyncRequest(tcpMsg, sendTimeoutMs).thenApply(responseMsg -> this.buildBatchSendResult(responseMsg, messageDTOList.size()));
+    }
+
+    private List<SendResult> buildBatchSendResult(TcpMsg responseMsg, int size) {
+        BatchSendMessageToBrokerResponseDTO batchResponseDTO = SerializerManager.decode(responseMsg, BatchSendMessageToBrokerResponseDTO.class);
+        List<SendResult> sendResultList = new ArrayList<>(size);
+        if (batchResponseDTO.getResponseDTOList() == null) {
+            return sendResultList;
+        }
+        for (SendMessageToBrokerResponseDTO sendMessageToBrokerResponseDTO : batchResponseDTO.getResponseDTOList()) {
+            SendResult sendResult = new SendResult();
+            if (sendMessageToBrokerResponseDTO.getStatus() == SendMessageToBrokerResponseStatus.SUCCESS.getCode()) {
+                sendResult.setSendStatus(SendStatus.SUCCESS);
+            } else {
+                sendResult.setSendStatus(SendStatus.FAIL);
+                logger.error("send mq fail, msgId is {}, desc is {}", sendMessageToBrokerResponseDTO.getMsgId(), sendMessageToBrokerResponseDTO.getDesc());
+            }
+            sendResultList.add(sendResult);
+        }
+        return sendResultList;
+    }
+
     @Override
     public SendResult sendTxMessage(MessageDTO messageDTO) {
         AssertUtils.isNotNull(messageDTO, "messageDTO is null");
@@ -308,8 +503,8 @@ public class DefaultProducerImpl implements Producer {
         messageDTO.setMsgId(msgId);
         messageDTO.setProducerId(this.getProducerId());
         messageDTO.setSendWay(MessageSendWay.SYNC.getCode());
-        TcpMsg tcpMsg = new TcpMsg(BrokerEventCode.PUSH_MSG.getCode(), JSON.toJSONBytes(messageDTO));
-        TcpMsg responseMsg = remoteClient.sendSyncMsg(tcpMsg, msgId);
+        TcpMsg tcpMsg = SerializerManager.encode(BrokerEventCode.PUSH_MSG.getCode(), messageDTO);
+        TcpMsg responseMsg = remoteClient.sendSyncMsg(tcpMsg);
         boolean isHalfMsgSendSuccess = (responseMsg != null && responseMsg.getCode() == BrokerResponseCode.HALF_MSG_SEND_SUCCESS.getCode());
         if (!isHalfMsgSendSuccess) {
             throw new RuntimeException("half msg send fail");
@@ -321,14 +516,14 @@ public class DefaultProducerImpl implements Producer {
 
         if (LocalTransactionState.COMMIT.equals(localTransactionState)) {
             messageDTO.setTxFlag(TxMessageFlagEnum.REMAIN_HALF_ACK.getCode());
-            TcpMsg remainHalfAckMsg = new TcpMsg(BrokerEventCode.PUSH_MSG.getCode(), JSON.toJSONBytes(messageDTO));
-            TcpMsg remainHalfAckResp = remoteClient.sendSyncMsg(remainHalfAckMsg, msgId);
+            TcpMsg remainHalfAckMsg = SerializerManager.encode(BrokerEventCode.PUSH_MSG.getCode(), messageDTO);
+            TcpMsg remainHalfAckResp = remoteClient.sendSyncMsg(remainHalfAckMsg);
             logger.info("sendTxMessage remainHalfAckResp :{}", remainHalfAckResp);
         } else if (LocalTransactionState.ROLLBACK.equals(localTransactionState)) {
             //应该要通知到broker本地事务消息执行失败这个行为，不然的话broker会一直回调客户端查询状态，这里会有额外的性能损耗
             messageDTO.setTxFlag(TxMessageFlagEnum.REMAIN_HALF_ACK.getCode());
-            TcpMsg rollbackMsg = new TcpMsg(BrokerEventCode.PUSH_MSG.getCode(), JSON.toJSONBytes(messageDTO));
-            TcpMsg rollbackAckResp = remoteClient.sendSyncMsg(rollbackMsg, msgId);
+            TcpMsg rollbackMsg = SerializerManager.encode(BrokerEventCode.PUSH_MSG.getCode(), messageDTO);
+            TcpMsg rollbackAckResp = remoteClient.sendSyncMsg(rollbackMsg);
             logger.info("sendTxMessage rollbackAckResp :{}", rollbackAckResp);
         } else if (LocalTransactionState.UNKNOW.equals(localTransactionState)) {
             //等待broker回调查询进行状态判断
@@ -360,6 +555,62 @@ public class DefaultProducerImpl implements Producer {
         this.nameServerNettyRemoteClient = nameServerNettyRemoteClient;
     }
 
+    public boolean isAccumulatorEnable() {
+        return accumulatorEnable;
+    }
+
+    public void setAccumulatorEnable(boolean accumulatorEnable) {
+        this.accumulatorEnable = accumulatorEnable;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getLingerMs() {
+        return lingerMs;
+    }
+
+    public void setLingerMs(long lingerMs) {
+        this.lingerMs = lingerMs;
+    }
+
+    public long getBufferMemory() {
+        return bufferMemory;
+    }
+
+    public void setBufferMemory(long bufferMemory) {
+        this.bufferMemory = bufferMemory;
+    }
+
+    public long getMaxBlockMs() {
+        return maxBlockMs;
+    }
+
+    public void setMaxBlockMs(long maxBlockMs) {
+        this.maxBlockMs = maxBlockMs;
+    }
+
+    public int getMaxInFlightRequests() {
+        return maxInFlightRequests;
+    }
+
+    public void setMaxInFlightRequests(int maxInFlightRequests) {
+        this.maxInFlightRequests = maxInFlightRequests;
+    }
+
+    public long getSendTimeoutMs() {
+        return sendTimeoutMs;
+    }
+
+    public void setSendTimeoutMs(long sendTimeoutMs) {
+        this.sendTimeoutMs = sendTimeoutMs;
+    }
+
     public String getBrokerRole() {
         return brokerRole;
     }
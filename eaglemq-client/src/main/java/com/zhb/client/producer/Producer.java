@@ -3,6 +3,9 @@ package com.zhb.client.producer;
 import com.zhb.common.dto.MessageDTO;
 import com.zhb.common.transaction.TransactionListener;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @Author idea
  * @Date: Created in 20:00 2024/6/15
@@ -19,12 +22,38 @@ public interface Producer {
     SendResult send(MessageDTO messageDTO);
 
     /**
-     * 异步发送
+     * 异步发送，不阻塞调用线程，收到broker的发送结果之后完成返回的future
+     * 同一个连接上未完成的请求数量超过窗口大小时会阻塞等待，开启累加模式时普通消息会攒批发送
+     * future在IO线程中完成，依赖它的回调不能有阻塞操作
      *
      * @param messageDTO
-     * @return
+     * @return 发送结果
+     */
+    CompletableFuture<SendResult> sendAsync(MessageDTO messageDTO);
+
+    /**
+     * 异步发送，发送完成之后回调，语义和返回future的异步发送一致
+     *
+     * @param messageDTO
+     * @param sendCallback
+     */
+    void sendAsync(MessageDTO messageDTO, SendCallback sendCallback);
+
+    /**
+     * 单向发送，broker不会返回发送结果
+     *
+     * @param messageDTO
+     */
+    void sendOneway(MessageDTO messageDTO);
+
+    /**
+     * 同步批量发送，整批消息使用一个请求发送，broker一次性写入并返回每条消息的结果
+     * 同一批消息必须属于同一个topic，只支持普通消息
+     *
+     * @param messageDTOList
+     * @return 每条消息的发送结果，顺序和传入的消息顺序一致
      */
-    void sendAsync(MessageDTO messageDTO);
+    List<SendResult> sendBatch(List<MessageDTO> messageDTOList);
 
 
     /**
@@ -0,0 +1,52 @@
+package com.zhb.client.producer;
+
+import com.zhb.common.dto.MessageDTO;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @Description 累加器中同一个topic下等待发送的一批消息
+ */
+public class ProducerBatch {
+
+    private String topic;
+    //批次创建时间，用于判断是否达到linger时间
+    private long createTime;
+    private List<MessageDTO> messageDTOList = new ArrayList<>();
+    //和messageDTOList一一对应，没有回调的消息对应的元素为null
+    private List<SendCallback> sendCallbackList = new ArrayList<>();
+    //批次中消息占用的估算字节数
+    private int sizeInBytes;
+
+    public ProducerBatch(String topic, long createTime) {
+        this.topic = topic;
+        this.createTime = createTime;
+    }
+
+    public void add(MessageDTO messageDTO, SendCallback sendCallback, int size) {
+        messageDTOList.add(messageDTO);
+        sendCallbackList.add(sendCallback);
+        sizeInBytes += size;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public long getCreateTime() {
+        return createTime;
+    }
+
+    public List<MessageDTO> getMessageDTOList() {
+        return messageDTOList;
+    }
+
+    public List<SendCallback> getSendCallbackList() {
+        return sendCallbackList;
+    }
+
+    public int getSizeInBytes() {
+        return sizeInBytes;
+    }
+}
@@ -0,0 +1,144 @@
+package com.zhb.client.producer;
+
+import com.zhb.common.dto.MessageDTO;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @Description 消息累加器
+ * 异步发送的消息先按照topic放入内存中的批次，批次达到batchSize字节或者等待时间达到lingerMs之后交给发送线程整批发送，
+ * 等待发送的消息占用的内存总量不能超过bufferMemory，超过之后追加消息的线程最多阻塞maxBlockMs，仍然没有空间则发送失败
+ */
+public class RecordAccumulator {
+
+    //估算消息占用的内存时，消息体和topic之外的固定开销，包括msgId和其他字段
+    private static final int MSG_OVERHEAD_SIZE = 64;
+
+    private final int batchSize;
+    private final long lingerMs;
+    private final long bufferMemory;
+    private final long maxBlockMs;
+
+    //下面的字段都由lock保护
+    private final Map<String, ProducerBatch> batchMap = new HashMap<>();
+    private final Deque<ProducerBatch> readyQueue = new ArrayDeque<>();
+    private long usedMemory;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition bufferAvailable = lock.newCondition();
+    private final Condition batchChanged = lock.newCondition();
+
+    public RecordAccumulator(int batchSize, long lingerMs, long bufferMemory, long maxBlockMs) {
+        this.batchSize = batchSize;
+        this.lingerMs = lingerMs;
+        this.bufferMemory = bufferMemory;
+        this.maxBlockMs = maxBlockMs;
+    }
+
+    /**
+     * 追加一条消息到对应topic的批次中，缓冲区已满时最多阻塞maxBlockMs
+     *
+     * @param messageDTO
+     * @param sendCallback 可以为null
+     */
+    public void append(MessageDTO messageDTO, SendCallback sendCallback) {
+        int size = this.estimateSize(messageDTO);
+        if (size > bufferMemory) {
+            throw new IllegalArgumentException("msg size is over buffer memory, msg size is " + size);
+        }
+        lock.lock();
+        try {
+            long remainNanos = TimeUnit.MILLISECONDS.toNanos(maxBlockMs);
+            while (usedMemory + size > bufferMemory) {
+                if (remainNanos <= 0) {
+                    throw new RuntimeException("producer buffer memory is exhausted, wait time is " + maxBlockMs + "ms");
+                }
+                remainNanos = bufferAvailable.awaitNanos(remainNanos);
+            }
+            usedMemory += size;
+            String topic = messageDTO.getTopic();
+            ProducerBatch producerBatch = batchMap.get(topic);
+            if (producerBatch == null) {
+                producerBatch = new ProducerBatch(topic, System.currentTimeMillis());
+                batchMap.put(topic, producerBatch);
+                //新批次需要让发送线程重新计算等待时间
+                batchChanged.signal();
+            }
+            producerBatch.add(messageDTO, sendCallback, size);
+            if (producerBatch.getSizeInBytes() >= batchSize) {
+                batchMap.remove(topic);
+                readyQueue.add(producerBatch);
+                batchChanged.signal();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取出所有可以发送的批次，没有可以发送的批次时阻塞到最早的批次达到linger时间
+     *
+     * @return 可以发送的批次
+     * @throws InterruptedException
+     */
+    public List<ProducerBatch> drain() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+                long waitMs = Long.MAX_VALUE;
+                Iterator<ProducerBatch> iterator = batchMap.values().iterator();
+                while (iterator.hasNext()) {
+                    ProducerBatch producerBatch = iterator.next();
+                    long expireTime = producerBatch.getCreateTime() + lingerMs;
+                    if (expireTime <= now) {
+                        iterator.remove();
+                        readyQueue.add(producerBatch);
+                    } else {
+                        waitMs = Math.min(waitMs, expireTime - now);
+                    }
+                }
+                if (!readyQueue.isEmpty()) {
+                    List<ProducerBatch> readyBatchList = new ArrayList<>(readyQueue);
+                    readyQueue.clear();
+                    return readyBatchList;
+                }
+                if (waitMs == Long.MAX_VALUE) {
+                    batchChanged.await();
+                } else {
+                    batchChanged.await(waitMs, TimeUnit.MILLISECONDS);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 批次发送完成之后释放占用的内存，唤醒等待缓冲区的线程
+     *
+     * @param producerBatch
+     */
+    public void release(ProducerBatch producerBatch) {
+        lock.lock();
+        try {
+            usedMemory -= producerBatch.getSizeInBytes();
+            bufferAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int estimateSize(MessageDTO messageDTO) {
+        int bodySize = messageDTO.getBody() == null ? 0 : messageDTO.getBody().length;
+        int topicSize = messageDTO.getTopic() == null ? 0 : messageDTO.getTopic().getBytes(StandardCharsets.UTF_8).length;
+        return bodySize + topicSize + MSG_OVERHEAD_SIZE;
+    }
+}
@@ -0,0 +1,21 @@
+package com.zhb.client.producer;
+
+/**
+ * @Description 异步发送的回调，每条消息回调一次
+ */
+public interface SendCallback {
+
+    /**
+     * 收到broker的发送结果
+     *
+     * @param sendResult
+     */
+    void onSuccess(SendResult sendResult);
+
+    /**
+     * 发送过程中出现异常，例如网络异常或者等待响应超时
+     *
+     * @param e
+     */
+    void onException(Throwable e);
+}
@@ -0,0 +1,128 @@
+package com.zhb.client.consumer;
+
+import com.zhb.common.coder.SerializerManager;
+import com.zhb.common.coder.TcpMsg;
+import com.zhb.common.dto.ConsumeCommitOffsetReqDTO;
+import com.zhb.common.dto.ConsumeMsgCommitLogDTO;
+import com.zhb.common.dto.ConsumeMsgRespDTO;
+import com.zhb.common.enums.BrokerEventCode;
+import com.zhb.common.remote.BrokerNettyRemoteClient;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 并发消费时的位点提交：后面的消息先完成时位点停在没有完成的消息上，等它完成之后再一次推进到末尾
+ */
+public class ConsumeMessageServiceTest {
+
+    private static final String BROKER_REQ_ID = "127.0.0.1:8990";
+    private static final String TOPIC = "order_topic";
+    private static final int EACH_MSG_SIZE = 16;
+
+    private final List<ConsumeCommitOffsetReqDTO> commitReqList = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void offsetGapIsCommittedAfterSlowMessageCompletes() throws Exception {
+        CountDownLatch slowMessageRelease = new CountDownLatch(1);
+        CountDownLatch fastMessagesDone = new CountDownLatch(3);
+        DefaultMqConsumer defaultMqConsumer = new DefaultMqConsumer();
+        defaultMqConsumer.setConsumeGroup("order_group");
+        defaultMqConsumer.setConsumeThreadNum(4);
+        defaultMqConsumer.setOffsetCommitIntervalMills(20);
+        defaultMqConsumer.setMessageConsumeListener(new ConcurrentMessageConsumeListener() {
+            @Override
+            public ConsumeResult consume(List<ConsumeMessage> consumeMessages) throws InterruptedException {
+                if (consumeMessages.get(0).getConsumeQueueOffset() == EACH_MSG_SIZE) {
+                    slowMessageRelease.await();
+                } else {
+                    fastMessagesDone.countDown();
+                }
+                return ConsumeResult.CONSUME_SUCCESS();
+            }
+        });
+        defaultMqConsumer.getBrokerNettyRemoteClientMap().put(BROKER_REQ_ID, new CapturingBrokerClient());
+        ConsumeMessageService consumeMessageService = new ConsumeMessageService(defaultMqConsumer);
+        consumeMessageService.start();
+
+        consumeMessageService.submit(BROKER_REQ_ID, TOPIC, this.consumeMsgResp(0, 4));
+        assertTrue(fastMessagesDone.await(5, TimeUnit.SECONDS));
+        //第二条消息没有完成，位点停在它的位置上
+        this.awaitCommittedOffset(EACH_MSG_SIZE);
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertEquals(EACH_MSG_SIZE, this.lastCommittedOffset());
+        //本地还有未完成的消息，下一次从拉取位置继续
+        assertEquals(4 * EACH_MSG_SIZE, (int) consumeMessageService.getPullOffsetMap(BROKER_REQ_ID, TOPIC).get(0));
+
+        slowMessageRelease.countDown();
+        this.awaitCommittedOffset(4 * EACH_MSG_SIZE);
+    }
+
+    private void awaitCommittedOffset(int expectedOffset) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (this.lastCommittedOffset() != expectedOffset && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(expectedOffset, this.lastCommittedOffset());
+    }
+
+    private int lastCommittedOffset() {
+        if (commitReqList.isEmpty()) {
+            return -1;
+        }
+        Map<Integer, Integer> queueCommitOffsetMap = commitReqList.get(commitReqList.size() - 1).getQueueCommitOffsetMap();
+        return queueCommitOffsetMap.get(0);
+    }
+
+    private ConsumeMsgRespDTO consumeMsgResp(int fromOffset, int count) {
+        List<ConsumeMsgCommitLogDTO> commitLogContentList = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ConsumeMsgCommitLogDTO consumeMsgCommitLogDTO = new ConsumeMsgCommitLogDTO();
+            consumeMsgCommitLogDTO.setConsumeQueueOffset(fromOffset + i * EACH_MSG_SIZE);
+            consumeMsgCommitLogDTO.setBody(new byte[8]);
+            commitLogContentList.add(consumeMsgCommitLogDTO);
+        }
+        ConsumeMsgRespDTO consumeMsgRespDTO = new ConsumeMsgRespDTO();
+        consumeMsgRespDTO.setQueueId(0);
+        consumeMsgRespDTO.setCommitLogContentList(commitLogContentList);
+        return consumeMsgRespDTO;
+    }
+
+    /**
+     * 不建立连接，记录提交位点的请求，写入总是成功
+     */
+    private class CapturingBrokerClient extends BrokerNettyRemoteClient {
+
+        private final EmbeddedChannel channel = new EmbeddedChannel();
+
+        CapturingBrokerClient() {
+            super("127.0.0.1", 8990);
+        }
+
+        @Override
+        public boolean isChannelActive() {
+            return true;
+        }
+
+        @Override
+        public void sendAsyncMsg(TcpMsg tcpMsg, ChannelFutureListener channelFutureListener) {
+            assertEquals(BrokerEventCode.CONSUME_COMMIT_OFFSET.getCode(), tcpMsg.getCode());
+            commitReqList.add(SerializerManager.decode(tcpMsg, ConsumeCommitOffsetReqDTO.class));
+            try {
+                channelFutureListener.operationComplete(channel.newSucceededFuture());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
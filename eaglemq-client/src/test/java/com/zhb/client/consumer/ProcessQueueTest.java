@@ -0,0 +1,94 @@
+package com.zhb.client.consumer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 队列本地缓存：消费位点停在最早的未完成消息上，位置不连续的消息只有在本地没有待处理消息时才接收
+ */
+public class ProcessQueueTest {
+
+    private static final int EACH_MSG_SIZE = 16;
+
+    @Test
+    public void commitOffsetStopsAtEarliestUnfinishedMessage() {
+        ProcessQueue processQueue = new ProcessQueue("127.0.0.1:8990", "order_topic", 0);
+        List<ConsumeMessage> consumeMessages = this.messages(160, 4);
+        assertEquals(4, processQueue.putMessages(consumeMessages, false).size());
+        assertEquals(160 + 4 * EACH_MSG_SIZE, processQueue.getNextPullOffset());
+        //刚收到消息时位点就是第一条消息的位置，不需要提交
+        assertEquals(-1, processQueue.getCommitOffset());
+
+        //后面的消息先完成，最早的消息没有完成，位点不能越过它
+        processQueue.complete(Arrays.asList(consumeMessages.get(3), consumeMessages.get(1)));
+        assertEquals(-1, processQueue.getCommitOffset());
+        processQueue.complete(Collections.singletonList(consumeMessages.get(0)));
+        assertEquals(160 + 2 * EACH_MSG_SIZE, processQueue.getCommitOffset());
+        processQueue.commitSuccess(160 + 2 * EACH_MSG_SIZE);
+        assertEquals(-1, processQueue.getCommitOffset());
+
+        //全部完成之后位点是下一次拉取的位置
+        processQueue.complete(Collections.singletonList(consumeMessages.get(2)));
+        assertEquals(160 + 4 * EACH_MSG_SIZE, processQueue.getCommitOffset());
+        //写入网络的回调乱序到达，较小的位点不会让已提交的位点回退
+        processQueue.commitSuccess(160 + 4 * EACH_MSG_SIZE);
+        processQueue.commitSuccess(160 + 2 * EACH_MSG_SIZE);
+        assertEquals(-1, processQueue.getCommitOffset());
+    }
+
+    @Test
+    public void gapIsAcceptedOnlyWhenNothingIsPending() {
+        ProcessQueue processQueue = new ProcessQueue("127.0.0.1:8990", "order_topic", 0);
+        List<ConsumeMessage> firstBatch = this.messages(0, 2);
+        processQueue.putMessages(firstBatch, false);
+        //重复返回的消息被丢弃
+        assertTrue(processQueue.putMessages(this.messages(0, 2), false).isEmpty());
+        //broker上的进度被推进到拉取位置之后，本地还有未完成的消息，丢弃这批消息
+        assertTrue(processQueue.putMessages(this.messages(320, 2), false).isEmpty());
+        assertEquals(2 * EACH_MSG_SIZE, processQueue.getNextPullOffset());
+        assertEquals(2, processQueue.getMsgCount());
+
+        //本地消息处理完之后从新的位置开始
+        processQueue.complete(firstBatch);
+        assertEquals(2, processQueue.putMessages(this.messages(320, 2), false).size());
+        assertEquals(320 + 2 * EACH_MSG_SIZE, processQueue.getNextPullOffset());
+        assertEquals(320, processQueue.getCommitOffset());
+    }
+
+    @Test
+    public void orderlyQueueIsConsumedByOneThreadAtATime() {
+        ProcessQueue processQueue = new ProcessQueue("127.0.0.1:8990", "order_topic", 0);
+        assertFalse(processQueue.tryStartConsuming());
+        processQueue.putMessages(this.messages(0, 3), true);
+        assertTrue(processQueue.tryStartConsuming());
+        assertFalse(processQueue.tryStartConsuming());
+        assertTrue(processQueue.isFull(3));
+
+        List<ConsumeMessage> firstBatch = processQueue.takePendingMessages(2);
+        assertEquals(0, firstBatch.get(0).getConsumeQueueOffset());
+        assertEquals(EACH_MSG_SIZE, firstBatch.get(1).getConsumeQueueOffset());
+        assertEquals(1, processQueue.takePendingMessages(2).size());
+        //取空之后释放占有，拉取线程放入新消息之后可以重新占有
+        assertTrue(processQueue.takePendingMessages(2).isEmpty());
+        processQueue.putMessages(this.messages(3 * EACH_MSG_SIZE, 1), true);
+        assertTrue(processQueue.tryStartConsuming());
+    }
+
+    private List<ConsumeMessage> messages(int fromOffset, int count) {
+        List<ConsumeMessage> consumeMessages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ConsumeMessage consumeMessage = new ConsumeMessage();
+            consumeMessage.setConsumeQueueOffset(fromOffset + i * EACH_MSG_SIZE);
+            consumeMessages.add(consumeMessage);
+        }
+        return consumeMessages;
+    }
+}
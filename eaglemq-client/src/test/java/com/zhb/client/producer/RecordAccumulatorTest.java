@@ -0,0 +1,129 @@
+package com.zhb.client.producer;
+
+import com.zhb.common.dto.MessageDTO;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 消息累加器：批次按照大小或者linger时间交给发送线程，缓冲区满时追加线程有限阻塞，批次释放之后恢复
+ */
+public class RecordAccumulatorTest {
+
+    //消息体100字节，加上topic和固定开销之后每条消息估算为170字节
+    private static final int BODY_SIZE = 100;
+    private static final int MSG_SIZE = BODY_SIZE + "topic1".length() + 64;
+
+    @Test
+    public void fullBatchIsReadyWithoutWaitingLinger() throws Exception {
+        RecordAccumulator recordAccumulator = new RecordAccumulator(MSG_SIZE * 3, 60000, MSG_SIZE * 100, 100);
+        SendCallback sendCallback = new NoopSendCallback();
+        MessageDTO first = this.message("topic1");
+        recordAccumulator.append(first, sendCallback);
+        recordAccumulator.append(this.message("topic1"), null);
+        //另一个topic的消息进入自己的批次
+        recordAccumulator.append(this.message("topic2"), sendCallback);
+        recordAccumulator.append(this.message("topic1"), sendCallback);
+
+        long begin = System.currentTimeMillis();
+        List<ProducerBatch> producerBatchList = recordAccumulator.drain();
+        assertTrue(System.currentTimeMillis() - begin < 1000);
+        assertEquals(1, producerBatchList.size());
+        ProducerBatch producerBatch = producerBatchList.get(0);
+        assertEquals("topic1", producerBatch.getTopic());
+        assertEquals(3, producerBatch.getMessageDTOList().size());
+        assertEquals(MSG_SIZE * 3, producerBatch.getSizeInBytes());
+        //回调和消息按照下标一一对应，单向发送的消息没有回调
+        assertSame(first, producerBatch.getMessageDTOList().get(0));
+        assertSame(sendCallback, producerBatch.getSendCallbackList().get(0));
+        assertNull(producerBatch.getSendCallbackList().get(1));
+        assertSame(sendCallback, producerBatch.getSendCallbackList().get(2));
+    }
+
+    @Test
+    public void partialBatchIsReadyAfterLinger() throws Exception {
+        RecordAccumulator recordAccumulator = new RecordAccumulator(MSG_SIZE * 100, 200, MSG_SIZE * 100, 100);
+        long begin = System.currentTimeMillis();
+        recordAccumulator.append(this.message("topic1"), null);
+        List<ProducerBatch> producerBatchList = recordAccumulator.drain();
+        assertTrue(System.currentTimeMillis() - begin >= 200);
+        assertEquals(1, producerBatchList.size());
+        assertEquals(1, producerBatchList.get(0).getMessageDTOList().size());
+    }
+
+    @Test
+    public void appendBlocksOnExhaustedBufferUntilBatchIsReleased() throws Exception {
+        RecordAccumulator recordAccumulator = new RecordAccumulator(MSG_SIZE * 2, 60000, MSG_SIZE * 2, 5000);
+        recordAccumulator.append(this.message("topic1"), null);
+        recordAccumulator.append(this.message("topic1"), null);
+        ProducerBatch producerBatch = recordAccumulator.drain().get(0);
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        CountDownLatch appendStarted = new CountDownLatch(1);
+        Future<?> blockedAppend = executorService.submit(() -> {
+            appendStarted.countDown();
+            recordAccumulator.append(this.message("topic1"), null);
+        });
+        assertTrue(appendStarted.await(5, TimeUnit.SECONDS));
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(blockedAppend.isDone());
+
+        //发送完成之后归还内存，等待的追加线程继续
+        recordAccumulator.release(producerBatch);
+        blockedAppend.get(5, TimeUnit.SECONDS);
+        executorService.shutdown();
+    }
+
+    @Test
+    public void appendFailsAfterMaxBlock() {
+        RecordAccumulator recordAccumulator = new RecordAccumulator(MSG_SIZE * 10, 60000, MSG_SIZE, 50);
+        recordAccumulator.append(this.message("topic1"), null);
+        long begin = System.currentTimeMillis();
+        try {
+            recordAccumulator.append(this.message("topic1"), null);
+            fail("buffer memory is exhausted");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("exhausted"));
+        }
+        assertTrue(System.currentTimeMillis() - begin >= 50);
+
+        //超过整个缓冲区的消息不等待，直接失败
+        MessageDTO oversized = this.message("topic1");
+        oversized.setBody(new byte[MSG_SIZE * 2]);
+        try {
+            recordAccumulator.append(oversized, null);
+            fail("msg is larger than buffer memory");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private MessageDTO message(String topic) {
+        MessageDTO messageDTO = new MessageDTO();
+        messageDTO.setTopic(topic);
+        messageDTO.setBody(new byte[BODY_SIZE]);
+        return messageDTO;
+    }
+
+    private static class NoopSendCallback implements SendCallback {
+
+        @Override
+        public void onSuccess(SendResult sendResult) {
+        }
+
+        @Override
+        public void onException(Throwable e) {
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.zhb.common.coder;
+
+import com.zhb.common.dto.BatchMessageDTO;
+import com.zhb.common.dto.BatchSendMessageToBrokerResponseDTO;
+import com.zhb.common.dto.ConsumeCommitOffsetReqDTO;
+import com.zhb.common.dto.ConsumeCreditReqDTO;
+import com.zhb.common.dto.ConsumeMsgAckReqDTO;
+import com.zhb.common.dto.ConsumeMsgBaseRespDTO;
+import com.zhb.common.dto.ConsumeMsgReqDTO;
+import com.zhb.common.dto.DelayStoreSyncDTO;
+import com.zhb.common.dto.MessageDTO;
+import com.zhb.common.dto.SendMessageToBrokerResponseDTO;
+import com.zhb.common.enums.BrokerEventCode;
+import com.zhb.common.enums.BrokerResponseCode;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 收发消息链路上高频消息的code和消息体类型的对应关系
+ * 解码器收到这些code的二进制消息时直接从网络缓冲区解析出对象，不再拷贝一份byte[]再反序列化。
+ * 请求code和响应code的取值不重叠，broker端和客户端的连接共用一份
+ */
+public class BinaryBodyTypes {
+
+	public static final Map<Integer, Class<?>> BROKER_BODY_TYPES;
+
+	static {
+		Map<Integer, Class<?>> bodyTypeMap = new HashMap<>();
+		bodyTypeMap.put(BrokerEventCode.PUSH_MSG.getCode(), MessageDTO.class);
+		bodyTypeMap.put(BrokerEventCode.PUSH_BATCH_MSG.getCode(), BatchMessageDTO.class);
+		bodyTypeMap.put(BrokerEventCode.CONSUME_MSG.getCode(), ConsumeMsgReqDTO.class);
+		bodyTypeMap.put(BrokerEventCode.CONSUME_SUCCESS_MSG.getCode(), ConsumeMsgAckReqDTO.class);
+		bodyTypeMap.put(BrokerEventCode.CONSUME_CREDIT.getCode(), ConsumeCreditReqDTO.class);
+		bodyTypeMap.put(BrokerEventCode.CONSUME_COMMIT_OFFSET.getCode(), ConsumeCommitOffsetReqDTO.class);
+		bodyTypeMap.put(BrokerEventCode.DELAY_STORE_SYNC.getCode(), DelayStoreSyncDTO.class);
+		bodyTypeMap.put(BrokerResponseCode.SEND_MSG_RESP.getCode(), SendMessageToBrokerResponseDTO.class);
+		bodyTypeMap.put(BrokerResponseCode.SEND_BATCH_MSG_RESP.getCode(), BatchSendMessageToBrokerResponseDTO.class);
+		bodyTypeMap.put(BrokerResponseCode.CONSUME_MSG_RESP.getCode(), ConsumeMsgBaseRespDTO.class);
+		BROKER_BODY_TYPES = Collections.unmodifiableMap(bodyTypeMap);
+	}
+}
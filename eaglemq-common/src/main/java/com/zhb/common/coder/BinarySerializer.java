@@ -0,0 +1,451 @@
+package com.zhb.common.coder;
+
+import com.zhb.common.dto.*;
+import com.zhb.common.enums.SerializeTypeEnum;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 二进制序列化
+ * 只支持收发消息链路上的几个高频对象，字段按固定顺序写入，不写字段名，byte[]类型的消息体也不需要base64编码
+ * 字符串格式：长度(4，-1表示null) + utf8内容，包装类型格式：是否为null(1) + 值
+ */
+public class BinarySerializer implements Serializer {
+
+	private static final int NULL_LENGTH = -1;
+
+	/**
+	 * 序列化时缓冲区的初始大小，不够时会自动扩容
+	 */
+	private static final int INIT_BUFFER_SIZE = 256;
+
+	/**
+	 * 批量消息的编解码会复用单条消息的编解码
+	 */
+	private static final MessageDTOCodec MESSAGE_DTO_CODEC = new MessageDTOCodec();
+	private static final SendMessageToBrokerResponseDTOCodec SEND_MESSAGE_RESPONSE_CODEC = new SendMessageToBrokerResponseDTOCodec();
+
+	private final Map<Class<?>, BinaryCodec<?>> codecMap = new HashMap<>();
+
+	public BinarySerializer() {
+		codecMap.put(MessageDTO.class, MESSAGE_DTO_CODEC);
+		codecMap.put(ConsumeMsgReqDTO.class, new ConsumeMsgReqDTOCodec());
+		codecMap.put(ConsumeMsgAckReqDTO.class, new ConsumeMsgAckReqDTOCodec());
+		codecMap.put(SendMessageToBrokerResponseDTO.class, SEND_MESSAGE_RESPONSE_CODEC);
+		codecMap.put(ConsumeMsgBaseRespDTO.class, new ConsumeMsgBaseRespDTOCodec());
+		codecMap.put(BatchMessageDTO.class, new BatchMessageDTOCodec());
+		codecMap.put(BatchSendMessageToBrokerResponseDTO.class, new BatchSendMessageToBrokerResponseDTOCodec());
+		codecMap.put(ConsumeCreditReqDTO.class, new ConsumeCreditReqDTOCodec());
+		codecMap.put(ConsumeCommitOffsetReqDTO.class, new ConsumeCommitOffsetReqDTOCodec());
+		codecMap.put(DelayStoreSyncDTO.class, new DelayStoreSyncDTOCodec());
+	}
+
+	@Override
+	public byte getType() {
+		return SerializeTypeEnum.BINARY.getCode();
+	}
+
+	@Override
+	public boolean support(Class<?> clazz) {
+		return codecMap.containsKey(clazz);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public byte[] serialize(Object obj) {
+		BinaryCodec<Object> codec = (BinaryCodec<Object>) this.getCodec(obj.getClass());
+		ByteBuf out = Unpooled.buffer(INIT_BUFFER_SIZE);
+		codec.encode(obj, out);
+		return Arrays.copyOf(out.array(), out.writerIndex());
+	}
+
+	@Override
+	public <T> T deserialize(byte[] bytes, Class<T> clazz) {
+		return this.deserialize(Unpooled.wrappedBuffer(bytes), clazz);
+	}
+
+	/**
+	 * 直接从网络缓冲区反序列化，不需要先拷贝成byte[]，读取完成后缓冲区的readerIndex移动到对象的结尾
+	 *
+	 * @param in    缓冲区
+	 * @param clazz 对象类型
+	 * @return 对象
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T deserialize(ByteBuf in, Class<T> clazz) {
+		BinaryCodec<T> codec = (BinaryCodec<T>) this.getCodec(clazz);
+		return codec.decode(in);
+	}
+
+	private BinaryCodec<?> getCodec(Class<?> clazz) {
+		BinaryCodec<?> codec = codecMap.get(clazz);
+		if (codec == null) {
+			throw new IllegalArgumentException("binary serializer not support " + clazz.getName());
+		}
+		return codec;
+	}
+
+	private static void writeString(ByteBuf out, String value) {
+		if (value == null) {
+			out.writeInt(NULL_LENGTH);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.writeBytes(bytes);
+	}
+
+	private static String readString(ByteBuf in) {
+		int length = in.readInt();
+		if (length == NULL_LENGTH) {
+			return null;
+		}
+		String value = in.toString(in.readerIndex(), length, StandardCharsets.UTF_8);
+		in.skipBytes(length);
+		return value;
+	}
+
+	private static void writeBytes(ByteBuf out, byte[] value) {
+		if (value == null) {
+			out.writeInt(NULL_LENGTH);
+			return;
+		}
+		out.writeInt(value.length);
+		out.writeBytes(value);
+	}
+
+	private static byte[] readBytes(ByteBuf in) {
+		int length = in.readInt();
+		if (length == NULL_LENGTH) {
+			return null;
+		}
+		byte[] value = new byte[length];
+		in.readBytes(value);
+		return value;
+	}
+
+	private static void writeInteger(ByteBuf out, Integer value) {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeInt(value);
+		}
+	}
+
+	private static Integer readInteger(ByteBuf in) {
+		return in.readBoolean() ? in.readInt() : null;
+	}
+
+	/**
+	 * int类型的映射，格式：元素数量(4，-1表示null) + 每个元素[key(4) + value(4)]，key和value都不能为null
+	 */
+	private static void writeIntegerMap(ByteBuf out, Map<Integer, Integer> value) {
+		if (value == null) {
+			out.writeInt(NULL_LENGTH);
+			return;
+		}
+		out.writeInt(value.size());
+		for (Map.Entry<Integer, Integer> entry : value.entrySet()) {
+			out.writeInt(entry.getKey());
+			out.writeInt(entry.getValue());
+		}
+	}
+
+	private static Map<Integer, Integer> readIntegerMap(ByteBuf in) {
+		int size = in.readInt();
+		if (size == NULL_LENGTH) {
+			return null;
+		}
+		Map<Integer, Integer> value = new LinkedHashMap<>(size * 2);
+		for (int i = 0; i < size; i++) {
+			value.put(in.readInt(), in.readInt());
+		}
+		return value;
+	}
+
+	/**
+	 * 单个类型的二进制编解码
+	 */
+	private interface BinaryCodec<T> {
+
+		void encode(T obj, ByteBuf out);
+
+		T decode(ByteBuf in);
+	}
+
+	private static class MessageDTOCodec implements BinaryCodec<MessageDTO> {
+
+		@Override
+		public void encode(MessageDTO messageDTO, ByteBuf out) {
+			writeString(out, messageDTO.getMsgId());
+			writeString(out, messageDTO.getTopic());
+			out.writeInt(messageDTO.getQueueId());
+			out.writeInt(messageDTO.getSendWay());
+			out.writeBoolean(messageDTO.isRetry());
+			out.writeInt(messageDTO.getCurrentRetryTimes());
+			out.writeInt(messageDTO.getDelay());
+			writeString(out, messageDTO.getProducerId());
+			out.writeInt(messageDTO.getTxFlag());
+			out.writeInt(messageDTO.getLocalTxState());
+			writeBytes(out, messageDTO.getBody());
+		}
+
+		@Override
+		public MessageDTO decode(ByteBuf in) {
+			MessageDTO messageDTO = new MessageDTO();
+			messageDTO.setMsgId(readString(in));
+			messageDTO.setTopic(readString(in));
+			messageDTO.setQueueId(in.readInt());
+			messageDTO.setSendWay(in.readInt());
+			messageDTO.setRetry(in.readBoolean());
+			messageDTO.setCurrentRetryTimes(in.readInt());
+			messageDTO.setDelay(in.readInt());
+			messageDTO.setProducerId(readString(in));
+			messageDTO.setTxFlag(in.readInt());
+			messageDTO.setLocalTxState(in.readInt());
+			messageDTO.setBody(readBytes(in));
+			return messageDTO;
+		}
+	}
+
+	private static class ConsumeMsgReqDTOCodec implements BinaryCodec<ConsumeMsgReqDTO> {
+
+		@Override
+		public void encode(ConsumeMsgReqDTO consumeMsgReqDTO, ByteBuf out) {
+			writeString(out, consumeMsgReqDTO.getMsgId());
+			writeString(out, consumeMsgReqDTO.getTopic());
+			writeString(out, consumeMsgReqDTO.getConsumeGroup());
+			writeString(out, consumeMsgReqDTO.getIp());
+			writeInteger(out, consumeMsgReqDTO.getPort());
+			writeInteger(out, consumeMsgReqDTO.getBatchSize());
+			writeInteger(out, consumeMsgReqDTO.getSuspendTimeoutMills());
+			writeIntegerMap(out, consumeMsgReqDTO.getQueueOffsetMap());
+		}
+
+		@Override
+		public ConsumeMsgReqDTO decode(ByteBuf in) {
+			ConsumeMsgReqDTO consumeMsgReqDTO = new ConsumeMsgReqDTO();
+			consumeMsgReqDTO.setMsgId(readString(in));
+			consumeMsgReqDTO.setTopic(readString(in));
+			consumeMsgReqDTO.setConsumeGroup(readString(in));
+			consumeMsgReqDTO.setIp(readString(in));
+			consumeMsgReqDTO.setPort(readInteger(in));
+			consumeMsgReqDTO.setBatchSize(readInteger(in));
+			consumeMsgReqDTO.setSuspendTimeoutMills(readInteger(in));
+			consumeMsgReqDTO.setQueueOffsetMap(readIntegerMap(in));
+			return consumeMsgReqDTO;
+		}
+	}
+
+	private static class ConsumeMsgAckReqDTOCodec implements BinaryCodec<ConsumeMsgAckReqDTO> {
+
+		@Override
+		public void encode(ConsumeMsgAckReqDTO consumeMsgAckReqDTO, ByteBuf out) {
+			writeString(out, consumeMsgAckReqDTO.getMsgId());
+			writeString(out, consumeMsgAckReqDTO.getTopic());
+			writeString(out, consumeMsgAckReqDTO.getConsumeGroup());
+			writeInteger(out, consumeMsgAckReqDTO.getQueueId());
+			writeInteger(out, consumeMsgAckReqDTO.getAckCount());
+			writeString(out, consumeMsgAckReqDTO.getIp());
+			writeInteger(out, consumeMsgAckReqDTO.getPort());
+		}
+
+		@Override
+		public ConsumeMsgAckReqDTO decode(ByteBuf in) {
+			ConsumeMsgAckReqDTO consumeMsgAckReqDTO = new ConsumeMsgAckReqDTO();
+			consumeMsgAckReqDTO.setMsgId(readString(in));
+			consumeMsgAckReqDTO.setTopic(readString(in));
+			consumeMsgAckReqDTO.setConsumeGroup(readString(in));
+			consumeMsgAckReqDTO.setQueueId(readInteger(in));
+			consumeMsgAckReqDTO.setAckCount(readInteger(in));
+			consumeMsgAckReqDTO.setIp(readString(in));
+			consumeMsgAckReqDTO.setPort(readInteger(in));
+			return consumeMsgAckReqDTO;
+		}
+	}
+
+	private static class SendMessageToBrokerResponseDTOCodec implements BinaryCodec<SendMessageToBrokerResponseDTO> {
+
+		@Override
+		public void encode(SendMessageToBrokerResponseDTO sendMessageToBrokerResponseDTO, ByteBuf out) {
+			writeString(out, sendMessageToBrokerResponseDTO.getMsgId());
+			out.writeInt(sendMessageToBrokerResponseDTO.getStatus());
+			writeString(out, sendMessageToBrokerResponseDTO.getDesc());
+		}
+
+		@Override
+		public SendMessageToBrokerResponseDTO decode(ByteBuf in) {
+			SendMessageToBrokerResponseDTO sendMessageToBrokerResponseDTO = new SendMessageToBrokerResponseDTO();
+			sendMessageToBrokerResponseDTO.setMsgId(readString(in));
+			sendMessageToBrokerResponseDTO.setStatus(in.readInt());
+			sendMessageToBrokerResponseDTO.setDesc(readString(in));
+			return sendMessageToBrokerResponseDTO;
+		}
+	}
+
+	/**
+	 * 批量消息，格式：msgId + topic + 发送方式(4) + 消息数量(4) + 每条消息的MessageDTO编码
+	 */
+	private static class BatchMessageDTOCodec implements BinaryCodec<BatchMessageDTO> {
+
+		@Override
+		public void encode(BatchMessageDTO batchMessageDTO, ByteBuf out) {
+			writeString(out, batchMessageDTO.getMsgId());
+			writeString(out, batchMessageDTO.getTopic());
+			out.writeInt(batchMessageDTO.getSendWay());
+			List<MessageDTO> messageDTOList = batchMessageDTO.getMessageDTOList();
+			int size = messageDTOList == null ? 0 : messageDTOList.size();
+			out.writeInt(size);
+			for (int i = 0; i < size; i++) {
+				MESSAGE_DTO_CODEC.encode(messageDTOList.get(i), out);
+			}
+		}
+
+		@Override
+		public BatchMessageDTO decode(ByteBuf in) {
+			BatchMessageDTO batchMessageDTO = new BatchMessageDTO();
+			batchMessageDTO.setMsgId(readString(in));
+			batchMessageDTO.setTopic(readString(in));
+			batchMessageDTO.setSendWay(in.readInt());
+			int size = in.readInt();
+			List<MessageDTO> messageDTOList = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				messageDTOList.add(MESSAGE_DTO_CODEC.decode(in));
+			}
+			batchMessageDTO.setMessageDTOList(messageDTOList);
+			return batchMessageDTO;
+		}
+	}
+
+	private static class BatchSendMessageToBrokerResponseDTOCodec implements BinaryCodec<BatchSendMessageToBrokerResponseDTO> {
+
+		@Override
+		public void encode(BatchSendMessageToBrokerResponseDTO batchResponseDTO, ByteBuf out) {
+			writeString(out, batchResponseDTO.getMsgId());
+			List<SendMessageToBrokerResponseDTO> responseDTOList = batchResponseDTO.getResponseDTOList();
+			int size = responseDTOList == null ? 0 : responseDTOList.size();
+			out.writeInt(size);
+			for (int i = 0; i < size; i++) {
+				SEND_MESSAGE_RESPONSE_CODEC.encode(responseDTOList.get(i), out);
+			}
+		}
+
+		@Override
+		public BatchSendMessageToBrokerResponseDTO decode(ByteBuf in) {
+			BatchSendMessageToBrokerResponseDTO batchResponseDTO = new BatchSendMessageToBrokerResponseDTO();
+			batchResponseDTO.setMsgId(readString(in));
+			int size = in.readInt();
+			List<SendMessageToBrokerResponseDTO> responseDTOList = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				responseDTOList.add(SEND_MESSAGE_RESPONSE_CODEC.decode(in));
+			}
+			batchResponseDTO.setResponseDTOList(responseDTOList);
+			return batchResponseDTO;
+		}
+	}
+
+	/**
+	 * 推送模式的确认消费和额度归还，格式：msgId + topic + consumeGroup + 队列消费位点映射 + 消息条数额度 + 字节数额度
+	 */
+	private static class ConsumeCreditReqDTOCodec implements BinaryCodec<ConsumeCreditReqDTO> {
+
+		@Override
+		public void encode(ConsumeCreditReqDTO consumeCreditReqDTO, ByteBuf out) {
+			writeString(out, consumeCreditReqDTO.getMsgId());
+			writeString(out, consumeCreditReqDTO.getTopic());
+			writeString(out, consumeCreditReqDTO.getConsumeGroup());
+			writeIntegerMap(out, consumeCreditReqDTO.getQueueCommitOffsetMap());
+			writeInteger(out, consumeCreditReqDTO.getCreditMsgCount());
+			writeInteger(out, consumeCreditReqDTO.getCreditBytes());
+		}
+
+		@Override
+		public ConsumeCreditReqDTO decode(ByteBuf in) {
+			ConsumeCreditReqDTO consumeCreditReqDTO = new ConsumeCreditReqDTO();
+			consumeCreditReqDTO.setMsgId(readString(in));
+			consumeCreditReqDTO.setTopic(readString(in));
+			consumeCreditReqDTO.setConsumeGroup(readString(in));
+			consumeCreditReqDTO.setQueueCommitOffsetMap(readIntegerMap(in));
+			consumeCreditReqDTO.setCreditMsgCount(readInteger(in));
+			consumeCreditReqDTO.setCreditBytes(readInteger(in));
+			return consumeCreditReqDTO;
+		}
+	}
+
+	/**
+	 * 提交消费位点，格式：msgId + topic + consumeGroup + 队列消费位点映射
+	 */
+	private static class ConsumeCommitOffsetReqDTOCodec implements BinaryCodec<ConsumeCommitOffsetReqDTO> {
+
+		@Override
+		public void encode(ConsumeCommitOffsetReqDTO consumeCommitOffsetReqDTO, ByteBuf out) {
+			writeString(out, consumeCommitOffsetReqDTO.getMsgId());
+			writeString(out, consumeCommitOffsetReqDTO.getTopic());
+			writeString(out, consumeCommitOffsetReqDTO.getConsumeGroup());
+			writeIntegerMap(out, consumeCommitOffsetReqDTO.getQueueCommitOffsetMap());
+		}
+
+		@Override
+		public ConsumeCommitOffsetReqDTO decode(ByteBuf in) {
+			ConsumeCommitOffsetReqDTO consumeCommitOffsetReqDTO = new ConsumeCommitOffsetReqDTO();
+			consumeCommitOffsetReqDTO.setMsgId(readString(in));
+			consumeCommitOffsetReqDTO.setTopic(readString(in));
+			consumeCommitOffsetReqDTO.setConsumeGroup(readString(in));
+			consumeCommitOffsetReqDTO.setQueueCommitOffsetMap(readIntegerMap(in));
+			return consumeCommitOffsetReqDTO;
+		}
+	}
+
+	/**
+	 * 延迟消息存储同步，格式：msgId + 修改类型 + 桶 + 位置 + 发送方式 + 内容
+	 */
+	private static class DelayStoreSyncDTOCodec implements BinaryCodec<DelayStoreSyncDTO> {
+
+		@Override
+		public void encode(DelayStoreSyncDTO delayStoreSyncDTO, ByteBuf out) {
+			writeString(out, delayStoreSyncDTO.getMsgId());
+			out.writeInt(delayStoreSyncDTO.getSyncType());
+			out.writeLong(delayStoreSyncDTO.getBucket());
+			out.writeLong(delayStoreSyncDTO.getPosition());
+			out.writeInt(delayStoreSyncDTO.getSendWay());
+			writeBytes(out, delayStoreSyncDTO.getContent());
+		}
+
+		@Override
+		public DelayStoreSyncDTO decode(ByteBuf in) {
+			DelayStoreSyncDTO delayStoreSyncDTO = new DelayStoreSyncDTO();
+			delayStoreSyncDTO.setMsgId(readString(in));
+			delayStoreSyncDTO.setSyncType(in.readInt());
+			delayStoreSyncDTO.setBucket(in.readLong());
+			delayStoreSyncDTO.setPosition(in.readLong());
+			delayStoreSyncDTO.setSendWay(in.readInt());
+			delayStoreSyncDTO.setContent(readBytes(in));
+			return delayStoreSyncDTO;
+		}
+	}
+
+	/**
+	 * 拉取消息响应，格式和broker端直接发送映射内存时的格式一致
+	 *
+	 * @see ConsumeMsgRespCodec
+	 */
+	private static class ConsumeMsgBaseRespDTOCodec implements BinaryCodec<ConsumeMsgBaseRespDTO> {
+
+		@Override
+		public void encode(ConsumeMsgBaseRespDTO consumeMsgBaseRespDTO, ByteBuf out) {
+			ConsumeMsgRespCodec.encode(consumeMsgBaseRespDTO, out);
+		}
+
+		@Override
+		public ConsumeMsgBaseRespDTO decode(ByteBuf in) {
+			return ConsumeMsgRespCodec.decode(in);
+		}
+	}
+}
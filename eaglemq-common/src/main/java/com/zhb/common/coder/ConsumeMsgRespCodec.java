@@ -0,0 +1,155 @@
+package com.zhb.common.coder;
+
+import com.zhb.common.dto.ConsumeMsgBaseRespDTO;
+import com.zhb.common.dto.ConsumeMsgCommitLogDTO;
+import com.zhb.common.dto.ConsumeMsgRespDTO;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 拉取消息响应的二进制编解码
+ * 响应体格式：msgId长度(2) + msgId + 队列数量(4) + 每个队列[queueId(4) + 消息数量(4) + 每条消息[消息头 + 消息体]]
+ * 消息头格式：commitLogOffset(8) + commitLogSize(4) + retryTimes(4) + consumeQueueOffset(4) + 消息体长度(4)
+ * broker端只需要编码消息头，消息体直接引用commitLog的映射内存发送，不经过堆内存，也不需要base64编码
+ * 推送模式下broker主动推送的消息也使用这个格式，msgId的位置写入订阅id
+ * 格式中没有null的表示，为null的msgId、队列列表、消息列表和消息体解码后分别是空字符串、空列表和空数组
+ */
+public class ConsumeMsgRespCodec {
+
+	/**
+	 * 每条消息的消息头长度
+	 */
+	public static final int MSG_HEADER_SIZE = 8 + 4 + 4 + 4 + 4;
+
+	/**
+	 * 写入响应头
+	 *
+	 * @param out        输出缓冲区
+	 * @param msgId      请求id
+	 * @param queueCount 队列数量
+	 */
+	public static void writeRespHeader(ByteBuf out, String msgId, int queueCount) {
+		byte[] msgIdBytes = msgId == null ? new byte[0] : msgId.getBytes(StandardCharsets.UTF_8);
+		out.writeShort(msgIdBytes.length);
+		out.writeBytes(msgIdBytes);
+		out.writeInt(queueCount);
+	}
+
+	/**
+	 * 写入队列头
+	 *
+	 * @param out      输出缓冲区
+	 * @param queueId  队列id
+	 * @param msgCount 该队列返回的消息数量
+	 */
+	public static void writeQueueHeader(ByteBuf out, int queueId, int msgCount) {
+		out.writeInt(queueId);
+		out.writeInt(msgCount);
+	}
+
+	/**
+	 * 写入单条消息的消息头，消息体由调用方紧跟着写入
+	 *
+	 * @param out             输出缓冲区
+	 * @param commitLogOffset 消息的全局物理偏移量
+	 * @param commitLogSize   消息在commitLog中的总长度
+	 * @param retryTimes         重试次数
+	 * @param consumeQueueOffset 消息在consumeQueue中的位置
+	 * @param bodyLength         消息体长度
+	 */
+	public static void writeMsgHeader(ByteBuf out, long commitLogOffset, int commitLogSize, int retryTimes, int consumeQueueOffset, int bodyLength) {
+		out.writeLong(commitLogOffset);
+		out.writeInt(commitLogSize);
+		out.writeInt(retryTimes);
+		out.writeInt(consumeQueueOffset);
+		out.writeInt(bodyLength);
+	}
+
+	/**
+	 * 编码完整的响应，消息体会拷贝到输出缓冲区中，broker端发送时使用上面的分段写入方法
+	 *
+	 * @param consumeMsgBaseRespDTO 拉取消息响应
+	 * @param out                   输出缓冲区
+	 */
+	public static void encode(ConsumeMsgBaseRespDTO consumeMsgBaseRespDTO, ByteBuf out) {
+		List<ConsumeMsgRespDTO> consumeMsgRespDTOList = consumeMsgBaseRespDTO.getConsumeMsgRespDTOList();
+		int queueCount = consumeMsgRespDTOList == null ? 0 : consumeMsgRespDTOList.size();
+		writeRespHeader(out, consumeMsgBaseRespDTO.getMsgId(), queueCount);
+		for (int i = 0; i < queueCount; i++) {
+			ConsumeMsgRespDTO consumeMsgRespDTO = consumeMsgRespDTOList.get(i);
+			List<ConsumeMsgCommitLogDTO> commitLogContentList = consumeMsgRespDTO.getCommitLogContentList();
+			int msgCount = commitLogContentList == null ? 0 : commitLogContentList.size();
+			writeQueueHeader(out, consumeMsgRespDTO.getQueueId(), msgCount);
+			for (int j = 0; j < msgCount; j++) {
+				ConsumeMsgCommitLogDTO consumeMsgCommitLogDTO = commitLogContentList.get(j);
+				byte[] msgBody = consumeMsgCommitLogDTO.getBody() == null ? new byte[0] : consumeMsgCommitLogDTO.getBody();
+				writeMsgHeader(out, consumeMsgCommitLogDTO.getCommitLogOffset(), consumeMsgCommitLogDTO.getCommitLogSize(),
+					consumeMsgCommitLogDTO.getRetryTimes(), consumeMsgCommitLogDTO.getConsumeQueueOffset(), msgBody.length);
+				out.writeBytes(msgBody);
+			}
+		}
+	}
+
+	/**
+	 * 只解析响应中的msgId，用于匹配同步等待的请求
+	 *
+	 * @param body 响应体
+	 * @return 请求id
+	 */
+	public static String decodeMsgId(byte[] body) {
+		ByteBuffer byteBuffer = ByteBuffer.wrap(body);
+		int msgIdLength = byteBuffer.getShort() & 0xFFFF;
+		return new String(body, 2, msgIdLength, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * 解析完整的响应
+	 *
+	 * @param body 响应体
+	 * @return 拉取消息响应
+	 */
+	public static ConsumeMsgBaseRespDTO decode(byte[] body) {
+		return decode(Unpooled.wrappedBuffer(body));
+	}
+
+	/**
+	 * 解析完整的响应
+	 *
+	 * @param in 响应体
+	 * @return 拉取消息响应
+	 */
+	public static ConsumeMsgBaseRespDTO decode(ByteBuf in) {
+		ConsumeMsgBaseRespDTO consumeMsgBaseRespDTO = new ConsumeMsgBaseRespDTO();
+		int msgIdLength = in.readUnsignedShort();
+		consumeMsgBaseRespDTO.setMsgId(in.toString(in.readerIndex(), msgIdLength, StandardCharsets.UTF_8));
+		in.skipBytes(msgIdLength);
+		int queueCount = in.readInt();
+		List<ConsumeMsgRespDTO> consumeMsgRespDTOList = new ArrayList<>(queueCount);
+		for (int i = 0; i < queueCount; i++) {
+			ConsumeMsgRespDTO consumeMsgRespDTO = new ConsumeMsgRespDTO();
+			consumeMsgRespDTO.setQueueId(in.readInt());
+			int msgCount = in.readInt();
+			List<ConsumeMsgCommitLogDTO> commitLogContentList = new ArrayList<>(msgCount);
+			for (int j = 0; j < msgCount; j++) {
+				ConsumeMsgCommitLogDTO consumeMsgCommitLogDTO = new ConsumeMsgCommitLogDTO();
+				consumeMsgCommitLogDTO.setCommitLogOffset(in.readLong());
+				consumeMsgCommitLogDTO.setCommitLogSize(in.readInt());
+				consumeMsgCommitLogDTO.setRetryTimes(in.readInt());
+				consumeMsgCommitLogDTO.setConsumeQueueOffset(in.readInt());
+				byte[] msgBody = new byte[in.readInt()];
+				in.readBytes(msgBody);
+				consumeMsgCommitLogDTO.setBody(msgBody);
+				commitLogContentList.add(consumeMsgCommitLogDTO);
+			}
+			consumeMsgRespDTO.setCommitLogContentList(commitLogContentList);
+			consumeMsgRespDTOList.add(consumeMsgRespDTO);
+		}
+		consumeMsgBaseRespDTO.setConsumeMsgRespDTOList(consumeMsgRespDTOList);
+		return consumeMsgBaseRespDTO;
+	}
+}
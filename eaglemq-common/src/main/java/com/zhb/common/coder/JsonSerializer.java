@@ -0,0 +1,30 @@
+package com.zhb.common.coder;
+
+import com.alibaba.fastjson2.JSON;
+import com.zhb.common.enums.SerializeTypeEnum;
+
+/**
+ * json序列化，支持所有类型的对象
+ */
+public class JsonSerializer implements Serializer {
+
+	@Override
+	public byte getType() {
+		return SerializeTypeEnum.JSON.getCode();
+	}
+
+	@Override
+	public boolean support(Class<?> clazz) {
+		return true;
+	}
+
+	@Override
+	public byte[] serialize(Object obj) {
+		return JSON.toJSONBytes(obj);
+	}
+
+	@Override
+	public <T> T deserialize(byte[] bytes, Class<T> clazz) {
+		return JSON.parseObject(bytes, clazz);
+	}
+}
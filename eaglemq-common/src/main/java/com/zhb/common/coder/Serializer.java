@@ -0,0 +1,41 @@
+package com.zhb.common.coder;
+
+import com.zhb.common.enums.SerializeTypeEnum;
+
+/**
+ * 消息体序列化接口
+ * 内置json和二进制两种实现，也可以通过SPI（META-INF/services/com.zhb.common.coder.Serializer）扩展或者覆盖同类型的实现
+ */
+public interface Serializer {
+
+	/**
+	 * 序列化类型，会写入消息头
+	 *
+	 * @see SerializeTypeEnum
+	 */
+	byte getType();
+
+	/**
+	 * 是否支持序列化该类型的对象
+	 *
+	 * @param clazz 对象类型
+	 */
+	boolean support(Class<?> clazz);
+
+	/**
+	 * 序列化
+	 *
+	 * @param obj 对象
+	 * @return 序列化后的字节数组
+	 */
+	byte[] serialize(Object obj);
+
+	/**
+	 * 反序列化
+	 *
+	 * @param bytes 字节数组
+	 * @param clazz 对象类型
+	 * @return 对象
+	 */
+	<T> T deserialize(byte[] bytes, Class<T> clazz);
+}
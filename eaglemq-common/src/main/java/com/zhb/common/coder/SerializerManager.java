@@ -0,0 +1,79 @@
+package com.zhb.common.coder;
+
+import com.zhb.common.enums.SerializeTypeEnum;
+
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 序列化管理器
+ * 发送时优先使用二进制序列化，对象没有二进制编码时退化为json，序列化方式写入消息头；接收时按照消息头中的序列化方式反序列化
+ */
+public class SerializerManager {
+
+	private static Map<Byte, Serializer> serializerMap = new ConcurrentHashMap<>();
+
+	static {
+		putSerializer(new JsonSerializer());
+		putSerializer(new BinarySerializer());
+		//通过SPI加载的实现会覆盖同类型的内置实现
+		for (Serializer serializer : ServiceLoader.load(Serializer.class)) {
+			putSerializer(serializer);
+		}
+	}
+
+	public static void putSerializer(Serializer serializer) {
+		serializerMap.put(serializer.getType(), serializer);
+	}
+
+	public static Serializer getSerializer(byte serializeType) {
+		Serializer serializer = serializerMap.get(serializeType);
+		if (serializer == null) {
+			throw new IllegalArgumentException("serializer not found, serialize type is " + serializeType);
+		}
+		return serializer;
+	}
+
+	/**
+	 * 构建消息，对象支持二进制序列化时使用二进制，否则使用json
+	 *
+	 * @param code 请求或者响应code
+	 * @param obj  消息体对象
+	 * @return 消息
+	 */
+	public static TcpMsg encode(int code, Object obj) {
+		Serializer binarySerializer = getSerializer(SerializeTypeEnum.BINARY.getCode());
+		if (binarySerializer.support(obj.getClass())) {
+			return encode(code, obj, SerializeTypeEnum.BINARY);
+		}
+		return encode(code, obj, SerializeTypeEnum.JSON);
+	}
+
+	/**
+	 * 使用指定的序列化方式构建消息
+	 *
+	 * @param code          请求或者响应code
+	 * @param obj           消息体对象
+	 * @param serializeType 序列化方式
+	 * @return 消息
+	 */
+	public static TcpMsg encode(int code, Object obj, SerializeTypeEnum serializeType) {
+		byte[] body = getSerializer(serializeType.getCode()).serialize(obj);
+		return new TcpMsg(code, serializeType.getCode(), body);
+	}
+
+	/**
+	 * 按照消息头中的序列化方式解析消息体，解码器已经解析过的直接返回
+	 *
+	 * @param tcpMsg 消息
+	 * @param clazz  消息体类型
+	 * @return 消息体对象
+	 */
+	public static <T> T decode(TcpMsg tcpMsg, Class<T> clazz) {
+		if (clazz.isInstance(tcpMsg.getDecodedBody())) {
+			return clazz.cast(tcpMsg.getDecodedBody());
+		}
+		return getSerializer(tcpMsg.getSerializeType()).deserialize(tcpMsg.getBody(), clazz);
+	}
+}
@@ -1,6 +1,8 @@
 package com.zhb.common.coder;
 
 import com.zhb.common.constants.BrokerConstants;
+import com.zhb.common.enums.SerializeTypeEnum;
+import io.netty.buffer.ByteBuf;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -12,15 +14,48 @@ public class TcpMsg {
 	private short magic;
 	//表示请求包的具体含义
 	private int code;
+	/**
+	 * 消息体的序列化方式
+	 *
+	 * @see SerializeTypeEnum
+	 */
+	private byte serializeType;
+	//请求id，请求方生成，响应方原样带回，用于在连接上匹配响应，为0时表示不需要匹配
+	private int requestId;
 	//消息长度
 	private int len;
 	private byte[] body;
+	//直接发送的消息体，编码时不会拷贝，写出后由netty释放，只在发送端使用
+	private transient ByteBuf bodyBuf;
+	//解码器直接从网络缓冲区解析出的消息体对象，这时body为null，只在接收端使用
+	private transient Object decodedBody;
 
 	public TcpMsg(int code, byte[] body) {
+		this(code, SerializeTypeEnum.JSON.getCode(), body);
+	}
+
+	public TcpMsg(int code, byte serializeType, byte[] body) {
 		this.magic = BrokerConstants.DEFAULT_MAGIC_NUM;
 		this.code = code;
+		this.serializeType = serializeType;
 		this.body = body;
 		this.len = body.length;
 	}
 
+	public TcpMsg(int code, byte serializeType, int len, Object decodedBody) {
+		this.magic = BrokerConstants.DEFAULT_MAGIC_NUM;
+		this.code = code;
+		this.serializeType = serializeType;
+		this.decodedBody = decodedBody;
+		this.len = len;
+	}
+
+	public TcpMsg(int code, byte serializeType, ByteBuf bodyBuf) {
+		this.magic = BrokerConstants.DEFAULT_MAGIC_NUM;
+		this.code = code;
+		this.serializeType = serializeType;
+		this.bodyBuf = bodyBuf;
+		this.len = bodyBuf.readableBytes();
+	}
+
 }
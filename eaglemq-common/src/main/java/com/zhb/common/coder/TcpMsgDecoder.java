@@ -1,36 +1,93 @@
 package com.zhb.common.coder;
 
 import com.zhb.common.constants.BrokerConstants;
+import com.zhb.common.constants.TcpConstants;
+import com.zhb.common.enums.SerializeTypeEnum;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 
-import java.util.List;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * 解码器
+ * 基于消息头中的长度字段拆包：魔数(2) + code(4) + 序列化方式(1) + 请求id(4) + 消息长度(4) + 消息体
+ * 高频消息的二进制消息体直接从拆出的帧中解析成对象，其他消息拷贝成byte[]
  */
-public class TcpMsgDecoder extends ByteToMessageDecoder {
+public class TcpMsgDecoder extends LengthFieldBasedFrameDecoder {
 
+	/**
+	 * 长度字段在消息头中的偏移量
+	 */
+	private static final int LENGTH_FIELD_OFFSET = 2 + 4 + 1 + 4;
+	/**
+	 * 长度字段的字节数
+	 */
+	private static final int LENGTH_FIELD_LENGTH = 4;
+
+	/**
+	 * 直接从网络缓冲区解析的消息code和消息体类型，其他消息依然拷贝成byte[]由业务线程按需解析
+	 */
+	private final Map<Integer, Class<?>> bodyTypeMap;
+
+	public TcpMsgDecoder() {
+		this(TcpConstants.DEFAULT_MAX_FRAME_SIZE_MB);
+	}
+
+	/**
+	 * @param maxFrameSizeMb 单个消息的最大长度，单位MB
+	 */
+	public TcpMsgDecoder(int maxFrameSizeMb) {
+		this(maxFrameSizeMb, Collections.emptyMap());
+	}
+
+	/**
+	 * @param maxFrameSizeMb 单个消息的最大长度，单位MB
+	 * @param bodyTypeMap    二进制消息体直接解析成对象的消息code和类型
+	 * @see BinaryBodyTypes
+	 */
+	public TcpMsgDecoder(int maxFrameSizeMb, Map<Integer, Class<?>> bodyTypeMap) {
+		super(maxFrameSizeMb * 1024 * 1024, LENGTH_FIELD_OFFSET, LENGTH_FIELD_LENGTH, 0, 0);
+		this.bodyTypeMap = bodyTypeMap;
+	}
 
 	@Override
-	protected void decode(ChannelHandlerContext ctx, ByteBuf byteBuf, List<Object> in) throws Exception {
-		if (byteBuf.readableBytes() > 2 + 4 + 4) {
-			if (byteBuf.readShort() != BrokerConstants.DEFAULT_MAGIC_NUM) {
-				ctx.close();
-				return;
-			}
-			int code = byteBuf.readInt();
-			int len = byteBuf.readInt();
-			int readableByteLen = byteBuf.readableBytes();
-			if (readableByteLen > len) {
-				ctx.close();
-				return;
+	protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+		//先校验魔数，不合法的连接不需要等到整个消息到达
+		if (in.readableBytes() >= 2 && in.getShort(in.readerIndex()) != BrokerConstants.DEFAULT_MAGIC_NUM) {
+			in.skipBytes(in.readableBytes());
+			ctx.close();
+			return null;
+		}
+		ByteBuf frame = (ByteBuf) super.decode(ctx, in);
+		if (frame == null) {
+			return null;
+		}
+		try {
+			frame.skipBytes(2);
+			int code = frame.readInt();
+			byte serializeType = frame.readByte();
+			int requestId = frame.readInt();
+			int len = frame.readInt();
+			Class<?> bodyType = bodyTypeMap.get(code);
+			if (bodyType != null && serializeType == SerializeTypeEnum.BINARY.getCode()) {
+				Serializer serializer = SerializerManager.getSerializer(serializeType);
+				//通过SPI替换过的二进制实现不一定支持从缓冲区解析
+				if (serializer instanceof BinarySerializer) {
+					Object decodedBody = ((BinarySerializer) serializer).deserialize(frame.readSlice(len), bodyType);
+					TcpMsg tcpMsg = new TcpMsg(code, serializeType, len, decodedBody);
+					tcpMsg.setRequestId(requestId);
+					return tcpMsg;
+				}
 			}
 			byte[] body = new byte[len];
-			byteBuf.readBytes(body);
-			TcpMsg tcpMsg = new TcpMsg(code, body);
-			in.add(tcpMsg);
+			frame.readBytes(body);
+			TcpMsg tcpMsg = new TcpMsg(code, serializeType, body);
+			tcpMsg.setRequestId(requestId);
+			return tcpMsg;
+		} finally {
+			frame.release();
 		}
 	}
 }
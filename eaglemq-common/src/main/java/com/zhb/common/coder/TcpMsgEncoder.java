@@ -1,29 +1,31 @@
 package com.zhb.common.coder;
 
-import com.zhb.common.constants.TcpConstants;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.MessageToMessageEncoder;
+
+import java.util.List;
 
 /**
  * 编码器
+ * 消息头单独分配，消息体直接包装原有的byte[]或者ByteBuf，组合后一起写出，不再把消息体拷贝到新的缓冲区
  */
-public class TcpMsgEncoder extends MessageToByteEncoder<TcpMsg> {
+public class TcpMsgEncoder extends MessageToMessageEncoder<TcpMsg> {
 
 
 	@Override
-	protected void encode(ChannelHandlerContext channelHandlerContext, TcpMsg msg, ByteBuf out) throws Exception {
+	protected void encode(ChannelHandlerContext channelHandlerContext, TcpMsg msg, List<Object> out) throws Exception {
 		if (msg == null) {
 			throw new IllegalArgumentException("要编码的消息为空");
 		}
-		if (out == null) {
-			throw new IllegalArgumentException("ByteBuf为空");
-		}
-		out.writeShort(msg.getMagic());
-		out.writeInt(msg.getCode());
-		out.writeInt(msg.getLen());
-		out.writeBytes(msg.getBody());
-		// 写入默认解码字符字节
-		out.writeBytes(TcpConstants.DEFAULT_DECODE_CHAR.getBytes());
+		ByteBuf header = channelHandlerContext.alloc().buffer(2 + 4 + 1 + 4 + 4);
+		header.writeShort(msg.getMagic());
+		header.writeInt(msg.getCode());
+		header.writeByte(msg.getSerializeType());
+		header.writeInt(msg.getRequestId());
+		header.writeInt(msg.getLen());
+		ByteBuf body = msg.getBodyBuf() != null ? msg.getBodyBuf() : Unpooled.wrappedBuffer(msg.getBody());
+		out.add(Unpooled.wrappedBuffer(header, body));
 	}
 }
@@ -6,6 +6,7 @@ public class BrokerConstants {
 	public static final String EAGLE_MQ_HOME = "EAGLE_MQ_HOME";
 	public static final String BASE_COMMIT_PATH = "/commitlog/";
 	public static final String BASE_CONSUME_QUEUE_PATH = "/consumequeue/";
+	public static final String BASE_DELAY_STORE_PATH = "/delaystore/";
 	public static final String BROKER_PROPERTIES_PATH = "/config/broker.properties";
 	public static final String SPLIT = "/";
 	public static final Integer COMMIT_LOG_DEFAULT_MMAP_SIZE = 1 * 1024 * 1024; //1mb单位，方便讲解使用
@@ -14,4 +15,25 @@ public class BrokerConstants {
 	public static final Integer DEFAULT_REFRESH_CONSUME_QUEUE_OFFSET_TIME_STEP = 1;
 	public static final int CONSUME_QUEUE_EACH_MSG_SIZE = 16;
 	public static final short DEFAULT_MAGIC_NUM = 17671;
+	public static final int DEFAULT_FLUSH_INTERVAL_MILLS = 500;
+	public static final int DEFAULT_SYNC_FLUSH_TIMEOUT_MILLS = 5000;
+	public static final int GROUP_COMMIT_REQUEST_QUEUE_SIZE = 4096;
+	public static final int DISPATCH_BATCH_SIZE = 256;
+	public static final int OS_PAGE_SIZE = 4 * 1024;
+	public static final int ALLOCATE_MAPPED_FILE_TIMEOUT_MILLS = 5000;
+	public static final int DEFAULT_TRANSIENT_STORE_POOL_SIZE = 5;
+	public static final int DEFAULT_TRANSIENT_STORE_POOL_MEMORY_MB = 256; //写缓冲池最多占用的堆外内存，缓冲区数量不会超过这个上限能放下的数量
+	public static final int DEFAULT_COMMIT_INTERVAL_MILLS = 200;
+	public static final int PULL_REQUEST_HOLD_CHECK_INTERVAL_MILLS = 10;
+	public static final int MAX_PULL_SUSPEND_TIMEOUT_MILLS = 30000;
+	public static final int PULL_REQUEST_HOLD_NO_QUEUE_MILLS = 1000; //还没有分配到队列的拉取请求最多挂起1s，避免错过重平衡结果
+	public static final int PAUSED_QUEUE_OFFSET = -1; //拉取请求中表示该队列暂停拉取的位置
+	public static final int CONSUME_PUSH_CHECK_INTERVAL_MILLS = 1000; //推送服务定时检查所有订阅，感知重平衡后的队列变化
+	public static final int DEFAULT_EVENT_LANE_CAPACITY = 1024; //事件总线单个执行通道的积压上限，超过之后暂停读取连接
+	public static final int EVENT_BUS_STATS_INTERVAL_MILLS = 60000; //输出事件总线延迟统计的间隔
+	public static final int DEFAULT_TIME_WHEEL_TICK_MILLS = 10; //时间轮最底层每个槽的毫秒数
+	public static final int DEFAULT_TIME_WHEEL_DAY_SLOT_COUNT = 30; //天级时间轮的槽数量，更长的延迟会在天级时间轮上多转几圈
+	public static final int DELAY_STORE_BUCKET_MILLS = 60000; //延迟消息存储每个桶覆盖的时间跨度
+	public static final int DELAY_STORE_PRELOAD_MILLS = 120000; //延迟消息提前加载到时间轮的时间窗口
+	public static final int DELAY_STORE_LOAD_INTERVAL_MILLS = 1000; //检查需要加载的桶和异步刷盘的间隔
 }
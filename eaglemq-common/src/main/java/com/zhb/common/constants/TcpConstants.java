@@ -2,6 +2,19 @@ package com.zhb.common.constants;
 
 public class TcpConstants {
 
-	public static final String DEFAULT_DECODE_CHAR = "$_i0#Xsop1_$";
+	/**
+	 * 单个消息的默认最大长度，单位MB
+	 */
+	public static final int DEFAULT_MAX_FRAME_SIZE_MB = 16;
+
+	/**
+	 * 单个连接上默认最多同时等待响应的请求数量
+	 */
+	public static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 1024;
+
+	/**
+	 * 同步请求默认的等待超时时间，单位毫秒
+	 */
+	public static final long DEFAULT_SYNC_TIMEOUT_MILLIS = 3000;
 
 }
@@ -0,0 +1,25 @@
+package com.zhb.common.dto;
+
+import com.zhb.common.enums.MessageSendWay;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * 批量消息发送参数，同一批消息必须属于同一个topic，只支持普通消息
+ */
+@Setter
+@Getter
+public class BatchMessageDTO extends BaseBrokerRemoteDTO {
+
+	private String topic;
+	/**
+	 * 发送方式（同步/异步）
+	 *
+	 * @see MessageSendWay
+	 */
+	private int sendWay;
+	private List<MessageDTO> messageDTOList;
+
+}
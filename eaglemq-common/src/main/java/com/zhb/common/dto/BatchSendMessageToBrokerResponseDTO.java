@@ -0,0 +1,17 @@
+package com.zhb.common.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * 批量发送消息的响应，每条消息的结果和请求中的消息顺序一致
+ */
+@Setter
+@Getter
+public class BatchSendMessageToBrokerResponseDTO extends BaseBrokerRemoteDTO {
+
+	private List<SendMessageToBrokerResponseDTO> responseDTOList;
+
+}
@@ -0,0 +1,23 @@
+package com.zhb.common.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Map;
+
+/**
+ * 提交消费位点的DTO，消费者在本地合并多个队列的消费进度之后异步单向发送，broker不返回响应
+ * 位点是绝对位置，重复提交或者乱序到达都不会让消费进度回退
+ */
+@Setter
+@Getter
+public class ConsumeCommitOffsetReqDTO extends BaseBrokerRemoteDTO {
+
+	private String topic;
+	private String consumeGroup;
+	/**
+	 * 队列id和该队列已经消费完成的consumeQueue位置
+	 */
+	private Map<Integer, Integer> queueCommitOffsetMap;
+
+}
@@ -0,0 +1,31 @@
+package com.zhb.common.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Map;
+
+/**
+ * 推送模式下消费者确认消费并归还额度的DTO，单向发送，broker不返回响应
+ * msgId为订阅时的订阅id
+ */
+@Setter
+@Getter
+public class ConsumeCreditReqDTO extends BaseBrokerRemoteDTO {
+
+	private String topic;
+	private String consumeGroup;
+	/**
+	 * 队列id和该队列已经消费完成的位置，位置之前的消息（包括已经发送重试请求的消息）都已经处理完
+	 */
+	private Map<Integer, Integer> queueCommitOffsetMap;
+	/**
+	 * 归还的消息条数额度
+	 */
+	private Integer creditMsgCount;
+	/**
+	 * 归还的消息字节数额度
+	 */
+	private Integer creditBytes;
+
+}
@@ -17,4 +17,9 @@ public class ConsumeMsgCommitLogDTO {
 
     private int retryTimes;
 
+    /**
+     * 消息在consumeQueue中的位置，消费端按照这个位置维护本地缓存和确认位点
+     */
+    private int consumeQueueOffset;
+
 }
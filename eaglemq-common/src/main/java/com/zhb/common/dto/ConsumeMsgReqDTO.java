@@ -3,6 +3,8 @@ package com.zhb.common.dto;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.util.Map;
+
 /**
  * 消费端拉数据请求DTO
  */
@@ -15,5 +17,14 @@ public class ConsumeMsgReqDTO extends BaseBrokerRemoteDTO {
 	private String ip;
 	private Integer port;
 	private Integer batchSize;
+	/**
+	 * 没有消息时broker挂起请求的最长时间，为空或者不大于0时不挂起，立即返回空数据
+	 */
+	private Integer suspendTimeoutMills;
+	/**
+	 * 队列id和本次拉取的起始位置，消费端本地还有未确认的消息时从这个位置继续拉取，不会重复拉到已经在本地的消息；
+	 * 没有指定位置的队列从消费组的确认位点开始拉取，位置为PAUSED_QUEUE_OFFSET的队列本地缓存已满，本次不拉取
+	 */
+	private Map<Integer, Integer> queueOffsetMap;
 
 }
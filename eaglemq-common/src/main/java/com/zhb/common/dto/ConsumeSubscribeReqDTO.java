@@ -0,0 +1,34 @@
+package com.zhb.common.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 推送模式订阅请求DTO
+ * msgId作为订阅id，broker推送消息时写在响应头的msgId位置，消费者按照订阅id把消息交给对应的消费任务
+ */
+@Setter
+@Getter
+public class ConsumeSubscribeReqDTO extends BaseBrokerRemoteDTO {
+
+	private String topic;
+	private String consumeGroup;
+	/**
+	 * 消费者地址，broker按照连接的远端地址填充
+	 */
+	private String ip;
+	private Integer port;
+	/**
+	 * 每个队列单次推送的最大消息条数
+	 */
+	private Integer batchSize;
+	/**
+	 * 初始授予的消息条数额度
+	 */
+	private Integer creditMsgCount;
+	/**
+	 * 初始授予的消息字节数额度
+	 */
+	private Integer creditBytes;
+
+}
@@ -0,0 +1,21 @@
+package com.zhb.common.dto;
+
+import com.zhb.common.enums.AckStatus;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 推送模式订阅响应DTO
+ */
+@Setter
+@Getter
+public class ConsumeSubscribeRespDTO extends BaseBrokerRemoteDTO {
+
+	/**
+	 * 订阅是否成功
+	 *
+	 * @see AckStatus
+	 */
+	private int subscribeStatus;
+
+}
@@ -0,0 +1,33 @@
+package com.zhb.common.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 主节点同步给从节点的延迟消息存储修改，从节点把内容写到相同的桶和位置，两边的存储文件保持一致，主节点宕机之后从节点可以直接加载
+ */
+@Setter
+@Getter
+public class DelayStoreSyncDTO extends BaseBrokerRemoteDTO {
+
+	/**
+	 * @see com.zhb.common.enums.DelayStoreSyncTypeEnum
+	 */
+	private int syncType;
+	private long bucket;
+	/**
+	 * 记录在桶日志文件中的位置，墓碑直接追加到墓碑文件末尾，不需要位置
+	 */
+	private long position;
+	/**
+	 * 记录的完整内容，或者若干条墓碑
+	 */
+	private byte[] content;
+	/**
+	 * 同步发送时从节点写入之后返回确认
+	 *
+	 * @see com.zhb.common.enums.MessageSendWay
+	 */
+	private int sendWay;
+
+}
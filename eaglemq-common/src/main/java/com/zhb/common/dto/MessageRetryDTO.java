@@ -28,7 +28,7 @@ public class MessageRetryDTO {
     /**
      * 原始数据的commitlog地址
      */
-    private int sourceCommitLogOffset;
+    private long sourceCommitLogOffset;
 
     /**
      * 原始数据的commitlog长度
@@ -13,4 +13,9 @@ public class NodeAckDTO {
 
     private ChannelHandlerContext channelHandlerContext;
 
+    /**
+     * broker请求的请求id，复制完成后随响应带回
+     */
+    private int requestId;
+
 }
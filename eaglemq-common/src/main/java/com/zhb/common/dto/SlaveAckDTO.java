@@ -19,10 +19,15 @@ public class SlaveAckDTO {
 	 * broker连接主节点的channel
 	 */
 	private ChannelHandlerContext brokerChannel;
+	/**
+	 * broker请求的请求id，复制完成后随响应带回
+	 */
+	private int requestId;
 
-	public SlaveAckDTO(AtomicInteger needAckTime, ChannelHandlerContext brokerChannel) {
+	public SlaveAckDTO(AtomicInteger needAckTime, ChannelHandlerContext brokerChannel, int requestId) {
 		this.needAckTime = needAckTime;
 		this.brokerChannel = brokerChannel;
+		this.requestId = requestId;
 	}
 
 }
@@ -14,6 +14,11 @@ public enum BrokerEventCode {
 	CREATE_TOPIC(1004, "创建topic"),
 	START_SYNC_MSG(1005, "从节点开启同步"),
 	CONSUME_LATER_MSG(1006, "消息重试"),
+	PUSH_BATCH_MSG(1007, "批量推送消息"),
+	CONSUME_SUBSCRIBE(1008, "推送模式订阅消息"),
+	CONSUME_CREDIT(1009, "推送模式确认消费并归还额度"),
+	CONSUME_COMMIT_OFFSET(1010, "提交消费位点"),
+	DELAY_STORE_SYNC(1011, "同步延迟消息存储"),
 	;
 
 	private final int code;
@@ -16,6 +16,10 @@ public enum BrokerResponseCode {
     HALF_MSG_SEND_SUCCESS(2008,"half消息发送成功"),
     REMAIN_ACK_MSG_SEND_SUCCESS(2009,"剩余事务消息ack成功"),
     TX_CALLBACK_MSG(2010,"事务消息回调信号"),
+    SEND_BATCH_MSG_RESP(2011,"批量推送消息给broker，响应code"),
+    CONSUME_SUBSCRIBE_RESP(2012,"推送模式订阅，响应code"),
+    PUSH_CONSUME_MSG(2013,"推送模式下broker主动推送给消费者的消息"),
+    BROKER_BUSY(2014,"broker积压达到上限，请求被拒绝"),
     ;
 
     private final int code;
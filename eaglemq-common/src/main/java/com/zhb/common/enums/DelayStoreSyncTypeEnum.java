@@ -0,0 +1,26 @@
+package com.zhb.common.enums;
+
+import lombok.Getter;
+
+/**
+ * 主节点同步给从节点的延迟消息存储修改类型
+ */
+@Getter
+public enum DelayStoreSyncTypeEnum {
+
+	/**
+	 * 桶日志文件中新写入的一条记录
+	 */
+	RECORD(1),
+	/**
+	 * 桶墓碑文件中新追加的墓碑
+	 */
+	TOMBSTONE(2),
+	;
+
+	private final int code;
+
+	DelayStoreSyncTypeEnum(int code) {
+		this.code = code;
+	}
+}
@@ -0,0 +1,36 @@
+package com.zhb.common.enums;
+
+
+import lombok.Getter;
+
+/**
+ * commitLog刷盘策略
+ */
+@Getter
+public enum FlushDiskTypeEnum {
+
+	/**
+	 * 同步刷盘，写入请求会等待组提交线程将数据force到磁盘后才返回
+	 */
+	SYNC_FLUSH("SYNC_FLUSH"),
+	/**
+	 * 异步刷盘，由刷盘线程按固定间隔force到磁盘
+	 */
+	ASYNC_FLUSH("ASYNC_FLUSH"),
+	;
+
+	private String code;
+
+	FlushDiskTypeEnum(String code) {
+		this.code = code;
+	}
+
+	public static FlushDiskTypeEnum of(String code) {
+		for (FlushDiskTypeEnum flushDiskTypeEnum : FlushDiskTypeEnum.values()) {
+			if (flushDiskTypeEnum.getCode().equals(code)) {
+				return flushDiskTypeEnum;
+			}
+		}
+		return null;
+	}
+}
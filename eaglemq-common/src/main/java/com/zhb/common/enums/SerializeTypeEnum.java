@@ -0,0 +1,31 @@
+package com.zhb.common.enums;
+
+import lombok.Getter;
+
+/**
+ * 消息体的序列化方式，写在消息头中，接收方按照消息头选择反序列化方式
+ */
+@Getter
+public enum SerializeTypeEnum {
+
+	JSON((byte) 0, "json序列化，用于管理类请求和没有二进制编码的对象"),
+	BINARY((byte) 1, "二进制序列化，用于收发消息等高频请求"),
+	;
+
+	private final byte code;
+	private final String desc;
+
+	SerializeTypeEnum(byte code, String desc) {
+		this.code = code;
+		this.desc = desc;
+	}
+
+	public static SerializeTypeEnum of(byte code) {
+		for (SerializeTypeEnum serializeTypeEnum : SerializeTypeEnum.values()) {
+			if (serializeTypeEnum.getCode() == code) {
+				return serializeTypeEnum;
+			}
+		}
+		throw new IllegalArgumentException("unknown serialize type " + code);
+	}
+}
@@ -2,15 +2,22 @@ package com.zhb.common.event;
 
 import com.google.common.collect.Lists;
 import com.zhb.common.event.model.Event;
+import com.zhb.common.utils.LatencyHistogram;
 import com.zhb.common.utils.ReflectUtils;
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.FastThreadLocalThread;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.UUID;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -24,8 +31,9 @@ import java.util.concurrent.TimeUnit;
  * 1. 事件监听器的注册
  * 2. 事件的发布与处理
  * 3. 基于SPI机制自动加载监听器
- * 4. 使用线程池异步处理事件
+ * 4. 使用线程池异步处理事件，或者按照事件的分区key分配到固定的单线程执行通道，保证相同key的事件顺序执行
  */
+@Slf4j
 public class EventBus {
 
 	/**
@@ -35,6 +43,16 @@ public class EventBus {
 	 */
 	private Map<Class<? extends Event>, List<Listener>> eventListenerMap = new ConcurrentHashMap<>();
 
+	/**
+	 * 每种事件类型的执行方式，取所有监听器中最重的一种
+	 */
+	private Map<Class<? extends Event>, ExecutionHint> eventExecutionHintMap = new ConcurrentHashMap<>();
+
+	/**
+	 * 每种执行方式下从发布事件到监听器开始执行的延迟
+	 */
+	private Map<ExecutionHint, LatencyHistogram> handoffLatencyHistogramMap = newHandoffLatencyHistogramMap();
+
 	/**
 	 * 任务名称前缀
 	 * <p>
@@ -64,6 +82,32 @@ public class EventBus {
 		this.threadPoolExecutor = threadPoolExecutor;
 	}
 
+	/**
+	 * 构造函数
+	 * <p>
+	 * 使用分区执行通道初始化事件总线，事件按照{@link Event#getPartitionKey()}分配到固定的单线程通道，
+	 * 通道积压达到上限时暂停读取事件来源的连接、阻塞没有连接的发布线程，积压达到上限的两倍时拒绝任务。
+	 *
+	 * @param taskName     任务名称前缀
+	 * @param laneCount    执行通道数量
+	 * @param laneCapacity 单个通道的积压上限
+	 */
+	public EventBus(String taskName, int laneCount, int laneCapacity) {
+		if (laneCount <= 0 || laneCapacity <= 1) {
+			throw new IllegalArgumentException("laneCount must be positive and laneCapacity must be greater than 1");
+		}
+		this.taskName = taskName;
+		this.eventLanes = new EventLane[laneCount];
+		for (int i = 0; i < laneCount; i++) {
+			this.eventLanes[i] = new EventLane(taskName + "lane-" + i, laneCapacity);
+		}
+	}
+
+	/**
+	 * 分区执行通道，为null时使用线程池
+	 */
+	private EventLane[] eventLanes;
+
 	/**
 	 * 线程池执行器
 	 * <p>
@@ -118,18 +162,26 @@ public class EventBus {
 			listeners.add(listener);
 			eventListenerMap.put(clazz, listeners);
 		}
+		ExecutionHint executionHint = listener.getExecutionHint();
+		eventExecutionHintMap.merge(clazz, executionHint, (oldHint, newHint) -> oldHint.compareTo(newHint) >= 0 ? oldHint : newHint);
 	}
 
 	/**
 	 * 发布事件
 	 * <p>
-	 * 将事件发布到所有注册的监听器，并使用线程池异步执行监听器的处理逻辑。
+	 * 将事件发布到所有注册的监听器，按照监听器的执行方式在当前线程、执行通道或者线程池中执行。
+	 * 网络线程和执行通道线程发布时不会阻塞，执行通道积压达到硬上限或者线程池已满时返回false，由调用方给请求方返回失败响应。
 	 *
 	 * @param event 要发布的事件
+	 * @return 事件是否被接收
 	 */
-	public void publish(Event event) {
+	public boolean publish(Event event) {
 		List<Listener> listeners = eventListenerMap.get(event.getClass());
-		threadPoolExecutor.execute(() -> {
+		ExecutionHint executionHint = eventExecutionHintMap.getOrDefault(event.getClass(), ExecutionHint.LANE);
+		LatencyHistogram handoffLatencyHistogram = handoffLatencyHistogramMap.get(executionHint);
+		long publishNanos = System.nanoTime();
+		Runnable task = () -> {
+			handoffLatencyHistogram.record(System.nanoTime() - publishNanos);
 			try {
 				for (Listener listener : listeners) {
 					listener.onReceive(event);
@@ -137,6 +189,82 @@ public class EventBus {
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
-		});
+		};
+		if (executionHint == ExecutionHint.INLINE) {
+			task.run();
+			return true;
+		}
+		if (eventLanes != null && executionHint != ExecutionHint.BLOCKING) {
+			return this.selectLane(event.getPartitionKey()).execute(task, event.getChannel());
+		}
+		try {
+			threadPoolExecutor.execute(task);
+			return true;
+		} catch (RejectedExecutionException e) {
+			//线程池已满，阻塞的任务不能退回到执行通道，否则会卡住同一个通道上的其他事件
+			if (this.canRunInCaller(event)) {
+				task.run();
+				return true;
+			}
+			log.error("{} thread pool is full, reject event {} from {}", taskName, event.getClass().getSimpleName(), Thread.currentThread().getName());
+			return false;
+		}
+	}
+
+	/**
+	 * 线程池已满时是否可以在发布线程中直接执行
+	 * 网络线程和执行通道线程不能执行阻塞的任务，其他发布线程直接执行，起到反压的作用
+	 */
+	private boolean canRunInCaller(Event event) {
+		Channel channel = event.getChannel();
+		if (channel != null && channel.eventLoop().inEventLoop()) {
+			return false;
+		}
+		Thread currentThread = Thread.currentThread();
+		//netty的IO线程都是FastThreadLocalThread，没有连接的事件也可能在IO线程中发布
+		return !(currentThread instanceof FastThreadLocalThread) && !EventLane.isLaneThread(currentThread);
+	}
+
+	/**
+	 * 获取某种执行方式下从发布事件到监听器开始执行的延迟统计
+	 *
+	 * @param executionHint 执行方式
+	 * @return 延迟直方图
+	 */
+	public LatencyHistogram getHandoffLatencyHistogram(ExecutionHint executionHint) {
+		return handoffLatencyHistogramMap.get(executionHint);
+	}
+
+	private static Map<ExecutionHint, LatencyHistogram> newHandoffLatencyHistogramMap() {
+		Map<ExecutionHint, LatencyHistogram> handoffLatencyHistogramMap = new EnumMap<>(ExecutionHint.class);
+		for (ExecutionHint executionHint : ExecutionHint.values()) {
+			handoffLatencyHistogramMap.put(executionHint, new LatencyHistogram());
+		}
+		return handoffLatencyHistogramMap;
+	}
+
+	/**
+	 * 按照分区key选择执行通道
+	 */
+	private EventLane selectLane(Object partitionKey) {
+		if (partitionKey == null) {
+			return eventLanes[ThreadLocalRandom.current().nextInt(eventLanes.length)];
+		}
+		int hash = partitionKey.hashCode();
+		return eventLanes[Math.floorMod(hash ^ (hash >>> 16), eventLanes.length)];
+	}
+
+	/**
+	 * 各个执行通道当前积压的事件数量，使用线程池时返回空数组
+	 */
+	public int[] getLanePendingCounts() {
+		if (eventLanes == null) {
+			return new int[0];
+		}
+		int[] pendingCounts = new int[eventLanes.length];
+		for (int i = 0; i < eventLanes.length; i++) {
+			pendingCounts[i] = eventLanes[i].getPendingCount();
+		}
+		return pendingCounts;
 	}
 }
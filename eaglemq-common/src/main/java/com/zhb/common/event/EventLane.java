@@ -0,0 +1,169 @@
+package com.zhb.common.event;
+
+import io.netty.channel.Channel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 事件总线的单线程执行通道
+ * <p>
+ * 多个发布线程写入，一个线程按照写入顺序执行，相同key的事件总是进入同一个通道，所以它们的执行顺序和发布顺序一致。
+ * 积压的任务达到高水位之后开始反压：来自网络连接的事件依然放入队列，同时关闭该连接的autoRead，
+ * 网络线程最多再投递一次读取中已经解码的消息；没有连接的发布线程则阻塞等待。
+ * 积压降到低水位之后恢复被暂停的连接并唤醒阻塞的发布线程。
+ * <p>
+ * 队列本身有硬上限（高水位的两倍），多出的一半留给暂停连接之前已经解码的消息和通道线程发布的事件。
+ * 没有连接的发布线程即使在水位检查之后并发写入也会阻塞在硬上限上；网络线程和任何一个通道的线程都不能阻塞，
+ * 否则网络线程会卡住所有连接，通道之间互相投递时会互相等待形成死锁，所以它们超过硬上限时投递失败，由调用方处理。
+ */
+@Slf4j
+class EventLane {
+
+	private final LinkedBlockingQueue<Runnable> taskQueue;
+	private final int highWaterMark;
+	private final int lowWaterMark;
+	/**
+	 * 因为这个通道积压而被关闭autoRead的连接
+	 */
+	private final Set<Channel> pausedChannels = ConcurrentHashMap.newKeySet();
+	private final ReentrantLock notFullLock = new ReentrantLock();
+	private final Condition notFull = notFullLock.newCondition();
+	//阻塞等待的发布线程数量，只在notFullLock内修改
+	private volatile int waitingPublisherCount;
+	private final Thread workerThread;
+
+	EventLane(String threadName, int highWaterMark) {
+		this.highWaterMark = highWaterMark;
+		this.lowWaterMark = highWaterMark / 2;
+		this.taskQueue = new LinkedBlockingQueue<>(highWaterMark * 2);
+		this.workerThread = new LaneWorkerThread(this::runLoop, threadName);
+		this.workerThread.setDaemon(true);
+		this.workerThread.start();
+	}
+
+	/**
+	 * 投递任务
+	 *
+	 * @param task    任务
+	 * @param channel 事件来源的连接，没有时为null
+	 * @return 是否投递成功，连接或者通道线程投递时队列已经达到硬上限、没有连接的发布线程等待时被中断返回false
+	 */
+	boolean execute(Runnable task, Channel channel) {
+		if (channel == null && !isLaneThread(Thread.currentThread())) {
+			try {
+				this.awaitNotFull();
+				taskQueue.put(task);
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				log.error("{} interrupted while waiting for space, reject event from {}", workerThread.getName(), Thread.currentThread().getName());
+				return false;
+			}
+		}
+		if (!taskQueue.offer(task)) {
+			log.error("{} reach capacity {}, reject event from {}", workerThread.getName(), highWaterMark * 2,
+				channel == null ? Thread.currentThread().getName() : channel.remoteAddress());
+			return false;
+		}
+		if (channel == null) {
+			return true;
+		}
+		if (taskQueue.size() >= highWaterMark && channel.config().isAutoRead()) {
+			channel.config().setAutoRead(false);
+			pausedChannels.add(channel);
+			log.warn("{} is full, stop reading from {}", workerThread.getName(), channel.remoteAddress());
+			//暂停之前任务可能已经被处理完，这种情况下不会再有人恢复这个连接
+			if (taskQueue.size() <= lowWaterMark) {
+				this.resume();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 是否是执行通道的线程
+	 */
+	static boolean isLaneThread(Thread thread) {
+		return thread instanceof LaneWorkerThread;
+	}
+
+	/**
+	 * 当前积压的任务数量
+	 */
+	int getPendingCount() {
+		return taskQueue.size();
+	}
+
+	private void awaitNotFull() throws InterruptedException {
+		if (taskQueue.size() < highWaterMark) {
+			return;
+		}
+		notFullLock.lock();
+		waitingPublisherCount++;
+		try {
+			while (taskQueue.size() >= highWaterMark) {
+				//恢复信号可能在检查和等待之间发出，定时醒来重新检查
+				notFull.await(100, TimeUnit.MILLISECONDS);
+			}
+		} finally {
+			waitingPublisherCount--;
+			notFullLock.unlock();
+		}
+	}
+
+	private void runLoop() {
+		while (true) {
+			Runnable task;
+			try {
+				task = taskQueue.take();
+			} catch (InterruptedException e) {
+				log.error("{} interrupted", workerThread.getName());
+				return;
+			}
+			try {
+				task.run();
+			} catch (Throwable e) {
+				log.error("{} execute event error:", workerThread.getName(), e);
+			}
+			if (taskQueue.size() <= lowWaterMark) {
+				this.resume();
+			}
+		}
+	}
+
+	private void resume() {
+		if (!pausedChannels.isEmpty()) {
+			Iterator<Channel> iterator = pausedChannels.iterator();
+			while (iterator.hasNext()) {
+				Channel channel = iterator.next();
+				iterator.remove();
+				channel.config().setAutoRead(true);
+			}
+		}
+		if (waitingPublisherCount > 0) {
+			notFullLock.lock();
+			try {
+				notFull.signalAll();
+			} finally {
+				notFullLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * 通道线程的标记，通道线程向任何一个通道投递任务时都不能阻塞
+	 */
+	private static class LaneWorkerThread extends Thread {
+
+		private LaneWorkerThread(Runnable runnable, String name) {
+			super(runnable, name);
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package com.zhb.common.event;
+
+/**
+ * 监听器的执行方式提示，事件总线据此决定事件在哪个线程上处理
+ * 同一个事件有多个监听器时按照最重的方式执行，顺序为INLINE < LANE < BLOCKING
+ */
+public enum ExecutionHint {
+
+	/**
+	 * 在发布事件的线程上直接执行，通常是netty的io线程，只适合不会阻塞并且耗时很短的处理，例如更新内存中的位点
+	 */
+	INLINE,
+	/**
+	 * 交给事件总线的执行通道，相同分区key的事件按顺序执行，没有配置执行通道时使用线程池
+	 */
+	LANE,
+	/**
+	 * 交给线程池执行，用于可能阻塞的处理，例如创建文件，线程池满时由非网络、非执行通道的发布线程直接执行，否则拒绝
+	 */
+	BLOCKING
+}
@@ -11,4 +11,13 @@ public interface Listener<E extends Event> {
 	 * @param event
 	 */
 	void onReceive(E event) throws Exception;
+
+	/**
+	 * 执行方式提示，默认交给事件总线的执行通道
+	 *
+	 * @return 执行方式
+	 */
+	default ExecutionHint getExecutionHint() {
+		return ExecutionHint.LANE;
+	}
 }
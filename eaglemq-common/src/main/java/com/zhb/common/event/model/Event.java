@@ -1,5 +1,8 @@
 package com.zhb.common.event.model;
 
+import com.zhb.common.coder.TcpMsg;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import lombok.Getter;
 import lombok.Setter;
@@ -9,6 +12,35 @@ import lombok.Setter;
 public abstract class Event {
 
 	private String msgId;
+	//请求消息头中的请求id，返回响应时需要带回
+	private int requestId;
 	private ChannelHandlerContext channelHandlerContext;
 
+	/**
+	 * 给请求方返回响应，响应消息头中带回请求id，请求方依靠它匹配等待中的请求
+	 *
+	 * @param response 响应消息
+	 * @return 写出结果
+	 */
+	public ChannelFuture reply(TcpMsg response) {
+		response.setRequestId(requestId);
+		return channelHandlerContext.writeAndFlush(response);
+	}
+
+	/**
+	 * 事件总线按照这个key把事件分配到执行通道，key相同的事件按照发布顺序执行
+	 * 默认使用事件来源的连接，需要按照业务维度保证顺序的事件可以覆盖
+	 *
+	 * @return 分区key，为null时随机选择执行通道
+	 */
+	public Object getPartitionKey() {
+		return this.getChannel();
+	}
+
+	/**
+	 * 事件来源的连接，没有时返回null
+	 */
+	public Channel getChannel() {
+		return channelHandlerContext == null ? null : channelHandlerContext.channel();
+	}
 }
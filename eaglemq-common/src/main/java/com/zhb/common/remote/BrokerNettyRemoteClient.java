@@ -1,21 +1,18 @@
 package com.zhb.common.remote;
 
-import com.zhb.common.cache.BrokerServerSyncFutureManager;
+import com.zhb.common.coder.BinaryBodyTypes;
 import com.zhb.common.coder.TcpMsg;
 import com.zhb.common.coder.TcpMsgDecoder;
 import com.zhb.common.coder.TcpMsgEncoder;
 import com.zhb.common.constants.TcpConstants;
 import io.netty.bootstrap.Bootstrap;
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.DelimiterBasedFrameDecoder;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 对Broker进行远程连接的客户端
@@ -27,13 +24,22 @@ public class BrokerNettyRemoteClient {
 	private Integer port;
 
 	public BrokerNettyRemoteClient(String ip, Integer port) {
+		this(ip, port, TcpConstants.DEFAULT_MAX_IN_FLIGHT_REQUESTS);
+	}
+
+	/**
+	 * @param maxInFlightRequests 连接上最多同时等待响应的异步请求数量
+	 */
+	public BrokerNettyRemoteClient(String ip, Integer port, int maxInFlightRequests) {
 		this.ip = ip;
 		this.port = port;
+		this.inFlightRequestTable = new InFlightRequestTable(maxInFlightRequests);
 	}
 
 	private EventLoopGroup clientGroup = new NioEventLoopGroup();
 	private Bootstrap bootstrap = new Bootstrap();
 	private Channel channel;
+	private InFlightRequestTable inFlightRequestTable;
 
 	public boolean isChannelActive() {
 		return channel.isActive();
@@ -45,9 +51,7 @@ public class BrokerNettyRemoteClient {
 		bootstrap.handler(new ChannelInitializer<SocketChannel>() {
 			@Override
 			protected void initChannel(SocketChannel ch) throws Exception {
-				ByteBuf delimiter = Unpooled.copiedBuffer(TcpConstants.DEFAULT_DECODE_CHAR.getBytes());
-				ch.pipeline().addLast(new DelimiterBasedFrameDecoder(1024 * 8, delimiter));
-				ch.pipeline().addLast(new TcpMsgDecoder());
+				ch.pipeline().addLast(new TcpMsgDecoder(TcpConstants.DEFAULT_MAX_FRAME_SIZE_MB, BinaryBodyTypes.BROKER_BODY_TYPES));
 				ch.pipeline().addLast(new TcpMsgEncoder());
 				ch.pipeline().addLast(simpleChannelInboundHandler);
 			}
@@ -64,6 +68,7 @@ public class BrokerNettyRemoteClient {
 			});
 			//初始化建立长链接
 			channel = channelFuture.channel();
+			channel.attr(InFlightRequestTable.IN_FLIGHT_REQUEST_TABLE_KEY).set(inFlightRequestTable);
 		} catch (InterruptedException e) {
 			throw new RuntimeException(e);
 		}
@@ -79,17 +84,34 @@ public class BrokerNettyRemoteClient {
 		});
 	}
 
-	public TcpMsg sendSyncMsg(TcpMsg tcpMsg, String msgId) {
-		channel.writeAndFlush(tcpMsg);
-		SyncFuture syncFuture = new SyncFuture();
-		syncFuture.setMsgId(msgId);
-		BrokerServerSyncFutureManager.put(msgId, syncFuture);
-		try {
-			//可能在等待结果的时候，节点挂掉了
-			return (TcpMsg) syncFuture.get(3, TimeUnit.SECONDS);
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}
+	/**
+	 * 同步发送请求，按照消息头中的请求id匹配响应
+	 *
+	 * @param tcpMsg 请求消息
+	 * @return 响应消息
+	 * @throws RuntimeException 等待超时或者连接断开
+	 */
+	public TcpMsg sendSyncMsg(TcpMsg tcpMsg) {
+		return this.sendSyncMsg(tcpMsg, TcpConstants.DEFAULT_SYNC_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * 同步发送请求并指定超时时间，用于broker会挂起请求的场景，例如长轮询拉取消息
+	 *
+	 * @param tcpMsg        请求消息
+	 * @param timeoutMillis 超时时间
+	 * @return 响应消息
+	 * @throws RuntimeException 等待超时或者连接断开
+	 */
+	public TcpMsg sendSyncMsg(TcpMsg tcpMsg, long timeoutMillis) {
+		return inFlightRequestTable.sendSync(channel, tcpMsg, timeoutMillis);
+	}
+
+	/**
+	 * 连接上等待响应的请求数量
+	 */
+	public int getInFlightRequestCount() {
+		return inFlightRequestTable.getInFlightCount();
 	}
 
 	public String getBrokerReqId() {
@@ -99,4 +121,22 @@ public class BrokerNettyRemoteClient {
 	public void sendAsyncMsg(TcpMsg tcpMsg) {
 		channel.writeAndFlush(tcpMsg);
 	}
+
+	/**
+	 * 异步发送请求，不阻塞调用线程，收到对应请求id的响应之后完成返回的future
+	 *
+	 * @param tcpMsg        请求消息
+	 * @param timeoutMillis 超时时间
+	 * @return 响应消息
+	 */
+	public CompletableFuture<TcpMsg> sendAsyncRequest(TcpMsg tcpMsg, long timeoutMillis) {
+		return inFlightRequestTable.send(channel, tcpMsg, timeoutMillis);
+	}
+
+	/**
+	 * 异步发送，消息写入网络之后回调
+	 */
+	public void sendAsyncMsg(TcpMsg tcpMsg, ChannelFutureListener channelFutureListener) {
+		channel.writeAndFlush(tcpMsg).addListener(channelFutureListener);
+	}
 }
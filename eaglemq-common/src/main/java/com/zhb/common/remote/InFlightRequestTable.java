@@ -0,0 +1,241 @@
+package com.zhb.common.remote;
+
+import com.zhb.common.coder.TcpMsg;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.collection.IntObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单个连接上等待响应的请求表
+ * 请求发出前分配一个int类型的请求id写入消息头，对端在响应中原样带回，收到响应后按照请求id完成对应的CompletableFuture，不需要解析消息体
+ * 请求表使用int作为key的哈希表保存，不会产生装箱和字符串对象；超时的请求由全局共享的时间轮清理，
+ * 未完成的请求数量受窗口大小限制，窗口已满时发送方阻塞等待，起到背压的作用
+ */
+public class InFlightRequestTable {
+
+	/**
+	 * 请求表挂在channel的属性上，处理响应的handler通过channel找到对应的请求表
+	 */
+	public static final AttributeKey<InFlightRequestTable> IN_FLIGHT_REQUEST_TABLE_KEY = AttributeKey.valueOf("in-flight-request-table");
+
+	/**
+	 * 所有连接共享一个时间轮检查请求超时，tick为10ms
+	 */
+	private static final HashedWheelTimer TIMEOUT_TIMER = new HashedWheelTimer(runnable -> {
+		Thread thread = new Thread(runnable, "request-timeout-check-task");
+		thread.setDaemon(true);
+		return thread;
+	}, 10, TimeUnit.MILLISECONDS);
+
+	/**
+	 * 当前进程内所有连接上等待响应的请求总数
+	 */
+	private static final AtomicInteger TOTAL_IN_FLIGHT_COUNT = new AtomicInteger(0);
+
+	private final AtomicInteger requestIdGenerator = new AtomicInteger(0);
+	//由自身的对象锁保护，临界区只有一次哈希表操作
+	private final IntObjectHashMap<InFlightRequest> inFlightRequestMap = new IntObjectHashMap<>();
+	private final Semaphore inFlightWindow;
+
+	public InFlightRequestTable(int maxInFlightRequests) {
+		this.inFlightWindow = new Semaphore(maxInFlightRequests);
+	}
+
+	/**
+	 * 获取channel上的请求表，不存在时创建，用于服务端主动向对端发起请求的场景
+	 *
+	 * @param channel             连接
+	 * @param maxInFlightRequests 新建请求表时的窗口大小
+	 * @return 请求表
+	 */
+	public static InFlightRequestTable getOrCreate(Channel channel, int maxInFlightRequests) {
+		InFlightRequestTable inFlightRequestTable = channel.attr(IN_FLIGHT_REQUEST_TABLE_KEY).get();
+		if (inFlightRequestTable == null) {
+			InFlightRequestTable newTable = new InFlightRequestTable(maxInFlightRequests);
+			inFlightRequestTable = channel.attr(IN_FLIGHT_REQUEST_TABLE_KEY).setIfAbsent(newTable);
+			if (inFlightRequestTable == null) {
+				inFlightRequestTable = newTable;
+			}
+		}
+		return inFlightRequestTable;
+	}
+
+	/**
+	 * 使用响应完成channel上对应的请求
+	 *
+	 * @param channel  收到响应的连接
+	 * @param response 响应消息
+	 * @return 是否匹配到了等待中的请求，没有匹配到时由调用方继续按照响应code处理
+	 */
+	public static boolean completeResponse(Channel channel, TcpMsg response) {
+		if (response.getRequestId() == 0) {
+			return false;
+		}
+		InFlightRequestTable inFlightRequestTable = channel.attr(IN_FLIGHT_REQUEST_TABLE_KEY).get();
+		return inFlightRequestTable != null && inFlightRequestTable.complete(response);
+	}
+
+	/**
+	 * 连接断开时让channel上所有等待中的请求失败
+	 */
+	public static void failAll(Channel channel, Throwable cause) {
+		InFlightRequestTable inFlightRequestTable = channel.attr(IN_FLIGHT_REQUEST_TABLE_KEY).get();
+		if (inFlightRequestTable != null) {
+			inFlightRequestTable.failAll(cause);
+		}
+	}
+
+	/**
+	 * 当前进程内所有连接上等待响应的请求总数
+	 */
+	public static int getTotalInFlightCount() {
+		return TOTAL_IN_FLIGHT_COUNT.get();
+	}
+
+	/**
+	 * 发送请求，响应到达、超时或者写入失败时完成返回的future
+	 * 注意future在IO线程中完成，依赖它的回调不能有阻塞操作
+	 *
+	 * @param channel       连接
+	 * @param tcpMsg        请求消息，请求id会被覆盖，所以同一个TcpMsg对象不能同时发给多个连接
+	 * @param timeoutMillis 超时时间，同时也是等待窗口的最长时间
+	 * @return 响应消息
+	 */
+	public CompletableFuture<TcpMsg> send(Channel channel, TcpMsg tcpMsg, long timeoutMillis) {
+		CompletableFuture<TcpMsg> future = new CompletableFuture<>();
+		try {
+			if (!inFlightWindow.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				future.completeExceptionally(new TimeoutException("too many in-flight requests, wait window timeout"));
+				return future;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			future.completeExceptionally(e);
+			return future;
+		}
+		int requestId = this.nextRequestId();
+		InFlightRequest inFlightRequest = new InFlightRequest(future);
+		synchronized (this) {
+			inFlightRequestMap.put(requestId, inFlightRequest);
+		}
+		TOTAL_IN_FLIGHT_COUNT.incrementAndGet();
+		inFlightRequest.timeout = TIMEOUT_TIMER.newTimeout(timeout -> this.fail(requestId,
+			new TimeoutException("request timeout, requestId is " + requestId + ", code is " + tcpMsg.getCode())), timeoutMillis, TimeUnit.MILLISECONDS);
+		tcpMsg.setRequestId(requestId);
+		channel.writeAndFlush(tcpMsg).addListener(channelFuture -> {
+			if (!channelFuture.isSuccess()) {
+				this.fail(requestId, channelFuture.cause());
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * 同步发送请求，阻塞到响应到达
+	 *
+	 * @param channel       连接
+	 * @param tcpMsg        请求消息
+	 * @param timeoutMillis 超时时间
+	 * @return 响应消息
+	 * @throws RuntimeException 超时、连接断开或者写入失败
+	 */
+	public TcpMsg sendSync(Channel channel, TcpMsg tcpMsg, long timeoutMillis) {
+		try {
+			return this.send(channel, tcpMsg, timeoutMillis).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * 使用响应完成对应的请求
+	 *
+	 * @param response 响应消息
+	 * @return 是否匹配到了等待中的请求
+	 */
+	public boolean complete(TcpMsg response) {
+		InFlightRequest inFlightRequest = this.remove(response.getRequestId());
+		if (inFlightRequest == null) {
+			return false;
+		}
+		inFlightRequest.future.complete(response);
+		return true;
+	}
+
+	/**
+	 * 让所有等待中的请求失败
+	 */
+	public void failAll(Throwable cause) {
+		List<Integer> requestIdList;
+		synchronized (this) {
+			requestIdList = new ArrayList<>(inFlightRequestMap.keySet());
+		}
+		for (Integer requestId : requestIdList) {
+			this.fail(requestId, cause);
+		}
+	}
+
+	public synchronized int getInFlightCount() {
+		return inFlightRequestMap.size();
+	}
+
+	private void fail(int requestId, Throwable cause) {
+		InFlightRequest inFlightRequest = this.remove(requestId);
+		if (inFlightRequest != null) {
+			inFlightRequest.future.completeExceptionally(cause);
+		}
+	}
+
+	private InFlightRequest remove(int requestId) {
+		InFlightRequest inFlightRequest;
+		synchronized (this) {
+			inFlightRequest = inFlightRequestMap.remove(requestId);
+		}
+		if (inFlightRequest == null) {
+			return null;
+		}
+		//超时任务可能还没有被赋值，这时请求是在写入失败的回调中移除的，超时任务触发后找不到请求会直接忽略
+		Timeout timeout = inFlightRequest.timeout;
+		if (timeout != null) {
+			timeout.cancel();
+		}
+		TOTAL_IN_FLIGHT_COUNT.decrementAndGet();
+		inFlightWindow.release();
+		return inFlightRequest;
+	}
+
+	/**
+	 * 0表示不需要匹配响应，分配时跳过
+	 */
+	private int nextRequestId() {
+		int requestId = requestIdGenerator.incrementAndGet();
+		while (requestId == 0) {
+			requestId = requestIdGenerator.incrementAndGet();
+		}
+		return requestId;
+	}
+
+	private static class InFlightRequest {
+
+		private final CompletableFuture<TcpMsg> future;
+		private volatile Timeout timeout;
+
+		private InFlightRequest(CompletableFuture<TcpMsg> future) {
+			this.future = future;
+		}
+	}
+}
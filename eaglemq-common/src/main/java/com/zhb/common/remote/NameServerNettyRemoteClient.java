@@ -1,18 +1,14 @@
 package com.zhb.common.remote;
 
-import com.zhb.common.cache.NameServerSyncFutureManager;
 import com.zhb.common.coder.TcpMsg;
 import com.zhb.common.coder.TcpMsgDecoder;
 import com.zhb.common.coder.TcpMsgEncoder;
 import com.zhb.common.constants.TcpConstants;
 import io.netty.bootstrap.Bootstrap;
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.DelimiterBasedFrameDecoder;
 
 /**
  * 对nameserver进行远程访问的一个客户端工具
@@ -30,6 +26,7 @@ public class NameServerNettyRemoteClient {
 	private EventLoopGroup clientGroup = new NioEventLoopGroup();
 	private Bootstrap bootstrap = new Bootstrap();
 	private Channel channel;
+	private InFlightRequestTable inFlightRequestTable = new InFlightRequestTable(TcpConstants.DEFAULT_MAX_IN_FLIGHT_REQUESTS);
 
 	/**
 	 * 远程连接的初始化
@@ -40,8 +37,6 @@ public class NameServerNettyRemoteClient {
 		bootstrap.handler(new ChannelInitializer<SocketChannel>() {
 			@Override
 			protected void initChannel(SocketChannel ch) throws Exception {
-				ByteBuf delimiter = Unpooled.copiedBuffer(TcpConstants.DEFAULT_DECODE_CHAR.getBytes());
-				ch.pipeline().addLast(new DelimiterBasedFrameDecoder(1024 * 8, delimiter));
 				ch.pipeline().addLast(new TcpMsgDecoder());
 				ch.pipeline().addLast(new TcpMsgEncoder());
 				ch.pipeline().addLast(new NameServerRemoteRespHandler());
@@ -59,21 +54,27 @@ public class NameServerNettyRemoteClient {
 			});
 			//初始化建立长链接
 			channel = channelFuture.channel();
+			channel.attr(InFlightRequestTable.IN_FLIGHT_REQUEST_TABLE_KEY).set(inFlightRequestTable);
 		} catch (InterruptedException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
-	public TcpMsg sendSyncMsg(TcpMsg tcpMsg, String msgId) {
-		//future设计机制 jdk8里面有很多种，future，futuretask，CompletableFuture
-		channel.writeAndFlush(tcpMsg);
-		SyncFuture syncFuture = new SyncFuture();
-		syncFuture.setMsgId(msgId);
-		NameServerSyncFutureManager.put(msgId, syncFuture);
-		try {
-			return (TcpMsg) syncFuture.get();
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}
+	/**
+	 * 同步发送请求，按照消息头中的请求id匹配响应
+	 *
+	 * @param tcpMsg 请求消息
+	 * @return 响应消息
+	 * @throws RuntimeException 等待超时或者连接断开
+	 */
+	public TcpMsg sendSyncMsg(TcpMsg tcpMsg) {
+		return inFlightRequestTable.sendSync(channel, tcpMsg, TcpConstants.DEFAULT_SYNC_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * 连接上等待响应的请求数量
+	 */
+	public int getInFlightRequestCount() {
+		return inFlightRequestTable.getInFlightCount();
 	}
 }
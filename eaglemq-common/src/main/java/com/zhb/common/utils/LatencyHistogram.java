@@ -0,0 +1,79 @@
+package com.zhb.common.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 延迟直方图
+ * 按照纳秒值的二进制位数分桶，第i个桶记录[2^(i-1), 2^i)纳秒的样本，记录时只有一次原子自增，适合在热点路径上统计
+ * 百分位返回的是所在桶的上界，精度在两倍以内
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKET_COUNT = 64;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+	/**
+	 * 记录一个样本
+	 *
+	 * @param nanos 延迟，单位纳秒
+	 */
+	public void record(long nanos) {
+		buckets.incrementAndGet(nanos <= 0 ? 0 : BUCKET_COUNT - Long.numberOfLeadingZeros(nanos));
+	}
+
+	/**
+	 * 样本数量
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			count += buckets.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * 获取百分位延迟
+	 *
+	 * @param percentile 百分位，取值(0, 100]
+	 * @return 百分位所在桶的上界，单位纳秒，没有样本时为0
+	 */
+	public long getPercentileNanos(double percentile) {
+		long[] counts = new long[BUCKET_COUNT];
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(total * percentile / 100);
+		long accumulated = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			accumulated += counts[i];
+			if (accumulated >= target) {
+				return i == 0 ? 0 : (i >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << i);
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * 清空样本，用于按周期统计
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets.set(i, 0);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + this.getCount()
+			+ ", p50<=" + this.getPercentileNanos(50) / 1000 + "us"
+			+ ", p99<=" + this.getPercentileNanos(99) / 1000 + "us"
+			+ ", p999<=" + this.getPercentileNanos(99.9) / 1000 + "us";
+	}
+}
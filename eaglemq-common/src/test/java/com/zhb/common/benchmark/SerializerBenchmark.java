@@ -0,0 +1,156 @@
+package com.zhb.common.benchmark;
+
+import com.zhb.common.coder.Serializer;
+import com.zhb.common.coder.SerializerManager;
+import com.zhb.common.dto.ConsumeMsgAckReqDTO;
+import com.zhb.common.dto.ConsumeMsgBaseRespDTO;
+import com.zhb.common.dto.ConsumeMsgCommitLogDTO;
+import com.zhb.common.dto.ConsumeMsgReqDTO;
+import com.zhb.common.dto.ConsumeMsgRespDTO;
+import com.zhb.common.dto.MessageDTO;
+import com.zhb.common.dto.SendMessageToBrokerResponseDTO;
+import com.zhb.common.enums.SerializeTypeEnum;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 收发消息链路上高频对象的编解码耗时，对比二进制序列化和json，单位ns/op。
+ * 每个组合编码后的字节数在main方法中先打印一次，也会在每轮测试开始时输出
+ * <p>
+ * 运行方式：mvn -pl eaglemq-common test-compile 之后执行main方法，
+ * 或者 java -cp eaglemq-common/target/test-classes:{测试classpath} org.openjdk.jmh.Main SerializerBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializerBenchmark {
+
+	@Param({"BINARY", "JSON"})
+	public String serializeType;
+
+	@Param({"MessageDTO", "ConsumeMsgReqDTO", "ConsumeMsgAckReqDTO", "SendMessageToBrokerResponseDTO", "ConsumeMsgBaseRespDTO"})
+	public String dtoType;
+
+	private Serializer serializer;
+	private Object obj;
+	private Class<?> clazz;
+	private byte[] encoded;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		serializer = SerializerManager.getSerializer(SerializeTypeEnum.valueOf(serializeType).getCode());
+		obj = buildSample(dtoType);
+		clazz = obj.getClass();
+		encoded = serializer.serialize(obj);
+		System.out.println(dtoType + " " + serializeType + " encoded size: " + encoded.length + " bytes");
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		return serializer.serialize(obj);
+	}
+
+	@Benchmark
+	public Object decode() {
+		return serializer.deserialize(encoded, clazz);
+	}
+
+	/**
+	 * 和真实流量接近的样例对象，消息体为256字节
+	 */
+	private static Object buildSample(String dtoType) {
+		switch (dtoType) {
+			case "MessageDTO":
+				MessageDTO messageDTO = new MessageDTO();
+				messageDTO.setMsgId("7f8d6a1c-3b2e-4c5d-9e0f-123456789abc");
+				messageDTO.setTopic("order_topic");
+				messageDTO.setQueueId(3);
+				messageDTO.setProducerId("order-service-producer");
+				messageDTO.setBody(new byte[256]);
+				return messageDTO;
+			case "ConsumeMsgReqDTO":
+				ConsumeMsgReqDTO consumeMsgReqDTO = new ConsumeMsgReqDTO();
+				consumeMsgReqDTO.setMsgId("7f8d6a1c-3b2e-4c5d-9e0f-123456789abc");
+				consumeMsgReqDTO.setTopic("order_topic");
+				consumeMsgReqDTO.setConsumeGroup("order_group");
+				consumeMsgReqDTO.setIp("192.168.1.100");
+				consumeMsgReqDTO.setPort(9090);
+				consumeMsgReqDTO.setBatchSize(32);
+				consumeMsgReqDTO.setSuspendTimeoutMills(500);
+				Map<Integer, Integer> queueOffsetMap = new HashMap<>();
+				for (int i = 0; i < 4; i++) {
+					queueOffsetMap.put(i, 100000 + i);
+				}
+				consumeMsgReqDTO.setQueueOffsetMap(queueOffsetMap);
+				return consumeMsgReqDTO;
+			case "ConsumeMsgAckReqDTO":
+				ConsumeMsgAckReqDTO consumeMsgAckReqDTO = new ConsumeMsgAckReqDTO();
+				consumeMsgAckReqDTO.setMsgId("7f8d6a1c-3b2e-4c5d-9e0f-123456789abc");
+				consumeMsgAckReqDTO.setTopic("order_topic");
+				consumeMsgAckReqDTO.setConsumeGroup("order_group");
+				consumeMsgAckReqDTO.setQueueId(3);
+				consumeMsgAckReqDTO.setAckCount(32);
+				consumeMsgAckReqDTO.setIp("192.168.1.100");
+				consumeMsgAckReqDTO.setPort(9090);
+				return consumeMsgAckReqDTO;
+			case "SendMessageToBrokerResponseDTO":
+				SendMessageToBrokerResponseDTO sendMessageToBrokerResponseDTO = new SendMessageToBrokerResponseDTO();
+				sendMessageToBrokerResponseDTO.setMsgId("7f8d6a1c-3b2e-4c5d-9e0f-123456789abc");
+				sendMessageToBrokerResponseDTO.setStatus(1);
+				return sendMessageToBrokerResponseDTO;
+			case "ConsumeMsgBaseRespDTO":
+				List<ConsumeMsgCommitLogDTO> commitLogContentList = new ArrayList<>();
+				for (int i = 0; i < 32; i++) {
+					ConsumeMsgCommitLogDTO consumeMsgCommitLogDTO = new ConsumeMsgCommitLogDTO();
+					consumeMsgCommitLogDTO.setCommitLogOffset(1024L * 1024 + i * 306L);
+					consumeMsgCommitLogDTO.setCommitLogSize(306);
+					consumeMsgCommitLogDTO.setConsumeQueueOffset(i);
+					consumeMsgCommitLogDTO.setBody(new byte[256]);
+					commitLogContentList.add(consumeMsgCommitLogDTO);
+				}
+				ConsumeMsgRespDTO consumeMsgRespDTO = new ConsumeMsgRespDTO();
+				consumeMsgRespDTO.setQueueId(3);
+				consumeMsgRespDTO.setCommitLogContentList(commitLogContentList);
+				ConsumeMsgBaseRespDTO consumeMsgBaseRespDTO = new ConsumeMsgBaseRespDTO();
+				consumeMsgBaseRespDTO.setMsgId("7f8d6a1c-3b2e-4c5d-9e0f-123456789abc");
+				consumeMsgBaseRespDTO.setConsumeMsgRespDTOList(Collections.singletonList(consumeMsgRespDTO));
+				return consumeMsgBaseRespDTO;
+			default:
+				throw new IllegalArgumentException("unknown dto type " + dtoType);
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		for (String dtoType : new String[]{"MessageDTO", "ConsumeMsgReqDTO", "ConsumeMsgAckReqDTO", "SendMessageToBrokerResponseDTO", "ConsumeMsgBaseRespDTO"}) {
+			Object sample = buildSample(dtoType);
+			for (SerializeTypeEnum serializeTypeEnum : new SerializeTypeEnum[]{SerializeTypeEnum.BINARY, SerializeTypeEnum.JSON}) {
+				int size = SerializerManager.getSerializer(serializeTypeEnum.getCode()).serialize(sample).length;
+				System.out.println(dtoType + " " + serializeTypeEnum + " encoded size: " + size + " bytes");
+			}
+		}
+		new Runner(new OptionsBuilder().include(SerializerBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,271 @@
+package com.zhb.common.coder;
+
+import com.zhb.common.dto.ConsumeMsgAckReqDTO;
+import com.zhb.common.dto.ConsumeMsgBaseRespDTO;
+import com.zhb.common.dto.ConsumeMsgCommitLogDTO;
+import com.zhb.common.dto.ConsumeMsgReqDTO;
+import com.zhb.common.dto.ConsumeMsgRespDTO;
+import com.zhb.common.dto.DelayStoreSyncDTO;
+import com.zhb.common.dto.MessageDTO;
+import com.zhb.common.dto.SendMessageToBrokerResponseDTO;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 二进制序列化的往返测试，每种对象覆盖字段齐全、字段为null以及空集合的情况
+ */
+public class BinarySerializerTest {
+
+	private final BinarySerializer binarySerializer = new BinarySerializer();
+
+	@Test
+	public void messageDTO() {
+		MessageDTO messageDTO = new MessageDTO();
+		messageDTO.setMsgId("msg-1");
+		messageDTO.setTopic("order_topic");
+		messageDTO.setQueueId(7);
+		messageDTO.setSendWay(2);
+		messageDTO.setRetry(true);
+		messageDTO.setCurrentRetryTimes(3);
+		messageDTO.setDelay(60);
+		messageDTO.setProducerId("producer-中文");
+		messageDTO.setTxFlag(1);
+		messageDTO.setLocalTxState(2);
+		messageDTO.setBody(new byte[]{0, -1, 127, -128});
+
+		MessageDTO decoded = this.roundTrip(messageDTO, MessageDTO.class);
+
+		assertEquals("msg-1", decoded.getMsgId());
+		assertEquals("order_topic", decoded.getTopic());
+		assertEquals(7, decoded.getQueueId());
+		assertEquals(2, decoded.getSendWay());
+		assertTrue(decoded.isRetry());
+		assertEquals(3, decoded.getCurrentRetryTimes());
+		assertEquals(60, decoded.getDelay());
+		assertEquals("producer-中文", decoded.getProducerId());
+		assertEquals(1, decoded.getTxFlag());
+		assertEquals(2, decoded.getLocalTxState());
+		assertArrayEquals(new byte[]{0, -1, 127, -128}, decoded.getBody());
+	}
+
+	@Test
+	public void messageDTOWithNullFields() {
+		MessageDTO decoded = this.roundTrip(new MessageDTO(), MessageDTO.class);
+
+		assertNull(decoded.getMsgId());
+		assertNull(decoded.getTopic());
+		assertNull(decoded.getProducerId());
+		assertNull(decoded.getBody());
+		assertEquals(-1, decoded.getQueueId());
+		assertFalse(decoded.isRetry());
+		assertEquals(-1, decoded.getTxFlag());
+		assertEquals(-1, decoded.getLocalTxState());
+
+		MessageDTO emptyBodyMessageDTO = new MessageDTO();
+		emptyBodyMessageDTO.setTopic("");
+		emptyBodyMessageDTO.setBody(new byte[0]);
+		MessageDTO decodedEmptyBody = this.roundTrip(emptyBodyMessageDTO, MessageDTO.class);
+		assertEquals("", decodedEmptyBody.getTopic());
+		assertArrayEquals(new byte[0], decodedEmptyBody.getBody());
+	}
+
+	@Test
+	public void consumeMsgReqDTO() {
+		ConsumeMsgReqDTO consumeMsgReqDTO = new ConsumeMsgReqDTO();
+		consumeMsgReqDTO.setMsgId("pull-1");
+		consumeMsgReqDTO.setTopic("order_topic");
+		consumeMsgReqDTO.setConsumeGroup("order_group");
+		consumeMsgReqDTO.setIp("127.0.0.1");
+		consumeMsgReqDTO.setPort(9090);
+		consumeMsgReqDTO.setBatchSize(32);
+		consumeMsgReqDTO.setSuspendTimeoutMills(500);
+		Map<Integer, Integer> queueOffsetMap = new LinkedHashMap<>();
+		queueOffsetMap.put(0, 100);
+		queueOffsetMap.put(3, Integer.MAX_VALUE);
+		consumeMsgReqDTO.setQueueOffsetMap(queueOffsetMap);
+
+		ConsumeMsgReqDTO decoded = this.roundTrip(consumeMsgReqDTO, ConsumeMsgReqDTO.class);
+
+		assertEquals("pull-1", decoded.getMsgId());
+		assertEquals("order_topic", decoded.getTopic());
+		assertEquals("order_group", decoded.getConsumeGroup());
+		assertEquals("127.0.0.1", decoded.getIp());
+		assertEquals(Integer.valueOf(9090), decoded.getPort());
+		assertEquals(Integer.valueOf(32), decoded.getBatchSize());
+		assertEquals(Integer.valueOf(500), decoded.getSuspendTimeoutMills());
+		assertEquals(queueOffsetMap, decoded.getQueueOffsetMap());
+	}
+
+	@Test
+	public void consumeMsgReqDTOWithNullFieldsAndEmptyMap() {
+		ConsumeMsgReqDTO decoded = this.roundTrip(new ConsumeMsgReqDTO(), ConsumeMsgReqDTO.class);
+		assertNull(decoded.getMsgId());
+		assertNull(decoded.getTopic());
+		assertNull(decoded.getConsumeGroup());
+		assertNull(decoded.getIp());
+		assertNull(decoded.getPort());
+		assertNull(decoded.getBatchSize());
+		assertNull(decoded.getSuspendTimeoutMills());
+		assertNull(decoded.getQueueOffsetMap());
+
+		ConsumeMsgReqDTO emptyMapReqDTO = new ConsumeMsgReqDTO();
+		emptyMapReqDTO.setQueueOffsetMap(Collections.emptyMap());
+		assertEquals(Collections.emptyMap(), this.roundTrip(emptyMapReqDTO, ConsumeMsgReqDTO.class).getQueueOffsetMap());
+	}
+
+	@Test
+	public void consumeMsgAckReqDTO() {
+		ConsumeMsgAckReqDTO consumeMsgAckReqDTO = new ConsumeMsgAckReqDTO();
+		consumeMsgAckReqDTO.setMsgId("ack-1");
+		consumeMsgAckReqDTO.setTopic("order_topic");
+		consumeMsgAckReqDTO.setConsumeGroup("order_group");
+		consumeMsgAckReqDTO.setQueueId(2);
+		consumeMsgAckReqDTO.setAckCount(16);
+		consumeMsgAckReqDTO.setIp("10.0.0.8");
+		consumeMsgAckReqDTO.setPort(0);
+
+		ConsumeMsgAckReqDTO decoded = this.roundTrip(consumeMsgAckReqDTO, ConsumeMsgAckReqDTO.class);
+
+		assertEquals("ack-1", decoded.getMsgId());
+		assertEquals("order_topic", decoded.getTopic());
+		assertEquals("order_group", decoded.getConsumeGroup());
+		assertEquals(Integer.valueOf(2), decoded.getQueueId());
+		assertEquals(Integer.valueOf(16), decoded.getAckCount());
+		assertEquals("10.0.0.8", decoded.getIp());
+		assertEquals(Integer.valueOf(0), decoded.getPort());
+	}
+
+	@Test
+	public void consumeMsgAckReqDTOWithNullFields() {
+		ConsumeMsgAckReqDTO decoded = this.roundTrip(new ConsumeMsgAckReqDTO(), ConsumeMsgAckReqDTO.class);
+
+		assertNull(decoded.getMsgId());
+		assertNull(decoded.getTopic());
+		assertNull(decoded.getConsumeGroup());
+		assertNull(decoded.getQueueId());
+		assertNull(decoded.getAckCount());
+		assertNull(decoded.getIp());
+		assertNull(decoded.getPort());
+	}
+
+	@Test
+	public void sendMessageToBrokerResponseDTO() {
+		SendMessageToBrokerResponseDTO responseDTO = new SendMessageToBrokerResponseDTO();
+		responseDTO.setMsgId("msg-1");
+		responseDTO.setStatus(-2);
+		responseDTO.setDesc("commitLog写入失败");
+
+		SendMessageToBrokerResponseDTO decoded = this.roundTrip(responseDTO, SendMessageToBrokerResponseDTO.class);
+		assertEquals("msg-1", decoded.getMsgId());
+		assertEquals(-2, decoded.getStatus());
+		assertEquals("commitLog写入失败", decoded.getDesc());
+
+		SendMessageToBrokerResponseDTO decodedNull = this.roundTrip(new SendMessageToBrokerResponseDTO(), SendMessageToBrokerResponseDTO.class);
+		assertNull(decodedNull.getMsgId());
+		assertEquals(0, decodedNull.getStatus());
+		assertNull(decodedNull.getDesc());
+	}
+
+	@Test
+	public void consumeMsgBaseRespDTO() {
+		ConsumeMsgRespDTO queue0 = new ConsumeMsgRespDTO();
+		queue0.setQueueId(0);
+		queue0.setCommitLogContentList(Arrays.asList(this.commitLogDTO(0, new byte[]{1, 2, 3}), this.commitLogDTO(1, new byte[0])));
+		ConsumeMsgRespDTO queue1 = new ConsumeMsgRespDTO();
+		queue1.setQueueId(1);
+		queue1.setCommitLogContentList(new ArrayList<>());
+		ConsumeMsgBaseRespDTO consumeMsgBaseRespDTO = new ConsumeMsgBaseRespDTO();
+		consumeMsgBaseRespDTO.setMsgId("pull-1");
+		consumeMsgBaseRespDTO.setConsumeMsgRespDTOList(Arrays.asList(queue0, queue1));
+
+		ConsumeMsgBaseRespDTO decoded = this.roundTrip(consumeMsgBaseRespDTO, ConsumeMsgBaseRespDTO.class);
+
+		assertEquals("pull-1", decoded.getMsgId());
+		assertEquals(2, decoded.getConsumeMsgRespDTOList().size());
+		ConsumeMsgRespDTO decodedQueue0 = decoded.getConsumeMsgRespDTOList().get(0);
+		assertEquals(Integer.valueOf(0), decodedQueue0.getQueueId());
+		assertEquals(2, decodedQueue0.getCommitLogContentList().size());
+		ConsumeMsgCommitLogDTO decodedMsg = decodedQueue0.getCommitLogContentList().get(0);
+		assertEquals(1000L, decodedMsg.getCommitLogOffset());
+		assertEquals(53, decodedMsg.getCommitLogSize());
+		assertEquals(1, decodedMsg.getRetryTimes());
+		assertEquals(0, decodedMsg.getConsumeQueueOffset());
+		assertArrayEquals(new byte[]{1, 2, 3}, decodedMsg.getBody());
+		assertArrayEquals(new byte[0], decodedQueue0.getCommitLogContentList().get(1).getBody());
+		assertEquals(Integer.valueOf(1), decoded.getConsumeMsgRespDTOList().get(1).getQueueId());
+		assertTrue(decoded.getConsumeMsgRespDTOList().get(1).getCommitLogContentList().isEmpty());
+	}
+
+	@Test
+	public void consumeMsgBaseRespDTOWithNullFields() {
+		//格式中没有null的表示，解码后是空值
+		ConsumeMsgBaseRespDTO decoded = this.roundTrip(new ConsumeMsgBaseRespDTO(), ConsumeMsgBaseRespDTO.class);
+		assertEquals("", decoded.getMsgId());
+		assertTrue(decoded.getConsumeMsgRespDTOList().isEmpty());
+
+		ConsumeMsgRespDTO nullListQueue = new ConsumeMsgRespDTO();
+		nullListQueue.setQueueId(5);
+		ConsumeMsgBaseRespDTO consumeMsgBaseRespDTO = new ConsumeMsgBaseRespDTO();
+		consumeMsgBaseRespDTO.setConsumeMsgRespDTOList(Collections.singletonList(nullListQueue));
+		ConsumeMsgRespDTO decodedQueue = this.roundTrip(consumeMsgBaseRespDTO, ConsumeMsgBaseRespDTO.class).getConsumeMsgRespDTOList().get(0);
+		assertEquals(Integer.valueOf(5), decodedQueue.getQueueId());
+		assertTrue(decodedQueue.getCommitLogContentList().isEmpty());
+	}
+
+	@Test
+	public void delayStoreSyncDTO() {
+		DelayStoreSyncDTO delayStoreSyncDTO = new DelayStoreSyncDTO();
+		delayStoreSyncDTO.setMsgId("delay-1");
+		delayStoreSyncDTO.setSyncType(1);
+		delayStoreSyncDTO.setBucket(29_000_000L);
+		delayStoreSyncDTO.setPosition(1L << 33);
+		delayStoreSyncDTO.setSendWay(1);
+		delayStoreSyncDTO.setContent(new byte[]{1, 2, 3});
+
+		DelayStoreSyncDTO decoded = this.roundTrip(delayStoreSyncDTO, DelayStoreSyncDTO.class);
+		assertEquals("delay-1", decoded.getMsgId());
+		assertEquals(1, decoded.getSyncType());
+		assertEquals(29_000_000L, decoded.getBucket());
+		assertEquals(1L << 33, decoded.getPosition());
+		assertEquals(1, decoded.getSendWay());
+		assertArrayEquals(new byte[]{1, 2, 3}, decoded.getContent());
+
+		DelayStoreSyncDTO decodedNull = this.roundTrip(new DelayStoreSyncDTO(), DelayStoreSyncDTO.class);
+		assertNull(decodedNull.getMsgId());
+		assertNull(decodedNull.getContent());
+	}
+
+	private ConsumeMsgCommitLogDTO commitLogDTO(int consumeQueueOffset, byte[] body) {
+		ConsumeMsgCommitLogDTO consumeMsgCommitLogDTO = new ConsumeMsgCommitLogDTO();
+		consumeMsgCommitLogDTO.setCommitLogOffset(1000L + consumeQueueOffset * 100L);
+		consumeMsgCommitLogDTO.setCommitLogSize(50 + body.length);
+		consumeMsgCommitLogDTO.setRetryTimes(1);
+		consumeMsgCommitLogDTO.setConsumeQueueOffset(consumeQueueOffset);
+		consumeMsgCommitLogDTO.setBody(body);
+		return consumeMsgCommitLogDTO;
+	}
+
+	/**
+	 * 序列化后分别通过byte[]和网络缓冲区两种方式解析，结果应该一致，并且正好读完所有字节
+	 */
+	private <T> T roundTrip(T obj, Class<T> clazz) {
+		byte[] bytes = binarySerializer.serialize(obj);
+		ByteBuf in = Unpooled.wrappedBuffer(bytes);
+		binarySerializer.deserialize(in, clazz);
+		assertEquals(0, in.readableBytes());
+		return binarySerializer.deserialize(bytes, clazz);
+	}
+}
@@ -0,0 +1,82 @@
+package com.zhb.common.coder;
+
+import com.zhb.common.constants.TcpConstants;
+import com.zhb.common.dto.CreateTopicReqDTO;
+import com.zhb.common.dto.MessageDTO;
+import com.zhb.common.enums.BrokerEventCode;
+import com.zhb.common.enums.SerializeTypeEnum;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * 高频消息直接从网络缓冲区解析，其他消息依然拷贝成byte[]
+ */
+public class TcpMsgDecoderTest {
+
+	@Test
+	public void hotBinaryBodyIsDecodedFromFrame() {
+		MessageDTO messageDTO = new MessageDTO();
+		messageDTO.setTopic("order_topic");
+		messageDTO.setQueueId(3);
+		messageDTO.setBody(new byte[]{1, 2, 3, 4});
+		TcpMsg tcpMsg = SerializerManager.encode(BrokerEventCode.PUSH_MSG.getCode(), messageDTO);
+		tcpMsg.setRequestId(42);
+		ByteBuf frame = this.encode(tcpMsg);
+		EmbeddedChannel channel = new EmbeddedChannel(new TcpMsgDecoder(TcpConstants.DEFAULT_MAX_FRAME_SIZE_MB, BinaryBodyTypes.BROKER_BODY_TYPES));
+
+		//分两次到达，第一次只有半个消息
+		channel.writeInbound(frame.readRetainedSlice(frame.readableBytes() / 2));
+		assertNull(channel.readInbound());
+		channel.writeInbound(frame);
+		TcpMsg decoded = channel.readInbound();
+
+		assertNull(decoded.getBody());
+		assertEquals(42, decoded.getRequestId());
+		assertEquals(tcpMsg.getLen(), decoded.getLen());
+		MessageDTO decodedMessageDTO = SerializerManager.decode(decoded, MessageDTO.class);
+		assertSame(decoded.getDecodedBody(), decodedMessageDTO);
+		assertEquals("order_topic", decodedMessageDTO.getTopic());
+		assertEquals(3, decodedMessageDTO.getQueueId());
+		assertArrayEquals(new byte[]{1, 2, 3, 4}, decodedMessageDTO.getBody());
+		assertEquals(0, frame.refCnt());
+	}
+
+	@Test
+	public void otherBodiesAreCopied() {
+		CreateTopicReqDTO createTopicReqDTO = new CreateTopicReqDTO();
+		createTopicReqDTO.setTopic("json_topic");
+		MessageDTO messageDTO = new MessageDTO();
+		messageDTO.setTopic("json_msg_topic");
+		EmbeddedChannel channel = new EmbeddedChannel(new TcpMsgDecoder(TcpConstants.DEFAULT_MAX_FRAME_SIZE_MB, BinaryBodyTypes.BROKER_BODY_TYPES));
+
+		//没有二进制编码的类型，以及使用json发送的高频消息
+		channel.writeInbound(this.encode(SerializerManager.encode(BrokerEventCode.CREATE_TOPIC.getCode(), createTopicReqDTO)));
+		channel.writeInbound(this.encode(SerializerManager.encode(BrokerEventCode.PUSH_MSG.getCode(), messageDTO, SerializeTypeEnum.JSON)));
+		TcpMsg createTopicMsg = channel.readInbound();
+		TcpMsg jsonPushMsg = channel.readInbound();
+
+		assertNotNull(createTopicMsg.getBody());
+		assertNull(createTopicMsg.getDecodedBody());
+		assertEquals("json_topic", SerializerManager.decode(createTopicMsg, CreateTopicReqDTO.class).getTopic());
+		assertNotNull(jsonPushMsg.getBody());
+		assertEquals("json_msg_topic", SerializerManager.decode(jsonPushMsg, MessageDTO.class).getTopic());
+	}
+
+	private ByteBuf encode(TcpMsg tcpMsg) {
+		EmbeddedChannel encodeChannel = new EmbeddedChannel(new TcpMsgEncoder());
+		encodeChannel.writeOutbound(tcpMsg);
+		ByteBuf encoded = encodeChannel.readOutbound();
+		ByteBuf frame = Unpooled.buffer(encoded.readableBytes());
+		frame.writeBytes(encoded);
+		encoded.release();
+		return frame;
+	}
+}
@@ -0,0 +1,141 @@
+package com.zhb.common.event;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 执行通道的反压：没有连接的发布线程在高水位阻塞，连接被暂停读取，超过硬上限时拒绝，通道线程不会阻塞在任何通道上
+ */
+public class EventLaneTest {
+
+	private static final int HIGH_WATER_MARK = 8;
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@After
+	public void tearDown() {
+		release.countDown();
+	}
+
+	@Test
+	public void publisherWithoutChannelBlocksAtHighWaterMark() throws Exception {
+		EventLane eventLane = new EventLane("event-lane-block-task", HIGH_WATER_MARK);
+		this.blockWorker(eventLane);
+		for (int i = 0; i < HIGH_WATER_MARK; i++) {
+			eventLane.execute(() -> {
+			}, null);
+		}
+		CountDownLatch published = new CountDownLatch(1);
+		Thread publisher = new Thread(() -> {
+			eventLane.execute(() -> {
+			}, null);
+			published.countDown();
+		});
+		publisher.start();
+
+		assertFalse(published.await(300, TimeUnit.MILLISECONDS));
+		assertEquals(HIGH_WATER_MARK, eventLane.getPendingCount());
+		release.countDown();
+		assertTrue(published.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void channelIsPausedThenRejectedAtCapacity() throws Exception {
+		EventLane eventLane = new EventLane("event-lane-reject-task", HIGH_WATER_MARK);
+		this.blockWorker(eventLane);
+		EmbeddedChannel channel = new EmbeddedChannel();
+		for (int i = 0; i < HIGH_WATER_MARK; i++) {
+			eventLane.execute(() -> {
+			}, channel);
+		}
+		assertFalse(channel.config().isAutoRead());
+		//暂停读取之后已经解码的消息依然可以放入，直到硬上限
+		for (int i = HIGH_WATER_MARK; i < HIGH_WATER_MARK * 2; i++) {
+			eventLane.execute(() -> {
+			}, channel);
+		}
+		//网络线程不能阻塞也不能抛出异常，由调用方返回失败响应
+		assertFalse(eventLane.execute(() -> {
+		}, channel));
+		assertEquals(HIGH_WATER_MARK * 2, eventLane.getPendingCount());
+
+		release.countDown();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!channel.config().isAutoRead() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(channel.config().isAutoRead());
+	}
+
+	@Test
+	public void workerThreadIsRejectedInsteadOfBlockingItself() throws Exception {
+		EventLane eventLane = new EventLane("event-lane-self-task", HIGH_WATER_MARK);
+		AtomicInteger accepted = new AtomicInteger();
+		AtomicInteger rejected = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(1);
+		eventLane.execute(() -> {
+			for (int i = 0; i <= HIGH_WATER_MARK * 2; i++) {
+				if (eventLane.execute(() -> {
+				}, null)) {
+					accepted.incrementAndGet();
+				} else {
+					rejected.incrementAndGet();
+				}
+			}
+			done.countDown();
+		}, null);
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(HIGH_WATER_MARK * 2, accepted.get());
+		assertEquals(1, rejected.get());
+	}
+
+	@Test
+	public void workerThreadDoesNotBlockOnAnotherFullLane() throws Exception {
+		EventLane fullLane = new EventLane("event-lane-full-task", HIGH_WATER_MARK);
+		this.blockWorker(fullLane);
+		EmbeddedChannel channel = new EmbeddedChannel();
+		for (int i = 0; i < HIGH_WATER_MARK * 2; i++) {
+			assertTrue(fullLane.execute(() -> {
+			}, channel));
+		}
+		//两个通道互相投递时如果阻塞等待对方，会形成死锁
+		EventLane publishLane = new EventLane("event-lane-publish-task", HIGH_WATER_MARK);
+		AtomicReference<Boolean> result = new AtomicReference<>();
+		CountDownLatch done = new CountDownLatch(1);
+		publishLane.execute(() -> {
+			result.set(fullLane.execute(() -> {
+			}, null));
+			done.countDown();
+		}, null);
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertFalse(result.get());
+	}
+
+	/**
+	 * 让通道线程停在第一个任务上，之后投递的任务全部积压
+	 */
+	private void blockWorker(EventLane eventLane) throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		eventLane.execute(() -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, null);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+	}
+}
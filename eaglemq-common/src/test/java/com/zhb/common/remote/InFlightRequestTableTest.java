@@ -0,0 +1,113 @@
+package com.zhb.common.remote;
+
+import com.zhb.common.coder.TcpMsg;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 请求表：响应按照请求id匹配，和到达顺序无关；超时和响应都会释放窗口
+ */
+public class InFlightRequestTableTest {
+
+	private static final int CODE = 1001;
+
+	@Test
+	public void responsesCompleteRequestsOutOfOrder() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel();
+		InFlightRequestTable inFlightRequestTable = new InFlightRequestTable(8);
+		CompletableFuture<TcpMsg> first = inFlightRequestTable.send(channel, new TcpMsg(CODE, new byte[0]), 5000);
+		CompletableFuture<TcpMsg> second = inFlightRequestTable.send(channel, new TcpMsg(CODE, new byte[0]), 5000);
+		CompletableFuture<TcpMsg> third = inFlightRequestTable.send(channel, new TcpMsg(CODE, new byte[0]), 5000);
+		int firstId = ((TcpMsg) channel.readOutbound()).getRequestId();
+		int secondId = ((TcpMsg) channel.readOutbound()).getRequestId();
+		int thirdId = ((TcpMsg) channel.readOutbound()).getRequestId();
+		assertEquals(3, inFlightRequestTable.getInFlightCount());
+
+		TcpMsg thirdResponse = this.response(thirdId);
+		assertTrue(inFlightRequestTable.complete(thirdResponse));
+		assertSame(thirdResponse, third.get(1, TimeUnit.SECONDS));
+		assertFalse(first.isDone());
+		assertFalse(second.isDone());
+
+		TcpMsg firstResponse = this.response(firstId);
+		assertTrue(inFlightRequestTable.complete(firstResponse));
+		assertSame(firstResponse, first.get(1, TimeUnit.SECONDS));
+		TcpMsg secondResponse = this.response(secondId);
+		assertTrue(inFlightRequestTable.complete(secondResponse));
+		assertSame(secondResponse, second.get(1, TimeUnit.SECONDS));
+
+		//重复的响应和不需要匹配的响应都不会命中
+		assertFalse(inFlightRequestTable.complete(this.response(firstId)));
+		assertFalse(InFlightRequestTable.completeResponse(channel, this.response(0)));
+		assertEquals(0, inFlightRequestTable.getInFlightCount());
+	}
+
+	@Test
+	public void expiredRequestFailsAndLateResponseIsIgnored() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel();
+		InFlightRequestTable inFlightRequestTable = new InFlightRequestTable(8);
+		CompletableFuture<TcpMsg> future = inFlightRequestTable.send(channel, new TcpMsg(CODE, new byte[0]), 50);
+		int requestId = ((TcpMsg) channel.readOutbound()).getRequestId();
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("request should time out");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		assertEquals(0, inFlightRequestTable.getInFlightCount());
+		assertFalse(inFlightRequestTable.complete(this.response(requestId)));
+	}
+
+	@Test
+	public void windowIsReleasedByResponseAndTimeout() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel();
+		InFlightRequestTable inFlightRequestTable = new InFlightRequestTable(2);
+		inFlightRequestTable.send(channel, new TcpMsg(CODE, new byte[0]), 5000);
+		CompletableFuture<TcpMsg> expiring = inFlightRequestTable.send(channel, new TcpMsg(CODE, new byte[0]), 100);
+		int firstId = ((TcpMsg) channel.readOutbound()).getRequestId();
+
+		//窗口已满，等待窗口超时
+		CompletableFuture<TcpMsg> rejected = inFlightRequestTable.send(channel, new TcpMsg(CODE, new byte[0]), 20);
+		try {
+			rejected.get(1, TimeUnit.SECONDS);
+			fail("window is full");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		assertEquals(2, inFlightRequestTable.getInFlightCount());
+
+		//超时的请求归还窗口，等待中的发送方可以继续
+		CompletableFuture<TcpMsg> afterTimeout = inFlightRequestTable.send(channel, new TcpMsg(CODE, new byte[0]), 5000);
+		//窗口在完成future之前归还，这里等待超时回调执行完
+		assertTrue(expiring.handle((response, throwable) -> throwable).get(1, TimeUnit.SECONDS) instanceof TimeoutException);
+		assertFalse(afterTimeout.isDone());
+
+		//响应归还窗口
+		assertTrue(inFlightRequestTable.complete(this.response(firstId)));
+		CompletableFuture<TcpMsg> afterResponse = inFlightRequestTable.send(channel, new TcpMsg(CODE, new byte[0]), 20);
+		assertFalse(afterResponse.isDone());
+		assertEquals(2, inFlightRequestTable.getInFlightCount());
+
+		inFlightRequestTable.failAll(new IllegalStateException("channel closed"));
+		assertTrue(afterTimeout.isCompletedExceptionally());
+		assertTrue(afterResponse.isCompletedExceptionally());
+		assertEquals(0, inFlightRequestTable.getInFlightCount());
+	}
+
+	private TcpMsg response(int requestId) {
+		TcpMsg response = new TcpMsg(CODE, new byte[0]);
+		response.setRequestId(requestId);
+		return response;
+	}
+}
@@ -16,6 +16,8 @@ public class NameserverProperties {
 	private String nameserverPwd;
 	private Integer nameserverPort;
 	private String replicationMode;
+	//单个消息的最大长度，单位MB
+	private Integer maxFrameSizeMb;
 	private TraceReplicationProperties traceReplicationProperties;
 	private MasterSlaveReplicationProperties masterSlaveReplicationProperties;
 
@@ -2,18 +2,15 @@ package com.zhb.nameserver.core;
 
 import com.zhb.common.coder.TcpMsgDecoder;
 import com.zhb.common.coder.TcpMsgEncoder;
-import com.zhb.common.constants.TcpConstants;
 import com.zhb.common.event.EventBus;
+import com.zhb.nameserver.common.CommonCache;
 import com.zhb.nameserver.handler.TcpNettyServerHandler;
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.DelimiterBasedFrameDecoder;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -74,11 +71,8 @@ public class NameServerStarter {
 		bootstrap.childHandler(new ChannelInitializer<Channel>() {
 			@Override
 			protected void initChannel(Channel ch) throws Exception {
-				// 创建基于分隔符的解码器，用于处理TCP��包拆包
-				ByteBuf delimiter = Unpooled.copiedBuffer(TcpConstants.DEFAULT_DECODE_CHAR.getBytes());
-				ch.pipeline().addLast(new DelimiterBasedFrameDecoder(1024 * 8, delimiter));
-				// 添加自定义的TCP消息解码器
-				ch.pipeline().addLast(new TcpMsgDecoder());
+				// 添加自定义的TCP消息解码器，根据消息头中的长度字段处理TCP粘包拆包
+				ch.pipeline().addLast(new TcpMsgDecoder(CommonCache.getNameserverProperties().getMaxFrameSizeMb()));
 				// 添加自定义的TCP消息编码器
 				ch.pipeline().addLast(new TcpMsgEncoder());
 				// 添加业务逻辑处理器，并关联事件总线实现异步处理
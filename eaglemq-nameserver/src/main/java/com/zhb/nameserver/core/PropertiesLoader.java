@@ -1,6 +1,7 @@
 package com.zhb.nameserver.core;
 
 import com.zhb.common.constants.BrokerConstants;
+import com.zhb.common.constants.TcpConstants;
 import com.zhb.nameserver.common.CommonCache;
 import com.zhb.nameserver.common.MasterSlaveReplicationProperties;
 import com.zhb.nameserver.common.NameserverProperties;
@@ -50,6 +51,8 @@ public class PropertiesLoader {
 		nameserverProperties.setNameserverUser(getStr("nameserver.user"));
 		nameserverProperties.setNameserverPort(getInt("nameserver.port"));
 		nameserverProperties.setReplicationMode(getStrCanBeNull("nameserver.replication.mode"));
+		nameserverProperties.setMaxFrameSizeMb(Integer.valueOf(properties.getProperty("nameserver.max.frame.size.mb",
+			String.valueOf(TcpConstants.DEFAULT_MAX_FRAME_SIZE_MB))));
 
 		// 创建并配置环形复制(Trace)相关属性
 		TraceReplicationProperties traceReplicationProperties = new TraceReplicationProperties();
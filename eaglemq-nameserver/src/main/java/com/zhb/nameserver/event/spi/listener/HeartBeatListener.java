@@ -71,7 +71,7 @@ public class HeartBeatListener implements Listener<HeartBeatEvent> {
 			serviceRegistryRespDTO.setMsgId(event.getMsgId());
 			TcpMsg tcpMsg = new TcpMsg(NameServerResponseCode.ERROR_USER_OR_PASSWORD.getCode(),
 				JSON.toJSONBytes(serviceRegistryRespDTO));
-			channelHandlerContext.writeAndFlush(tcpMsg);
+			event.reply(tcpMsg);
 			channelHandlerContext.close();
 			throw new IllegalAccessException("error account to connected!");
 		}
@@ -92,7 +92,7 @@ public class HeartBeatListener implements Listener<HeartBeatEvent> {
 		// 构建心跳响应并回复客户端
 		HeartBeatDTO heartBeatDTO = new HeartBeatDTO();
 		heartBeatDTO.setMsgId(event.getMsgId());
-		channelHandlerContext.writeAndFlush(new TcpMsg(NameServerResponseCode.HEART_BEAT_SUCCESS.getCode(),
+		event.reply(new TcpMsg(NameServerResponseCode.HEART_BEAT_SUCCESS.getCode(),
 			JSON.toJSONBytes(heartBeatDTO)));
 
 		// 更新服务实例管理器中的实例心跳时时间
@@ -103,6 +103,7 @@ public class HeartBeatListener implements Listener<HeartBeatEvent> {
 		replicationMsgEvent.setServiceInstance(serviceInstance);
 		replicationMsgEvent.setMsgId(UUID.randomUUID().toString());
 		replicationMsgEvent.setChannelHandlerContext(event.getChannelHandlerContext());
+		replicationMsgEvent.setRequestId(event.getRequestId());
 		replicationMsgEvent.setType(ReplicationMsgTypeEnum.HEART_BEAT.getCode());
 		CommonCache.getReplicationMsgQueueManager().put(replicationMsgEvent);
 	}
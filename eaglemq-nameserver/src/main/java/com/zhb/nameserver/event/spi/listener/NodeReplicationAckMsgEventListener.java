@@ -73,12 +73,16 @@ public class NodeReplicationAckMsgEventListener implements Listener<NodeReplicat
 			// 根据消息类型，向Broker发送不同的成功响应
 			if (ReplicationMsgTypeEnum.REGISTRY.getCode() == event.getType()) {
 				// 处理服务注册复制完成的响应
-				brokerChannel.writeAndFlush(new TcpMsg(NameServerResponseCode.REGISTRY_SUCCESS.getCode(),
-					NameServerResponseCode.REGISTRY_SUCCESS.getDesc().getBytes()));
+				TcpMsg registrySuccessMsg = new TcpMsg(NameServerResponseCode.REGISTRY_SUCCESS.getCode(),
+					NameServerResponseCode.REGISTRY_SUCCESS.getDesc().getBytes());
+				registrySuccessMsg.setRequestId(nodeAckDTO.getRequestId());
+				brokerChannel.writeAndFlush(registrySuccessMsg);
 			} else if (ReplicationMsgTypeEnum.HEART_BEAT.getCode() == event.getType()) {
 				// 处理心跳复制完成的响应
-				brokerChannel.writeAndFlush(new TcpMsg(NameServerResponseCode.HEART_BEAT_SUCCESS.getCode(),
-					NameServerResponseCode.HEART_BEAT_SUCCESS.getDesc().getBytes()));
+				TcpMsg heartBeatSuccessMsg = new TcpMsg(NameServerResponseCode.HEART_BEAT_SUCCESS.getCode(),
+					NameServerResponseCode.HEART_BEAT_SUCCESS.getDesc().getBytes());
+				heartBeatSuccessMsg.setRequestId(nodeAckDTO.getRequestId());
+				brokerChannel.writeAndFlush(heartBeatSuccessMsg);
 			}
 		} else {
 			log.info("当前是中间节点，通知给上游节点ack回应");
@@ -109,7 +109,7 @@ public class PullBrokerIpListener implements Listener<PullBrokerIpEvent> {
 		pullBrokerIpRespDTO.setAddressList(addressList.stream().distinct().collect(Collectors.toList()));
 
 		// 将响应发送回客户端
-		event.getChannelHandlerContext().writeAndFlush(new TcpMsg(
+		event.reply(new TcpMsg(
 			NameServerResponseCode.PULL_BROKER_ADDRESS_SUCCESS.getCode(),
 			JSON.toJSONBytes(pullBrokerIpRespDTO)));
 	}
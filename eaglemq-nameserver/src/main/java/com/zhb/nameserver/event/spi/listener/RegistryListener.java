@@ -67,7 +67,7 @@ public class RegistryListener implements Listener<RegistryEvent> {
 			registryRespDTO.setMsgId(event.getMsgId());
 			TcpMsg tcpMsg = new TcpMsg(NameServerResponseCode.ERROR_USER_OR_PASSWORD.getCode(),
 				JSON.toJSONBytes(registryRespDTO));
-			channelHandlerContext.writeAndFlush(tcpMsg);
+			event.reply(tcpMsg);
 			channelHandlerContext.close();
 			throw new IllegalAccessException("error account to connected!");
 		}
@@ -96,7 +96,7 @@ public class RegistryListener implements Listener<RegistryEvent> {
 			serviceRegistryRespDTO.setMsgId(msgId);
 			TcpMsg tcpMsg = new TcpMsg(NameServerResponseCode.REGISTRY_SUCCESS.getCode(),
 				JSON.toJSONBytes(serviceRegistryRespDTO));
-			channelHandlerContext.writeAndFlush(tcpMsg);
+			event.reply(tcpMsg);
 			return;
 		}
 
@@ -105,6 +105,7 @@ public class RegistryListener implements Listener<RegistryEvent> {
 		replicationMsgEvent.setServiceInstance(serviceInstance);
 		replicationMsgEvent.setMsgId(UUID.randomUUID().toString());
 		replicationMsgEvent.setChannelHandlerContext(event.getChannelHandlerContext());
+		replicationMsgEvent.setRequestId(event.getRequestId());
 		replicationMsgEvent.setType(ReplicationMsgTypeEnum.REGISTRY.getCode());
 
 		// 添加到复制消息队列，等待专门的线程处理同步
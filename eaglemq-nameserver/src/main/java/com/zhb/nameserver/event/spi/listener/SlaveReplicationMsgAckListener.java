@@ -61,7 +61,9 @@ public class SlaveReplicationMsgAckListener implements Listener<SlaveReplication
 			// 从确认映射表中移除该消息的追踪对象，释放资源
 			CommonCache.getAckMap().remove(slaveAckMsgId);
 			// 向原始请求的broker发送注册成功响应，完成整个注册流程
-			slaveAckDTO.getBrokerChannel().writeAndFlush(new TcpMsg(NameServerResponseCode.REGISTRY_SUCCESS.getCode(), NameServerResponseCode.REGISTRY_SUCCESS.getDesc().getBytes()));
+			TcpMsg registrySuccessMsg = new TcpMsg(NameServerResponseCode.REGISTRY_SUCCESS.getCode(), NameServerResponseCode.REGISTRY_SUCCESS.getDesc().getBytes());
+			registrySuccessMsg.setRequestId(slaveAckDTO.getRequestId());
+			slaveAckDTO.getBrokerChannel().writeAndFlush(registrySuccessMsg);
 		}
 	}
 }
@@ -63,7 +63,7 @@ public class UnRegistryListener implements Listener<UnRegistryEvent> {
 		Object reqId = channelHandlerContext.attr(AttributeKey.valueOf("reqId")).get();
 		if (reqId == null) {
 			// 请求ID不存在，返回错误消息并关闭连接
-			channelHandlerContext.writeAndFlush(new TcpMsg(NameServerResponseCode.ERROR_USER_OR_PASSWORD.getCode(),
+			event.reply(new TcpMsg(NameServerResponseCode.ERROR_USER_OR_PASSWORD.getCode(),
 				NameServerResponseCode.ERROR_USER_OR_PASSWORD.getDesc().getBytes()));
 			channelHandlerContext.close();
 			throw new IllegalAccessException("error account to connected!");
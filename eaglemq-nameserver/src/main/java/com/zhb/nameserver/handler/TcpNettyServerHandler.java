@@ -110,6 +110,7 @@ public class TcpNettyServerHandler extends SimpleChannelInboundHandler {
 			event = pullBrokerIpEvent;
 		}
 		event.setChannelHandlerContext(channelHandlerContext);
+		event.setRequestId(tcpMsg.getRequestId());
 		eventBus.publish(event);
 	}
 
@@ -69,7 +69,9 @@ public class MasterReplicationMsgSendTask extends ReplicationTask {
 				int validSlaveChannelCount = channelHandlerContextMap.keySet().size();
 				if (replicationTypeEnum == MasterSlaveReplicationTypeEnum.ASYNC) {
 					this.sendMsgToSlave(replicationMsgEvent);
-					brokerChannel.writeAndFlush(new TcpMsg(NameServerResponseCode.REGISTRY_SUCCESS.getCode(), NameServerResponseCode.REGISTRY_SUCCESS.getDesc().getBytes()));
+					TcpMsg registrySuccessMsg = new TcpMsg(NameServerResponseCode.REGISTRY_SUCCESS.getCode(), NameServerResponseCode.REGISTRY_SUCCESS.getDesc().getBytes());
+					registrySuccessMsg.setRequestId(replicationMsgEvent.getRequestId());
+					brokerChannel.writeAndFlush(registrySuccessMsg);
 				} else if (replicationTypeEnum == MasterSlaveReplicationTypeEnum.SYNC) {
 					//需要接收到多少个ack的次数
 					this.inputMsgToAckMap(replicationMsgEvent, validSlaveChannelCount);
@@ -95,7 +97,8 @@ public class MasterReplicationMsgSendTask extends ReplicationTask {
 	 * @param needAckCount 需要接收的确认数量（同步模式为所有从节点数，半同步模式为从节点数的一半）
 	 */
 	private void inputMsgToAckMap(ReplicationMsgEvent replicationMsgEvent, int needAckCount) {
-		CommonCache.getAckMap().put(replicationMsgEvent.getMsgId(), new SlaveAckDTO(new AtomicInteger(needAckCount), replicationMsgEvent.getChannelHandlerContext()));
+		CommonCache.getAckMap().put(replicationMsgEvent.getMsgId(), new SlaveAckDTO(new AtomicInteger(needAckCount), replicationMsgEvent.getChannelHandlerContext(),
+			replicationMsgEvent.getRequestId()));
 	}
 
 	/**
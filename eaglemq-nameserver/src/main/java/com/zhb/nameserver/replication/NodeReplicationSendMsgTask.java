@@ -76,6 +76,7 @@ public class NodeReplicationSendMsgTask extends ReplicationTask {
 				NodeAckDTO nodeAckDTO = new NodeAckDTO();
 				//broker的连接通道，保存原始的请求通道，用于后续响应回调
 				nodeAckDTO.setChannelHandlerContext(replicationMsgEvent.getChannelHandlerContext());
+				nodeAckDTO.setRequestId(replicationMsgEvent.getRequestId());
 
 				// 将消息ID与确认对象的映射关系存入全局缓存，用于追踪消息处理状态
 				CommonCache.getNodeAckMap().put(replicationMsgEvent.getMsgId(), nodeAckDTO);